@@ -25,7 +25,9 @@ import com.jsonstore.exceptions.JSONStoreCloseAllException;
 import com.jsonstore.exceptions.JSONStoreDatabaseClosedException;
 import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
 import com.jsonstore.exceptions.JSONStoreDestroyFileError;
+import com.jsonstore.exceptions.JSONStoreException;
 import com.jsonstore.exceptions.JSONStoreFileAccessException;
+import com.jsonstore.exceptions.JSONStoreIndexException;
 import com.jsonstore.exceptions.JSONStoreInvalidPasswordException;
 import com.jsonstore.exceptions.JSONStoreInvalidSchemaException;
 import com.jsonstore.exceptions.JSONStoreMetadataRemovalFailure;
@@ -348,7 +350,7 @@ public class JSONStore {
             }
 
             try {
-                schema = new DatabaseSchema(collection.getName(), collection.getAllSearchFields());
+                schema = new DatabaseSchema(collection.getName(), collection.getAllSearchFields(), collection.getSearchFieldCollations(), collection.getComputedSearchFields());
             }
 
             catch (Throwable e) {
@@ -359,10 +361,33 @@ public class JSONStore {
                 throw jsException;
             }
 
+            try {
+                collection.validateIndexes(schema);
+            }
+
+            catch (JSONStoreIndexException e) {
+                String message = "Error when validating indexes.";
+                JSONStoreInvalidSchemaException jsException = new JSONStoreInvalidSchemaException(message, e);
+                logger.logTrace(message);
+                throw jsException;
+            }
+
             // Provision the database.
             boolean wasReopened = provisionDatabase(collection, schema, username, password, dropFirst, secureRandom, pbkdf2Iterations);
             collectionMap.put(collection.getName(), collection);
             collection.initialize(this, schema, wasReopened);
+
+            try {
+                collection.createDeclaredIndexes();
+                collection.createDeclaredViews();
+            }
+
+            catch (JSONStoreException e) {
+                String message = "Error when creating indexes and views.";
+                JSONStoreInvalidSchemaException jsException = new JSONStoreInvalidSchemaException(message, e);
+                logger.logTrace(message);
+                throw jsException;
+            }
         }
     }
 
@@ -636,6 +661,26 @@ public class JSONStore {
     }
 
 
+    /**
+     * Run maintenance on every open collection. Call this when the application is idle, such as
+     * from a scheduled background job.
+     *
+     * @throws JSONStoreIndexException
+     *             An index recommended by an index advisor could not be created.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed.
+     * @see JSONStoreCollection#runMaintenance()
+     */
+    public void runMaintenance() throws JSONStoreIndexException, JSONStoreDatabaseClosedException {
+        for (String collectionName : new ArrayList<String>(collectionMap.keySet())) {
+            JSONStoreCollection collection = getCollectionByName(collectionName);
+
+            if (collection != null) {
+                collection.runMaintenance();
+            }
+        }
+    }
+
     /**
      * Begin a new transaction. After starting the transaction, the following methods will not work until the transaction is
      * committed or rolled back: open, destroy, closeAll, and removeCollection.
@@ -31,6 +31,7 @@ public class JSONStoreAddOptions {
 	
 	private JSONObject additionalSearchFields;
 	private boolean markDirty;
+	private Long timeToLive;
 
 	public JSONStoreAddOptions() {
 		additionalSearchFields = new JSONObject();
@@ -185,6 +186,28 @@ public class JSONStoreAddOptions {
 		return markDirty;
 	}
 
+	/**
+	 * Set how long the documents that are added are kept, instead of the time to live of the
+	 * collection. The collection must have a time to live, set with JSONStoreCollection.setTimeToLive.
+	 * @param milliseconds
+	 *            The time after which the documents expire, in milliseconds.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the time is not positive.
+	 */
+	public void setTimeToLive(long milliseconds) throws IllegalArgumentException {
+		if (milliseconds <= 0) throw new IllegalArgumentException("Time to live must be positive.");
+		timeToLive = milliseconds;
+	}
+
+	/**
+	 * Get the time to live of the documents that are added.
+	 * @return The time to live in milliseconds, or null to use the time to live of the collection.
+	 * @see #setTimeToLive(long)
+	 */
+	public Long getTimeToLive() {
+		return timeToLive;
+	}
+
 	/**
 	 * @exclude Package private
 	 */
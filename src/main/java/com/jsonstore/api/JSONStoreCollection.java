@@ -15,6 +15,7 @@ package com.jsonstore.api;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.os.Build;
 
 import com.jsonstore.database.Database;
 import com.jsonstore.database.DatabaseAccessor;
@@ -22,8 +23,14 @@ import com.jsonstore.database.DatabaseConstants;
 import com.jsonstore.database.DatabaseManager;
 import com.jsonstore.database.DatabaseSchema;
 import com.jsonstore.database.QueryBuilder;
+import com.jsonstore.database.QueryBuilderFacet;
 import com.jsonstore.database.QueryBuilderSelect;
+import com.jsonstore.database.QueryBuilderView;
+import com.jsonstore.database.QueryBuilderWrite;
+import com.jsonstore.database.SearchFieldCollation;
 import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.database.SortDirection;
+import com.jsonstore.database.ValueList;
 import com.jsonstore.database.WritableDatabase;
 import com.jsonstore.exceptions.JSONStoreAddException;
 import com.jsonstore.exceptions.JSONStoreChangeException;
@@ -33,6 +40,7 @@ import com.jsonstore.exceptions.JSONStoreDirtyCheckException;
 import com.jsonstore.exceptions.JSONStoreException;
 import com.jsonstore.exceptions.JSONStoreFilterException;
 import com.jsonstore.exceptions.JSONStoreFindException;
+import com.jsonstore.exceptions.JSONStoreIndexException;
 import com.jsonstore.exceptions.JSONStoreInvalidSchemaException;
 import com.jsonstore.exceptions.JSONStoreMarkCleanException;
 import com.jsonstore.exceptions.JSONStoreRemoveCollectionException;
@@ -41,6 +49,7 @@ import com.jsonstore.exceptions.JSONStoreReplaceException;
 import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
 import com.jsonstore.jackson.JacksonSerializedJSONObject;
 import com.jsonstore.jackson.JsonOrgModule;
+import com.jsonstore.jackson.JsonPathExtractor;
 import com.jsonstore.util.JSONStoreLogger;
 import com.jsonstore.util.JSONStoreLogger.JSONStoreAnalyticsLogInstance;
 import com.jsonstore.util.JSONStoreUtil;
@@ -49,7 +58,10 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -59,6 +71,11 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class represents a single JSONStore collection. Operations on the collection can be done by using the API for this class.
@@ -66,17 +83,43 @@ import java.util.Map.Entry;
  */
 public class JSONStoreCollection {
     private static final int FIND_BY_ID_CHUNK_SIZE = 200;
+    private static final int VIEW_REFRESH_CHUNK_SIZE = 500;
+    private static final int EXPIRY_PURGE_BATCH_SIZE = 200;
+    private static final int EVICTION_CHUNK_SIZE = 500;
+    private static final String EXPIRY_INDEX = "expires"; //$NON-NLS-1$
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
     private String name;
     private Map<String, SearchFieldType> searchFields, additionalSearchFields;
+    private Map<String, SearchFieldCollation> searchFieldCollations;
+    private Map<String, JSONStoreComputedField> computedSearchFields;
+    private Map<String, JSONStoreIndex> indexes;
+    private Map<String, JSONStoreProjection> projections;
+    private Map<String, JSONStoreView> views;
+    private Long timeToLive;
+    private ScheduledExecutorService expiryPurge;
+    private int maximumDocumentCount;
+    private long maximumByteSize;
+    private final Object cappedTotalsLock = new Object();
+    private long cappedCount = -1;
+    private long cappedBytes = -1;
     private JSONStore initializedJSONStoreInstance;
     private boolean wasReopened;
     private DatabaseSchema schema;
+    private JSONStoreIndexAdvisor indexAdvisor;
+    private long slowQueryThreshold;
+    private int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+    private LinkedHashMap<String, String> statementCache = new LinkedHashMap<String, String>(16, 0.75f, true);
     private JSONStoreLogger logger = JSONStoreUtil.getCoreLogger();
 
     public JSONStoreCollection(String name) throws JSONStoreInvalidSchemaException {
 
         this.searchFields = new HashMap<String, SearchFieldType>();
         this.additionalSearchFields = new HashMap<String, SearchFieldType>();
+        this.searchFieldCollations = new HashMap<String, SearchFieldCollation>();
+        this.computedSearchFields = new HashMap<String, JSONStoreComputedField>();
+        this.indexes = new LinkedHashMap<String, JSONStoreIndex>();
+        this.projections = new LinkedHashMap<String, JSONStoreProjection>();
+        this.views = new LinkedHashMap<String, JSONStoreView>();
 
         if(name == null || name.isEmpty()) {
             String message = "Error when creating the collection. Collection name cannot be null.";
@@ -93,13 +136,132 @@ public class JSONStoreCollection {
     private Cursor runQuery(QueryBuilder selectQuery) throws JSONStoreDatabaseClosedException {
         if (selectQuery == null) return null;
 
-        DatabaseAccessor acc = getAccessor();
         StringBuilder rawQueryString = new StringBuilder();
-        List<String> rawQueryParams = new LinkedList<String>();
+        List<Object> rawQueryParams = new LinkedList<Object>();
         selectQuery.convertToQueryString(rawQueryString, rawQueryParams);
-        String[] rawQueryParamsArray = (String[]) rawQueryParams.toArray(new String[rawQueryParams.size()]);
 
-        return acc.getRawDatabase().rawQuery(rawQueryString.toString(), rawQueryParamsArray);
+        return runQuery(selectQuery, rawQueryString.toString(), rawQueryParams);
+    }
+
+    /**
+     * @exclude
+     */
+    private Cursor runQuery(QueryBuilder selectQuery, String sql, List<Object> rawQueryParams) throws JSONStoreDatabaseClosedException {
+        DatabaseAccessor acc = getAccessor();
+        Object[] rawQueryParamsArray = rawQueryParams.toArray();
+
+        JSONStoreIndexAdvisor advisor = this.indexAdvisor;
+        long threshold = this.slowQueryThreshold;
+        if ((advisor == null && threshold <= 0) || !(selectQuery instanceof QueryBuilderSelect)) {
+            return ValueList.rawQuery(acc.getRawDatabase(), sql, rawQueryParamsArray);
+        }
+
+        // The query only runs when the cursor is first read, so read the count
+        // here to time it.
+        long start = System.nanoTime();
+        Cursor cursor = ValueList.rawQuery(acc.getRawDatabase(), sql, rawQueryParamsArray);
+        int rows = cursor == null ? 0 : cursor.getCount();
+        long elapsed = System.nanoTime() - start;
+
+        // The find has succeeded, so the diagnostics must not fail it.
+        try {
+            if (advisor != null) {
+                advisor.record(selectQuery.getQueryContent(), ((QueryBuilderSelect) selectQuery).getSort(), elapsed, rows);
+            }
+
+            if (threshold > 0 && elapsed / 1000000 >= threshold) {
+                logger.logDebug("Query on collection \"" + getName() + "\" took " + (elapsed / 1000000) + " ms and returned " + rows + " rows:\n" + explainQuery(acc, sql, rawQueryParams)); //$NON-NLS-1$
+            }
+        } catch (Throwable e) {
+            logger.logDebug("Could not record or explain a query on collection \"" + getName() + "\".", e); //$NON-NLS-1$
+        }
+
+        return cursor;
+    }
+
+    /**
+     * @exclude Used by findDocuments, explain and JSONStorePreparedFind.
+     */
+    QueryBuilderSelect createSelectQuery(JSONStoreQueryParts query, JSONStoreFindOptions options) {
+        QueryBuilderSelect selectQuery = new QueryBuilderSelect(this, query);
+        boolean streamed = isStreamed(query, options);
+
+        // Path criteria and path sorts are applied while the rows are read, so
+        // the limit and offset are applied then too.
+        if (!streamed) {
+            selectQuery.setLimit(options.getLimit());
+            selectQuery.setOffset(options.getOffset());
+            selectQuery.setSort(options.getSort());
+        } else if (options.getLimit() != null && options.getLimit() < 0) {
+            // A negative limit returns the last documents that were added.
+            LinkedHashMap<String, SortDirection> lastAdded = new LinkedHashMap<String, SortDirection>();
+            lastAdded.put(DatabaseConstants.FIELD_ID, SortDirection.DESCENDING);
+            selectQuery.setSort(lastAdded);
+        } else {
+            selectQuery.setSort(options.getSort());
+        }
+
+        if(options.shouldIncludeDeletedDocuments()) {
+            selectQuery.setSearchIncludeDeleted();
+        }
+
+        // Set the fields to select in the query, if specified, otherwise default to _id and _json:
+        Map<String, Boolean> filters = options.getSearchFilters();
+        if (filters != null && filters.size() > 0) {
+            for (String filter : filters.keySet()) {
+                boolean isSpecial = filters.get(filter);
+                selectQuery.addSelectStatement(filter, isSpecial);
+            }
+
+            if (streamed) {
+                selectQuery.addSelectStatement(DatabaseConstants.FIELD_ID, false);
+                selectQuery.addSelectStatement(DatabaseConstants.FIELD_JSON, false);
+            }
+        }else {
+            selectQuery.addSelectStatement(DatabaseConstants.FIELD_ID, false);
+            selectQuery.addSelectStatement(DatabaseConstants.FIELD_JSON, false);
+        }
+
+        if (options.shouldIncludeRevisions() && (filters == null || !filters.containsKey(DatabaseConstants.FIELD_REV))) {
+            selectQuery.addSelectStatement(DatabaseConstants.FIELD_REV, false);
+        }
+
+        return selectQuery;
+    }
+
+    /**
+     * @exclude Returns true for finds whose rows are filtered or sorted while they are read.
+     */
+    private static boolean isStreamed(JSONStoreQueryParts query, JSONStoreFindOptions options) {
+        return !options.getPathSort().isEmpty() || query.hasPathCriteria();
+    }
+
+    /**
+     * @exclude
+     */
+    private JSONStoreQueryPlan explainQuery(DatabaseAccessor acc, String sql, List<Object> args) {
+        Cursor cursor = ValueList.rawQuery(acc.getRawDatabase(), DatabaseConstants.SQL_EXPLAIN_QUERY_PLAN + sql, args.toArray());
+        JSONStoreQueryPlan plan = new JSONStoreQueryPlan(sql, args);
+
+        if (cursor != null) {
+            int idColumn = cursor.getColumnIndex("id"); //$NON-NLS-1$
+            int parentColumn = cursor.getColumnIndex("parent"); //$NON-NLS-1$
+            int detailColumn = cursor.getColumnIndex("detail"); //$NON-NLS-1$
+
+            // Before SQLite 3.24 the plan has no id and parent columns, and
+            // the detail is always the last column.
+            if (detailColumn < 0) {
+                detailColumn = cursor.getColumnCount() - 1;
+            }
+
+            while (cursor.moveToNext()) {
+                plan.addStep(new JSONStoreQueryPlanStep(idColumn < 0 ? cursor.getPosition() : cursor.getInt(idColumn), parentColumn < 0 ? 0 : cursor.getInt(parentColumn), cursor.getString(detailColumn)));
+            }
+
+            cursor.close();
+        }
+
+        return plan;
     }
 
     /**
@@ -158,7 +320,7 @@ public class JSONStoreCollection {
 
         if(column.equals(DatabaseConstants.FIELD_DELETED) || column.equals(DatabaseConstants.FIELD_DIRTY)
                 || column.equals(DatabaseConstants.FIELD_ID) || column.equals(DatabaseConstants.FIELD_JSON) ||
-                column.equals(DatabaseConstants.FIELD_OPERATION)){
+                column.equals(DatabaseConstants.FIELD_OPERATION) || column.equals(DatabaseConstants.FIELD_REV)){
 
             return true;
         }
@@ -217,6 +379,12 @@ public class JSONStoreCollection {
         this.initializedJSONStoreInstance = instance;
         this.schema = schema;
         this.wasReopened = reopened;
+
+        synchronized (statementCache) {
+            statementCache.clear();
+        }
+
+        forgetCappedTotals();
     }
 
     /**
@@ -227,6 +395,7 @@ public class JSONStoreCollection {
 
         if (username == null || this.initializedJSONStoreInstance.getUsername().equalsIgnoreCase(username)) {
             this.initializedJSONStoreInstance = null;
+            stopExpiredDocumentPurge();
         }
     }
 
@@ -299,7 +468,7 @@ public class JSONStoreCollection {
      *         it is not defined.
      */
     public boolean hasSearchField(String search_field) {
-        if (search_field.equals(DatabaseConstants.FIELD_DELETED) || search_field.equals(DatabaseConstants.FIELD_ID) || search_field.equals(DatabaseConstants.FIELD_DIRTY) || search_field.equals(DatabaseConstants.FIELD_OPERATION)) {
+        if (search_field.equals(DatabaseConstants.FIELD_DELETED) || search_field.equals(DatabaseConstants.FIELD_ID) || search_field.equals(DatabaseConstants.FIELD_DIRTY) || search_field.equals(DatabaseConstants.FIELD_OPERATION) || search_field.equals(DatabaseConstants.FIELD_REV)) {
             return true;
         }
         return searchFields.containsKey(search_field);
@@ -339,6 +508,263 @@ public class JSONStoreCollection {
         return additionalSearchFields.containsKey(additional_search_field);
     }
 
+    /**
+     * Set a search field whose value is computed from each document when it is added or replaced,
+     * instead of being read from the document or passed as an additional search field. The value is
+     * stored in the search field's column, so it can be queried, sorted by and indexed like any other
+     * search field.
+     *
+     * @param key
+     *            The name of the computed search field. Only useful before the collection is opened.
+     * @param type
+     *            The type of the value that is computed.
+     * @param computed_field
+     *            What the search field computes.
+     * @see JSONStoreComputedField
+     */
+    public void setComputedSearchField(String key, SearchFieldType type, JSONStoreComputedField computed_field) {
+        if(key == null || key.isEmpty() || computed_field == null) return;
+        setAdditionalSearchField(key, type);
+        computedSearchFields.put(key, computed_field);
+    }
+
+    /**
+     * Get a map of the computed search fields of this collection.
+     * @return A map of computed search field names to what they compute.
+     */
+    public Map<String, JSONStoreComputedField> getComputedSearchFields() {
+        return computedSearchFields;
+    }
+
+    /**
+     * Set how the values of a string search field or additional search field are compared. With
+     * NOCASE, equality, ranges, sorting and starts with ignore the case of ASCII letters, and an
+     * index on the search field can still serve them. With FOLDED, the search field stores its
+     * values case folded for every script, and query values are folded the same way, so for
+     * example "STRASSE" finds "Straße". The documents themselves are returned unchanged. The
+     * collation of a search field cannot be changed once the collection is created.
+     *
+     * @param key
+     *            The name of the search field. Only useful before the collection is opened.
+     * @param collation
+     *            The collation of the search field. The default is BINARY, which compares
+     *            values as they are.
+     * @see SearchFieldCollation
+     */
+    public void setSearchFieldCollation(String key, SearchFieldCollation collation) {
+        if(key == null || key.isEmpty()) return;
+        collation = (collation != null) ? collation : SearchFieldCollation.BINARY;
+        searchFieldCollations.put(key, collation);
+    }
+
+    /**
+     * Get a map of the collations that were set for the search fields of this collection.
+     * @return A map of search field collations.
+     */
+    public Map<String, SearchFieldCollation> getSearchFieldCollations() {
+        return searchFieldCollations;
+    }
+
+    /**
+     * Let the documents of the collection expire. When a document is added or replaced, the time it
+     * expires is stored in the indexed _expires search field, and once it has passed the document is
+     * no longer found, counted or read from views, even before it is removed. Expired documents are
+     * removed with removeExpiredDocuments or startExpiredDocumentPurge. Adding a time to live to an
+     * existing collection adds a search field, so the collection has to be created again.
+     *
+     * @param milliseconds
+     *            The time after which documents expire when they are added or replaced, or 0 for
+     *            documents to only expire when JSONStoreAddOptions.setTimeToLive or
+     *            JSONStoreReplaceOptions.setTimeToLive is used. Only useful before the collection is
+     *            opened.
+     * @throws IllegalArgumentException
+     *             Thrown if the time is negative.
+     */
+    public void setTimeToLive(long milliseconds) throws IllegalArgumentException {
+        if (milliseconds < 0) throw new IllegalArgumentException("Time to live cannot be negative.");
+
+        if (timeToLive == null) {
+            JSONStoreIndex index = new JSONStoreIndex(EXPIRY_INDEX);
+            index.addField(DatabaseConstants.FIELD_EXPIRES);
+            addIndex(index);
+        }
+
+        timeToLive = milliseconds;
+    }
+
+    /**
+     * Get the time to live of the documents of the collection.
+     * @return The time to live in milliseconds, or null if the documents never expire.
+     * @see #setTimeToLive(long)
+     */
+    public Long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Keep at most this many documents in the collection. When an add goes over it, the oldest
+     * documents, in _id order, are deleted in the same transaction, so the collection keeps the
+     * newest ones like a ring buffer. Documents that are marked removed but not yet clean are
+     * counted, and evicted documents are deleted even if they are dirty.
+     *
+     * @param max_documents
+     *            The maximum number of documents, or 0 for no maximum.
+     * @throws IllegalArgumentException
+     *             Thrown if the maximum is negative.
+     */
+    public void setMaximumDocumentCount(int max_documents) throws IllegalArgumentException {
+        if (max_documents < 0) throw new IllegalArgumentException("Maximum document count cannot be negative.");
+        maximumDocumentCount = max_documents;
+        forgetCappedTotals();
+    }
+
+    /**
+     * Get the maximum number of documents of the collection.
+     * @return The maximum number of documents, or 0 for no maximum.
+     * @see #setMaximumDocumentCount(int)
+     */
+    public int getMaximumDocumentCount() {
+        return maximumDocumentCount;
+    }
+
+    /**
+     * Keep at most this many bytes of JSON in the collection. When an add goes over it, the oldest
+     * documents are deleted as with setMaximumDocumentCount. Only the JSON of the documents is
+     * counted, not their search fields or indexes.
+     *
+     * @param max_bytes
+     *            The maximum number of bytes of JSON, or 0 for no maximum.
+     * @throws IllegalArgumentException
+     *             Thrown if the maximum is negative.
+     */
+    public void setMaximumByteSize(long max_bytes) throws IllegalArgumentException {
+        if (max_bytes < 0) throw new IllegalArgumentException("Maximum byte size cannot be negative.");
+        maximumByteSize = max_bytes;
+        forgetCappedTotals();
+    }
+
+    /**
+     * Get the maximum number of bytes of JSON of the collection.
+     * @return The maximum number of bytes, or 0 for no maximum.
+     * @see #setMaximumByteSize(long)
+     */
+    public long getMaximumByteSize() {
+        return maximumByteSize;
+    }
+
+    /**
+     * @exclude True if adds evict the oldest documents.
+     */
+    private boolean isCapped() {
+        return maximumDocumentCount > 0 || maximumByteSize > 0;
+    }
+
+    /**
+     * @exclude Forgets the number of documents and bytes of the collection after a write that
+     *          deleted or rewrote documents, so the next capped add counts them again. Called inside
+     *          the transaction of the write, so that no add can count in between.
+     */
+    private void forgetCappedTotals() {
+        synchronized (cappedTotalsLock) {
+            cappedCount = -1;
+            cappedBytes = -1;
+        }
+    }
+
+    /**
+     * @exclude The number of bytes of a string in UTF-8, as SQLite stores the JSON.
+     */
+    private static long getByteLength(String json) {
+        long bytes = 0;
+
+        for (int i = 0; i < json.length(); i++) {
+            char c = json.charAt(i);
+
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < json.length()) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * @exclude Deletes the oldest documents until the collection is back within its maximums. Called
+     *          inside the transaction of an add with what it stored. The totals are kept between adds,
+     *          so only the evicted documents are read, and the collection is only counted when the
+     *          totals are not known.
+     * @return The _ids of the deleted documents.
+     */
+    private List<Integer> evictOldest(DatabaseAccessor acc, int added_count, long added_bytes) {
+        WritableDatabase db = acc.getWritableDatabase();
+        List<Integer> evicted = new ArrayList<Integer>();
+
+        synchronized (cappedTotalsLock) {
+            if (cappedCount < 0) {
+                long[] totals = db.countDocumentsAndBytes(maximumByteSize > 0);
+                cappedCount = totals[0];
+                cappedBytes = totals[1];
+            } else {
+                cappedCount += added_count;
+                cappedBytes += added_bytes;
+            }
+
+            long excessCount = (maximumDocumentCount > 0) ? cappedCount - maximumDocumentCount : 0;
+            long excessBytes = (maximumByteSize > 0) ? cappedBytes - maximumByteSize : 0;
+            long evictedBytes = 0;
+            int lastId = Integer.MIN_VALUE;
+            boolean more = true;
+
+            while (more && (evicted.size() < excessCount || evictedBytes < excessBytes)) {
+                // Without a byte maximum, exactly the documents over the count are read.
+                int limit = (excessBytes > 0) ? EVICTION_CHUNK_SIZE : (int) Math.min(EVICTION_CHUNK_SIZE, excessCount - evicted.size());
+                Cursor cursor = db.findOldest(lastId, limit);
+                more = false;
+
+                if (cursor == null) {
+                    break;
+                }
+
+                try {
+                    while ((evicted.size() < excessCount || evictedBytes < excessBytes) && cursor.moveToNext()) {
+                        lastId = cursor.getInt(0);
+                        evicted.add(lastId);
+                        evictedBytes += cursor.getLong(1);
+                        more = true;
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+
+            for (int i = 0; i < evicted.size(); i += EVICTION_CHUNK_SIZE) {
+                db.deleteByIds(evicted.subList(i, Math.min(evicted.size(), i + EVICTION_CHUNK_SIZE)));
+            }
+
+            cappedCount -= evicted.size();
+            cappedBytes -= evictedBytes;
+        }
+
+        return evicted;
+    }
+
+    /**
+     * @exclude Returns when a document that is written now expires, from the time to live of the
+     *          operation or else the one of the collection, or null if it does not expire.
+     */
+    private Long getExpiry(Long time_to_live) {
+        long milliseconds = (time_to_live != null) ? time_to_live : (timeToLive != null) ? timeToLive : 0;
+
+        return (milliseconds > 0) ? Long.valueOf(System.currentTimeMillis() + milliseconds) : null;
+    }
+
     /**
      * Get a map of all search fields for this collection.
      *
@@ -365,1255 +791,3198 @@ public class JSONStoreCollection {
             }
         }
 
+        // Add the expiry of the documents to the schema.
+        if (timeToLive != null) {
+            allSearchFields.put(DatabaseConstants.FIELD_EXPIRES, SearchFieldType.INTEGER);
+        }
+
         return allSearchFields;
     }
 
     /**
-     * Permanently deletes all the documents that are stored in a collection and destroys
-     * the collection.
+     * Declare an index over search fields of the collection. The index is created when the collection
+     * is opened, or rebuilt if an index with the same name but a different definition exists.
      *
-     * @throws JSONStoreRemoveCollectionException
-     *             An error occurred when finding the collection to remove (may have
-     *             already been removed).
+     * @param index
+     *            The index to create. Only useful before the collection is opened; use
+     *            createIndex for collections that are already open.
+     * @see JSONStoreIndex
+     */
+    public void addIndex(JSONStoreIndex index) {
+        if (index == null || index.getName() == null) return;
+        indexes.put(index.getName(), index);
+    }
+
+    /**
+     * Get a map of the indexes that are declared on this collection.
+     * @return A map of index names to index definitions.
+     */
+    public Map<String, JSONStoreIndex> getIndexes() {
+        return indexes;
+    }
+
+    /**
+     * Create an index on the open collection. Existing documents are indexed without being
+     * removed or rewritten. If an index with the same name exists and has a different
+     * definition, it is rebuilt.
+     *
+     * @param index
+     *            The index to create.
+     * @throws JSONStoreIndexException
+     *             The index is invalid or could not be created.
      * @throws JSONStoreDatabaseClosedException
-     *             The JSONStore database is closed, and cannot be accessed to remove
-     *             the collection.
-     * @throws JSONStoreTransactionFailureException
-     * 	           A transaction is in process and cannot be accessed to remove the
-     * 	           collection.
+     *             The JSONStore database is closed, and cannot be accessed to create the index.
      */
-    public void removeCollection() throws JSONStoreRemoveCollectionException, JSONStoreDatabaseClosedException, JSONStoreTransactionFailureException {
+    public void createIndex(JSONStoreIndex index) throws JSONStoreIndexException, JSONStoreDatabaseClosedException {
+        DatabaseAccessor acc = getAccessor();
+
+        if (index == null) {
+            String message = "Index cannot be null.";
+            JSONStoreIndexException jsException = new JSONStoreIndexException(message);
+            logger.logError(message, jsException);
+            throw jsException;
+        }
+
+        String definition = index.getDefinition(schema);
 
-       JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_REMOVE_COLLECTION);
         try {
-            DatabaseAccessor acc = getAccessor();
-            if(initializedJSONStoreInstance.isTransactionInProgress()){
-                throw new JSONStoreTransactionFailureException("Cannot remove collection during a transaction.");
-            }
-            acc.dropTable();
-            initializedJSONStoreInstance.removeCollectionReference(this);
-        } finally {
-            logInst.end();
+            acc.createIndex(index.getName(), definition);
+        } catch (Throwable e) {
+            String message = "Error when creating index \"" + index.getName() + "\" on collection \"" + getName() + "\".";
+            JSONStoreIndexException jsException = new JSONStoreIndexException(message, e);
+            logger.logError(message, jsException);
+            throw jsException;
         }
 
+        indexes.put(index.getName(), index);
     }
 
     /**
-     * Removes all documents from a collection, but does not destroy the collection.
+     * Drop an index from the open collection. The documents in the collection are not changed.
      *
+     * @param name
+     *            The name of the index to drop.
+     * @throws JSONStoreIndexException
+     *             The index could not be dropped.
      * @throws JSONStoreDatabaseClosedException
-     *             The JSONStore database is closed, and cannot be accessed to clear
-     *             the collection.
+     *             The JSONStore database is closed, and cannot be accessed to drop the index.
      */
-    public void clearCollection() throws JSONStoreDatabaseClosedException {
-        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_CLEAR);
+    public void dropIndex(String name) throws JSONStoreIndexException, JSONStoreDatabaseClosedException {
+        DatabaseAccessor acc = getAccessor();
+
+        if (name == null || !name.matches("[A-Za-z0-9_]+")) { //$NON-NLS-1$
+            String message = "Index name \"" + name + "\" can only contain letters, digits and underscores.";
+            JSONStoreIndexException jsException = new JSONStoreIndexException(message);
+            logger.logError(message, jsException);
+            throw jsException;
+        }
+
         try {
-            DatabaseAccessor acc = getAccessor();
-            acc.getRawDatabase().delete(getName(), "1", new String[] {}); //$NON-NLS-1$
-        } finally {
-            logInst.end();
+            acc.dropIndex(name);
+        } catch (Throwable e) {
+            String message = "Error when dropping index \"" + name + "\" on collection \"" + getName() + "\".";
+            JSONStoreIndexException jsException = new JSONStoreIndexException(message, e);
+            logger.logError(message, jsException);
+            throw jsException;
         }
-    }
 
+        indexes.remove(name);
+    }
 
     /**
-     * Change a list of documents in the collection.
-     *
-     * @param data
-     *            An array of data to update documents in the collection.
-     * @return The total number of documents that are changed.
-     * @throws JSONStoreChangeException
-     *            An exception occurred when performing the change operation, and the
-     *            operation failed.
-     * @throws JSONStoreDatabaseClosedException
-     *            The JSONStore database is closed and cannot be accessed to execute
-     *            the change operation.
+     * @exclude Called by JSONStore when the collection is opened, before it is provisioned.
      */
-
-    public int changeData(JSONObject[] data) throws JSONStoreChangeException, JSONStoreDatabaseClosedException, JSONException {
-        return changeData(data, null);
+    void validateIndexes(DatabaseSchema schema) throws JSONStoreIndexException {
+        for (JSONStoreIndex index : indexes.values()) {
+            index.getDefinition(schema);
+        }
     }
 
     /**
-     * Change a list of documents in the collection.
-     *
-     * @param data
-     *            A JSONObject array of data to update documents in the collection or add
-     *            (if addNew option is enabled).
-     * @param options
-     *            Optional change options that are used to manipulate the change operation.
-     * @return The total number of documents that are changed or added.
-     * @throws JSONStoreChangeException
-     *            An exception occurred when performing the change operation, and the
-     *            operation failed.
-     * @throws JSONStoreDatabaseClosedException
-     *            The JSONStore database is closed and cannot be accessed to execute
-     *            the change operation.
+     * @exclude Called by JSONStore once the collection is opened.
      */
-    public int changeData(JSONObject[] data, JSONStoreChangeOptions options) throws JSONStoreChangeException, JSONStoreDatabaseClosedException, JSONException {
-        return changeData(JSONStoreUtil.convertJSONObjectArrayToJSONObjectList(data), options);
+    void createDeclaredIndexes() throws JSONStoreIndexException, JSONStoreDatabaseClosedException {
+        for (JSONStoreIndex index : new ArrayList<JSONStoreIndex>(indexes.values())) {
+            createIndex(index);
+        }
     }
 
     /**
-     * Change a list of documents in the collection.
+     * Declare a projection of the collection. The covering index of the projection is created when
+     * the collection is opened, like an index declared with addIndex.
      *
-     * @param data
-     *            A list of data to update documents in the collection.
-     * @return The total number of documents that are changed.
-     * @throws JSONStoreChangeException
-     *            An exception occurred when performing the change operation, and the
-     *            operation failed.
-     * @throws JSONStoreDatabaseClosedException
-     *            The JSONStore database is closed and cannot be accessed to execute
-     *            the change operation.
+     * @param projection
+     *            The projection to declare. Only useful before the collection is opened.
+     * @see JSONStoreProjection
      */
-    public int changeData(List<JSONObject> data) throws JSONStoreChangeException, JSONStoreDatabaseClosedException, JSONException {
-        return changeData(data, null);
+    public void addProjection(JSONStoreProjection projection) {
+        if (projection == null || projection.getName() == null) return;
+        projections.put(projection.getName(), projection);
+        addIndex(projection.getIndex());
     }
 
+    /**
+     * Get a map of the projections that are declared on this collection.
+     * @return A map of projection names to projection definitions.
+     */
+    public Map<String, JSONStoreProjection> getProjections() {
+        return projections;
+    }
 
     /**
-     * Change a list of documents in the collection.
-     * @param data
-     *            A list of data to update documents in the collection or add (if addNew
-     *            option is enabled).
+     * Find the search fields of a projection for the documents that match the query. The stored
+     * JSON of the documents is not read, so when the criteria and sort only use search fields of the
+     * projection the find is answered from its covering index alone.
+     *
+     * @param projection_name
+     *             The name of a projection declared with addProjection.
+     * @param query
+     *             The find query that restricts the search.
      * @param options
-     *            Optional change options that are used to manipulate the change operation.
-     * @return The total number of documents that are changed or added.
-     * @throws JSONStoreChangeException
-     *            An exception occurred when performing the change operation, and the
-     *            operation failed.
+     *             Additional options to modify the find operation. Search filters are ignored, since
+     *             the projection decides which search fields are returned.
+     * @return A list of objects that hold the _id of each document and the value of each search field
+     *         of the projection. Integer and boolean search fields are returned as longs and booleans,
+     *         number search fields as doubles, missing values as JSONObject.NULL, and everything else,
+     *         including search fields that hold arrays, as the string that is stored.
+     * @throws JSONStoreFindException
+     *             The projection does not exist, the query has path criteria, or an error occurred
+     *             when trying to execute the find.
      * @throws JSONStoreDatabaseClosedException
-     *            The JSONStore database is closed and cannot be accessed to execute
-     *            the change operation.
+     *             The JSONStore database is closed, and cannot be accessed to
+     *             execute the find.
      */
-    public int changeData(List<JSONObject> data, JSONStoreChangeOptions options) throws JSONStoreChangeException, JSONStoreDatabaseClosedException {
-
-
-        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_CHANGE);
+    public List<JSONObject> findProjection(String projection_name, JSONStoreQueryParts query, JSONStoreFindOptions options) throws JSONStoreFindException, JSONStoreDatabaseClosedException {
+        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_FIND);
         try {
-            getAccessor(); //This does some closed checks
-            if (options == null) options = new JSONStoreChangeOptions();
-            if (data == null) {
-                return 0;
-            }
-
-            try{
-                int changeCount = 0;
+            getAccessor(); // This does some closed checks.
 
-                if(!initializedJSONStoreInstance.isTransactionInProgress()){
-                    synchronized(getAccessor()){
-                        getAccessor().getRawDatabase().beginTransaction();
-                    }
-                }
+            JSONStoreProjection projection = projections.get(projection_name);
+            if (projection == null) {
+                String message = "Projection \"" + projection_name + "\" is not declared on collection \"" + getName() + "\".";
+                JSONStoreFindException jsException = new JSONStoreFindException(message, null);
+                logger.logError(message, jsException);
+                throw jsException;
+            }
 
+            if (options == null) {
+                options = new JSONStoreFindOptions();
+            }
 
-                List<String> replaceCriteria = options.getSearchFieldCriteria();
-                if (replaceCriteria == null || replaceCriteria.size() == 0) {
-                    replaceCriteria = new LinkedList<String>();
-                }
+            if (query == null) {
+                query = new JSONStoreQueryParts();
+            }
 
-                //Check to make sure the replaceCriteria are search keys/additional search keys
-                for (String replaceKey : replaceCriteria) {
-                    if (!getSearchFields().containsKey(replaceKey.toLowerCase(Locale.ENGLISH)) && !getAdditionalSearchFields().containsKey(replaceKey.toLowerCase(Locale.ENGLISH)) &&
-                            !getSearchFields().containsKey(replaceKey) && !getAdditionalSearchFields().containsKey(replaceKey)) {
-                        String message = "Replace criteria '" + replaceKey + "' must be a search field or additional search field.";
-                        JSONStoreChangeException jsException = new JSONStoreChangeException(message);
-                        logger.logError(message, jsException);
-                        throw jsException;
-                    }
-                }
+            if (query.hasPathCriteria()) {
+                String message = "Projection finds cannot have path criteria, since they do not read the stored JSON.";
+                JSONStoreFindException jsException = new JSONStoreFindException(message, null);
+                logger.logError(message, jsException);
+                throw jsException;
+            }
 
-                List<JSONObject> allReplaceObjects = new LinkedList<JSONObject>();
-                List<JSONObject> allAddObjects = new LinkedList<JSONObject>();
-                for (JSONObject currentData : data) {
-                    // Build a select against this document.
+            JSONStorePreparedFind preparedFind = new JSONStorePreparedFind(this, query, projection.getFindOptions(options));
+            List<Object> values = preparedFind.getDefaultValues();
+            QueryBuilderSelect selectQuery = preparedFind.getSelectQuery(values);
+            String sql = getStatement(preparedFind.getShape(selectQuery, values), selectQuery);
 
-                    JSONStoreQueryParts queryContent = new JSONStoreQueryParts();
-                    JSONStoreQueryPart queryContentPart = new JSONStoreQueryPart();
+            return readProjection(projection, selectQuery, sql, preparedFind.getArguments(selectQuery, values));
+        } finally {
+            logInst.end();
+        }
+    }
 
-                    for (String criteria : replaceCriteria) {
-                        if (currentData.has(criteria)) {
-                            Object val = currentData.get(criteria);
-                            if(val instanceof Boolean) val = (Boolean)val ? 1 : 0;
-                            queryContentPart.addEqual(criteria, val.toString());
+    /**
+     * @exclude Runs the select of a projection and reads the typed values it returns.
+     */
+    private List<JSONObject> readProjection(JSONStoreProjection projection, QueryBuilderSelect selectQuery, String sql, List<Object> args) throws JSONStoreFindException {
+        Cursor cursor = null;
+        try {
+            cursor = runQuery(selectQuery, sql, args);
 
-                        }
-                    }
+            return readFields(cursor, projection.getFields());
+        } catch (Throwable e) {
+            String message = "Error when attempting to find a projection. An error occurred when reading from the database.";
+            JSONStoreFindException jsException = new JSONStoreFindException(message, e);
+            logger.logError(message, jsException);
+            throw jsException;
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
 
-                    queryContent.addQueryPart(queryContentPart);
-                    QueryBuilderSelect selectQuery = new QueryBuilderSelect(this, queryContent);
-                    selectQuery.addSelectStatement(DatabaseConstants.FIELD_ID, false);
+    /**
+     * @exclude Reads _id and the typed search field values of each row of a projection or view.
+     */
+    private List<JSONObject> readFields(Cursor cursor, List<String> fields) throws JSONException {
+        List<JSONObject> result = new ArrayList<JSONObject>();
 
-                    Cursor allDocIds = runQuery(selectQuery);
-                    if (allDocIds != null) {
-                        if (allDocIds.getCount() <= 0 || replaceCriteria.size() == 0) {
-                            allAddObjects.add(currentData);
-                        } else {
-                            allDocIds.moveToFirst();
-                            for (int i = 0; i < allDocIds.getCount() && !allDocIds.isAfterLast(); ++i) {
-                                int idIndex = allDocIds.getColumnIndex(DatabaseConstants.FIELD_ID);
-                                int replaceId = allDocIds.getInt(idIndex);
-                                JSONObject fullUpdateDoc = new JSONObject();
-                                fullUpdateDoc.put(DatabaseConstants.FIELD_JSON, currentData);
-                                fullUpdateDoc.put(DatabaseConstants.FIELD_ID, replaceId);
-                                allReplaceObjects.add(fullUpdateDoc);
-                                allDocIds.moveToNext();
-                            }
-                        }
+        if (cursor == null) {
+            return result;
+        }
 
-                        allDocIds.close();
-                    }
+        // The cursor names each column after the database safe name of its search field.
+        Map<String, String> fieldNames = new HashMap<String, String>();
+        for (String field : fields) {
+            fieldNames.put(JSONStoreUtil.getDatabaseSafeSearchFieldName(field), field);
+        }
 
-                }
+        String[] columns = cursor.getColumnNames();
 
-                JSONStoreReplaceOptions replaceOptions = new JSONStoreReplaceOptions();
-                replaceOptions.setMarkDirty(options.isMarkDirty());
-                for (JSONObject doc : allReplaceObjects) {
-                    try {
-                        if(replaceCriteria.size() != 0) {
-                            this.replaceDocument(doc, replaceOptions);
-                            changeCount++;
-                        }
-                    } catch (JSONStoreReplaceException e) {
-                        String message = "Failed to replace an existing document.";
-                        JSONStoreChangeException jsException = new JSONStoreChangeException(message, e);
-                        logger.logError(message, jsException);
-                        throw jsException;
-                    }
-                }
+        while (cursor.moveToNext()) {
+            JSONObject item = new JacksonSerializedJSONObject();
 
-                JSONStoreAddOptions addOptions = new JSONStoreAddOptions();
-                addOptions.setMarkDirty(options.isMarkDirty());
-                if (options.isAddNew()) {
-                    for (JSONObject doc : allAddObjects) {
-                        try {
-                            this.addData(doc, addOptions);
-                            changeCount++;
-                        } catch (JSONStoreAddException e) {
-                            String message = "Failed to add a new document.";
-                            JSONStoreChangeException jsException = new JSONStoreChangeException(message, e);
-                            logger.logError(message, jsException);
-                            throw jsException;
-                        }
-                    }
+            for (int k = 0; k < columns.length; ++k) {
+                if (columns[k].equals(DatabaseConstants.FIELD_ID)) {
+                    item.put(DatabaseConstants.FIELD_ID, cursor.getInt(k));
+                    continue;
                 }
 
-                if(!initializedJSONStoreInstance.isTransactionInProgress()){
-                    synchronized(getAccessor()){
-                        getAccessor().getRawDatabase().setTransactionSuccessful();
-                        getAccessor().getRawDatabase().endTransaction();
-                    }
+                String field = fieldNames.get(columns[k]);
+                if (field == null) {
+                    field = columns[k];
                 }
 
-                return changeCount;
+                item.put(field, readValue(cursor, k, field));
             }
-            catch(Throwable e){
-                if(!initializedJSONStoreInstance.isTransactionInProgress()){
-                    synchronized(getAccessor()){
-                        getAccessor().getRawDatabase().endTransaction();
-                    }
-                }
 
-                throw new JSONStoreChangeException(e);
-            }
-        } finally {
-           logInst.end();
+            result.add(item);
         }
+
+        return result;
     }
 
     /**
-     * Find a document in the collection based on the given ID.
+     * Declare a materialized view of the collection. The view is created, and filled from the
+     * documents that match its query, when the collection is opened.
      *
-     * @param id
-     *             The unique id that is associated with a document in the database (the _id
-     *             search field).
-     * @return The JSONObject that is associated with the document. Returns null if it is not found.
-     * @throws JSONStoreFindException
-     *             There was an error executing the find operation.
-     * @throws JSONStoreDatabaseClosedException
-     *             The JSONStore database is closed, and cannot be accessed to
-     *             execute the find.
+     * @param view
+     *            The view to declare. Only useful before the collection is opened.
+     * @see JSONStoreView
      */
-    public JSONObject findDocumentById(int id) throws JSONStoreDatabaseClosedException, JSONStoreFindException {
-        List<Integer> idList = new ArrayList<Integer>(1);
-        idList.add(id);
-
-        List<JSONObject> results = findDocumentsById(idList);
-        if (results.size() > 0) {
-            return results.get(0);
-        }
-
-        return null;
+    public void addView(JSONStoreView view) {
+        if (view == null || view.getName() == null) return;
+        views.put(view.getName(), view);
     }
 
     /**
-     * Find documents in the collection that have the given ID.
-     *
-     * @param ids
-     *             An array of unique ids that are associated with a document in the database (the _id
-     *             search field).
-     * @return All documents with the given ids that are present in the collection.
-     * @throws JSONStoreFindException
-     *             There was an error executing the find operation.
-     * @throws JSONStoreDatabaseClosedException
-     *             The JSONStore database is closed, and cannot be accessed to
-     *             execute the find.
+     * Get a map of the views that are declared on this collection.
+     * @return A map of view names to view definitions.
      */
-    public List<JSONObject> findDocumentsById(int[] ids) throws JSONStoreDatabaseClosedException, JSONStoreFindException {
-        if(ids == null) {
-            ids = new int[0];
-        }
-
-        List<Integer> docIdList = new ArrayList<Integer>(ids.length);
-        return findDocumentsById(docIdList);
+    public Map<String, JSONStoreView> getViews() {
+        return views;
     }
 
     /**
-     * Find all documents in the collection that have the given ids.
-     *
-     * @param ids
-     *             A list of unique ids that are associated with a document in the database (the _id
-     *             search field).
-     * @return All documents with the given ids that are present in the collection.
-     * @throws JSONStoreFindException
-     *             There was an error executing the find operation.
-     * @throws JSONStoreDatabaseClosedException
-     *             The JSONStore database is closed, and cannot be accessed to
-     *             execute the find.
+     * @exclude Called by JSONStore once the collection is opened. Views that were declared in an
+     *          earlier run but not in this one are dropped, since nothing keeps them up to date.
      */
-    public List<JSONObject> findDocumentsById(List<Integer> ids) throws JSONStoreDatabaseClosedException, JSONStoreFindException {
-        getAccessor(); // This does some closed checks.
+    void createDeclaredViews() throws JSONStoreIndexException, JSONStoreDatabaseClosedException {
+        DatabaseAccessor<?> acc = getAccessor();
 
-        List<JSONObject> resultList = new LinkedList<JSONObject>();
+        for (JSONStoreView view : views.values()) {
+            validateView(view);
+        }
 
+        try {
+            acc.getRawDatabase().beginTransaction();
 
-        List<List<Integer>> idChunks = JSONStoreUtil.splitListIntoChunks(ids, FIND_BY_ID_CHUNK_SIZE);
-        for (List<Integer> idChunk : idChunks) {
             try {
+                Map<String, String> existing = acc.getViews();
 
-                JSONStoreQueryParts content = new JSONStoreQueryParts();
-                // Add the ids to the query:
-                for (Integer id : idChunk) {
-
-                    JSONStoreQueryPart part = new JSONStoreQueryPart();
-                    part.addEqual(DatabaseConstants.FIELD_ID, id);
-                    content.addQueryPart(part);
+                for (String name : existing.keySet()) {
+                    if (!views.containsKey(name)) {
+                        acc.dropView(name);
+                    }
                 }
 
-                List<JSONObject> resultsRaw = this.findDocuments(content);
-
-                //Preserving order is important here to maintain backwards compatibility
-                HashMap<Integer, JSONObject> resultsMap = new HashMap<Integer, JSONObject>();
-                for(JSONObject result : resultsRaw) {
-                    resultsMap.put(result.getInt(DatabaseConstants.FIELD_ID), result);
-                }
+                for (JSONStoreView view : views.values()) {
+                    List<String> columns = getViewColumns(view);
+                    String[] sortFields = view.getSort().keySet().toArray(new String[0]);
+                    SortDirection[] sortDirections = view.getSort().values().toArray(new SortDirection[0]);
+                    String definition = view.getDefinition() + (schema.hasExpiry() ? " expires" : ""); //$NON-NLS-1$ //$NON-NLS-2$
 
-                for(Integer id : ids) {
-                    if(resultsMap.containsKey(id)) {
-                        resultList.add(resultsMap.get(id));
+                    if (acc.createView(view.getName(), columns.toArray(new String[columns.size()]), sortFields, sortDirections, definition)) {
+                        refreshView(acc, view, null);
                     }
                 }
 
-            } catch(Exception e) {
-                e.printStackTrace();
+                acc.getRawDatabase().setTransactionSuccessful();
+            } finally {
+                acc.getRawDatabase().endTransaction();
             }
+        } catch (JSONStoreDatabaseClosedException e) {
+            throw e;
+        } catch (Throwable e) {
+            String message = "Error when creating the views of collection \"" + getName() + "\".";
+            JSONStoreIndexException jsException = new JSONStoreIndexException(message, e);
+            logger.logError(message, jsException);
+            throw jsException;
         }
-        return resultList;
     }
 
     /**
-     * Find all the dirty documents in the collection.
-     *
-     * @return A list of documents that are marked dirty in the collection.
-     * @throws JSONStoreFindException
-     *             An error occurred when trying to execute the find.
-     * @throws JSONStoreDatabaseClosedException
-     *             The JSONStore database is closed, and cannot be accessed to
-     *             execute the find.
+     * @exclude Checks that the view can be kept up to date with SQL: its query has no path criteria
+     *          and its fields are search fields.
      */
-    public List<JSONObject> findAllDirtyDocuments() throws JSONStoreFindException, JSONStoreDatabaseClosedException {
+    private void validateView(JSONStoreView view) throws JSONStoreIndexException {
+        String message = null;
+
+        if (!view.getName().matches("[A-Za-z0-9_]+")) { //$NON-NLS-1$
+            message = "View name \"" + view.getName() + "\" can only contain letters, digits and underscores.";
+        } else if (view.getQuery().hasPathCriteria()) {
+            message = "View \"" + view.getName() + "\" cannot have path criteria, since it is kept up to date with SQL.";
+        } else {
+            for (String field : view.getColumns()) {
+                if (field == null || DatabaseConstants.FIELD_JSON.equals(field) || schema.getSearchFieldType(field.toLowerCase(Locale.ENGLISH)) == null) {
+                    message = "View \"" + view.getName() + "\" cannot hold \"" + field + "\", which is not a search field or additional search field.";
+                    break;
+                }
+            }
+        }
 
-        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_FIND_ALL_DIRTY);
-        try {
-            getAccessor(); // This does some closed checks.
-            JSONStoreQueryParts content = new JSONStoreQueryParts();
-            JSONStoreQueryPart part = new JSONStoreQueryPart();
-            part.addGreaterThan(DatabaseConstants.FIELD_DIRTY, 0);
-            content.addQueryPart(part);
-
-            JSONStoreFindOptions options = new JSONStoreFindOptions();
-            options.addSearchFilter(DatabaseConstants.FIELD_ID);
-            options.addSearchFilter(DatabaseConstants.FIELD_JSON);
-            options.addSearchFilter(DatabaseConstants.FIELD_OPERATION);
-            options.addSearchFilter(DatabaseConstants.FIELD_DIRTY);
-            options.includeDeletedDocuments(true);
+        if (message != null) {
+            JSONStoreIndexException jsException = new JSONStoreIndexException(message);
+            logger.logError(message, jsException);
+            throw jsException;
+        }
+    }
 
+    /**
+     * @exclude The columns of a view's table. When documents expire, the view also keeps their
+     *          expiry, so that the expired ones are hidden when the view is read.
+     */
+    private List<String> getViewColumns(JSONStoreView view) {
+        List<String> columns = view.getColumns();
 
-            try {
-                return findDocuments(content, options);
-            } catch (JSONStoreFilterException e) {
-                throw new JSONStoreFindException("Error occured filtering results", e);
-            }
-        } finally {
-            logInst.end();
+        if (schema.hasExpiry() && !columns.contains(DatabaseConstants.FIELD_EXPIRES)) {
+            columns.add(DatabaseConstants.FIELD_EXPIRES);
         }
+
+        return columns;
     }
 
     /**
-     * Find all documents in the collection.
-     *
-     * @return A list of all the documents in the collection.
-     * @throws JSONStoreFindException
-     * 				  An error occurred when trying to execute the find.
-     * @throws JSONStoreDatabaseClosedException
-     *                The JSONStore database is closed, and cannot be accessed to
-     *                execute the find.
+     * @exclude Brings every view up to date for documents that were just added, replaced, removed
+     *          or marked clean. Called inside the transaction of the write.
      */
-    public List<JSONObject> findAllDocuments() throws JSONStoreFindException, JSONStoreDatabaseClosedException {
-        return findAllDocuments(null);
+    private void refreshViews(DatabaseAccessor acc, List<Integer> ids) throws JSONStoreDatabaseClosedException {
+        if (views.isEmpty() || ids.isEmpty()) {
+            return;
+        }
+
+        for (int i = 0; i < ids.size(); i += VIEW_REFRESH_CHUNK_SIZE) {
+            List<Integer> chunk = ids.subList(i, Math.min(ids.size(), i + VIEW_REFRESH_CHUNK_SIZE));
+
+            for (JSONStoreView view : views.values()) {
+                refreshView(acc, view, chunk);
+            }
+        }
     }
 
     /**
-     * Find all documents in the collection.
-     * @param options
-     *             Additional options to modify the count operation.
-     * @return The list of documents in the collection.
-     * @throws JSONStoreFindException
-     *             An error occurred when trying to execute the find.
-     * @throws JSONStoreDatabaseClosedException
-     *             The JSONStore database is closed, and cannot be accessed to
-     *             execute the find.
+     * @exclude Deletes the rows of the documents from the view, then inserts the ones that still
+     *          match its query. With no ids, the whole view is filled again.
      */
-    public List<JSONObject> findAllDocuments(JSONStoreFindOptions options) throws JSONStoreFindException, JSONStoreDatabaseClosedException {
-        getAccessor(); // This does some closed checks.
+    private void refreshView(DatabaseAccessor acc, JSONStoreView view, List<Integer> ids) throws JSONStoreDatabaseClosedException {
+        Database<?> db = acc.getRawDatabase();
+        String table = acc.getViewTableName(view.getName());
+        QueryBuilderView viewQuery = new QueryBuilderView(this, view.getQuery(), getViewColumns(view));
+
+        if (ids == null) {
+            db.delete(table, null, null);
+        } else {
+            // The ids are integers, so they are written into the statement.
+            StringBuilder where = new StringBuilder(DatabaseConstants.FIELD_ID).append(DatabaseConstants.SQL_IN).append('(');
+
+            for (int i = 0; i < ids.size(); i++) {
+                if (i > 0) {
+                    where.append(',');
+                }
+
+                where.append(ids.get(i).intValue());
+            }
+
+            db.delete(table, where.append(')').toString(), null);
+            viewQuery.setIds(new ArrayList<Object>(ids));
+        }
+
+        Cursor cursor = runQuery(viewQuery);
+
+        if (cursor == null) {
+            return;
+        }
 
         try {
-            return findDocuments(null, options);
-        } catch (JSONStoreFilterException e) {
-            throw new JSONStoreFindException("Error occured filtering results", e);
+            String[] columns = cursor.getColumnNames();
+
+            while (cursor.moveToNext()) {
+                ContentValues values = new ContentValues();
+
+                for (int k = 0; k < columns.length; ++k) {
+                    putValue(values, "[" + columns[k] + "]", cursor, k); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+
+                db.insert(table, null, values);
+            }
+        } finally {
+            cursor.close();
         }
     }
 
     /**
-     * Find documents in the collection that are based on the given query.
-     *
-     * @param query
-     *             The find query that restricts the search.
-     * @return A list of documents.
-     * @throws JSONStoreFindException
-     *             An error occurred when trying to execute the find.
-     * @throws JSONStoreFilterException
-     *             An error occurred when trying to apply a filter to the query.
-     * @throws JSONStoreDatabaseClosedException
-     *             The JSONStore database is closed, and cannot be accessed to
-     *             execute the find.
+     * @exclude Copies a column with the type SQLite stored it as.
      */
-    public List<JSONObject> findDocuments(JSONStoreQueryParts query) throws JSONStoreFindException, JSONStoreFilterException, JSONStoreDatabaseClosedException {
-        return findDocuments(query, null);
+    private static void putValue(ContentValues values, String column, Cursor cursor, int k) {
+        if (cursor.isNull(k)) {
+            values.putNull(column);
+            return;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            switch (cursor.getType(k)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    values.put(column, cursor.getLong(k));
+                    return;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    values.put(column, cursor.getDouble(k));
+                    return;
+                default:
+                    break;
+            }
+        }
+
+        // The column of the view has the type of the search field, so SQLite
+        // converts the text back.
+        values.put(column, cursor.getString(k));
     }
 
     /**
-     * Find documents in the collection that are based on the given query.
+     * Read a materialized view, in the order of its sort. The query of the view is not run: the
+     * rows were stored when the documents were written, and are read from the view's table in the
+     * order of its index.
      *
-     * @param query
-     *             The find query that restricts the search.
+     * @param view_name
+     *             The name of a view declared with addView.
      * @param options
-     *             Additional options to modify the count operation.
-     * @return	A list of documents.
+     *             Optional options. Only the limit and offset are used, and a limit has to be
+     *             positive; the view decides the order and the search fields that are returned.
+     * @return A list of objects that hold the _id of each document and the value of each search field
+     *         of the view and each search field it is sorted by, typed as findProjection returns them.
      * @throws JSONStoreFindException
-     *             An error occurred when trying to execute the find.
-     * @throws JSONStoreFilterException
-     *             An error occurred when trying to apply a filter to the query.
+     *             The view does not exist, or an error occurred when reading it.
      * @throws JSONStoreDatabaseClosedException
      *             The JSONStore database is closed, and cannot be accessed to
-     *             execute the find.
+     *             read the view.
      */
-    public List<JSONObject> findDocuments(JSONStoreQueryParts query, JSONStoreFindOptions options) throws JSONStoreFindException, JSONStoreFilterException, JSONStoreDatabaseClosedException {
+    public List<JSONObject> findView(String view_name, JSONStoreFindOptions options) throws JSONStoreFindException, JSONStoreDatabaseClosedException {
         JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_FIND);
         try {
-            getAccessor(); // This does some closed checks.
-            if(options == null) {
-                options = new JSONStoreFindOptions();
+            DatabaseAccessor acc = getAccessor(); // This does some closed checks.
+
+            JSONStoreView view = views.get(view_name);
+            if (view == null) {
+                String message = "View \"" + view_name + "\" is not declared on collection \"" + getName() + "\".";
+                JSONStoreFindException jsException = new JSONStoreFindException(message, null);
+                logger.logError(message, jsException);
+                throw jsException;
             }
 
-            if(query == null) {
-                query = new JSONStoreQueryParts();
+            StringBuilder sql = new StringBuilder(DatabaseConstants.SQL_SELECT).append(DatabaseConstants.FIELD_ID);
+
+            for (String field : view.getColumns()) {
+                sql.append(", ").append(schema.getColumnName(field)); //$NON-NLS-1$
             }
 
-            QueryBuilderSelect selectQuery = new QueryBuilderSelect(this, query);
-            selectQuery.setLimit(options.getLimit());
-            selectQuery.setOffset(options.getOffset());
-            selectQuery.setSort(options.getSort());
+            sql.append(DatabaseConstants.SQL_FROM).append(acc.getViewTableName(view_name));
 
-            if(options.shouldIncludeDeletedDocuments()) {
-                selectQuery.setSearchIncludeDeleted();
+            if (schema.hasExpiry()) {
+                String column = schema.getColumnName(DatabaseConstants.FIELD_EXPIRES);
+                sql.append(DatabaseConstants.SQL_WHERE).append(column).append(" IS NULL OR ").append(column).append(" > ").append(DatabaseConstants.SQL_NOW); //$NON-NLS-1$ //$NON-NLS-2$
             }
 
+            sql.append(DatabaseConstants.SQL_SORT);
 
-            LinkedHashMap<Integer, JSONObject> resultHash = new LinkedHashMap<Integer, JSONObject> ();
-            List<JSONObject> filterResults = new ArrayList<JSONObject>();
+            for (Map.Entry<String, SortDirection> sort : view.getSort().entrySet()) {
+                sql.append(schema.getColumnName(sort.getKey()));
+                sql.append(sort.getValue() == SortDirection.DESCENDING ? " DESC, " : " ASC, "); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+
+            sql.append(DatabaseConstants.FIELD_ID);
 
-            // Set the fields to select in the query, if specified, otherwise default to _id and _json:
-            Map<String, Boolean> filters = options.getSearchFilters();
-            if (filters != null && filters.size() > 0) {
-                for (String filter : filters.keySet()) {
-                    boolean isSpecial = filters.get(filter);
-                    selectQuery.addSelectStatement(filter, isSpecial);
+            if (options != null && options.getLimit() != null && options.getLimit() > 0) {
+                sql.append(DatabaseConstants.SQL_LIMIT).append(options.getLimit());
+
+                if (options.getOffset() != null) {
+                    sql.append(DatabaseConstants.SQL_OFFSET).append(options.getOffset());
                 }
-            }else {
-                selectQuery.addSelectStatement(DatabaseConstants.FIELD_ID, false);
-                selectQuery.addSelectStatement(DatabaseConstants.FIELD_JSON, false);
             }
 
             Cursor cursor = null;
-            List<JSONObject> result = null;
             try {
-                cursor = runQuery(selectQuery);
-                if (cursor != null) {
-                    result = new LinkedList<JSONObject>();
-
-                    for (int j = 0; j < cursor.getCount(); ++j) {
-                        JSONObject item = new JacksonSerializedJSONObject();
-
-                        cursor.moveToNext();
-
-                        for(int k = 0; k < cursor.getColumnNames().length; ++k) {
-                            if(cursor.getColumnName(k).equals(DatabaseConstants.FIELD_ID)) {
-                                item.put(cursor.getColumnName(k), cursor.getInt(k));
-                            }else if(cursor.getColumnName(k).equals(DatabaseConstants.FIELD_JSON)){
-                                item.put(DatabaseConstants.FIELD_JSON, JsonOrgModule.deserializeJSONObject(cursor.getString(k)));
-                            }else if(isJSONCreatedColumn(cursor.getColumnName(k))){
-                                item.put(cursor.getColumnName(k), cursor.getString(k));
-                            } else {
-                                item.put(cursor.getColumnName(k).replace("_", "."), cursor.getString(k));  //$NON-NLS-1$ //$NON-NLS-2$
-                            }
-                        }
+                cursor = acc.getRawDatabase().rawQuery(sql.toString(), (String[]) null);
 
-                        result.add(item);
-                    }
-                }
+                return readFields(cursor, view.getColumns());
             } catch (Throwable e) {
-                String message = "Error when attempting to find a document. An error occurred when reading from the database.";
+                String message = "Error when attempting to read a view. An error occurred when reading from the database.";
                 JSONStoreFindException jsException = new JSONStoreFindException(message, e);
                 logger.logError(message, jsException);
                 throw jsException;
-
             } finally {
                 if (cursor != null) cursor.close();
             }
-
-
-            if(options.getSearchFilters() != null) {
-                for(JSONObject obj : result) {
-                    filterResults.add(obj);
-                }
-            }else {
-                addNonDuplicates(resultHash, result);
-            }
-
-            List<JSONObject> results = null;
-
-            if(options.getSearchFilters() != null)
-            {
-                results = removeFilterDuplicates(filterResults);
-            }else {
-                results = new ArrayList<JSONObject>(resultHash.values());
-            }
-
-            return results;
         } finally {
             logInst.end();
         }
     }
 
-
     /**
-     * Determine if a document is dirty or not.
-     *
-     * @param id
-     *             The unique identifier of the document to check.
-     * @return
-     * 				Returns true if the given document is dirty.
-     * @throws JSONStoreDirtyCheckException
-     *             An error occurred when checking to see if the document is dirty.
-     * @throws JSONStoreDatabaseClosedException
-     *             The JSONStore database is closed, and cannot be accessed to check
-     *             if the document is dirty.
+     * @exclude Reads a column with the type SQLite stored it as.
      */
-    public boolean isDocumentDirty(int id) throws JSONStoreDirtyCheckException, JSONStoreDatabaseClosedException {
-        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_IS_DOCUMENT_DIRTY);
-        try {
-            getAccessor(); // This does some closed checks.
-
-            JSONStoreQueryParts content = new JSONStoreQueryParts();
-            JSONStoreQueryPart part = new JSONStoreQueryPart();
-
-            part.addEqual(DatabaseConstants.FIELD_ID, id);
-            part.addGreaterThan(DatabaseConstants.FIELD_DIRTY, 0);
-
-            content.addQueryPart(part);
-            List<JSONObject> result;
-            try {
-                result = findDocuments(content);
-            } catch (JSONStoreException e) {
-                throw new JSONStoreDirtyCheckException("An error occured finding the document", e);
-            }
+    private Object readValue(Cursor cursor, int column, String field) {
+        if (cursor.isNull(column)) {
+            return JSONObject.NULL;
+        }
 
-            if(result.size() > 0){
-                return true;
+        Object value;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            switch (cursor.getType(column)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    value = cursor.getLong(column);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    value = cursor.getDouble(column);
+                    break;
+                default:
+                    value = cursor.getString(column);
+                    break;
             }
+        } else {
+            // Cursor.getType is not available, so convert the text the way it was stored.
+            value = schema.toStorageValue(field, cursor.getString(column));
+        }
 
-            return false;
-        } finally {
-            logInst.end();
+        if (schema.getFieldType(field) == SearchFieldType.BOOLEAN && value instanceof Long) {
+            return ((Long) value) != 0;
         }
+
+        return value;
     }
 
     /**
-     * Mark an array of documents in the collection clean.
+     * Start or stop recording the shape of the queries that run on this collection, so that
+     * indexes can be recommended for them.
      *
-     * @param documents
-     *             An array of documents to clean in the collection.
-     * @return
-     *             Returns the number of clean documents.
-     * @throws JSONStoreMarkCleanException
-     *             An error occurred when trying to clean the documents that were passed.
-     * @throws JSONStoreDatabaseClosedException
-     *             The JSONStore database is closed, and cannot be accessed to mark
-     *             the documents clean.
+     * @param advisor
+     *            The advisor that records the queries, or null to stop recording.
+     * @see JSONStoreIndexAdvisor
      */
+    public void setIndexAdvisor(JSONStoreIndexAdvisor advisor) {
+        this.indexAdvisor = advisor;
+    }
 
-    public int markDocumentsClean(JSONObject[] documents) throws JSONStoreMarkCleanException, JSONStoreDatabaseClosedException {
-        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_MARK_CLEAN);
-        try {
-            List<JSONObject> docs = JSONStoreUtil.convertJSONObjectArrayToJSONObjectList(documents);
-            return markDocumentsClean(docs);
-        } finally {
-            logInst.end();
-        }
-
+    /**
+     * @return The advisor that records the queries on this collection, or null if none is set.
+     */
+    public JSONStoreIndexAdvisor getIndexAdvisor() {
+        return indexAdvisor;
     }
 
     /**
-     * Mark a list of documents in the collection clean.
+     * Get the indexes that would help the queries recorded by the index advisor, best first.
+     * Indexes that already exist on the collection are not recommended again.
      *
-     * @param documents
-     *             A list of documents to clean in the collection.
-     * @return
-     * 			  Returns the number of clean documents.
-     * @throws JSONStoreMarkCleanException
-     *             An error occurred when trying to clean the documents that were passed.
+     * @return The ranked recommendations. The list is empty if no index advisor is set.
      * @throws JSONStoreDatabaseClosedException
-     *             The JSONStore database is closed, and cannot be accessed to mark
-     *             the documents clean.
+     *             The JSONStore database is closed, and cannot be accessed to read the existing indexes.
      */
-    public int markDocumentsClean(List<JSONObject> documents) throws JSONStoreMarkCleanException, JSONStoreDatabaseClosedException {
-        int numOfCleanDocs = 0;
-        for (JSONObject doc : documents) {
-            numOfCleanDocs+=markDocumentClean(doc);
+    public List<JSONStoreIndexRecommendation> getIndexRecommendations() throws JSONStoreDatabaseClosedException {
+        DatabaseAccessor<?> acc = getAccessor();
+        JSONStoreIndexAdvisor advisor = this.indexAdvisor;
 
+        if (advisor == null) {
+            return new ArrayList<JSONStoreIndexRecommendation>();
         }
 
-        return numOfCleanDocs;
+        Map<String, String> existing = acc.getIndexes();
+        return advisor.getRecommendations(schema, existing.values(), getRowCount(acc));
     }
 
     /**
-     * Mark a document in the collection clean.
+     * Run maintenance on the collection. Call this when the application is idle, since it can
+     * read every document in the collection. When the index advisor is set to apply its
+     * recommendations automatically, the top recommended indexes are created. The collection is then
+     * analyzed, so that finds can choose between indexes from how many documents share a value.
+     * Nothing is done while a transaction is in progress.
      *
-     * @param document
-     *             A document to clean in the collection.
-     * @return
-     *             Returns 1 if the document has been cleaned.
-     * @throws JSONStoreMarkCleanException
-     *             An error occurred when trying to clean the documents that were passed.
+     * @return The indexes that were created. The list is empty if none were created.
+     * @throws JSONStoreIndexException
+     *             A recommended index could not be created.
      * @throws JSONStoreDatabaseClosedException
-     *             The JSONStore database is closed, and cannot be accessed to mark
-     *             the documents clean.
+     *             The JSONStore database is closed, and cannot be accessed to run maintenance.
      */
-    public int markDocumentClean(JSONObject document) throws JSONStoreMarkCleanException, JSONStoreDatabaseClosedException {
-        if (document == null) return 0;
+    public List<JSONStoreIndex> runMaintenance() throws JSONStoreIndexException, JSONStoreDatabaseClosedException {
+        List<JSONStoreIndex> created = new ArrayList<JSONStoreIndex>();
+        DatabaseAccessor acc = getAccessor();
 
-        int id;
-        String operation = null;
-        try {
-            id = document.getInt(DatabaseConstants.FIELD_ID);
-            operation = document.getString(DatabaseConstants.FIELD_OPERATION);
-            if (operation == null) {
-                String message = "Document does not contain the operation to execute.";
-                JSONStoreMarkCleanException jsException = new JSONStoreMarkCleanException(message);
-                logger.logError(message, jsException);
-                throw jsException;
+        if (initializedJSONStoreInstance.isTransactionInProgress()) {
+            return created;
+        }
+
+        JSONStoreIndexAdvisor advisor = this.indexAdvisor;
+        if (advisor != null && advisor.shouldApplyAutomatically()) {
+            for (JSONStoreIndexRecommendation recommendation : getIndexRecommendations()) {
+                if (created.size() >= advisor.getMaximumIndexesPerMaintenance()) {
+                    break;
+                }
+
+                logger.logDebug("Creating index \"" + recommendation.getIndex().getName() + "\" on collection \"" + getName() + "\" recommended by the index advisor.");
+                createIndex(recommendation.getIndex());
+                created.add(recommendation.getIndex());
             }
+        }
 
-        } catch (JSONException e) {
-            String message = "Could not parse the document.";
-            JSONStoreMarkCleanException jsException = new JSONStoreMarkCleanException(message, e);
+        try {
+            acc.analyze();
+        } catch (Throwable e) {
+            String message = "Error when analyzing the indexes of collection \"" + getName() + "\".";
+            JSONStoreIndexException jsException = new JSONStoreIndexException(message, e);
             logger.logError(message, jsException);
             throw jsException;
         }
 
-        DatabaseAccessor acc = getAccessor();
-        WritableDatabase db = acc.getWritableDatabase();
-        if (operation.equals(DatabaseConstants.OPERATION_REMOVE)) {
-            // The record will be completely removed from the database.
-            db.delete(new String[] { DatabaseConstants.FIELD_ID }, new Object[] { id });
-        }
+        return created;
+    }
 
-        // Otherwise, we just need to update the fields to "clean".
+    /**
+     * @exclude
+     */
+    private long getRowCount(DatabaseAccessor acc) {
+        long count = 0;
+        Cursor cursor = acc.getRawDatabase().rawQuery("SELECT COUNT(*) FROM " + getName(), null); //$NON-NLS-1$
 
-        HashMap<String, Object> whereClauses = new HashMap<String, Object>();
-        whereClauses.put(DatabaseConstants.FIELD_ID, id);
-        db.update(new String[] { DatabaseConstants.FIELD_DIRTY, DatabaseConstants.FIELD_DELETED, DatabaseConstants.FIELD_OPERATION }, new Object[] { 0, 0, "" }, whereClauses); //$NON-NLS-1$
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                count = cursor.getLong(0);
+            }
+            cursor.close();
+        }
 
-        return 1;
+        return count;
     }
 
     /**
-     * Count the number of documents in the collection.
+     * Permanently deletes all the documents that are stored in a collection and destroys
+     * the collection.
      *
-     * @return The total number of documents that are currently in the database that are not
+     * @throws JSONStoreRemoveCollectionException
+     *             An error occurred when finding the collection to remove (may have
+     *             already been removed).
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to remove
+     *             the collection.
+     * @throws JSONStoreTransactionFailureException
+     * 	           A transaction is in process and cannot be accessed to remove the
+     * 	           collection.
+     */
+    public void removeCollection() throws JSONStoreRemoveCollectionException, JSONStoreDatabaseClosedException, JSONStoreTransactionFailureException {
+
+       JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_REMOVE_COLLECTION);
+        try {
+            DatabaseAccessor acc = getAccessor();
+            if(initializedJSONStoreInstance.isTransactionInProgress()){
+                throw new JSONStoreTransactionFailureException("Cannot remove collection during a transaction.");
+            }
+            acc.dropTable();
+            initializedJSONStoreInstance.removeCollectionReference(this);
+        } finally {
+            logInst.end();
+        }
+
+    }
+
+    /**
+     * Removes all documents from a collection, but does not destroy the collection.
+     *
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to clear
+     *             the collection.
+     */
+    public void clearCollection() throws JSONStoreDatabaseClosedException {
+        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_CLEAR);
+        try {
+            DatabaseAccessor acc = getAccessor();
+            acc.getWritableDatabase().delete(null, new Object[] {});
+            forgetCappedTotals();
+
+            for (String view : views.keySet()) {
+                acc.getRawDatabase().delete(acc.getViewTableName(view), null, null);
+            }
+        } finally {
+            logInst.end();
+        }
+    }
+
+
+    /**
+     * Change a list of documents in the collection.
+     *
+     * @param data
+     *            An array of data to update documents in the collection.
+     * @return The total number of documents that are changed.
+     * @throws JSONStoreChangeException
+     *            An exception occurred when performing the change operation, and the
+     *            operation failed.
+     * @throws JSONStoreDatabaseClosedException
+     *            The JSONStore database is closed and cannot be accessed to execute
+     *            the change operation.
+     */
+
+    public int changeData(JSONObject[] data) throws JSONStoreChangeException, JSONStoreDatabaseClosedException, JSONException {
+        return changeData(data, null);
+    }
+
+    /**
+     * Change a list of documents in the collection.
+     *
+     * @param data
+     *            A JSONObject array of data to update documents in the collection or add
+     *            (if addNew option is enabled).
+     * @param options
+     *            Optional change options that are used to manipulate the change operation.
+     * @return The total number of documents that are changed or added.
+     * @throws JSONStoreChangeException
+     *            An exception occurred when performing the change operation, and the
+     *            operation failed.
+     * @throws JSONStoreDatabaseClosedException
+     *            The JSONStore database is closed and cannot be accessed to execute
+     *            the change operation.
+     */
+    public int changeData(JSONObject[] data, JSONStoreChangeOptions options) throws JSONStoreChangeException, JSONStoreDatabaseClosedException, JSONException {
+        return changeData(JSONStoreUtil.convertJSONObjectArrayToJSONObjectList(data), options);
+    }
+
+    /**
+     * Change a list of documents in the collection.
+     *
+     * @param data
+     *            A list of data to update documents in the collection.
+     * @return The total number of documents that are changed.
+     * @throws JSONStoreChangeException
+     *            An exception occurred when performing the change operation, and the
+     *            operation failed.
+     * @throws JSONStoreDatabaseClosedException
+     *            The JSONStore database is closed and cannot be accessed to execute
+     *            the change operation.
+     */
+    public int changeData(List<JSONObject> data) throws JSONStoreChangeException, JSONStoreDatabaseClosedException, JSONException {
+        return changeData(data, null);
+    }
+
+
+    /**
+     * Change a list of documents in the collection.
+     * @param data
+     *            A list of data to update documents in the collection or add (if addNew
+     *            option is enabled).
+     * @param options
+     *            Optional change options that are used to manipulate the change operation.
+     * @return The total number of documents that are changed or added.
+     * @throws JSONStoreChangeException
+     *            An exception occurred when performing the change operation, and the
+     *            operation failed.
+     * @throws JSONStoreDatabaseClosedException
+     *            The JSONStore database is closed and cannot be accessed to execute
+     *            the change operation.
+     */
+    public int changeData(List<JSONObject> data, JSONStoreChangeOptions options) throws JSONStoreChangeException, JSONStoreDatabaseClosedException {
+
+
+        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_CHANGE);
+        try {
+            getAccessor(); //This does some closed checks
+            if (options == null) options = new JSONStoreChangeOptions();
+            if (data == null) {
+                return 0;
+            }
+
+            try{
+                int changeCount = 0;
+
+                if(!initializedJSONStoreInstance.isTransactionInProgress()){
+                    synchronized(getAccessor()){
+                        getAccessor().getRawDatabase().beginTransaction();
+                    }
+                }
+
+
+                List<String> replaceCriteria = options.getSearchFieldCriteria();
+                if (replaceCriteria == null || replaceCriteria.size() == 0) {
+                    replaceCriteria = new LinkedList<String>();
+                }
+
+                //Check to make sure the replaceCriteria are search keys/additional search keys
+                for (String replaceKey : replaceCriteria) {
+                    if (!getSearchFields().containsKey(replaceKey.toLowerCase(Locale.ENGLISH)) && !getAdditionalSearchFields().containsKey(replaceKey.toLowerCase(Locale.ENGLISH)) &&
+                            !getSearchFields().containsKey(replaceKey) && !getAdditionalSearchFields().containsKey(replaceKey)) {
+                        String message = "Replace criteria '" + replaceKey + "' must be a search field or additional search field.";
+                        JSONStoreChangeException jsException = new JSONStoreChangeException(message);
+                        logger.logError(message, jsException);
+                        throw jsException;
+                    }
+                }
+
+                List<JSONObject> allReplaceObjects = new LinkedList<JSONObject>();
+                List<JSONObject> allAddObjects = new LinkedList<JSONObject>();
+                for (JSONObject currentData : data) {
+                    // Build a select against this document.
+
+                    JSONStoreQueryParts queryContent = new JSONStoreQueryParts();
+                    JSONStoreQueryPart queryContentPart = new JSONStoreQueryPart();
+
+                    for (String criteria : replaceCriteria) {
+                        if (currentData.has(criteria)) {
+                            Object val = currentData.get(criteria);
+                            if(val instanceof Boolean) val = (Boolean)val ? 1 : 0;
+                            queryContentPart.addEqual(criteria, val.toString());
+
+                        }
+                    }
+
+                    queryContent.addQueryPart(queryContentPart);
+                    QueryBuilderSelect selectQuery = new QueryBuilderSelect(this, queryContent);
+                    selectQuery.addSelectStatement(DatabaseConstants.FIELD_ID, false);
+
+                    Cursor allDocIds = runQuery(selectQuery);
+                    if (allDocIds != null) {
+                        if (allDocIds.getCount() <= 0 || replaceCriteria.size() == 0) {
+                            allAddObjects.add(currentData);
+                        } else {
+                            allDocIds.moveToFirst();
+                            for (int i = 0; i < allDocIds.getCount() && !allDocIds.isAfterLast(); ++i) {
+                                int idIndex = allDocIds.getColumnIndex(DatabaseConstants.FIELD_ID);
+                                int replaceId = allDocIds.getInt(idIndex);
+                                JSONObject fullUpdateDoc = new JSONObject();
+                                fullUpdateDoc.put(DatabaseConstants.FIELD_JSON, currentData);
+                                fullUpdateDoc.put(DatabaseConstants.FIELD_ID, replaceId);
+                                allReplaceObjects.add(fullUpdateDoc);
+                                allDocIds.moveToNext();
+                            }
+                        }
+
+                        allDocIds.close();
+                    }
+
+                }
+
+                JSONStoreReplaceOptions replaceOptions = new JSONStoreReplaceOptions();
+                replaceOptions.setMarkDirty(options.isMarkDirty());
+                for (JSONObject doc : allReplaceObjects) {
+                    try {
+                        if(replaceCriteria.size() != 0) {
+                            this.replaceDocument(doc, replaceOptions);
+                            changeCount++;
+                        }
+                    } catch (JSONStoreReplaceException e) {
+                        String message = "Failed to replace an existing document.";
+                        JSONStoreChangeException jsException = new JSONStoreChangeException(message, e);
+                        logger.logError(message, jsException);
+                        throw jsException;
+                    }
+                }
+
+                JSONStoreAddOptions addOptions = new JSONStoreAddOptions();
+                addOptions.setMarkDirty(options.isMarkDirty());
+                if (options.isAddNew()) {
+                    for (JSONObject doc : allAddObjects) {
+                        try {
+                            this.addData(doc, addOptions);
+                            changeCount++;
+                        } catch (JSONStoreAddException e) {
+                            String message = "Failed to add a new document.";
+                            JSONStoreChangeException jsException = new JSONStoreChangeException(message, e);
+                            logger.logError(message, jsException);
+                            throw jsException;
+                        }
+                    }
+                }
+
+                if(!initializedJSONStoreInstance.isTransactionInProgress()){
+                    synchronized(getAccessor()){
+                        getAccessor().getRawDatabase().setTransactionSuccessful();
+                        getAccessor().getRawDatabase().endTransaction();
+                    }
+                }
+
+                return changeCount;
+            }
+            catch(Throwable e){
+                if(!initializedJSONStoreInstance.isTransactionInProgress()){
+                    synchronized(getAccessor()){
+                        getAccessor().getRawDatabase().endTransaction();
+                    }
+                }
+
+                throw new JSONStoreChangeException(e);
+            }
+        } finally {
+           logInst.end();
+        }
+    }
+
+    /**
+     * Find a document in the collection based on the given ID.
+     *
+     * @param id
+     *             The unique id that is associated with a document in the database (the _id
+     *             search field).
+     * @return The JSONObject that is associated with the document. Returns null if it is not found.
+     * @throws JSONStoreFindException
+     *             There was an error executing the find operation.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to
+     *             execute the find.
+     */
+    public JSONObject findDocumentById(int id) throws JSONStoreDatabaseClosedException, JSONStoreFindException {
+        List<Integer> idList = new ArrayList<Integer>(1);
+        idList.add(id);
+
+        List<JSONObject> results = findDocumentsById(idList);
+        if (results.size() > 0) {
+            return results.get(0);
+        }
+
+        return null;
+    }
+
+    /**
+     * Find documents in the collection that have the given ID.
+     *
+     * @param ids
+     *             An array of unique ids that are associated with a document in the database (the _id
+     *             search field).
+     * @return All documents with the given ids that are present in the collection.
+     * @throws JSONStoreFindException
+     *             There was an error executing the find operation.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to
+     *             execute the find.
+     */
+    public List<JSONObject> findDocumentsById(int[] ids) throws JSONStoreDatabaseClosedException, JSONStoreFindException {
+        if(ids == null) {
+            ids = new int[0];
+        }
+
+        List<Integer> docIdList = new ArrayList<Integer>(ids.length);
+        return findDocumentsById(docIdList);
+    }
+
+    /**
+     * Find all documents in the collection that have the given ids.
+     *
+     * @param ids
+     *             A list of unique ids that are associated with a document in the database (the _id
+     *             search field).
+     * @return All documents with the given ids that are present in the collection.
+     * @throws JSONStoreFindException
+     *             There was an error executing the find operation.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to
+     *             execute the find.
+     */
+    public List<JSONObject> findDocumentsById(List<Integer> ids) throws JSONStoreDatabaseClosedException, JSONStoreFindException {
+        getAccessor(); // This does some closed checks.
+
+        List<JSONObject> resultList = new LinkedList<JSONObject>();
+
+
+        List<List<Integer>> idChunks = JSONStoreUtil.splitListIntoChunks(ids, FIND_BY_ID_CHUNK_SIZE);
+        for (List<Integer> idChunk : idChunks) {
+            try {
+
+                JSONStoreQueryParts content = new JSONStoreQueryParts();
+                // Add the ids to the query:
+                for (Integer id : idChunk) {
+
+                    JSONStoreQueryPart part = new JSONStoreQueryPart();
+                    part.addEqual(DatabaseConstants.FIELD_ID, id);
+                    content.addQueryPart(part);
+                }
+
+                List<JSONObject> resultsRaw = this.findDocuments(content);
+
+                //Preserving order is important here to maintain backwards compatibility
+                HashMap<Integer, JSONObject> resultsMap = new HashMap<Integer, JSONObject>();
+                for(JSONObject result : resultsRaw) {
+                    resultsMap.put(result.getInt(DatabaseConstants.FIELD_ID), result);
+                }
+
+                for(Integer id : ids) {
+                    if(resultsMap.containsKey(id)) {
+                        resultList.add(resultsMap.get(id));
+                    }
+                }
+
+            } catch(Exception e) {
+                e.printStackTrace();
+            }
+        }
+        return resultList;
+    }
+
+    /**
+     * Find all the dirty documents in the collection.
+     *
+     * @return A list of documents that are marked dirty in the collection.
+     * @throws JSONStoreFindException
+     *             An error occurred when trying to execute the find.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to
+     *             execute the find.
+     */
+    public List<JSONObject> findAllDirtyDocuments() throws JSONStoreFindException, JSONStoreDatabaseClosedException {
+
+        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_FIND_ALL_DIRTY);
+        try {
+            getAccessor(); // This does some closed checks.
+            JSONStoreQueryParts content = new JSONStoreQueryParts();
+            JSONStoreQueryPart part = new JSONStoreQueryPart();
+            part.addGreaterThan(DatabaseConstants.FIELD_DIRTY, 0);
+            content.addQueryPart(part);
+
+            JSONStoreFindOptions options = new JSONStoreFindOptions();
+            options.addSearchFilter(DatabaseConstants.FIELD_ID);
+            options.addSearchFilter(DatabaseConstants.FIELD_JSON);
+            options.addSearchFilter(DatabaseConstants.FIELD_OPERATION);
+            options.addSearchFilter(DatabaseConstants.FIELD_DIRTY);
+            options.includeDeletedDocuments(true);
+
+
+            try {
+                return findDocuments(content, options);
+            } catch (JSONStoreFilterException e) {
+                throw new JSONStoreFindException("Error occured filtering results", e);
+            }
+        } finally {
+            logInst.end();
+        }
+    }
+
+    /**
+     * Find all documents in the collection.
+     *
+     * @return A list of all the documents in the collection.
+     * @throws JSONStoreFindException
+     * 				  An error occurred when trying to execute the find.
+     * @throws JSONStoreDatabaseClosedException
+     *                The JSONStore database is closed, and cannot be accessed to
+     *                execute the find.
+     */
+    public List<JSONObject> findAllDocuments() throws JSONStoreFindException, JSONStoreDatabaseClosedException {
+        return findAllDocuments(null);
+    }
+
+    /**
+     * Find all documents in the collection.
+     * @param options
+     *             Additional options to modify the count operation.
+     * @return The list of documents in the collection.
+     * @throws JSONStoreFindException
+     *             An error occurred when trying to execute the find.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to
+     *             execute the find.
+     */
+    public List<JSONObject> findAllDocuments(JSONStoreFindOptions options) throws JSONStoreFindException, JSONStoreDatabaseClosedException {
+        getAccessor(); // This does some closed checks.
+
+        try {
+            return findDocuments(null, options);
+        } catch (JSONStoreFilterException e) {
+            throw new JSONStoreFindException("Error occured filtering results", e);
+        }
+    }
+
+    /**
+     * Find documents in the collection that are based on the given query.
+     *
+     * @param query
+     *             The find query that restricts the search.
+     * @return A list of documents.
+     * @throws JSONStoreFindException
+     *             An error occurred when trying to execute the find.
+     * @throws JSONStoreFilterException
+     *             An error occurred when trying to apply a filter to the query.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to
+     *             execute the find.
+     */
+    public List<JSONObject> findDocuments(JSONStoreQueryParts query) throws JSONStoreFindException, JSONStoreFilterException, JSONStoreDatabaseClosedException {
+        return findDocuments(query, null);
+    }
+
+    /**
+     * Find documents in the collection that are based on the given query.
+     *
+     * @param query
+     *             The find query that restricts the search.
+     * @param options
+     *             Additional options to modify the count operation.
+     * @return	A list of documents.
+     * @throws JSONStoreFindException
+     *             An error occurred when trying to execute the find.
+     * @throws JSONStoreFilterException
+     *             An error occurred when trying to apply a filter to the query.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to
+     *             execute the find.
+     */
+    public List<JSONObject> findDocuments(JSONStoreQueryParts query, JSONStoreFindOptions options) throws JSONStoreFindException, JSONStoreFilterException, JSONStoreDatabaseClosedException {
+        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_FIND);
+        try {
+            getAccessor(); // This does some closed checks.
+            if(options == null) {
+                options = new JSONStoreFindOptions();
+            }
+
+            if(query == null) {
+                query = new JSONStoreQueryParts();
+            }
+
+            JSONStorePreparedFind preparedFind = new JSONStorePreparedFind(this, query, options);
+            return runPreparedFind(preparedFind, null);
+        } finally {
+            logInst.end();
+        }
+    }
+
+    /**
+     * Compile a find so that it can be run many times with different values. The query's values are
+     * used until new ones are bound with JSONStorePreparedFind.execute.
+     *
+     * @param query
+     *             The query, with the values to use by default.
+     * @param options
+     *             Additional options to modify the find operation. They should not be changed after
+     *             the find is prepared.
+     * @return The prepared find.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to prepare the find.
+     * @see JSONStorePreparedFind
+     */
+    public JSONStorePreparedFind prepareFind(JSONStoreQueryParts query, JSONStoreFindOptions options) throws JSONStoreDatabaseClosedException {
+        getAccessor(); // This does some closed checks.
+
+        if (options == null) {
+            options = new JSONStoreFindOptions();
+        }
+
+        if (query == null) {
+            query = new JSONStoreQueryParts();
+        }
+
+        return new JSONStorePreparedFind(this, query, options);
+    }
+
+    /**
+     * Set how many generated SQL statements the collection keeps for finds it has already seen.
+     * The least recently used statement is dropped first.
+     *
+     * @param size
+     *             The number of statements to keep, or 0 to keep none. The default is 32.
+     */
+    public void setStatementCacheSize(int size) {
+        synchronized (statementCache) {
+            statementCacheSize = size < 0 ? 0 : size;
+            trimStatementCache();
+        }
+    }
+
+    /**
+     * @return The number of generated SQL statements the collection keeps.
+     */
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * @exclude Called by JSONStorePreparedFind.execute.
+     */
+    List<JSONObject> findPrepared(JSONStorePreparedFind preparedFind, List<Object> values) throws JSONStoreFindException, JSONStoreDatabaseClosedException {
+        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_FIND);
+        try {
+            getAccessor(); // This does some closed checks.
+            return runPreparedFind(preparedFind, values);
+        } finally {
+            logInst.end();
+        }
+    }
+
+    /**
+     * @exclude
+     */
+    private List<JSONObject> runPreparedFind(JSONStorePreparedFind preparedFind, List<Object> values) throws JSONStoreFindException {
+        if (values == null) {
+            values = preparedFind.getDefaultValues();
+        }
+
+        QueryBuilderSelect selectQuery = preparedFind.getSelectQuery(values);
+        String sql = getStatement(preparedFind.getShape(selectQuery, values), selectQuery);
+        JSONStoreFindOptions options = preparedFind.getOptions();
+
+        if (isStreamed(selectQuery.getQueryContent(), options)) {
+            return readStreamedDocuments(selectQuery, sql, preparedFind.getArguments(selectQuery, values), options);
+        }
+
+        return readDocuments(selectQuery, sql, preparedFind.getArguments(selectQuery, values), options);
+    }
+
+    /**
+     * @exclude Returns the SQL for a find shape, generating it only when it is not in the statement cache.
+     */
+    private String getStatement(String shape, QueryBuilderSelect selectQuery) {
+        synchronized (statementCache) {
+            String sql = statementCache.get(shape);
+
+            if (sql == null) {
+                StringBuilder rawQueryString = new StringBuilder();
+                selectQuery.convertToQueryString(rawQueryString, new LinkedList<Object>());
+                sql = rawQueryString.toString();
+
+                if (statementCacheSize > 0) {
+                    statementCache.put(shape, sql);
+                    trimStatementCache();
+                }
+            }
+
+            return sql;
+        }
+    }
+
+    /**
+     * @exclude
+     */
+    private void trimStatementCache() {
+        Iterator<String> eldest = statementCache.keySet().iterator();
+
+        while (statementCache.size() > statementCacheSize && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @exclude Runs a select whose SQL and arguments were already generated, and reads the documents
+     *          it returns.
+     */
+    private List<JSONObject> readDocuments(QueryBuilderSelect selectQuery, String sql, List<Object> args, JSONStoreFindOptions options) throws JSONStoreFindException {
+        LinkedHashMap<Integer, JSONObject> resultHash = new LinkedHashMap<Integer, JSONObject> ();
+        List<JSONObject> filterResults = new ArrayList<JSONObject>();
+        List<String> projectionPaths = options.getProjectionPaths();
+
+        Cursor cursor = null;
+        List<JSONObject> result = null;
+        try {
+            cursor = runQuery(selectQuery, sql, args);
+            if (cursor != null) {
+                result = new LinkedList<JSONObject>();
+
+                for (int j = 0; j < cursor.getCount(); ++j) {
+                    cursor.moveToNext();
+                    result.add(readItem(cursor, true, projectionPaths));
+                }
+            }
+        } catch (Throwable e) {
+            String message = "Error when attempting to find a document. An error occurred when reading from the database.";
+            JSONStoreFindException jsException = new JSONStoreFindException(message, e);
+            logger.logError(message, jsException);
+            throw jsException;
+
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+
+
+        if(options.getSearchFilters() != null) {
+            for(JSONObject obj : result) {
+                filterResults.add(obj);
+            }
+        }else {
+            addNonDuplicates(resultHash, result);
+        }
+
+        List<JSONObject> results = null;
+
+        if(options.getSearchFilters() != null)
+        {
+            results = removeFilterDuplicates(filterResults);
+        }else {
+            results = new ArrayList<JSONObject>(resultHash.values());
+        }
+
+        return results;
+    }
+
+
+    /**
+     * @exclude Reads the row the cursor is on, as findDocuments returns it.
+     *
+     * @param read_json
+     *             False to leave out the json column, when it was only selected to read paths from.
+     * @param projection_paths
+     *             The paths of the json column to return, or an empty list for the whole document.
+     */
+    private JSONObject readItem(Cursor cursor, boolean read_json, List<String> projection_paths) throws Throwable {
+        JSONObject item = new JacksonSerializedJSONObject();
+
+        for(int k = 0; k < cursor.getColumnNames().length; ++k) {
+            if(cursor.getColumnName(k).equals(DatabaseConstants.FIELD_ID) || cursor.getColumnName(k).equals(DatabaseConstants.FIELD_REV)) {
+                item.put(cursor.getColumnName(k), cursor.getInt(k));
+            }else if(cursor.getColumnName(k).equals(DatabaseConstants.FIELD_JSON)){
+                if (read_json && !projection_paths.isEmpty()) {
+                    item.put(DatabaseConstants.FIELD_JSON, JsonPathExtractor.extractSubtrees(cursor.getString(k), projection_paths));
+                } else if (read_json) {
+                    item.put(DatabaseConstants.FIELD_JSON, JsonOrgModule.deserializeJSONObject(cursor.getString(k)));
+                }
+            }else if(cursor.getColumnName(k).startsWith(DatabaseConstants.PART_MATCH_PREFIX)) {
+                continue;
+            }else if(isJSONCreatedColumn(cursor.getColumnName(k))){
+                item.put(cursor.getColumnName(k), cursor.getString(k));
+            } else {
+                item.put(cursor.getColumnName(k).replace("_", "."), cursor.getString(k));  //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+
+        return item;
+    }
+
+    /**
+     * @exclude Runs a select for a find with path criteria or path sorts. Both read the json
+     *          column of each row with a streaming parser instead of parsing the document.
+     *          Rows that fail the path criteria are skipped. Without a path sort, the offset is
+     *          applied to the rows that pass and reading stops once the limit is reached. With a
+     *          path sort, only the best limit plus offset rows are kept in a heap, and only those
+     *          rows are parsed, once the whole result has been read.
+     */
+    private List<JSONObject> readStreamedDocuments(QueryBuilderSelect selectQuery, String sql, List<Object> args, JSONStoreFindOptions options) throws JSONStoreFindException {
+        final List<String> paths = new ArrayList<String>(options.getPathSort().keySet());
+        final List<SortDirection> directions = new ArrayList<SortDirection>(options.getPathSort().values());
+        List<JSONStoreQueryPart> parts = selectQuery.getQueryContent().getAllQueryParts();
+        boolean hasPathCriteria = selectQuery.getQueryContent().hasPathCriteria();
+
+        // As in SQL, the offset only applies with a limit, and a negative
+        // limit counts from the last document added.
+        Integer limit = options.getLimit() == null ? null : Math.abs(options.getLimit());
+        int offset = limit == null || options.getOffset() == null || options.getOffset() < 0 ? 0 : options.getOffset();
+        int size = limit == null ? Integer.MAX_VALUE : (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+
+        Map<String, Boolean> filters = options.getSearchFilters();
+        boolean filtered = filters != null && !filters.isEmpty();
+        boolean readJson = !filtered || filters.containsKey(DatabaseConstants.FIELD_JSON);
+        boolean keepId = !filtered || filters.containsKey(DatabaseConstants.FIELD_ID);
+        List<String> projectionPaths = options.getProjectionPaths();
+
+        // Ranks rows in result order; the SQL order, which applies any search
+        // field sort, breaks ties.
+        final Comparator<RankedRow> order = new Comparator<RankedRow>() {
+            @Override
+            public int compare(RankedRow a, RankedRow b) {
+                for (int i = 0; i < paths.size(); i++) {
+                    int result = compareSortValues(a.values[i], b.values[i]);
+                    if (result != 0) {
+                        return directions.get(i) == SortDirection.DESCENDING ? -result : result;
+                    }
+                }
+
+                return a.position - b.position;
+            }
+        };
+
+        // The head of the heap is the worst row kept so far.
+        PriorityQueue<RankedRow> heap = new PriorityQueue<RankedRow>(Math.min(size, 1024) + 1, Collections.reverseOrder(order));
+
+        Cursor cursor = null;
+        try {
+            cursor = runQuery(selectQuery, sql, args);
+            List<JSONObject> result = new ArrayList<JSONObject>();
+
+            if (cursor == null || (limit != null && limit == 0)) {
+                return result;
+            }
+
+            int jsonColumn = cursor.getColumnIndex(DatabaseConstants.FIELD_JSON);
+            int firstPartColumn = selectQuery.selectsPartMatches() ? cursor.getColumnIndex(DatabaseConstants.PART_MATCH_PREFIX + 0) : -1;
+            int skipped = 0;
+
+            while (cursor.moveToNext()) {
+                String json = cursor.getString(jsonColumn);
+
+                if (hasPathCriteria && !matchesPaths(cursor, json, parts, firstPartColumn)) {
+                    continue;
+                }
+
+                if (paths.isEmpty()) {
+                    if (skipped < offset) {
+                        skipped++;
+                        continue;
+                    }
+
+                    result.add(readStreamedItem(cursor, readJson, keepId, projectionPaths));
+
+                    if (limit != null && result.size() >= limit) {
+                        break;
+                    }
+                    continue;
+                }
+
+                Object[] values = new Object[paths.size()];
+
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = JsonPathExtractor.extractFirst(json, paths.get(i));
+                }
+
+                RankedRow row = new RankedRow(values, cursor.getPosition());
+
+                if (heap.size() < size) {
+                    heap.add(row);
+                } else if (order.compare(row, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(row);
+                }
+            }
+
+            if (!paths.isEmpty()) {
+                List<RankedRow> rows = new ArrayList<RankedRow>(heap);
+                Collections.sort(rows, order);
+
+                for (int i = offset; i < rows.size(); i++) {
+                    cursor.moveToPosition(rows.get(i).position);
+                    result.add(readStreamedItem(cursor, readJson, keepId, projectionPaths));
+                }
+            }
+
+            return result;
+        } catch (Throwable e) {
+            String message = "Error when attempting to find a document. An error occurred when reading from the database.";
+            JSONStoreFindException jsException = new JSONStoreFindException(message, e);
+            logger.logError(message, jsException);
+            throw jsException;
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    /**
+     * @exclude Reads a row of a streamed find, leaving out the _id and json columns when they
+     *          were only selected to stream the rows.
+     */
+    private JSONObject readStreamedItem(Cursor cursor, boolean read_json, boolean keep_id, List<String> projection_paths) throws Throwable {
+        JSONObject item = readItem(cursor, read_json, projection_paths);
+
+        if (!keep_id) {
+            item.remove(DatabaseConstants.FIELD_ID);
+        }
+
+        return item;
+    }
+
+    /**
+     * @exclude Returns true if the row matches the path criteria of a part whose search field
+     *          criteria it matched. With a single part, the SQL already checked its search fields.
+     */
+    private static boolean matchesPaths(Cursor cursor, String json, List<JSONStoreQueryPart> parts, int first_part_column) throws IOException {
+        for (int i = 0; i < parts.size(); i++) {
+            if (first_part_column >= 0 && cursor.getInt(first_part_column + i) == 0) {
+                continue;
+            }
+
+            if (parts.get(i).matchesPaths(json)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @exclude Orders sort values the way SQLite orders column values: missing values first, then
+     *          numbers (and booleans, as 0 and 1), then strings.
+     */
+    private static int compareSortValues(Object a, Object b) {
+        int rankA = getSortRank(a);
+        int rankB = getSortRank(b);
+
+        if (rankA != rankB) {
+            return rankA - rankB;
+        }
+
+        switch (rankA) {
+            case 1:
+                return Double.compare(toSortNumber(a), toSortNumber(b));
+            case 2:
+                return ((String) a).compareTo((String) b);
+            default:
+                return 0;
+        }
+    }
+
+    private static int getSortRank(Object value) {
+        if (value instanceof Number || value instanceof Boolean) {
+            return 1;
+        }
+
+        return value instanceof String ? 2 : 0;
+    }
+
+    private static double toSortNumber(Object value) {
+        if (value instanceof Boolean) {
+            return ((Boolean) value) ? 1 : 0;
+        }
+
+        return ((Number) value).doubleValue();
+    }
+
+    /**
+     * @exclude A row of a path sort, kept by its cursor position.
+     */
+    private static class RankedRow {
+        private final Object[] values;
+        private final int position;
+
+        private RankedRow(Object[] values, int position) {
+            this.values = values;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Get the SQL that a find generates, the arguments bound to it, and the plan SQLite would use to
+     * run it. The find itself is not run.
+     *
+     * @param query
+     *             The query, as it would be passed to findDocuments.
+     * @param options
+     *             The options, as they would be passed to findDocuments.
+     * @return The SQL, the arguments and the plan of the query.
+     * @throws JSONStoreFindException
+     *             An error occurred when asking SQLite for the plan.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to explain the query.
+     */
+    public JSONStoreQueryPlan explain(JSONStoreQueryParts query, JSONStoreFindOptions options) throws JSONStoreFindException, JSONStoreDatabaseClosedException {
+        DatabaseAccessor acc = getAccessor();
+
+        if (options == null) {
+            options = new JSONStoreFindOptions();
+        }
+
+        if (query == null) {
+            query = new JSONStoreQueryParts();
+        }
+
+        QueryBuilderSelect selectQuery = createSelectQuery(query, options);
+        StringBuilder rawQueryString = new StringBuilder();
+        List<Object> rawQueryParams = new LinkedList<Object>();
+        selectQuery.convertToQueryString(rawQueryString, rawQueryParams);
+
+        try {
+            return explainQuery(acc, rawQueryString.toString(), rawQueryParams);
+        } catch (Throwable e) {
+            String message = "Error when explaining a query on collection \"" + getName() + "\".";
+            JSONStoreFindException jsException = new JSONStoreFindException(message, e);
+            logger.logError(message, jsException);
+            throw jsException;
+        }
+    }
+
+    /**
+     * Log the SQL, arguments and plan of every find and count on this collection that takes at
+     * least the given time. The plans are logged at debug level.
+     *
+     * @param milliseconds
+     *             The time a query must take to be logged, or 0 to stop logging.
+     */
+    public void setSlowQueryThreshold(long milliseconds) {
+        this.slowQueryThreshold = milliseconds < 0 ? 0 : milliseconds;
+    }
+
+    /**
+     * @return The time a query must take to have its plan logged, in milliseconds, or 0 if
+     *         plans are not logged.
+     */
+    public long getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
+    /**
+     * Determine if a document is dirty or not.
+     *
+     * @param id
+     *             The unique identifier of the document to check.
+     * @return
+     * 				Returns true if the given document is dirty.
+     * @throws JSONStoreDirtyCheckException
+     *             An error occurred when checking to see if the document is dirty.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to check
+     *             if the document is dirty.
+     */
+    public boolean isDocumentDirty(int id) throws JSONStoreDirtyCheckException, JSONStoreDatabaseClosedException {
+        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_IS_DOCUMENT_DIRTY);
+        try {
+            getAccessor(); // This does some closed checks.
+
+            JSONStoreQueryParts content = new JSONStoreQueryParts();
+            JSONStoreQueryPart part = new JSONStoreQueryPart();
+
+            part.addEqual(DatabaseConstants.FIELD_ID, id);
+            part.addGreaterThan(DatabaseConstants.FIELD_DIRTY, 0);
+
+            content.addQueryPart(part);
+            List<JSONObject> result;
+            try {
+                result = findDocuments(content);
+            } catch (JSONStoreException e) {
+                throw new JSONStoreDirtyCheckException("An error occured finding the document", e);
+            }
+
+            if(result.size() > 0){
+                return true;
+            }
+
+            return false;
+        } finally {
+            logInst.end();
+        }
+    }
+
+    /**
+     * Mark an array of documents in the collection clean.
+     *
+     * @param documents
+     *             An array of documents to clean in the collection.
+     * @return
+     *             Returns the number of clean documents.
+     * @throws JSONStoreMarkCleanException
+     *             An error occurred when trying to clean the documents that were passed.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to mark
+     *             the documents clean.
+     */
+
+    public int markDocumentsClean(JSONObject[] documents) throws JSONStoreMarkCleanException, JSONStoreDatabaseClosedException {
+        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_MARK_CLEAN);
+        try {
+            List<JSONObject> docs = JSONStoreUtil.convertJSONObjectArrayToJSONObjectList(documents);
+            return markDocumentsClean(docs);
+        } finally {
+            logInst.end();
+        }
+
+    }
+
+    /**
+     * Mark a list of documents in the collection clean.
+     *
+     * @param documents
+     *             A list of documents to clean in the collection.
+     * @return
+     * 			  Returns the number of clean documents.
+     * @throws JSONStoreMarkCleanException
+     *             An error occurred when trying to clean the documents that were passed.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to mark
+     *             the documents clean.
+     */
+    public int markDocumentsClean(List<JSONObject> documents) throws JSONStoreMarkCleanException, JSONStoreDatabaseClosedException {
+        int numOfCleanDocs = 0;
+        for (JSONObject doc : documents) {
+            numOfCleanDocs+=markDocumentClean(doc);
+
+        }
+
+        return numOfCleanDocs;
+    }
+
+    /**
+     * Mark a document in the collection clean.
+     *
+     * @param document
+     *             A document to clean in the collection.
+     * @return
+     *             Returns 1 if the document has been cleaned.
+     * @throws JSONStoreMarkCleanException
+     *             An error occurred when trying to clean the documents that were passed.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to mark
+     *             the documents clean.
+     */
+    public int markDocumentClean(JSONObject document) throws JSONStoreMarkCleanException, JSONStoreDatabaseClosedException {
+        if (document == null) return 0;
+
+        int id;
+        String operation = null;
+        try {
+            id = document.getInt(DatabaseConstants.FIELD_ID);
+            operation = document.getString(DatabaseConstants.FIELD_OPERATION);
+            if (operation == null) {
+                String message = "Document does not contain the operation to execute.";
+                JSONStoreMarkCleanException jsException = new JSONStoreMarkCleanException(message);
+                logger.logError(message, jsException);
+                throw jsException;
+            }
+
+        } catch (JSONException e) {
+            String message = "Could not parse the document.";
+            JSONStoreMarkCleanException jsException = new JSONStoreMarkCleanException(message, e);
+            logger.logError(message, jsException);
+            throw jsException;
+        }
+
+        DatabaseAccessor acc = getAccessor();
+        WritableDatabase db = acc.getWritableDatabase();
+        if (operation.equals(DatabaseConstants.OPERATION_REMOVE)) {
+            // The record will be completely removed from the database.
+            db.delete(new String[] { DatabaseConstants.FIELD_ID }, new Object[] { id });
+            forgetCappedTotals();
+        }
+
+        // Otherwise, we just need to update the fields to "clean".
+
+        HashMap<String, Object> whereClauses = new HashMap<String, Object>();
+        whereClauses.put(DatabaseConstants.FIELD_ID, id);
+        db.update(new String[] { DatabaseConstants.FIELD_DIRTY, DatabaseConstants.FIELD_DELETED, DatabaseConstants.FIELD_OPERATION }, new Object[] { 0, 0, "" }, whereClauses); //$NON-NLS-1$
+        refreshViews(acc, Collections.singletonList(id));
+
+        return 1;
+    }
+
+    /**
+     * Count the number of documents in the collection.
+     *
+     * @return The total number of documents that are currently in the database that are not
+     *         marked dirty.
+     * @throws JSONStoreCountException
+     *             A failure occurred when trying to determine the count.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to
+     *             perform the count.
+     */
+    public int countAllDocuments() throws JSONStoreCountException, JSONStoreDatabaseClosedException {
+        return countDocuments(null, null);
+    }
+
+    /**
+     * Count the number of documents in the collection that are based on the given query.
+     *
+     * @param query
+     *             The count query that limits the count scope.
+     * @return The total number of documents that are currently in the database that are not
      *         marked dirty.
      * @throws JSONStoreCountException
      *             A failure occurred when trying to determine the count.
      * @throws JSONStoreDatabaseClosedException
      *             The JSONStore database is closed, and cannot be accessed to
-     *             perform the count.
+     *             perform the count.
+     */
+    public int countDocuments(JSONStoreQueryParts query) throws JSONStoreCountException, JSONStoreDatabaseClosedException {
+        return countDocuments(query, null);
+    }
+
+    /**
+     * Count the number of documents in the collection that are based on the given query.
+     * @param query
+     *             The find query that limits the count scope.
+     * @param options
+     *             Additional options to modify the count operation.
+     * @return The total number of documents that are currently in the database that are not
+     *         marked dirty and fit the find query.
+     * @throws JSONStoreCountException
+     *             A failure occurred when trying to determine the count.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to
+     *             perform the count.
+     */
+    public int countDocuments(JSONStoreQueryParts query, JSONStoreCountOptions options) throws JSONStoreCountException, JSONStoreDatabaseClosedException {
+        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_COUNT);
+
+        try {
+            getAccessor(); // This does some closed checks.
+            if (query == null) {
+                query = new JSONStoreQueryParts();
+            }
+            if (options == null) options = new JSONStoreCountOptions();
+
+            JSONStoreFindOptions findOptions = new JSONStoreFindOptions();
+            if(options.shouldIncludeDeletedDocuments()) {
+                findOptions.includeDeletedDocuments(true);
+            }
+
+            if (query.hasPathCriteria()) {
+                // Path criteria are checked as the rows are read, so count the
+                // ids of the documents that match them.
+                findOptions.addSearchFilterSpecial(DatabaseConstants.FIELD_ID);
+
+                try {
+                    return this.findDocuments(query, findOptions).size();
+                } catch(JSONStoreFilterException e) {
+                    throw new JSONStoreCountException("Could not count the results. Filter exception occured internally", e);
+                } catch(JSONStoreFindException e) {
+                    throw new JSONStoreCountException("Could not count the results. Find exception occured internally",e);
+                }
+            }
+
+            findOptions.addSearchFilterSpecial(DatabaseConstants.SQL_COUNT);
+
+            try {
+                List<JSONObject> results = this.findDocuments(query, findOptions);
+
+                if(results != null && results.size() == 1) {
+                    JSONObject countResults = results.get(0);
+                    if(countResults == null || countResults.opt(DatabaseConstants.SQL_COUNT) == null) {
+                        throw new JSONStoreCountException("Could not count the results. Missing count return value internally");
+                    }
+
+                    return countResults.getInt(DatabaseConstants.SQL_COUNT);
+                } else {
+                    throw new JSONStoreCountException("Could not count the results. Missing results from find internally");
+                }
+            } catch(JSONStoreFilterException e) {
+                throw new JSONStoreCountException("Could not count the results. Filter exception occured internally", e);
+            } catch(JSONStoreFindException e) {
+                throw new JSONStoreCountException("Could not count the results. Find exception occured internally",e);
+            } catch(JSONException e) {
+                throw new JSONStoreCountException("Could not count the results. JSONException occured internally", e);
+
+            }
+        } finally {
+            logInst.end();
+        }
+    }
+
+    /**
+     * Count, for each of several search fields, the documents that match the query for every
+     * distinct value of the search field, as a filter screen shows next to each choice. The
+     * counts are computed in SQL, one grouped query per search field, in a single transaction so
+     * that the counts of all the search fields describe the same documents. An index on a search
+     * field together with _deleted, or one filtered on _deleted equal to 0, lets the counts of the
+     * search field be read from the index alone when the query has no criteria.
+     *
+     * @param query
+     *             The find query that limits the documents that are counted, or null for all of
+     *             them.
+     * @param fields
+     *             The search fields or additional search fields to count the values of.
+     * @param topN
+     *             The number of values to return for each search field, or 0 for all of them.
+     * @return A map from each search field, in the order given, to its values, the most frequent
+     *         first and values with the same count in ascending order. Documents that have no
+     *         value for a search field are not counted for it.
+     * @throws JSONStoreFindException
+     *             A search field does not exist, or an error occurred when counting.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to
+     *             perform the count.
+     * @see JSONStoreFacetValue
+     */
+    public Map<String, List<JSONStoreFacetValue>> facets(JSONStoreQueryParts query, List<String> fields, int topN) throws JSONStoreFindException, JSONStoreDatabaseClosedException {
+        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_FIND);
+
+        try {
+            DatabaseAccessor acc = getAccessor(); // This does some closed checks.
+            Map<String, List<JSONStoreFacetValue>> result = new LinkedHashMap<String, List<JSONStoreFacetValue>>();
+
+            if (query == null) {
+                query = new JSONStoreQueryParts();
+            }
+
+            if (fields == null || fields.isEmpty()) {
+                return result;
+            }
+
+            for (String field : fields) {
+                if (field == null || DatabaseConstants.FIELD_JSON.equals(field) || !schema.hasField(field)) {
+                    String message = "Cannot count the values of \"" + field + "\", which is not a search field or additional search field.";
+                    JSONStoreFindException jsException = new JSONStoreFindException(message, null);
+                    logger.logError(message, jsException);
+                    throw jsException;
+                }
+            }
+
+            acc.getRawDatabase().beginTransaction();
+
+            try {
+                List<Object> ids = null;
+
+                if (query.hasPathCriteria()) {
+                    // SQL cannot check path criteria, so count the documents
+                    // that a find returns.
+                    ids = findIds(query);
+                }
+
+                for (String field : fields) {
+                    QueryBuilderFacet facetQuery = new QueryBuilderFacet(this, query, field, topN);
+
+                    if (ids != null) {
+                        facetQuery.setIds(ids);
+                    }
+
+                    result.put(field, readFacet(facetQuery, topN));
+                }
+
+                acc.getRawDatabase().setTransactionSuccessful();
+            } finally {
+                acc.getRawDatabase().endTransaction();
+            }
+
+            return result;
+        } finally {
+            logInst.end();
+        }
+    }
+
+    /**
+     * @exclude Returns the _id of every document that a find with the query returns.
+     */
+    private List<Object> findIds(JSONStoreQueryParts query) throws JSONStoreFindException, JSONStoreDatabaseClosedException {
+        JSONStoreFindOptions options = new JSONStoreFindOptions();
+        options.addSearchFilterSpecial(DatabaseConstants.FIELD_ID);
+
+        try {
+            List<Object> ids = new ArrayList<Object>();
+
+            for (JSONObject item : findDocuments(query, options)) {
+                ids.add(item.getLong(DatabaseConstants.FIELD_ID));
+            }
+
+            return ids;
+        } catch (JSONStoreFilterException e) {
+            String message = "Error when finding the documents to count. Filter exception occured internally.";
+            JSONStoreFindException jsException = new JSONStoreFindException(message, e);
+            logger.logError(message, jsException);
+            throw jsException;
+        } catch (JSONException e) {
+            String message = "Error when finding the documents to count. JSONException occured internally.";
+            JSONStoreFindException jsException = new JSONStoreFindException(message, e);
+            logger.logError(message, jsException);
+            throw jsException;
+        }
+    }
+
+    /**
+     * @exclude Runs the grouped query of one search field and reads its values and counts.
+     */
+    private List<JSONStoreFacetValue> readFacet(QueryBuilderFacet facetQuery, int topN) throws JSONStoreFindException {
+        String field = facetQuery.getField();
+        List<JSONStoreFacetValue> result = new ArrayList<JSONStoreFacetValue>();
+        Cursor cursor = null;
+
+        try {
+            cursor = runQuery(facetQuery);
+
+            if (cursor == null) {
+                return result;
+            }
+
+            if (!facetQuery.isMerged()) {
+                while (cursor.moveToNext()) {
+                    result.add(new JSONStoreFacetValue(readValue(cursor, 0, field), cursor.getInt(1)));
+                }
+
+                return result;
+            }
+
+            // Array elements are read as the text of the multi-value index
+            // table, so the groups are merged by that text.
+            final Map<String, Integer> counts = new HashMap<String, Integer>();
+            Map<String, Object> values = new HashMap<String, Object>();
+
+            while (cursor.moveToNext()) {
+                Object value = readValue(cursor, 0, field);
+
+                if (value instanceof String) {
+                    value = schema.toStorageValue(field, value);
+
+                    if (schema.getFieldType(field) == SearchFieldType.BOOLEAN && value instanceof Long) {
+                        value = ((Long) value) != 0;
+                    }
+                }
+
+                String key = schema.normalizeMultiValue(field, value);
+                Integer count = counts.get(key);
+
+                counts.put(key, (count == null ? 0 : count) + cursor.getInt(1));
+                values.put(key, value);
+            }
+
+            List<String> keys = new ArrayList<String>(counts.keySet());
+            Collections.sort(keys, new Comparator<String>() {
+                @Override
+                public int compare(String a, String b) {
+                    int byCount = counts.get(b).compareTo(counts.get(a));
+                    return byCount != 0 ? byCount : a.compareTo(b);
+                }
+            });
+
+            for (String key : keys) {
+                if (topN > 0 && result.size() == topN) {
+                    break;
+                }
+
+                result.add(new JSONStoreFacetValue(values.get(key), counts.get(key)));
+            }
+
+            return result;
+        } catch (Throwable e) {
+            String message = "Error when counting the values of \"" + field + "\". An error occurred when reading from the database.";
+            JSONStoreFindException jsException = new JSONStoreFindException(message, e);
+            logger.logError(message, jsException);
+            throw jsException;
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    /**
+     * Count the number of dirty documents in the collection.
+     *
+     * @return
+     *             The number of dirty documents.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to
+     *             perform the count.
+     * @throws JSONStoreCountException
+     *             A failure occurred when trying to determine the count.
+     */
+    public int countAllDirtyDocuments() throws JSONStoreDatabaseClosedException, JSONStoreCountException {
+
+        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_COUNT_ALL_DIRTY);
+        try {
+            getAccessor(); // This does some closed checks.
+            JSONStoreQueryParts queryContent = new JSONStoreQueryParts();
+            JSONStoreQueryPart queryContentPart = new JSONStoreQueryPart();
+            queryContentPart.addGreaterThan(DatabaseConstants.FIELD_DIRTY, 0);
+            queryContent.addQueryPart(queryContentPart);
+
+            JSONStoreCountOptions options = new JSONStoreCountOptions();
+            options.includeDeletedDocuments(true);
+
+            return countDocuments(queryContent, options);
+        } finally {
+            logInst.end();
+        }
+    }
+
+    /**
+     * Add data and create a new document in the collection.
+     *
+     * @param object_to_add
+     *             The data for a new document to be added to the collection. The document must contain search
+     *             field keys.
+     * @throws JSONStoreAddException
+     *             Thrown if the document could not be added to the collection.
+     *             Commonly thrown if search fields are missing in the document.
+     *             The message contains the reason.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to
+     *             perform the add.
      */
-    public int countAllDocuments() throws JSONStoreCountException, JSONStoreDatabaseClosedException {
-        return countDocuments(null, null);
+    public void addData(JSONObject object_to_add) throws JSONStoreAddException, JSONStoreDatabaseClosedException {
+        List<JSONObject> data = new ArrayList<JSONObject>();
+        data.add(object_to_add);
+
+        addData(data, null);
     }
 
     /**
-     * Count the number of documents in the collection that are based on the given query.
+     * Add data and create a new document in the collection.
      *
-     * @param query
-     *             The count query that limits the count scope.
-     * @return The total number of documents that are currently in the database that are not
-     *         marked dirty.
-     * @throws JSONStoreCountException
-     *             A failure occurred when trying to determine the count.
+     * @param data
+     *             The data for a new document to be added to the collection. The document must contain search
+     *             field keys.
+     * @param options
+     *             Additional options to modify the add operation.
+     * @throws JSONStoreAddException
+     *             Thrown if the document could not be added to the collection.
+     *             Commonly thrown if search fields are missing in the document.
+     *             The message contains the reason.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to
+     *             perform the add.
+     */
+    public void addData(List<JSONObject> data, JSONStoreAddOptions options) throws JSONStoreAddException, JSONStoreDatabaseClosedException {
+        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_ADD);
+        try {
+            if (options == null) options = new JSONStoreAddOptions();
+            if(data == null || data.size() <= 0) return;
+            DatabaseAccessor acc = getAccessor();
+
+            if (options.getTimeToLive() != null && !schema.hasExpiry()) {
+                String message = "Documents cannot be added with a time to live to collection \"" + getName() + "\", which has no time to live.";
+                JSONStoreAddException jsException = new JSONStoreAddException(message);
+                logger.logError(message, jsException);
+                throw jsException;
+            }
+
+            if(!initializedJSONStoreInstance.isTransactionInProgress()){
+                acc.getRawDatabase().beginTransaction();
+            }
+
+            int numberOfDocumentsStored = 0;
+            long addedBytes = 0;
+            List<Integer> addedIds = new ArrayList<Integer>();
+            boolean committed = false;
+
+            Long expires = getExpiry(options.getTimeToLive());
+
+            try {
+                for(JSONObject data_to_add : data){
+                    if(data_to_add == null){
+                        continue;
+                    }
+
+                    Map<String, Object> mappedObj = null;
+                    String json = null;
+                    try {
+                        mappedObj = schema.mapObject(data_to_add, options.getAdditionalSearchFieldsAsJSON());
+                        json = data_to_add.toString();
+                        mappedObj.put(DatabaseConstants.FIELD_JSON, json);
+                    } catch (Throwable t) {
+                        String message = "An internal error occurred when trying to store the JSONObject. Error mapping the search fields.";
+                        JSONStoreAddException jsException = new JSONStoreAddException(message, t);
+                        logger.logError(message, jsException);
+                        throw jsException;
+                    }
+
+                    if (expires != null) {
+                        mappedObj.put(DatabaseConstants.FIELD_EXPIRES, expires);
+                    }
+
+                    if (options.isMarkDirty()) {
+                        mappedObj.put(DatabaseConstants.FIELD_DIRTY, new Date().getTime());
+                        mappedObj.put(DatabaseConstants.FIELD_OPERATION, DatabaseConstants.OPERATION_ADD);
+                    }
+
+                    else {
+                        mappedObj.put(DatabaseConstants.FIELD_DIRTY, 0);
+                        mappedObj.put(DatabaseConstants.FIELD_OPERATION, DatabaseConstants.OPERATION_STORE);
+                    }
+
+                    long rc = acc.getWritableDatabase().insert(mappedObj);
+
+                    if (rc == -1) { // no error
+                        String message = "An internal error occurred when trying to insert a document.";
+                        JSONStoreAddException jsException = new JSONStoreAddException(message, numberOfDocumentsStored);
+                        logger.logError(message, jsException);
+                        throw jsException;
+                    }
+
+                    numberOfDocumentsStored++;
+                    addedIds.add((int) rc);
+
+                    if (maximumByteSize > 0) {
+                        addedBytes += getByteLength(json);
+                    }
+                }
+
+                refreshViews(acc, addedIds);
+
+                if (isCapped()) {
+                    refreshViews(acc, evictOldest(acc, numberOfDocumentsStored, addedBytes));
+                }
+
+                if(!initializedJSONStoreInstance.isTransactionInProgress()){
+                    acc.getRawDatabase().setTransactionSuccessful();
+                    committed = true;
+                }
+            }
+            finally{
+                // Commit or roll back transaction, depending on whether it was set successful or not:
+                if(!initializedJSONStoreInstance.isTransactionInProgress()){
+                    acc.getRawDatabase().endTransaction();
+                }
+
+                // The totals are only kept for adds that committed on their own, since a
+                // transaction in progress can still be rolled back.
+                if (!committed) {
+                    forgetCappedTotals();
+                }
+            }
+        } finally {
+            logInst.end();
+        }
+    }
+
+    public void addData(JSONObject object_to_add, JSONStoreAddOptions opts) throws JSONStoreAddException, JSONStoreDatabaseClosedException {
+        List<JSONObject> data = new ArrayList<JSONObject>();
+        data.add(object_to_add);
+
+        addData(data, opts);
+    }
+
+    public void addData(List<JSONObject> object_to_add) throws JSONStoreAddException, JSONStoreDatabaseClosedException {
+        addData(object_to_add, null);
+    }
+
+    public void addData(JSONArray dataArray) throws JSONStoreAddException, JSONStoreDatabaseClosedException {
+        List<JSONObject> data = JSONStoreUtil.convertJSONArrayToJSONObjectList((JSONArray) dataArray);
+
+        addData(data, null);
+    }
+
+    public void addData(JSONArray dataArray, JSONStoreAddOptions opts) throws JSONStoreAddException, JSONStoreDatabaseClosedException {
+        List<JSONObject> data = JSONStoreUtil.convertJSONArrayToJSONObjectList((JSONArray) dataArray);
+
+        addData(data, opts);
+    }
+
+    /**
+     * Remove a document from a collection that is based on the given id.
+     *
+     * @param id the integer id
+     * @return the number of documents removed from the collection.
+     * @throws JSONStoreRemoveException
+     *             Thrown if the document could not be removed to the collection.
+     *             Commonly thrown if search fields are missing in the document.
+     *             The message contains the reason.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to
+     *             perform the remove.
+     */
+    public int removeDocumentById(Integer id) throws JSONStoreRemoveException, JSONStoreDatabaseClosedException {
+        return removeDocumentById(id, null);
+    }
+
+    /**
+     * Remove a document from the collection that is based on the given id.
+     *
+     * @param id the integer id
+     * @param options Additional options to modify the remove operation.
+     * @return the number of documents removed from the collection.
+     * @throws JSONStoreRemoveException
+     *             Thrown if the document could not be removed to the collection.
+     *             Commonly thrown if search fields are missing in the document.
+     *             The message contains the reason.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed, and cannot be accessed to
+     *             perform the remove.
+     */
+    public int removeDocumentById(Integer id, JSONStoreRemoveOptions options) throws JSONStoreRemoveException, JSONStoreDatabaseClosedException {
+        List<Integer> list = new ArrayList<Integer>(1);
+        list.add(id);
+        return removeDocumentsById(list, options);
+    }
+
+    /**
+     * Remove list of documents from the collection that are based on the given ids.
+     *
+     * @param document_ids
+     * 				A list of document ids.
+     * @return	The number of documents that have been removed from the collection.
+     * @throws JSONStoreRemoveException
+     *             Thrown if the document could not be removed to the collection.
+     *             Commonly thrown if search fields are missing in the document.
+     *             The message contains the reason.
      * @throws JSONStoreDatabaseClosedException
      *             The JSONStore database is closed, and cannot be accessed to
-     *             perform the count.
+     *             perform the remove.
      */
-    public int countDocuments(JSONStoreQueryParts query) throws JSONStoreCountException, JSONStoreDatabaseClosedException {
-        return countDocuments(query, null);
+    public int removeDocumentsById(List<Integer> document_ids) throws JSONStoreRemoveException, JSONStoreDatabaseClosedException {
+        return removeDocumentsById(document_ids, null);
     }
 
     /**
-     * Count the number of documents in the collection that are based on the given query.
-     * @param query
-     *             The find query that limits the count scope.
+     * Remove list of documents from the collection that are based on the given ids.
+     *
+     * @param document_ids
+     * 			A list of document ids.
      * @param options
-     *             Additional options to modify the count operation.
-     * @return The total number of documents that are currently in the database that are not
-     *         marked dirty and fit the find query.
-     * @throws JSONStoreCountException
-     *             A failure occurred when trying to determine the count.
+     * 			Additional options to modify the remove operation.
+     * @return	The number of documents that have been removed from the collection.
+     * @throws JSONStoreRemoveException
+     *             Thrown if the document could not be removed to the collection.
+     *             Commonly thrown if search fields are missing in the document.
+     *             The message contains the reason.
      * @throws JSONStoreDatabaseClosedException
      *             The JSONStore database is closed, and cannot be accessed to
-     *             perform the count.
+     *             perform the remove.
      */
-    public int countDocuments(JSONStoreQueryParts query, JSONStoreCountOptions options) throws JSONStoreCountException, JSONStoreDatabaseClosedException {
-        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_COUNT);
-
+    public int removeDocumentsById(List<Integer> document_ids, JSONStoreRemoveOptions options) throws JSONStoreRemoveException, JSONStoreDatabaseClosedException {
+        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_REMOVE);
         try {
-            getAccessor(); // This does some closed checks.
-            if (query == null) {
-                query = new JSONStoreQueryParts();
+            DatabaseAccessor accessor = getAccessor();
+            if(options == null) {
+                options = new JSONStoreRemoveOptions();
             }
-            if (options == null) options = new JSONStoreCountOptions();
 
-            JSONStoreFindOptions findOptions = new JSONStoreFindOptions();
-            if(options.shouldIncludeDeletedDocuments()) {
-                findOptions.includeDeletedDocuments(true);
+            List<JSONObject> documents = new LinkedList<JSONObject>();
+            try {
+                documents = findDocumentsById(document_ids);
+            } catch (JSONStoreFindException e) {
+                throw new JSONStoreRemoveException("Could not execute find on document ids", e);
             }
 
-            findOptions.addSearchFilterSpecial(DatabaseConstants.SQL_COUNT);
+            List<JSONObject> failures = new LinkedList<JSONObject>();
+            List<Integer> removedIds = new ArrayList<Integer>();
+            int removedCount = 0;
 
-            try {
-                List<JSONObject> results = this.findDocuments(query, findOptions);
+            if(!initializedJSONStoreInstance.isTransactionInProgress()){
+                try{
+                    accessor.getRawDatabase().beginTransaction();
+                }
+                catch(Throwable e){
+                    throw new JSONStoreRemoveException(e);
+                }
+            }
 
-                if(results != null && results.size() == 1) {
-                    JSONObject countResults = results.get(0);
-                    if(countResults == null || countResults.opt(DatabaseConstants.SQL_COUNT) == null) {
-                        throw new JSONStoreCountException("Could not count the results. Missing count return value internally");
+            // Loop through the list of objects. Each object could reference a
+            // single object (with or without an _id) or could
+            // contain query parms (without an _id) that map to a set of multiple
+            // actual DB objects.
+            for (JSONObject documentToRemove : documents) {
+                if(documentToRemove == null) continue;
+
+
+                try {
+                    removedCount += accessor.getWritableDatabase().deleteIfRequired(documentToRemove, !options.isMarkDirty(), true);
+                    forgetCappedTotals();
+                    removedIds.add(documentToRemove.getInt(DatabaseConstants.FIELD_ID));
+                } catch (Throwable e) {
+                    // The update failed, so add the document to the list of failures.
+                    String message = "Error while removing/deleting document in collection \"" + getName() + "\".";
+                    logger.logTrace(message);
+                    failures.add(documentToRemove);
+
+                    // Roll back the transaction.
+                    if(initializedJSONStoreInstance.isTransactionInProgress()){
+                        try{
+                            accessor.getRawDatabase().endTransaction();
+                        }
+                        catch(Throwable e1){
+                            throw new JSONStoreRemoveException(e1);
+                        }
                     }
+                }
+            }
 
-                    return countResults.getInt(DatabaseConstants.SQL_COUNT);
-                } else {
-                    throw new JSONStoreCountException("Could not count the results. Missing results from find internally");
+            if (failures.size() > 0) {
+                // Roll back the transaction.
+                if(initializedJSONStoreInstance.isTransactionInProgress()){
+                    try{
+                        accessor.getRawDatabase().endTransaction();
+                    }
+                    catch(Throwable e1){
+                        throw new JSONStoreRemoveException(e1);
+                    }
                 }
-            } catch(JSONStoreFilterException e) {
-                throw new JSONStoreCountException("Could not count the results. Filter exception occured internally", e);
-            } catch(JSONStoreFindException e) {
-                throw new JSONStoreCountException("Could not count the results. Find exception occured internally",e);
-            } catch(JSONException e) {
-                throw new JSONStoreCountException("Could not count the results. JSONException occured internally", e);
 
+                String message = "At least one document could not be removed.";
+                JSONStoreRemoveException jsException = new JSONStoreRemoveException(message, failures);
+                logger.logError(message, jsException);
+                throw jsException;
+            }
+
+            try{
+                refreshViews(accessor, removedIds);
+            }
+            catch(Throwable e){
+                if(!initializedJSONStoreInstance.isTransactionInProgress()){
+                    accessor.getRawDatabase().endTransaction();
+                }
+                throw new JSONStoreRemoveException(e);
+            }
+
+            // Commit the transaction.
+            if(!initializedJSONStoreInstance.isTransactionInProgress()){
+                try{
+                    accessor.getRawDatabase().setTransactionSuccessful();
+                    accessor.getRawDatabase().endTransaction();
+                }
+                catch(Throwable e1){
+                    throw new JSONStoreRemoveException(e1);
+                }
             }
+
+            return removedCount;
         } finally {
             logInst.end();
         }
     }
 
     /**
-     * Count the number of dirty documents in the collection.
+     * Permanently delete the documents whose time to live has passed. Expired documents are already
+     * hidden from finds and counts, so this only frees the space they use. They are deleted in small
+     * batches, each in a transaction of its own unless a transaction is in progress, so that other
+     * writes never wait long for the purge. Expired documents are deleted even if they are dirty,
+     * and are not marked removed.
      *
-     * @return
-     *             The number of dirty documents.
+     * @return The number of documents that were deleted.
+     * @throws JSONStoreRemoveException
+     *             An error occurred when deleting the expired documents.
      * @throws JSONStoreDatabaseClosedException
      *             The JSONStore database is closed, and cannot be accessed to
-     *             perform the count.
-     * @throws JSONStoreCountException
-     *             A failure occurred when trying to determine the count.
+     *             perform the purge.
      */
-    public int countAllDirtyDocuments() throws JSONStoreDatabaseClosedException, JSONStoreCountException {
-
-        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_COUNT_ALL_DIRTY);
+    public int removeExpiredDocuments() throws JSONStoreRemoveException, JSONStoreDatabaseClosedException {
+        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_REMOVE);
         try {
-            getAccessor(); // This does some closed checks.
-            JSONStoreQueryParts queryContent = new JSONStoreQueryParts();
-            JSONStoreQueryPart queryContentPart = new JSONStoreQueryPart();
-            queryContentPart.addGreaterThan(DatabaseConstants.FIELD_DIRTY, 0);
-            queryContent.addQueryPart(queryContentPart);
-
-            JSONStoreCountOptions options = new JSONStoreCountOptions();
-            options.includeDeletedDocuments(true);
+            DatabaseAccessor acc = getAccessor();
 
-            return countDocuments(queryContent, options);
+            return removeExpiredDocuments(acc, !initializedJSONStoreInstance.isTransactionInProgress());
         } finally {
             logInst.end();
         }
     }
 
     /**
-     * Add data and create a new document in the collection.
+     * @exclude Deletes the expired documents batch by batch, refreshing the views from each batch.
+     */
+    private int removeExpiredDocuments(DatabaseAccessor acc, boolean own_transaction) throws JSONStoreRemoveException {
+        if (!schema.hasExpiry()) {
+            return 0;
+        }
+
+        int removedCount = 0;
+        int removed;
+
+        do {
+            try {
+                if (own_transaction) {
+                    acc.getRawDatabase().beginTransaction();
+                }
+
+                try {
+                    List<Integer> ids = acc.getWritableDatabase().deleteExpired(EXPIRY_PURGE_BATCH_SIZE);
+                    forgetCappedTotals();
+                    refreshViews(acc, ids);
+                    removed = ids.size();
+
+                    if (own_transaction) {
+                        acc.getRawDatabase().setTransactionSuccessful();
+                    }
+                } finally {
+                    if (own_transaction) {
+                        acc.getRawDatabase().endTransaction();
+                    }
+                }
+            } catch (Throwable e) {
+                String message = "Error when removing the expired documents of collection \"" + getName() + "\".";
+                JSONStoreRemoveException jsException = new JSONStoreRemoveException(message, e);
+                logger.logError(message, jsException);
+                throw jsException;
+            }
+
+            removedCount += removed;
+        } while (removed == EXPIRY_PURGE_BATCH_SIZE);
+
+        return removedCount;
+    }
+
+    /**
+     * Remove expired documents in the background, as removeExpiredDocuments does, until the
+     * collection is closed or stopExpiredDocumentPurge is called. Each batch of the purge runs in a
+     * transaction of its own, which waits for any transaction in progress to end.
      *
-     * @param object_to_add
-     *             The data for a new document to be added to the collection. The document must contain search
-     *             field keys.
-     * @throws JSONStoreAddException
-     *             Thrown if the document could not be added to the collection.
-     *             Commonly thrown if search fields are missing in the document.
-     *             The message contains the reason.
+     * @param interval_milliseconds
+     *            The time between the end of one purge and the start of the next.
+     * @throws JSONStoreDatabaseClosedException
+     *             The JSONStore database is closed.
+     */
+    public synchronized void startExpiredDocumentPurge(long interval_milliseconds) throws JSONStoreDatabaseClosedException {
+        final DatabaseAccessor acc = getAccessor();
+
+        if (interval_milliseconds <= 0) throw new IllegalArgumentException("Interval must be positive.");
+
+        stopExpiredDocumentPurge();
+
+        expiryPurge = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "JSONStore purge " + getName()); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        expiryPurge.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int removed = removeExpiredDocuments(acc, true);
+
+                    if (removed > 0) {
+                        logger.logDebug("removed " + removed + " expired documents from collection \"" + getName() + "\"");
+                    }
+                } catch (Throwable e) {
+                    // Already logged. The next purge tries again.
+                }
+            }
+        }, interval_milliseconds, interval_milliseconds, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop removing expired documents in the background. A purge that is running finishes its batch.
+     */
+    public synchronized void stopExpiredDocumentPurge() {
+        if (expiryPurge != null) {
+            expiryPurge.shutdown();
+            expiryPurge = null;
+        }
+    }
+
+
+    /**
+     * Replace a document in the collection.
+     *
+     * @param document
+     *             A JSONObject that represents the document to update in the collection.
+     *             The document's '_id' is used to determine which document to
+     *             replace.
+     * @return The number of replaced documents.
+     * @throws JSONStoreReplaceException
+     *             The document could not be replaced. The message contains the reason.
+     * @throws JSONStoreDatabaseClosedException
+     *             The collection is currently closed.
+     */
+    public int replaceDocument(JSONObject document) throws JSONStoreReplaceException, JSONStoreDatabaseClosedException {
+        return replaceDocument(document, null);
+    }
+
+    /**
+     * Replace a document in the collection.
+     *
+     * @param document
+     *             A JSONObject that represents the document to update in the collection.
+     *             The document's '_id' is used to determine which document to
+     *             replace.
+     * @param options
+     *             Additional options to modify the replace operation.
+     * @return The number of replaced documents.
+     * @throws JSONStoreReplaceException
+     *             The document could not be replaced. The message contains the reason.
+     * @throws JSONStoreDatabaseClosedException
+     *             The collection is currently closed.
+     */
+    public int replaceDocument(JSONObject document, JSONStoreReplaceOptions options) throws JSONStoreReplaceException, JSONStoreDatabaseClosedException {
+        if (document == null) return 0;
+
+        List<JSONObject> docList = new ArrayList<JSONObject>(1);
+        docList.add(document);
+        return replaceDocuments(docList, options);
+    }
+
+    /**
+     * Replace a list of documents in the collection.
+     *
+     * @param documents
+     *             A List that contains JSONObjects that represent the documents to update
+     *             in the collection. The document's '_id' is used to determine which
+     *             document to replace. If all documents could not be updated, a
+     *             rollback is performed to a state where no documents were updated.
+     * @return The number of replaced documents.
+     * @throws JSONStoreReplaceException
+     *             The document could not be replaced. The message contains the reason.
      * @throws JSONStoreDatabaseClosedException
-     *             The JSONStore database is closed, and cannot be accessed to
-     *             perform the add.
+     *             The collection is currently closed.
      */
-    public void addData(JSONObject object_to_add) throws JSONStoreAddException, JSONStoreDatabaseClosedException {
-        List<JSONObject> data = new ArrayList<JSONObject>();
-        data.add(object_to_add);
-
-        addData(data, null);
+    public int replaceDocuments(List<JSONObject> documents) throws JSONStoreDatabaseClosedException, JSONStoreReplaceException {
+        return replaceDocuments(documents, null);
     }
 
     /**
-     * Add data and create a new document in the collection.
+     * Replace a list of documents in the collection.
      *
-     * @param data
-     *             The data for a new document to be added to the collection. The document must contain search
-     *             field keys.
+     * @param documents
+     *             A List that contains JSONObjects that represent the documents to update
+     *             in the collection. The document's '_id' is used to determine which
+     *             document to replace. If all documents could not be updated, a
+     *             rollback is performed to a state where no documents were updated.
      * @param options
-     *             Additional options to modify the add operation.
-     * @throws JSONStoreAddException
-     *             Thrown if the document could not be added to the collection.
-     *             Commonly thrown if search fields are missing in the document.
-     *             The message contains the reason.
+     *             Additional options to modify the replace operation.
+     * @return The number of replaced documents.
+     * @throws JSONStoreReplaceException
+     *             The document could not be replaced. The message contains the reason.
      * @throws JSONStoreDatabaseClosedException
-     *             The JSONStore database is closed, and cannot be accessed to
-     *             perform the add.
+     *             The collection is currently closed.
      */
-    public void addData(List<JSONObject> data, JSONStoreAddOptions options) throws JSONStoreAddException, JSONStoreDatabaseClosedException {
-        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_ADD);
+    public int replaceDocuments(List<JSONObject> documents, JSONStoreReplaceOptions options) throws JSONStoreDatabaseClosedException, JSONStoreReplaceException {
+        int updatedDocs = 0;
+
+
+        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_REPLACE);
         try {
-            if (options == null) options = new JSONStoreAddOptions();
-            if(data == null || data.size() <= 0) return;
-            DatabaseAccessor acc = getAccessor();
 
-            if(!initializedJSONStoreInstance.isTransactionInProgress()){
-                acc.getRawDatabase().beginTransaction();
+            if(documents == null) {
+                return updatedDocs;
             }
 
-            int numberOfDocumentsStored = 0;
+            if (options == null) {
+                options = new JSONStoreReplaceOptions();
+            }
 
-            try {
-                for(JSONObject data_to_add : data){
-                    if(data_to_add == null){
-                        continue;
-                    }
+            DatabaseAccessor acc = getAccessor();
+            List<JSONObject> failures = new LinkedList<JSONObject>();
+            List<Integer> replacedIds = new ArrayList<Integer>();
 
-                    Map<String, Object> mappedObj = null;
-                    try {
-                        mappedObj = schema.mapObject(data_to_add, options.getAdditionalSearchFieldsAsJSON());
-                        mappedObj.put(DatabaseConstants.FIELD_JSON, data_to_add.toString());
-                    } catch (Throwable t) {
-                        String message = "An internal error occurred when trying to store the JSONObject. Error mapping the search fields.";
-                        JSONStoreAddException jsException = new JSONStoreAddException(message, t);
-                        logger.logError(message, jsException);
-                        throw jsException;
-                    }
+            if (options.getTimeToLive() != null && !schema.hasExpiry()) {
+                String message = "Documents cannot be replaced with a time to live in collection \"" + getName() + "\", which has no time to live.";
+                JSONStoreReplaceException jsException = new JSONStoreReplaceException(message);
+                logger.logError(message, jsException);
+                throw jsException;
+            }
 
-                    if (options.isMarkDirty()) {
-                        mappedObj.put(DatabaseConstants.FIELD_DIRTY, new Date().getTime());
-                        mappedObj.put(DatabaseConstants.FIELD_OPERATION, DatabaseConstants.OPERATION_ADD);
-                    }
+            // Without a time to live, replaced documents keep the expiry they had.
+            Long expires = getExpiry(options.getTimeToLive());
 
-                    else {
-                        mappedObj.put(DatabaseConstants.FIELD_DIRTY, 0);
-                        mappedObj.put(DatabaseConstants.FIELD_OPERATION, DatabaseConstants.OPERATION_STORE);
+            // Iterate over all the documents and replace them.
+            acc.getRawDatabase().beginTransaction();
+            try {
+                for (JSONObject document: documents) {
+                    if(document == null) continue;
+                    try {
+                        updatedDocs++;
+                        acc.getWritableDatabase().update(document, options.isMarkDirty(), expires);
+                        forgetCappedTotals();
+                        replacedIds.add(document.getInt(DatabaseConstants.FIELD_ID));
                     }
 
-                    ContentValues contentValues = new ContentValues();
-                    Iterator<String> keys = mappedObj.keySet().iterator();
-
-                    while (keys.hasNext()) {
-                        String key = keys.next();
+                    catch (Throwable e) {
+                        String message = "Error while updating document on collection \"" + schema.getName() + "\".";
+                        logger.logTrace(message);
 
-                        // WL 6.0 change: Handle booleans like iOS, turn true into 1 and
-                        // false into 0.
-                        Object val = mappedObj.get(key);
-                        if (val instanceof Boolean) {
-                            val = (Boolean) val ? 1 : 0;
+                        if (document != null) {
+                            failures.add(document);
                         }
-
-                        contentValues.put("'" + JSONStoreUtil.getDatabaseSafeSearchFieldName(key) + "'", val.toString()); //$NON-NLS-1$ //$NON-NLS-2$
-
-                    }
-
-                    long rc = acc.getRawDatabase().insert(getName(), null, contentValues);
-
-                    if (rc == -1) { // no error
-                        String message = "An internal error occurred when trying to insert a document.";
-                        JSONStoreAddException jsException = new JSONStoreAddException(message, numberOfDocumentsStored);
-                        logger.logError(message, jsException);
-                        throw jsException;
                     }
-
-                    numberOfDocumentsStored++;
                 }
 
-                if(!initializedJSONStoreInstance.isTransactionInProgress()){
-                    acc.getRawDatabase().setTransactionSuccessful();
-                }
-            }
-            finally{
-                // Commit or roll back transaction, depending on whether it was set successful or not:
-                if(!initializedJSONStoreInstance.isTransactionInProgress()){
-                    acc.getRawDatabase().endTransaction();
+                if (failures.size() != 0) {
+                    String message = "At least one document failed to be replaced.";
+                    JSONStoreReplaceException jsException = new JSONStoreReplaceException(message, failures);
+                    logger.logError(message, jsException);
+                    throw jsException;
                 }
+
+                refreshViews(acc, replacedIds);
+
+                acc.getRawDatabase().setTransactionSuccessful();
+                return updatedDocs;
+            } finally {
+                acc.getRawDatabase().endTransaction();
             }
         } finally {
             logInst.end();
         }
     }
 
-    public void addData(JSONObject object_to_add, JSONStoreAddOptions opts) throws JSONStoreAddException, JSONStoreDatabaseClosedException {
-        List<JSONObject> data = new ArrayList<JSONObject>();
-        data.add(object_to_add);
+    /**
+     * Replace documents only where they have not changed since they were read. A document is
+     * replaced if the revision it was found with, its '_rev', is still the stored one. Otherwise it
+     * is a conflict: it was replaced, incremented or removed in the meantime, by this or another
+     * thread, and is left as it is. Writers therefore do not need to hold a lock between the find
+     * and the replace, and the conflicts of a batch are returned together to be merged and retried.
+     * A replace increments the revision of the document, so find the documents again to replace
+     * them again.
+     *
+     * @param documents
+     *             Documents as returned by a find with JSONStoreFindOptions.includeRevisions,
+     *             with their '_id', '_rev' and 'json'. Other finds do not return the '_rev'.
+     * @param options
+     *             Additional options to modify the replace operation.
+     * @return The conflicts, each as the document is now stored, with its '_id', '_rev' and
+     *         'json', or with only its '_id' if it was removed. An empty list if every document
+     *         was replaced.
+     * @throws JSONStoreReplaceException
+     *             A document has no '_id' or '_rev', or could not be replaced. No document is
+     *             replaced.
+     * @throws JSONStoreDatabaseClosedException
+     *             The collection is currently closed.
+     */
+    public List<JSONObject> replaceDocumentsIfUnchanged(List<JSONObject> documents, JSONStoreReplaceOptions options) throws JSONStoreDatabaseClosedException, JSONStoreReplaceException {
+        List<JSONObject> conflicts = new ArrayList<JSONObject>();
 
-        addData(data, opts);
-    }
+        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_REPLACE);
+        try {
+            DatabaseAccessor acc = getAccessor();
 
-    public void addData(List<JSONObject> object_to_add) throws JSONStoreAddException, JSONStoreDatabaseClosedException {
-        addData(object_to_add, null);
-    }
+            if (documents == null) {
+                return conflicts;
+            }
 
-    public void addData(JSONArray dataArray) throws JSONStoreAddException, JSONStoreDatabaseClosedException {
-        List<JSONObject> data = JSONStoreUtil.convertJSONArrayToJSONObjectList((JSONArray) dataArray);
+            if (options == null) {
+                options = new JSONStoreReplaceOptions();
+            }
 
-        addData(data, null);
-    }
+            if (options.getTimeToLive() != null && !schema.hasExpiry()) {
+                String message = "Documents cannot be replaced with a time to live in collection \"" + getName() + "\", which has no time to live.";
+                JSONStoreReplaceException jsException = new JSONStoreReplaceException(message);
+                logger.logError(message, jsException);
+                throw jsException;
+            }
 
-    public void addData(JSONArray dataArray, JSONStoreAddOptions opts) throws JSONStoreAddException, JSONStoreDatabaseClosedException {
-        List<JSONObject> data = JSONStoreUtil.convertJSONArrayToJSONObjectList((JSONArray) dataArray);
+            Long expires = getExpiry(options.getTimeToLive());
+            List<JSONObject> failures = new LinkedList<JSONObject>();
+            List<Integer> replacedIds = new ArrayList<Integer>();
 
-        addData(data, opts);
-    }
+            acc.getRawDatabase().beginTransaction();
+            try {
+                for (JSONObject document : documents) {
+                    if (document == null) continue;
+                    try {
+                        JSONObject conflict = findConflict(acc, document);
 
-    /**
-     * Remove a document from a collection that is based on the given id.
-     *
-     * @param id the integer id
-     * @return the number of documents removed from the collection.
-     * @throws JSONStoreRemoveException
-     *             Thrown if the document could not be removed to the collection.
-     *             Commonly thrown if search fields are missing in the document.
-     *             The message contains the reason.
-     * @throws JSONStoreDatabaseClosedException
-     *             The JSONStore database is closed, and cannot be accessed to
-     *             perform the remove.
-     */
-    public int removeDocumentById(Integer id) throws JSONStoreRemoveException, JSONStoreDatabaseClosedException {
-        return removeDocumentById(id, null);
-    }
+                        if (conflict != null) {
+                            conflicts.add(conflict);
+                            continue;
+                        }
 
-    /**
-     * Remove a document from the collection that is based on the given id.
-     *
-     * @param id the integer id
-     * @param options Additional options to modify the remove operation.
-     * @return the number of documents removed from the collection.
-     * @throws JSONStoreRemoveException
-     *             Thrown if the document could not be removed to the collection.
-     *             Commonly thrown if search fields are missing in the document.
-     *             The message contains the reason.
-     * @throws JSONStoreDatabaseClosedException
-     *             The JSONStore database is closed, and cannot be accessed to
-     *             perform the remove.
-     */
-    public int removeDocumentById(Integer id, JSONStoreRemoveOptions options) throws JSONStoreRemoveException, JSONStoreDatabaseClosedException {
-        List<Integer> list = new ArrayList<Integer>(1);
-        list.add(id);
-        return removeDocumentsById(list, options);
-    }
+                        acc.getWritableDatabase().update(document, options.isMarkDirty(), expires);
+                        replacedIds.add(document.getInt(DatabaseConstants.FIELD_ID));
+                    }
 
-    /**
-     * Remove list of documents from the collection that are based on the given ids.
-     *
-     * @param document_ids
-     * 				A list of document ids.
-     * @return	The number of documents that have been removed from the collection.
-     * @throws JSONStoreRemoveException
-     *             Thrown if the document could not be removed to the collection.
-     *             Commonly thrown if search fields are missing in the document.
-     *             The message contains the reason.
-     * @throws JSONStoreDatabaseClosedException
-     *             The JSONStore database is closed, and cannot be accessed to
-     *             perform the remove.
-     */
-    public int removeDocumentsById(List<Integer> document_ids) throws JSONStoreRemoveException, JSONStoreDatabaseClosedException {
-        return removeDocumentsById(document_ids, null);
+                    catch (Throwable e) {
+                        String message = "Error while updating document on collection \"" + schema.getName() + "\".";
+                        logger.logTrace(message);
+                        failures.add(document);
+                    }
+                }
+
+                if (failures.size() != 0) {
+                    String message = "At least one document failed to be replaced.";
+                    JSONStoreReplaceException jsException = new JSONStoreReplaceException(message, failures);
+                    logger.logError(message, jsException);
+                    throw jsException;
+                }
+
+                refreshViews(acc, replacedIds);
+                forgetCappedTotals();
+
+                acc.getRawDatabase().setTransactionSuccessful();
+            } finally {
+                acc.getRawDatabase().endTransaction();
+            }
+
+            if (!conflicts.isEmpty()) {
+                logger.logDebug(conflicts.size() + " of " + documents.size() + " documents were not replaced in collection \"" + getName() + "\" because they changed");
+            }
+
+            return conflicts;
+        } finally {
+            logInst.end();
+        }
     }
 
     /**
-     * Remove list of documents from the collection that are based on the given ids.
+     * Remove documents only where they have not changed since they were read. See
+     * {@link #replaceDocumentsIfUnchanged(List, JSONStoreReplaceOptions)}.
      *
-     * @param document_ids
-     * 			A list of document ids.
+     * @param documents
+     *             Documents as returned by a find with JSONStoreFindOptions.includeRevisions,
+     *             with their '_id' and '_rev'.
      * @param options
-     * 			Additional options to modify the remove operation.
-     * @return	The number of documents that have been removed from the collection.
+     *             Additional options to modify the remove operation.
+     * @return The conflicts, each as the document is now stored, with its '_id', '_rev' and
+     *         'json', or with only its '_id' if it was already removed. An empty list if every
+     *         document was removed.
      * @throws JSONStoreRemoveException
-     *             Thrown if the document could not be removed to the collection.
-     *             Commonly thrown if search fields are missing in the document.
-     *             The message contains the reason.
+     *             A document has no '_id' or '_rev', or could not be removed. No document is
+     *             removed.
      * @throws JSONStoreDatabaseClosedException
-     *             The JSONStore database is closed, and cannot be accessed to
-     *             perform the remove.
+     *             The collection is currently closed.
      */
-    public int removeDocumentsById(List<Integer> document_ids, JSONStoreRemoveOptions options) throws JSONStoreRemoveException, JSONStoreDatabaseClosedException {
+    public List<JSONObject> removeDocumentsIfUnchanged(List<JSONObject> documents, JSONStoreRemoveOptions options) throws JSONStoreDatabaseClosedException, JSONStoreRemoveException {
+        List<JSONObject> conflicts = new ArrayList<JSONObject>();
+
         JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_REMOVE);
         try {
-            DatabaseAccessor accessor = getAccessor();
-            if(options == null) {
-                options = new JSONStoreRemoveOptions();
+            DatabaseAccessor acc = getAccessor();
+
+            if (documents == null) {
+                return conflicts;
             }
 
-            List<JSONObject> documents = new LinkedList<JSONObject>();
-            try {
-                documents = findDocumentsById(document_ids);
-            } catch (JSONStoreFindException e) {
-                throw new JSONStoreRemoveException("Could not execute find on document ids", e);
+            if (options == null) {
+                options = new JSONStoreRemoveOptions();
             }
 
             List<JSONObject> failures = new LinkedList<JSONObject>();
-            int removedCount = 0;
-
-            if(!initializedJSONStoreInstance.isTransactionInProgress()){
-                try{
-                    accessor.getRawDatabase().beginTransaction();
-                }
-                catch(Throwable e){
-                    throw new JSONStoreRemoveException(e);
-                }
-            }
+            List<Integer> removedIds = new ArrayList<Integer>();
 
-            // Loop through the list of objects. Each object could reference a
-            // single object (with or without an _id) or could
-            // contain query parms (without an _id) that map to a set of multiple
-            // actual DB objects.
-            for (JSONObject documentToRemove : documents) {
-                if(documentToRemove == null) continue;
+            acc.getRawDatabase().beginTransaction();
+            try {
+                for (JSONObject document : documents) {
+                    if (document == null) continue;
+                    try {
+                        JSONObject conflict = findConflict(acc, document);
 
+                        if (conflict != null) {
+                            conflicts.add(conflict);
+                            continue;
+                        }
 
-                try {
-                    removedCount += accessor.getWritableDatabase().deleteIfRequired(documentToRemove, !options.isMarkDirty(), true);
-                } catch (Throwable e) {
-                    // The update failed, so add the document to the list of failures.
-                    String message = "Error while removing/deleting document in collection \"" + getName() + "\".";
-                    logger.logTrace(message);
-                    failures.add(documentToRemove);
+                        // Only the _id is used, so that the document is not looked up by its contents.
+                        int id = document.getInt(DatabaseConstants.FIELD_ID);
+                        acc.getWritableDatabase().deleteIfRequired(new JSONObject().put(DatabaseConstants.FIELD_ID, id), !options.isMarkDirty(), true);
+                        removedIds.add(id);
+                    }
 
-                    // Roll back the transaction.
-                    if(initializedJSONStoreInstance.isTransactionInProgress()){
-                        try{
-                            accessor.getRawDatabase().endTransaction();
-                        }
-                        catch(Throwable e1){
-                            throw new JSONStoreRemoveException(e1);
-                        }
+                    catch (Throwable e) {
+                        String message = "Error while removing/deleting document in collection \"" + getName() + "\".";
+                        logger.logTrace(message);
+                        failures.add(document);
                     }
                 }
-            }
 
-            if (failures.size() > 0) {
-                // Roll back the transaction.
-                if(initializedJSONStoreInstance.isTransactionInProgress()){
-                    try{
-                        accessor.getRawDatabase().endTransaction();
-                    }
-                    catch(Throwable e1){
-                        throw new JSONStoreRemoveException(e1);
-                    }
+                if (failures.size() != 0) {
+                    String message = "At least one document could not be removed.";
+                    JSONStoreRemoveException jsException = new JSONStoreRemoveException(message, failures);
+                    logger.logError(message, jsException);
+                    throw jsException;
                 }
 
-                String message = "At least one document could not be removed.";
-                JSONStoreRemoveException jsException = new JSONStoreRemoveException(message, failures);
-                logger.logError(message, jsException);
-                throw jsException;
+                refreshViews(acc, removedIds);
+                forgetCappedTotals();
+
+                acc.getRawDatabase().setTransactionSuccessful();
+            } finally {
+                acc.getRawDatabase().endTransaction();
             }
 
-            // Commit the transaction.
-            if(!initializedJSONStoreInstance.isTransactionInProgress()){
-                try{
-                    accessor.getRawDatabase().setTransactionSuccessful();
-                    accessor.getRawDatabase().endTransaction();
-                }
-                catch(Throwable e1){
-                    throw new JSONStoreRemoveException(e1);
-                }
+            if (!conflicts.isEmpty()) {
+                logger.logDebug(conflicts.size() + " of " + documents.size() + " documents were not removed from collection \"" + getName() + "\" because they changed");
             }
 
-            return removedCount;
+            return conflicts;
         } finally {
             logInst.end();
         }
     }
 
-
     /**
-     * Replace a document in the collection.
-     *
-     * @param document
-     *             A JSONObject that represents the document to update in the collection.
-     *             The document's '_id' is used to determine which document to
-     *             replace.
-     * @return The number of replaced documents.
-     * @throws JSONStoreReplaceException
-     *             The document could not be replaced. The message contains the reason.
-     * @throws JSONStoreDatabaseClosedException
-     *             The collection is currently closed.
+     * @exclude Compares the revision a document was found with to the stored one, inside the
+     *          transaction of the write, so no other write can come in between.
+     * @return Null if they are the same, otherwise the document as it is stored, or only its _id
+     *         if it was removed.
+     * @throws Throwable
+     *             The document has no _id or _rev.
      */
-    public int replaceDocument(JSONObject document) throws JSONStoreReplaceException, JSONStoreDatabaseClosedException {
-        return replaceDocument(document, null);
+    private JSONObject findConflict(DatabaseAccessor acc, JSONObject document) throws Throwable {
+        int id = document.getInt(DatabaseConstants.FIELD_ID);
+        int revision = document.getInt(DatabaseConstants.FIELD_REV);
+        Cursor cursor = acc.getReadableDatabase().findWithRevisionById(id);
+
+        try {
+            if (!cursor.moveToNext()) {
+                return new JSONObject().put(DatabaseConstants.FIELD_ID, id);
+            }
+
+            if (cursor.getInt(1) == revision) {
+                return null;
+            }
+
+            JSONObject stored = new JacksonSerializedJSONObject();
+            stored.put(DatabaseConstants.FIELD_ID, id);
+            stored.put(DatabaseConstants.FIELD_REV, cursor.getInt(1));
+            stored.put(DatabaseConstants.FIELD_JSON, JsonOrgModule.deserializeJSONObject(cursor.getString(2)));
+            return stored;
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
-     * Replace a document in the collection.
+     * Add to a number in a document, in place. Only the number is rewritten in the stored document,
+     * and a search field for the path is updated in the same statement, so the document is not read
+     * into objects and written back as a replace would. The document is marked dirty the way a
+     * replace marks it.
      *
-     * @param document
-     *             A JSONObject that represents the document to update in the collection.
-     *             The document's '_id' is used to determine which document to
-     *             replace.
-     * @param options
-     *             Additional options to modify the replace operation.
-     * @return The number of replaced documents.
+     * @param id
+     *             The _id of the document.
+     * @param path
+     *             The dotted path of the number in the document, such as "stats.views". The values
+     *             on the way to it must be objects.
+     * @param delta
+     *             The amount to add, which may be negative.
+     * @return The new value of the number.
      * @throws JSONStoreReplaceException
-     *             The document could not be replaced. The message contains the reason.
+     *             The document does not exist, has no number at the path, or the sum of two
+     *             integers overflows a long.
      * @throws JSONStoreDatabaseClosedException
      *             The collection is currently closed.
      */
-    public int replaceDocument(JSONObject document, JSONStoreReplaceOptions options) throws JSONStoreReplaceException, JSONStoreDatabaseClosedException {
-        if (document == null) return 0;
-
-        List<JSONObject> docList = new ArrayList<JSONObject>(1);
-        docList.add(document);
-        return replaceDocuments(docList, options);
+    public Number increment(int id, String path, Number delta) throws JSONStoreReplaceException, JSONStoreDatabaseClosedException {
+        return increment(id, path, delta, null);
     }
 
     /**
-     * Replace a list of documents in the collection.
+     * Add to a number in a document, in place. See {@link #increment(int, String, Number)}.
      *
-     * @param documents
-     *             A List that contains JSONObjects that represent the documents to update
-     *             in the collection. The document's '_id' is used to determine which
-     *             document to replace. If all documents could not be updated, a
-     *             rollback is performed to a state where no documents were updated.
-     * @return The number of replaced documents.
+     * @param id
+     *             The _id of the document.
+     * @param path
+     *             The dotted path of the number in the document, such as "stats.views".
+     * @param delta
+     *             The amount to add, which may be negative.
+     * @param options
+     *             Whether to mark the document dirty. A time to live is not used.
+     * @return The new value of the number.
      * @throws JSONStoreReplaceException
-     *             The document could not be replaced. The message contains the reason.
+     *             The document does not exist, has no number at the path, or the sum of two
+     *             integers overflows a long.
      * @throws JSONStoreDatabaseClosedException
      *             The collection is currently closed.
      */
-    public int replaceDocuments(List<JSONObject> documents) throws JSONStoreDatabaseClosedException, JSONStoreReplaceException {
-        return replaceDocuments(documents, null);
+    public Number increment(int id, String path, Number delta, JSONStoreReplaceOptions options) throws JSONStoreReplaceException, JSONStoreDatabaseClosedException {
+        List<Integer> ids = new ArrayList<Integer>(1);
+        ids.add(id);
+
+        return incrementDocuments(ids, path, delta, options).get(id);
     }
 
     /**
-     * Replace a list of documents in the collection.
+     * Add to a number in several documents, in place and in one transaction. If any document does
+     * not exist or has no number at the path, none of them is changed. See
+     * {@link #increment(int, String, Number)}.
      *
-     * @param documents
-     *             A List that contains JSONObjects that represent the documents to update
-     *             in the collection. The document's '_id' is used to determine which
-     *             document to replace. If all documents could not be updated, a
-     *             rollback is performed to a state where no documents were updated.
+     * @param ids
+     *             The _ids of the documents.
+     * @param path
+     *             The dotted path of the number in the documents, such as "stats.views".
+     * @param delta
+     *             The amount to add, which may be negative.
      * @param options
-     *             Additional options to modify the replace operation.
-     * @return The number of replaced documents.
+     *             Whether to mark the documents dirty. A time to live is not used.
+     * @return The number of documents changed.
      * @throws JSONStoreReplaceException
-     *             The document could not be replaced. The message contains the reason.
+     *             A document could not be changed. The failures contain the _id of each one.
      * @throws JSONStoreDatabaseClosedException
      *             The collection is currently closed.
      */
-    public int replaceDocuments(List<JSONObject> documents, JSONStoreReplaceOptions options) throws JSONStoreDatabaseClosedException, JSONStoreReplaceException {
-        int updatedDocs = 0;
+    public int increment(List<Integer> ids, String path, Number delta, JSONStoreReplaceOptions options) throws JSONStoreReplaceException, JSONStoreDatabaseClosedException {
+        return incrementDocuments(ids, path, delta, options).size();
+    }
 
+    /*
+     * Increments the number at a path of each document, and returns the new
+     * values by _id.
+     */
+    private Map<Integer, Number> incrementDocuments(List<Integer> ids, String path, Number delta, JSONStoreReplaceOptions options) throws JSONStoreReplaceException, JSONStoreDatabaseClosedException {
+        Map<Integer, Number> sums = new LinkedHashMap<Integer, Number>();
 
         JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_REPLACE);
         try {
+            DatabaseAccessor acc = getAccessor();
 
-            if(documents == null) {
-                return updatedDocs;
+            if (ids == null || ids.isEmpty()) {
+                return sums;
+            }
+
+            if (path == null || delta == null) {
+                String message = "A path and a delta are required to increment documents in collection \"" + getName() + "\".";
+                JSONStoreReplaceException jsException = new JSONStoreReplaceException(message);
+                logger.logError(message, jsException);
+                throw jsException;
             }
 
             if (options == null) {
                 options = new JSONStoreReplaceOptions();
             }
 
-            DatabaseAccessor acc = getAccessor();
             List<JSONObject> failures = new LinkedList<JSONObject>();
+            List<Integer> incrementedIds = new ArrayList<Integer>();
 
-            // Iterate over all the documents and replace them.
             acc.getRawDatabase().beginTransaction();
             try {
-                for (JSONObject document: documents) {
-                    if(document == null) continue;
+                for (Integer id : ids) {
+                    if (id == null) continue;
                     try {
-                        updatedDocs++;
-                        acc.getWritableDatabase().update(document, options.isMarkDirty());
+                        Number sum = acc.getWritableDatabase().increment(id, path, delta, options.isMarkDirty());
+
+                        if (sum == null) {
+                            throw new Throwable("document " + id + " does not exist");
+                        }
+
+                        sums.put(id, sum);
+                        incrementedIds.add(id);
                     }
 
                     catch (Throwable e) {
-                        String message = "Error while updating document on collection \"" + schema.getName() + "\".";
+                        String message = "Error while incrementing \"" + path + "\" of document " + id + " on collection \"" + schema.getName() + "\".";
                         logger.logTrace(message);
 
-                        if (document != null) {
-                            failures.add(document);
+                        try {
+                            failures.add(new JSONObject().put(DatabaseConstants.FIELD_ID, id.intValue()));
+                        } catch (JSONException ignored) {
+                            // An int can always be put.
                         }
                     }
                 }
 
                 if (failures.size() != 0) {
-                    String message = "At least one document failed to be replaced.";
+                    String message = "At least one document failed to be incremented.";
                     JSONStoreReplaceException jsException = new JSONStoreReplaceException(message, failures);
                     logger.logError(message, jsException);
                     throw jsException;
                 }
 
+                refreshViews(acc, incrementedIds);
+                forgetCappedTotals();
+
                 acc.getRawDatabase().setTransactionSuccessful();
-                return updatedDocs;
+                return sums;
+            } finally {
+                acc.getRawDatabase().endTransaction();
+            }
+        } finally {
+            logInst.end();
+        }
+    }
+
+    /**
+     * Remove every document that matches a query with one statement over the collection, instead
+     * of finding the documents and removing them by _id. The documents are not read. As with
+     * {@link #removeDocumentsById(List, JSONStoreRemoveOptions)}, the documents are deleted unless
+     * the options mark them dirty. Then they are marked removed, so that the removes can be pushed,
+     * except the documents whose add was never pushed, which are deleted.
+     *
+     * @param query
+     *             The query for the documents to remove, or null for every document. Path criteria
+     *             cannot be used.
+     * @param options
+     *             Whether to mark the documents dirty.
+     * @return The number of documents removed.
+     * @throws JSONStoreRemoveException
+     *             The query has path criteria, or the documents could not be removed. None of them
+     *             is removed.
+     * @throws JSONStoreDatabaseClosedException
+     *             The collection is currently closed.
+     */
+    public int removeDocuments(JSONStoreQueryParts query, JSONStoreRemoveOptions options) throws JSONStoreRemoveException, JSONStoreDatabaseClosedException {
+        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_REMOVE);
+        try {
+            DatabaseAccessor acc = getAccessor();
+
+            if (options == null) {
+                options = new JSONStoreRemoveOptions();
+            }
+
+            QueryBuilderWrite writeQuery;
+            try {
+                writeQuery = new QueryBuilderWrite(this, (query == null) ? new JSONStoreQueryParts() : query);
+            } catch (IllegalArgumentException e) {
+                String message = "Documents cannot be removed by a query with path criteria in collection \"" + getName() + "\".";
+                JSONStoreRemoveException jsException = new JSONStoreRemoveException(message, e);
+                logger.logError(message, jsException);
+                throw jsException;
+            }
+
+            acc.getRawDatabase().beginTransaction();
+            try {
+                // The _ids are only needed to refresh the views.
+                List<Integer> ids = views.isEmpty() ? new ArrayList<Integer>() : acc.getWritableDatabase().findIds(writeQuery);
+                int removed = acc.getWritableDatabase().removeWhere(writeQuery, options.isMarkDirty());
+
+                refreshViews(acc, ids);
+                forgetCappedTotals();
+
+                acc.getRawDatabase().setTransactionSuccessful();
+                return removed;
+            } catch (JSONStoreDatabaseClosedException e) {
+                throw e;
+            } catch (Throwable e) {
+                String message = "Error while removing the documents that match a query in collection \"" + getName() + "\".";
+                JSONStoreRemoveException jsException = new JSONStoreRemoveException(message, e);
+                logger.logError(message, jsException);
+                throw jsException;
+            } finally {
+                acc.getRawDatabase().endTransaction();
+            }
+        } finally {
+            logInst.end();
+        }
+    }
+
+    /**
+     * Set values in every document that matches a query, without reading the documents into the
+     * application. The values are written into the stored JSON and into the search fields at
+     * their paths, and the documents are marked the way {@link #replaceDocuments(List,
+     * JSONStoreReplaceOptions)} marks them. The paths that do not exist yet are created.
+     *
+     * @param query
+     *             The query for the documents to change, or null for every document. Path criteria
+     *             cannot be used.
+     * @param field_assignments
+     *             The values to set by dotted path, such as "status" or "address.city". A value is a
+     *             string, a number, a boolean, or null.
+     * @param options
+     *             Whether to mark the documents dirty. A time to live is not used.
+     * @return The number of documents changed.
+     * @throws JSONStoreReplaceException
+     *             The query has path criteria, a path or a value cannot be set, or the documents
+     *             could not be changed. None of them is changed.
+     * @throws JSONStoreDatabaseClosedException
+     *             The collection is currently closed.
+     */
+    public int updateDocuments(JSONStoreQueryParts query, Map<String, Object> field_assignments, JSONStoreReplaceOptions options) throws JSONStoreReplaceException, JSONStoreDatabaseClosedException {
+        JSONStoreAnalyticsLogInstance logInst = JSONStoreLogger.startAnalyticsInstance(getUsername(), getName(), JSONStoreLogger.OPERATION_REPLACE);
+        try {
+            DatabaseAccessor acc = getAccessor();
+
+            if (field_assignments == null || field_assignments.isEmpty()) {
+                return 0;
+            }
+
+            for (Entry<String, Object> assignment : field_assignments.entrySet()) {
+                String path = assignment.getKey();
+                Object value = assignment.getValue();
+
+                if (path == null || path.length() == 0 || path.startsWith(".") || path.endsWith(".") || path.contains("..") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                        || isJSONCreatedColumn(path) || path.equals(DatabaseConstants.FIELD_EXPIRES)) {
+                    String message = "\"" + path + "\" cannot be set in the documents of collection \"" + getName() + "\".";
+                    JSONStoreReplaceException jsException = new JSONStoreReplaceException(message);
+                    logger.logError(message, jsException);
+                    throw jsException;
+                }
+
+                if (value != null && value != JSONObject.NULL && !(value instanceof String) && !(value instanceof Number) && !(value instanceof Boolean)) {
+                    String message = "The value of \"" + path + "\" must be a string, a number, a boolean or null to be set in the documents of collection \"" + getName() + "\".";
+                    JSONStoreReplaceException jsException = new JSONStoreReplaceException(message);
+                    logger.logError(message, jsException);
+                    throw jsException;
+                }
+            }
+
+            if (options == null) {
+                options = new JSONStoreReplaceOptions();
+            }
+
+            QueryBuilderWrite writeQuery;
+            try {
+                writeQuery = new QueryBuilderWrite(this, (query == null) ? new JSONStoreQueryParts() : query);
+            } catch (IllegalArgumentException e) {
+                String message = "Documents cannot be updated by a query with path criteria in collection \"" + getName() + "\".";
+                JSONStoreReplaceException jsException = new JSONStoreReplaceException(message);
+                logger.logError(message, jsException);
+                throw jsException;
+            }
+
+            acc.getRawDatabase().beginTransaction();
+            try {
+                List<Integer> ids = acc.getWritableDatabase().findIds(writeQuery);
+                int updated = acc.getWritableDatabase().updateByIds(ids, field_assignments, options.isMarkDirty());
+
+                refreshViews(acc, ids);
+                forgetCappedTotals();
+
+                acc.getRawDatabase().setTransactionSuccessful();
+                return updated;
+            } catch (JSONStoreDatabaseClosedException e) {
+                throw e;
+            } catch (Throwable e) {
+                String message = "Error while updating the documents that match a query in collection \"" + getName() + "\": " + e.getMessage();
+                JSONStoreReplaceException jsException = new JSONStoreReplaceException(message);
+                logger.logError(message, jsException);
+                throw jsException;
             } finally {
                 acc.getRawDatabase().endTransaction();
             }
@@ -0,0 +1,208 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.api;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Computes the value of a computed search field from a document. Declared with
+ * JSONStoreCollection.setComputedSearchField, it is called once for every document that is added or
+ * replaced, and the value it returns is stored in the search field's column, so queries on derived
+ * values such as a lower case email address or an order total are index lookups.
+ *
+ * The static methods return the common computations. Other computations subclass this class and
+ * implement compute.
+ */
+public abstract class JSONStoreComputedField {
+
+	private String definition;
+
+	/**
+	 * @param definition
+	 *            A description of what the field computes, such as "lower(email)". When it differs
+	 *            from the one the collection was last opened with, the field is computed again for
+	 *            every stored document. With null, the stored values are never computed again.
+	 */
+	protected JSONStoreComputedField(String definition) {
+		this.definition = definition;
+	}
+
+	/**
+	 * @return The description of what the field computes, or null.
+	 */
+	public String getDefinition() {
+		return definition;
+	}
+
+	/**
+	 * Compute the value of the search field.
+	 *
+	 * @param document
+	 *            The document as it is stored.
+	 * @return A string, number, boolean or date, or null if the document has no value for the
+	 *         search field.
+	 * @throws JSONException
+	 *             The document could not be read.
+	 */
+	public abstract Object compute(JSONObject document) throws JSONException;
+
+	/**
+	 * @param path
+	 *            The dotted path of a value in the document, such as "contact.email".
+	 * @return The value at the path in lower case, or null if there is none.
+	 */
+	public static JSONStoreComputedField lowerCase(final String path) {
+		return new JSONStoreComputedField("lower(" + path + ")") { //$NON-NLS-1$ //$NON-NLS-2$
+			@Override
+			public Object compute(JSONObject document) {
+				Object value = getValue(document, path);
+				return (value == null) ? null : value.toString().toLowerCase(Locale.ROOT);
+			}
+		};
+	}
+
+	/**
+	 * @param separator
+	 *            The text between the values, such as " ".
+	 * @param paths
+	 *            The dotted paths of the values to join, such as "first" and "last".
+	 * @return The values at the paths that the document has, joined by the separator, or null if it
+	 *         has none of them.
+	 */
+	public static JSONStoreComputedField concat(final String separator, final String... paths) {
+		return new JSONStoreComputedField("concat(\"" + separator + "\", " + Arrays.toString(paths) + ")") { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			@Override
+			public Object compute(JSONObject document) {
+				StringBuilder result = null;
+
+				for (String path : paths) {
+					Object value = getValue(document, path);
+
+					if (value == null) {
+						continue;
+					}
+
+					if (result == null) {
+						result = new StringBuilder();
+					} else {
+						result.append(separator);
+					}
+
+					result.append(value);
+				}
+
+				return (result == null) ? null : result.toString();
+			}
+		};
+	}
+
+	/**
+	 * @param paths
+	 *            The dotted paths of the numbers to add, such as "subtotal" and "tax".
+	 * @return The sum of the numbers at the paths, or null if one of them is missing or not a number.
+	 */
+	public static JSONStoreComputedField sum(final String... paths) {
+		return new JSONStoreComputedField("sum(" + Arrays.toString(paths) + ")") { //$NON-NLS-1$ //$NON-NLS-2$
+			@Override
+			public Object compute(JSONObject document) {
+				return combine(document, paths, false);
+			}
+		};
+	}
+
+	/**
+	 * @param paths
+	 *            The dotted paths of the numbers to multiply, such as "qty" and "price".
+	 * @return The product of the numbers at the paths, or null if one of them is missing or not a
+	 *         number.
+	 */
+	public static JSONStoreComputedField product(final String... paths) {
+		return new JSONStoreComputedField("product(" + Arrays.toString(paths) + ")") { //$NON-NLS-1$ //$NON-NLS-2$
+			@Override
+			public Object compute(JSONObject document) {
+				return combine(document, paths, true);
+			}
+		};
+	}
+
+	/**
+	 * Get the value at a dotted path of a document.
+	 *
+	 * @param document
+	 *            The document.
+	 * @param path
+	 *            The dotted path, such as "contact.email".
+	 * @return The value, or null if the document has none there or it is an object or an array.
+	 */
+	protected static Object getValue(JSONObject document, String path) {
+		Object value = document;
+
+		for (String key : path.split("\\.")) { //$NON-NLS-1$
+			if (!(value instanceof JSONObject)) {
+				return null;
+			}
+
+			value = ((JSONObject) value).opt(key);
+		}
+
+		if (value == null || value == JSONObject.NULL || value instanceof JSONObject || value instanceof JSONArray) {
+			return null;
+		}
+
+		return value;
+	}
+
+	/**
+	 * Adds or multiplies the numbers at the paths. The result is a long when they are all integers.
+	 */
+	private static Number combine(JSONObject document, String[] paths, boolean multiply) {
+		long longResult = multiply ? 1 : 0;
+		double doubleResult = longResult;
+		boolean integral = true;
+
+		for (String path : paths) {
+			Object value = getValue(document, path);
+			Number number;
+
+			if (value instanceof Number) {
+				number = (Number) value;
+			} else if (value instanceof String) {
+				try {
+					number = Double.valueOf(((String) value).trim());
+				} catch (NumberFormatException e) {
+					return null;
+				}
+			} else {
+				return null;
+			}
+
+			integral = integral && (number instanceof Long || number instanceof Integer);
+
+			if (multiply) {
+				longResult *= number.longValue();
+				doubleResult *= number.doubleValue();
+			} else {
+				longResult += number.longValue();
+				doubleResult += number.doubleValue();
+			}
+		}
+
+		return integral ? (Number) Long.valueOf(longResult) : (Number) Double.valueOf(doubleResult);
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.api;
+
+/**
+ * One distinct value of a search field and the number of documents that have it, as returned by
+ * JSONStoreCollection.facets.
+ */
+public final class JSONStoreFacetValue {
+
+	private Object value;
+	private int count;
+
+	/**
+	 * @exclude Package Private
+	 */
+	JSONStoreFacetValue(Object value, int count) {
+		this.value = value;
+		this.count = count;
+	}
+
+	/**
+	 * @return The value. Integer and boolean search fields return longs and booleans, number
+	 *         search fields doubles, date search fields milliseconds since the epoch, and string
+	 *         search fields the string that is stored.
+	 */
+	public Object getValue() {
+		return value;
+	}
+
+	/**
+	 * @return The number of documents that match the query and have the value. A document whose
+	 *         search field holds an array is counted once for every distinct element.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return value + "=" + count; //$NON-NLS-1$
+	}
+}
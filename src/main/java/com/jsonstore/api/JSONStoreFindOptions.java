@@ -21,9 +21,11 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -40,15 +42,20 @@ public final class JSONStoreFindOptions {
 	private Integer limit;
 	private Integer offset;
 	private LinkedHashMap<String,SortDirection> sort;
+	private LinkedHashMap<String,SortDirection> pathSort;
 	private Map<String, Boolean>  filter;
+	private LinkedHashSet<String> projectionPaths;
 	
 	private boolean includeDeleted = false;
+	private boolean includeRevisions = false;
 	
 	public JSONStoreFindOptions() {
 		this.limit = null;
 		this.offset = null;
 		filter = new HashMap<String, Boolean>();
 		sort = new LinkedHashMap<String, SortDirection>();
+		pathSort = new LinkedHashMap<String, SortDirection>();
+		projectionPaths = new LinkedHashSet<String>();
 	}
 	
 	/**
@@ -59,6 +66,8 @@ public final class JSONStoreFindOptions {
 
 		filter = new HashMap<String, Boolean>();
 		sort = new LinkedHashMap<String, SortDirection>();
+		pathSort = new LinkedHashMap<String, SortDirection>();
+		projectionPaths = new LinkedHashSet<String>();
 		
 		 String limitStr = options.optString (JSONStoreFindOptions.OPTION_LIMIT, null);
 		 if (limitStr != null) {
@@ -169,6 +178,63 @@ public final class JSONStoreFindOptions {
 		sort.put(search_field, SortDirection.DESCENDING);
 	}
 
+	/**
+	 * Add a path in the documents by which the results will be sorted in an ascending manner. Unlike
+	 * sortBySearchFieldAscending, the path does not have to be a search field, for example "address.city".
+	 * Path sorts come before search field sorts, which only break ties. If the path holds an array, its first
+	 * value is used. Documents without a value at the path come first.
+	 * 
+	 * Documents are read one at a time and only the best limit plus offset documents are kept, so a limit
+	 * should be set to keep memory bounded on large collections.
+	 * 
+	 * @param path The dotted path that is used for an ascending sort.
+	 */
+	public void sortByPathAscending(String path) {
+		pathSort.put(path, SortDirection.ASCENDING);
+	}
+
+	/**
+	 * Add a path in the documents by which the results will be sorted in a descending manner. See
+	 * sortByPathAscending.
+	 * 
+	 * @param path The dotted path that is used for a descending sort.
+	 */
+	public void sortByPathDescending(String path) {
+		pathSort.put(path, SortDirection.DESCENDING);
+	}
+
+	/**
+	 * @exclude Used internally
+	 * @return A linked hashmap who's keys are document paths and value is either DESCENDING or ASCENDING.
+	 */
+	public LinkedHashMap<String,SortDirection> getPathSort() {
+		return pathSort;
+	}
+
+	/**
+	 * Add a path in the documents to return, for example "customer.name". When paths are added, the json of
+	 * each result only has the subtrees at those paths, in their original nesting, and the rest of the stored
+	 * document is skipped instead of being parsed. A path through an array keeps the matching subtree of every
+	 * object in the array. The paths do not have to be search fields.
+	 * 
+	 * @param path The dotted path to return.
+	 */
+	public void addProjectionPath(String path) {
+		if (path == null || path.isEmpty()) {
+			throw new IllegalArgumentException("Path must be a nonempty string");
+		}
+
+		projectionPaths.add(path);
+	}
+
+	/**
+	 * @exclude Used internally
+	 * @return The paths to return, or an empty list to return whole documents.
+	 */
+	public List<String> getProjectionPaths() {
+		return new ArrayList<String>(projectionPaths);
+	}
+
 	/**
 	 * @exclude
 	 */
@@ -218,5 +284,24 @@ public final class JSONStoreFindOptions {
 	public boolean shouldIncludeDeletedDocuments() {
 		return includeDeleted;
 	}
+
+	/**
+	 * Modify the flag to include the revision of each document, its '_rev', in the results. The
+	 * revisions are needed by JSONStoreCollection.replaceDocumentsIfUnchanged and
+	 * removeDocumentsIfUnchanged.
+	 * @param include
+	 *            When true, each document found has its '_rev'.
+	 */
+	public void includeRevisions(boolean include) {
+		includeRevisions = include;
+	}
+
+	/**
+	 * Retrieve the flag that determines if the result should include the revision of each document.
+	 * @return True if configured to include the '_rev' of each document in the find.
+	 */
+	public boolean shouldIncludeRevisions() {
+		return includeRevisions;
+	}
 	
 }
@@ -0,0 +1,256 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.api;
+
+import com.jsonstore.database.DatabaseConstants;
+import com.jsonstore.database.DatabaseSchema;
+import com.jsonstore.database.QueryPartOperation;
+import com.jsonstore.database.SortDirection;
+import com.jsonstore.exceptions.JSONStoreIndexException;
+import com.jsonstore.util.JSONStoreUtil;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index over one or more search fields of a collection. Indexes let finds, counts and sorts on those
+ * search fields avoid reading every document in the collection.
+ *
+ * An index with more than one search field is a composite index, which helps queries that restrict or sort
+ * by the search fields in the order they were added. An index with a filter is a partial index that only
+ * contains the documents that match the filter.
+ */
+public final class JSONStoreIndex {
+
+	private String name;
+	private LinkedHashMap<String, SortDirection> fields;
+	private JSONStoreQueryPart filter;
+
+	/**
+	 * Create an index definition.
+	 *
+	 * @param name
+	 *            The name of the index. It must be unique in the collection and can only contain letters,
+	 *            digits and underscores.
+	 */
+	public JSONStoreIndex(String name) {
+		this.name = name;
+		this.fields = new LinkedHashMap<String, SortDirection>();
+	}
+
+	/**
+	 * Get the name of the index.
+	 * @return The name of the index.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Add a search field to the index, in ascending order.
+	 *
+	 * @param search_field
+	 *            The search field or additional search field to index.
+	 */
+	public void addField(String search_field) {
+		addField(search_field, SortDirection.ASCENDING);
+	}
+
+	/**
+	 * Add a search field to the index.
+	 *
+	 * @param search_field
+	 *            The search field or additional search field to index.
+	 * @param direction
+	 *            The order the search field is kept in. Descending indexes help composite sorts
+	 *            that mix directions.
+	 */
+	public void addField(String search_field, SortDirection direction) {
+		if (direction == null || direction == SortDirection.NO_SORT) {
+			direction = SortDirection.ASCENDING;
+		}
+
+		fields.put(search_field, direction);
+	}
+
+	/**
+	 * @return A linked hashmap whose keys are the indexed search fields, in order, and whose values are
+	 *         their directions.
+	 */
+	public Map<String, SortDirection> getFields() {
+		return fields;
+	}
+
+	/**
+	 * Restrict the index to the documents that match the filter. Only exact equal, not equal, less than,
+	 * greater than, between and inside criteria can be used. Array values are not expanded, so the
+	 * criteria are compared against the search field as it is stored.
+	 *
+	 * SQLite only uses a partial index when a query contains the same criteria, which for JSONStore
+	 * means the filter is best kept to what every query already contains, such as _deleted equal to 0.
+	 * Partial indexes require SQLite 3.8.0 or later (Android 5.0).
+	 *
+	 * @param filter
+	 *            The criteria that documents must match to be in the index, or null for all documents.
+	 */
+	public void setFilter(JSONStoreQueryPart filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * @return The filter of a partial index, or null.
+	 */
+	public JSONStoreQueryPart getFilter() {
+		return filter;
+	}
+
+	/**
+	 * @exclude Used internally. Validates the index against the collection's schema and returns the
+	 *          column list and filter, as used after "ON <table>" in CREATE INDEX.
+	 */
+	String getDefinition(DatabaseSchema schema) throws JSONStoreIndexException {
+		StringBuilder definition = new StringBuilder();
+
+		if (name == null || !name.matches("[A-Za-z0-9_]+")) { //$NON-NLS-1$
+			throw new JSONStoreIndexException("Index name \"" + name + "\" can only contain letters, digits and underscores.");
+		}
+
+		if (fields.isEmpty()) {
+			throw new JSONStoreIndexException("Index \"" + name + "\" must contain at least one search field.");
+		}
+
+		definition.append("("); //$NON-NLS-1$
+
+		Iterator<Map.Entry<String, SortDirection>> fieldIterator = fields.entrySet().iterator();
+		while (fieldIterator.hasNext()) {
+			Map.Entry<String, SortDirection> field = fieldIterator.next();
+
+			definition.append(getColumn(schema, field.getKey()));
+			definition.append(field.getValue() == SortDirection.DESCENDING ? " DESC" : " ASC"); //$NON-NLS-1$ //$NON-NLS-2$
+
+			if (fieldIterator.hasNext()) {
+				definition.append(", "); //$NON-NLS-1$
+			}
+		}
+
+		definition.append(")"); //$NON-NLS-1$
+
+		if (filter != null && filter.getQueryBlockItems().size() > 0) {
+			definition.append(DatabaseConstants.SQL_WHERE);
+
+			Iterator<JSONStoreQueryPartItem> items = filter.getQueryBlockItems().iterator();
+			while (items.hasNext()) {
+				appendFilterItem(definition, schema, items.next());
+
+				if (items.hasNext()) {
+					definition.append(DatabaseConstants.SQL_AND);
+				}
+			}
+		}
+
+		return definition.toString();
+	}
+
+	private String getColumn(DatabaseSchema schema, String search_field) throws JSONStoreIndexException {
+		if (search_field == null || DatabaseConstants.FIELD_JSON.equals(search_field) || !schema.hasField(search_field)) {
+			throw new JSONStoreIndexException("Index \"" + name + "\" uses \"" + search_field + "\", which is not a search field or additional search field.");
+		}
+
+		return "[" + JSONStoreUtil.getDatabaseSafeSearchFieldName(search_field) + "]"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/*
+	 * A partial index cannot have bound parameters, so the values are written
+	 * into the SQL as literals.
+	 */
+	private void appendFilterItem(StringBuilder definition, DatabaseSchema schema, JSONStoreQueryPartItem item) throws JSONStoreIndexException {
+		QueryPartOperation operation = item.getOperation();
+		Object value = item.getValue();
+
+		definition.append(getColumn(schema, item.getKey()));
+
+		switch (operation) {
+			case EXACT_EQUALS:
+				definition.append(" = "); //$NON-NLS-1$
+				appendLiteral(definition, value);
+				break;
+			case EXACT_NOT_EQUALS:
+				definition.append(" != "); //$NON-NLS-1$
+				appendLiteral(definition, value);
+				break;
+			case LESS_THAN:
+				definition.append(" < "); //$NON-NLS-1$
+				appendLiteral(definition, value);
+				break;
+			case LESS_THAN_OR_EQUALS:
+				definition.append(" <= "); //$NON-NLS-1$
+				appendLiteral(definition, value);
+				break;
+			case GREATER_THAN:
+				definition.append(" > "); //$NON-NLS-1$
+				appendLiteral(definition, value);
+				break;
+			case GREATER_THAN_OR_EQUALS:
+				definition.append(" >= "); //$NON-NLS-1$
+				appendLiteral(definition, value);
+				break;
+			case BETWEEN:
+			case NOT_BETWEEN:
+				List<?> range = (List<?>) value;
+				definition.append(operation == QueryPartOperation.BETWEEN ? " BETWEEN " : " NOT BETWEEN "); //$NON-NLS-1$ //$NON-NLS-2$
+				appendLiteral(definition, range.get(0));
+				definition.append(DatabaseConstants.SQL_AND);
+				appendLiteral(definition, range.get(1));
+				break;
+			case IN:
+			case NOT_IN:
+				List<?> values = (List<?>) value;
+				if (values.isEmpty()) {
+					throw new JSONStoreIndexException("Index \"" + name + "\" has an empty inside filter on \"" + item.getKey() + "\".");
+				}
+				definition.append(operation == QueryPartOperation.IN ? DatabaseConstants.SQL_IN : DatabaseConstants.SQL_NOT_IN);
+				definition.append("("); //$NON-NLS-1$
+				for (int i = 0; i < values.size(); i++) {
+					if (i > 0) {
+						definition.append(", "); //$NON-NLS-1$
+					}
+					appendLiteral(definition, values.get(i));
+				}
+				definition.append(")"); //$NON-NLS-1$
+				break;
+			default:
+				throw new JSONStoreIndexException("Index \"" + name + "\" filter cannot use the \"" + operation + "\" criteria.");
+		}
+	}
+
+	private void appendLiteral(StringBuilder definition, Object value) throws JSONStoreIndexException {
+		if (value instanceof Boolean) {
+			definition.append(((Boolean) value) ? 1 : 0);
+		} else if (value instanceof Number) {
+			double number = ((Number) value).doubleValue();
+			if (Double.isNaN(number) || Double.isInfinite(number)) {
+				throw new JSONStoreIndexException("Index \"" + name + "\" filter contains a value that is not a finite number.");
+			}
+			definition.append(value.toString());
+		} else if (value != null) {
+			definition.append('\'');
+			definition.append(value.toString().replace("'", "''")); //$NON-NLS-1$ //$NON-NLS-2$
+			definition.append('\'');
+		} else {
+			throw new JSONStoreIndexException("Index \"" + name + "\" filter contains a null value.");
+		}
+	}
+}
@@ -0,0 +1,356 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.api;
+
+import com.jsonstore.database.DatabaseSchema;
+import com.jsonstore.database.QueryPartOperation;
+import com.jsonstore.database.SortDirection;
+import com.jsonstore.exceptions.JSONStoreIndexException;
+import com.jsonstore.util.JSONStoreUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Records the shape of the finds and counts that run on a collection, such as which search fields are
+ * compared, with which criteria, and how the results are sorted, together with how long they take and how
+ * many documents they return. From those shapes it recommends indexes, ranked by the number of documents
+ * that the index would avoid reading.
+ *
+ * The advisor is off until it is set on a collection with JSONStoreCollection.setIndexAdvisor. The values
+ * that are used in queries are never recorded.
+ */
+public final class JSONStoreIndexAdvisor {
+
+	private static final int MAX_SHAPES = 64;
+	private static final int MAX_INDEX_FIELDS = 4;
+	private static final String INDEX_NAME_PREFIX = "advised_"; //$NON-NLS-1$
+
+	private int minimumExecutions;
+	private int maximumIndexesPerMaintenance;
+	private boolean applyAutomatically;
+	private LinkedHashMap<String, QueryShape> shapes;
+
+	public JSONStoreIndexAdvisor() {
+		minimumExecutions = 5;
+		maximumIndexesPerMaintenance = 1;
+		applyAutomatically = false;
+
+		// Access ordered, so that the least recently seen shape is dropped first.
+		shapes = new LinkedHashMap<String, QueryShape>(16, 0.75f, true);
+	}
+
+	/**
+	 * Set how many times a query shape must run before an index is recommended for it.
+	 * @param executions
+	 *            The minimum number of executions. The default is 5.
+	 */
+	public void setMinimumExecutions(int executions) {
+		minimumExecutions = executions < 1 ? 1 : executions;
+	}
+
+	/**
+	 * @return The minimum number of executions before an index is recommended.
+	 */
+	public int getMinimumExecutions() {
+		return minimumExecutions;
+	}
+
+	/**
+	 * Set whether JSONStoreCollection.runMaintenance creates the recommended indexes.
+	 * @param apply
+	 *            When true, the top recommendations are created during maintenance. The default is false.
+	 */
+	public void setApplyAutomatically(boolean apply) {
+		applyAutomatically = apply;
+	}
+
+	/**
+	 * @return True if the recommended indexes are created during maintenance.
+	 */
+	public boolean shouldApplyAutomatically() {
+		return applyAutomatically;
+	}
+
+	/**
+	 * Set how many recommended indexes are created each time maintenance runs. Creating an index reads
+	 * every document in the collection, so keeping this low keeps maintenance short.
+	 * @param count
+	 *            The maximum number of indexes to create. The default is 1.
+	 */
+	public void setMaximumIndexesPerMaintenance(int count) {
+		maximumIndexesPerMaintenance = count < 1 ? 1 : count;
+	}
+
+	/**
+	 * @return The maximum number of indexes that are created each time maintenance runs.
+	 */
+	public int getMaximumIndexesPerMaintenance() {
+		return maximumIndexesPerMaintenance;
+	}
+
+	/**
+	 * Forget every recorded query shape.
+	 */
+	public synchronized void reset() {
+		shapes.clear();
+	}
+
+	/**
+	 * @return A map of the recorded query shapes to the number of times they ran.
+	 */
+	public synchronized Map<String, Long> getQueryShapes() {
+		LinkedHashMap<String, Long> result = new LinkedHashMap<String, Long>();
+
+		for (QueryShape shape : shapes.values()) {
+			result.put(shape.description, shape.executions);
+		}
+
+		return result;
+	}
+
+	/**
+	 * @exclude Used internally. Records one execution of a query.
+	 */
+	synchronized void record(JSONStoreQueryParts query, Map<String, SortDirection> sort, long latency_nanos, int rows_returned) {
+		List<JSONStoreQueryPart> parts = query.getAllQueryParts();
+
+		if (parts.isEmpty()) {
+			recordPart(null, sort, latency_nanos, rows_returned);
+			return;
+		}
+
+		// Each part of an OR query is a separate lookup, so each is recorded as
+		// its own shape, sharing the cost of the query.
+
+		for (JSONStoreQueryPart part : parts) {
+			recordPart(part, sort, latency_nanos / parts.size(), rows_returned);
+		}
+	}
+
+	private void recordPart(JSONStoreQueryPart part, Map<String, SortDirection> sort, long latency_nanos, int rows_returned) {
+		LinkedHashMap<String, SortDirection> columns = new LinkedHashMap<String, SortDirection>();
+		StringBuilder description = new StringBuilder();
+		String rangeField = null;
+
+		if (part != null) {
+			for (JSONStoreQueryPartItem item : part.getQueryBlockItems()) {
+				if (item.isKeySpecial()) {
+					continue;
+				}
+
+				String key = item.getKey();
+				QueryPartOperation operation = item.getOperation();
+
+				if (description.length() > 0) {
+					description.append(", "); //$NON-NLS-1$
+				}
+				description.append(key).append(' ').append(operation);
+
+				switch (operation) {
+					case EXACT_EQUALS:
+					case IN:
+						columns.put(key, SortDirection.ASCENDING);
+						break;
+					case BETWEEN:
+					case GREATER_THAN:
+					case GREATER_THAN_OR_EQUALS:
+					case LESS_THAN:
+					case LESS_THAN_OR_EQUALS:
+					case STARTS_WITH:
+						if (rangeField == null) {
+							rangeField = key;
+						}
+						break;
+					default:
+						// LIKE and negative criteria cannot use an index.
+						break;
+				}
+			}
+		}
+
+		if (sort != null && !sort.isEmpty()) {
+			description.append(" sort"); //$NON-NLS-1$
+			for (Map.Entry<String, SortDirection> entry : sort.entrySet()) {
+				description.append(' ').append(entry.getKey()).append(' ').append(entry.getValue());
+			}
+		}
+
+		// An index serves the equality criteria first, then either one range
+		// or the sort, since the rows that match a range are not in sort order.
+
+		if (rangeField != null) {
+			if (!columns.containsKey(rangeField)) {
+				columns.put(rangeField, SortDirection.ASCENDING);
+			}
+		} else if (sort != null) {
+			for (Map.Entry<String, SortDirection> entry : sort.entrySet()) {
+				if (entry.getValue() != SortDirection.NO_SORT && !columns.containsKey(entry.getKey())) {
+					columns.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+
+		if (columns.isEmpty()) {
+			return;
+		}
+
+		String key = description.toString();
+		QueryShape shape = shapes.get(key);
+
+		if (shape == null) {
+			if (shapes.size() >= MAX_SHAPES) {
+				Iterator<String> eldest = shapes.keySet().iterator();
+				eldest.next();
+				eldest.remove();
+			}
+
+			shape = new QueryShape(key, columns);
+			shapes.put(key, shape);
+		}
+
+		shape.executions++;
+		shape.totalNanos += latency_nanos;
+		shape.totalRows += rows_returned;
+	}
+
+	/**
+	 * @exclude Used internally. Ranks the indexes that would help the recorded shapes.
+	 *
+	 * @param existing_definitions
+	 *            The definitions of the indexes that already exist on the collection.
+	 * @param document_count
+	 *            The number of rows in the collection, which is what a query reads without an index.
+	 */
+	synchronized List<JSONStoreIndexRecommendation> getRecommendations(DatabaseSchema schema, Collection<String> existing_definitions, long document_count) {
+		LinkedHashMap<String, JSONStoreIndexRecommendation> candidates = new LinkedHashMap<String, JSONStoreIndexRecommendation>();
+
+		for (QueryShape shape : shapes.values()) {
+			LinkedHashMap<String, SortDirection> fields = new LinkedHashMap<String, SortDirection>();
+			StringBuilder name = new StringBuilder(INDEX_NAME_PREFIX);
+
+			for (Map.Entry<String, SortDirection> column : shape.columns.entrySet()) {
+				// Stop at the first column that cannot be indexed, such as _id,
+				// since the columns before it still make a useful index.
+				if (fields.size() >= MAX_INDEX_FIELDS || !schema.hasField(column.getKey()) || schema.isInternalField(column.getKey())) {
+					break;
+				}
+
+				fields.put(column.getKey(), column.getValue());
+
+				if (name.length() > INDEX_NAME_PREFIX.length()) {
+					name.append('_');
+				}
+				name.append(JSONStoreUtil.getDatabaseSafeSearchFieldName(column.getKey()).toLowerCase(Locale.ENGLISH).replaceAll("[^a-z0-9_]", "_")); //$NON-NLS-1$ //$NON-NLS-2$
+
+				if (column.getValue() == SortDirection.DESCENDING) {
+					name.append("_desc"); //$NON-NLS-1$
+				}
+			}
+
+			if (fields.isEmpty()) {
+				continue;
+			}
+
+			JSONStoreIndex index = new JSONStoreIndex(name.toString());
+			for (Map.Entry<String, SortDirection> field : fields.entrySet()) {
+				index.addField(field.getKey(), field.getValue());
+			}
+
+			String definition;
+			try {
+				definition = index.getDefinition(schema);
+			} catch (JSONStoreIndexException e) {
+				continue;
+			}
+
+			if (isCovered(definition, existing_definitions)) {
+				continue;
+			}
+
+			JSONStoreIndexRecommendation recommendation = candidates.get(definition);
+			if (recommendation == null) {
+				recommendation = new JSONStoreIndexRecommendation(index, document_count);
+				candidates.put(definition, recommendation);
+			}
+
+			recommendation.addShape(shape.description, shape.executions, shape.totalNanos, shape.totalRows);
+		}
+
+		List<JSONStoreIndexRecommendation> result = new ArrayList<JSONStoreIndexRecommendation>();
+
+		for (JSONStoreIndexRecommendation recommendation : candidates.values()) {
+			if (recommendation.getExecutions() >= minimumExecutions && recommendation.getEstimatedRowsSaved() > 0) {
+				result.add(recommendation);
+			}
+		}
+
+		Collections.sort(result, new Comparator<JSONStoreIndexRecommendation>() {
+			@Override
+			public int compare(JSONStoreIndexRecommendation a, JSONStoreIndexRecommendation b) {
+				if (a.getEstimatedRowsSaved() != b.getEstimatedRowsSaved()) {
+					return a.getEstimatedRowsSaved() > b.getEstimatedRowsSaved() ? -1 : 1;
+				}
+
+				double latencyA = a.getAverageLatency() * a.getExecutions();
+				double latencyB = b.getAverageLatency() * b.getExecutions();
+				return Double.compare(latencyB, latencyA);
+			}
+		});
+
+		return result;
+	}
+
+	/*
+	 * An existing index covers a candidate when the candidate's columns are a
+	 * leading prefix of it, in the same order and directions.  Partial indexes
+	 * are ignored, since most queries do not repeat their filter.
+	 */
+	private static boolean isCovered(String definition, Collection<String> existing_definitions) {
+		String prefix = definition.substring(0, definition.length() - 1);
+
+		for (String existing : existing_definitions) {
+			if (existing.indexOf(" WHERE ") != -1 || !existing.startsWith(prefix)) { //$NON-NLS-1$
+				continue;
+			}
+
+			char next = existing.charAt(prefix.length());
+			if (next == ')' || next == ',') {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static class QueryShape {
+		private String description;
+		private LinkedHashMap<String, SortDirection> columns;
+		private long executions;
+		private long totalNanos;
+		private long totalRows;
+
+		private QueryShape(String description, LinkedHashMap<String, SortDirection> columns) {
+			this.description = description;
+			this.columns = columns;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An index recommended by a JSONStoreIndexAdvisor, with the recorded queries that it would help.
+ */
+public final class JSONStoreIndexRecommendation {
+
+	private JSONStoreIndex index;
+	private long documentCount;
+	private long executions;
+	private long totalNanos;
+	private long totalRows;
+	private List<String> queryShapes;
+
+	/**
+	 * @exclude Package Private
+	 */
+	JSONStoreIndexRecommendation(JSONStoreIndex index, long document_count) {
+		this.index = index;
+		this.documentCount = document_count;
+		this.queryShapes = new ArrayList<String>();
+	}
+
+	/**
+	 * @exclude Package Private
+	 */
+	void addShape(String description, long executions, long total_nanos, long total_rows) {
+		this.queryShapes.add(description);
+		this.executions += executions;
+		this.totalNanos += total_nanos;
+		this.totalRows += total_rows;
+	}
+
+	/**
+	 * @return The recommended index, which can be passed to JSONStoreCollection.createIndex.
+	 */
+	public JSONStoreIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return The recorded query shapes that the index would help.
+	 */
+	public List<String> getQueryShapes() {
+		return queryShapes;
+	}
+
+	/**
+	 * @return The number of times the queries that the index would help ran.
+	 */
+	public long getExecutions() {
+		return executions;
+	}
+
+	/**
+	 * @return The average time those queries took, in milliseconds.
+	 */
+	public double getAverageLatency() {
+		return executions == 0 ? 0 : totalNanos / 1000000.0 / executions;
+	}
+
+	/**
+	 * @return The average number of documents those queries returned.
+	 */
+	public double getAverageRowsReturned() {
+		return executions == 0 ? 0 : (double) totalRows / executions;
+	}
+
+	/**
+	 * @return The estimated number of documents each of those queries reads today. Without a usable
+	 *         index SQLite reads every document in the collection, so this is the size of the collection.
+	 */
+	public long getEstimatedRowsScanned() {
+		return documentCount;
+	}
+
+	/**
+	 * @return The estimated number of documents the index would avoid reading across all the recorded
+	 *         executions. Recommendations are ranked by this value.
+	 */
+	public long getEstimatedRowsSaved() {
+		double saved = documentCount - getAverageRowsReturned();
+		return saved <= 0 ? 0 : (long) (saved * executions);
+	}
+}
@@ -0,0 +1,346 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.api;
+
+import com.jsonstore.database.QueryBuilder;
+import com.jsonstore.database.QueryBuilderSelect;
+import com.jsonstore.database.SortDirection;
+import com.jsonstore.database.ValueList;
+import com.jsonstore.exceptions.JSONStoreDatabaseClosedException;
+import com.jsonstore.exceptions.JSONStoreFindException;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A find that is compiled once and run many times with different values. Create one with
+ * JSONStoreCollection.prepareFind, passing a query whose values are used until new ones are bound.
+ *
+ * Every criteria of the query is a parameter, numbered in the order the criteria were added to the
+ * query parts, and named after its search field. Between criteria take a list of two numbers and inside
+ * criteria take a list of values. The SQL is generated once and kept in the collection's statement cache,
+ * and SQLite keeps the compiled statement for SQL it has already seen, so running a prepared find again
+ * only binds the new values.
+ */
+public final class JSONStorePreparedFind {
+
+	private JSONStoreCollection collection;
+	private JSONStoreFindOptions options;
+	private volatile QueryBuilderSelect selectQuery;
+	private List<JSONStoreQueryPartItem> parameters;
+	private List<Object> defaultValues;
+	private String shape;
+
+	/**
+	 * @exclude Package Private
+	 */
+	JSONStorePreparedFind(JSONStoreCollection collection, JSONStoreQueryParts query, JSONStoreFindOptions options) {
+		this.collection = collection;
+		this.options = options;
+		this.selectQuery = collection.createSelectQuery(query, options);
+		this.parameters = new ArrayList<JSONStoreQueryPartItem>();
+		this.defaultValues = new ArrayList<Object>();
+
+		StringBuilder shapeBuilder = new StringBuilder();
+
+		for (JSONStoreQueryPart part : query.getAllQueryParts()) {
+			shapeBuilder.append('(');
+
+			for (JSONStoreQueryPartItem item : part.getQueryBlockItems()) {
+				parameters.add(item);
+				defaultValues.add(item.getValue());
+
+				shapeBuilder.append(item.getKey()).append('|').append(item.isKeySpecial()).append('|').append(item.getOperation()).append(';');
+			}
+
+			// Path criteria are not in the SQL, but a part that has them adds a
+			// match column when there are several parts.
+			if (part.hasPathCriteria()) {
+				shapeBuilder.append("paths;"); //$NON-NLS-1$
+			}
+
+			shapeBuilder.append(')');
+		}
+
+		shapeBuilder.append(" limit=").append(options.getLimit()); //$NON-NLS-1$
+		shapeBuilder.append(" offset=").append(options.getOffset()); //$NON-NLS-1$
+		shapeBuilder.append(" deleted=").append(options.shouldIncludeDeletedDocuments()); //$NON-NLS-1$
+		shapeBuilder.append(" select=").append(options.getSearchFilters()); //$NON-NLS-1$
+		shapeBuilder.append(" sort="); //$NON-NLS-1$
+
+		Map<String, SortDirection> sort = options.getSort();
+		if (sort != null) {
+			shapeBuilder.append(sort);
+		}
+
+		shapeBuilder.append(" paths=").append(options.getPathSort()); //$NON-NLS-1$
+
+		this.shape = shapeBuilder.toString();
+	}
+
+	/**
+	 * @return The number of parameters, which is the number of criteria in the query.
+	 */
+	public int getParameterCount() {
+		return parameters.size();
+	}
+
+	/**
+	 * @return The name of each parameter, in order. A parameter is named after its search field.
+	 */
+	public List<String> getParameterNames() {
+		List<String> names = new ArrayList<String>(parameters.size());
+
+		for (JSONStoreQueryPartItem item : parameters) {
+			names.add(item.getKey());
+		}
+
+		return names;
+	}
+
+	/**
+	 * Run the find with the values of the query it was prepared with.
+	 *
+	 * @return A list of documents, in the same form as JSONStoreCollection.findDocuments returns them.
+	 * @throws JSONStoreFindException
+	 *             An error occurred when running the find.
+	 * @throws JSONStoreDatabaseClosedException
+	 *             The JSONStore database is closed, and cannot be accessed to run the find.
+	 */
+	public List<JSONObject> execute() throws JSONStoreFindException, JSONStoreDatabaseClosedException {
+		return collection.findPrepared(this, defaultValues);
+	}
+
+	/**
+	 * Run the find with new values for every parameter.
+	 *
+	 * @param values
+	 *            One value for each parameter, in order.
+	 * @return A list of documents, in the same form as JSONStoreCollection.findDocuments returns them.
+	 * @throws IllegalArgumentException
+	 *             The number of values does not match the number of parameters, or a value has the wrong type.
+	 * @throws JSONStoreFindException
+	 *             An error occurred when running the find.
+	 * @throws JSONStoreDatabaseClosedException
+	 *             The JSONStore database is closed, and cannot be accessed to run the find.
+	 */
+	public List<JSONObject> execute(Object... values) throws JSONStoreFindException, JSONStoreDatabaseClosedException {
+		if (values == null || values.length != parameters.size()) {
+			throw new IllegalArgumentException("Expected " + parameters.size() + " values but got " + (values == null ? 0 : values.length) + ".");
+		}
+
+		List<Object> bound = Arrays.asList(values);
+		checkValues(bound);
+
+		return collection.findPrepared(this, bound);
+	}
+
+	/**
+	 * Run the find with new values for the named parameters. Parameters that are not named keep the
+	 * value of the query the find was prepared with. A name binds every parameter on that search field.
+	 *
+	 * @param values
+	 *            A map of search field names to values.
+	 * @return A list of documents, in the same form as JSONStoreCollection.findDocuments returns them.
+	 * @throws IllegalArgumentException
+	 *             A name is not a parameter, or a value has the wrong type.
+	 * @throws JSONStoreFindException
+	 *             An error occurred when running the find.
+	 * @throws JSONStoreDatabaseClosedException
+	 *             The JSONStore database is closed, and cannot be accessed to run the find.
+	 */
+	public List<JSONObject> execute(Map<String, Object> values) throws JSONStoreFindException, JSONStoreDatabaseClosedException {
+		List<String> names = getParameterNames();
+		List<Object> bound = new ArrayList<Object>(defaultValues);
+
+		if (values != null) {
+			for (Map.Entry<String, Object> entry : values.entrySet()) {
+				if (!names.contains(entry.getKey())) {
+					throw new IllegalArgumentException("\"" + entry.getKey() + "\" is not a parameter of the prepared find.");
+				}
+
+				for (int i = 0; i < names.size(); i++) {
+					if (names.get(i).equals(entry.getKey())) {
+						bound.set(i, entry.getValue());
+					}
+				}
+			}
+		}
+
+		checkValues(bound);
+
+		return collection.findPrepared(this, bound);
+	}
+
+	/**
+	 * @exclude Package Private
+	 */
+	List<Object> getDefaultValues() {
+		return defaultValues;
+	}
+
+	/**
+	 * @exclude Package Private
+	 */
+	JSONStoreFindOptions getOptions() {
+		return options;
+	}
+
+	/**
+	 * @exclude Package Private. The key of the statement cache entry for the values and the select that
+	 *          generates their SQL: the shape of the criteria plus the state that changes the SQL (inline
+	 *          list sizes, prefix form, array fields, union).
+	 */
+	String getShape(QueryBuilderSelect select, List<Object> values) {
+		StringBuilder result = new StringBuilder(shape);
+
+		if (hasNewSQLForms(values)) {
+			for (int i = 0; i < parameters.size(); i++) {
+				result.append('|').append(getSQLForm(parameters.get(i), values.get(i)));
+			}
+		}
+
+		result.append(" arrays=").append(select.getArrayFields()); //$NON-NLS-1$
+		result.append(" union=").append(select.usesUnion()); //$NON-NLS-1$
+
+		return result.toString();
+	}
+
+	/**
+	 * @exclude Package Private. The select that generates the SQL for the values.
+	 */
+	QueryBuilderSelect getSelectQuery(List<Object> values) {
+		if (selectQuery.hasArrayFieldsChanged()) {
+			// Equality on a field that now holds arrays has to be compiled again.
+			selectQuery = collection.createSelectQuery(selectQuery.getQueryContent(), options);
+		}
+
+		if (!hasNewSQLForms(values)) {
+			return selectQuery;
+		}
+
+		// The number of placeholders or the form of a criteria changed, so the SQL has to be generated
+		// again from a copy of the query with the new values.
+
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		int position = 0;
+
+		for (JSONStoreQueryPart part : selectQuery.getQueryContent().getAllQueryParts()) {
+			JSONStoreQueryPart copy = new JSONStoreQueryPart();
+
+			for (JSONStoreQueryPartItem item : part.getQueryBlockItems()) {
+				copy.addRawItem(item.getKey(), item.isKeySpecial(), item.getOperation(), values.get(position++));
+			}
+			copy.addPathItems(part);
+
+			query.addQueryPart(copy);
+		}
+
+		return collection.createSelectQuery(query, options);
+	}
+
+	/**
+	 * @exclude Package Private. The arguments to bind to the SQL for the values.
+	 */
+	List<Object> getArguments(QueryBuilderSelect select, List<Object> values) {
+		List<Object> args = new LinkedList<Object>();
+
+		if (select.selectsPartMatches()) {
+			// The match columns come first in the SQL, and repeat the criteria.
+			appendArguments(select, args, values);
+		}
+
+		appendArguments(select, args, values);
+
+		return args;
+	}
+
+	private void appendArguments(QueryBuilderSelect select, List<Object> args, List<Object> values) {
+		for (int i = 0; i < parameters.size(); i++) {
+			JSONStoreQueryPartItem item = parameters.get(i);
+			select.appendArguments(args, item.getKey(), item.isKeySpecial(), item.getOperation(), values.get(i));
+		}
+	}
+
+	private boolean hasNewSQLForms(List<Object> values) {
+		for (int i = 0; i < parameters.size(); i++) {
+			JSONStoreQueryPartItem item = parameters.get(i);
+
+			if (getSQLForm(item, item.getValue()) != getSQLForm(item, values.get(i))) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/*
+	 * What the SQL of a criteria depends on besides its key and operation: the number of placeholders for an
+	 * inside list (long lists are loaded into a table, and have the same SQL whatever their size), and whether
+	 * a prefix can be searched as a range.
+	 */
+	private static int getSQLForm(JSONStoreQueryPartItem item, Object value) {
+		switch (item.getOperation()) {
+			case IN:
+			case NOT_IN:
+				int size = ((List<?>) value).size();
+				return ValueList.isInline(size) ? size : -1;
+			case STARTS_WITH:
+				return QueryBuilder.getPrefixEnd(String.valueOf(value)) != null ? 1 : 0;
+			default:
+				return 0;
+		}
+	}
+
+	private void checkValues(List<Object> values) {
+		for (int i = 0; i < parameters.size(); i++) {
+			JSONStoreQueryPartItem item = parameters.get(i);
+			Object value = values.get(i);
+
+			switch (item.getOperation()) {
+				case BETWEEN:
+				case NOT_BETWEEN:
+					if (!(value instanceof List) || ((List<?>) value).size() != 2) {
+						throw new IllegalArgumentException("Parameter " + i + " (" + item.getKey() + ") must be a list of two values.");
+					}
+					checkScalars(i, item, (List<?>) value);
+					break;
+				case IN:
+				case NOT_IN:
+					if (!(value instanceof List) || ((List<?>) value).isEmpty()) {
+						throw new IllegalArgumentException("Parameter " + i + " (" + item.getKey() + ") must be a nonempty list of values.");
+					}
+					checkScalars(i, item, (List<?>) value);
+					break;
+				default:
+					checkScalars(i, item, Arrays.asList(value));
+					break;
+			}
+		}
+	}
+
+	private static void checkScalars(int position, JSONStoreQueryPartItem item, List<?> values) {
+		for (Object value : values) {
+			if (!(value instanceof String || value instanceof Number || value instanceof Boolean || value instanceof Date)) {
+				throw new IllegalArgumentException("Parameter " + position + " (" + item.getKey() + ") must be a string, number, boolean or date.");
+			}
+		}
+	}
+}
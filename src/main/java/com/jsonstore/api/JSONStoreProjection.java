@@ -0,0 +1,121 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.api;
+
+import com.jsonstore.database.DatabaseConstants;
+import com.jsonstore.database.SortDirection;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A named set of search fields that finds can return instead of whole documents. Declaring a projection
+ * on a collection creates a covering index that holds those search fields, so that
+ * JSONStoreCollection.findProjection is answered from the index without reading the stored JSON of
+ * each document.
+ *
+ * The covering index is only used when the query criteria and sort of a find use search fields of the
+ * projection. Search fields that queries restrict or sort by should be added first, since the index keeps
+ * them in the order they were added.
+ */
+public final class JSONStoreProjection {
+
+	private static final String INDEX_NAME_PREFIX = "projection_"; //$NON-NLS-1$
+
+	private String name;
+	private LinkedHashSet<String> fields;
+
+	/**
+	 * Create a projection definition.
+	 *
+	 * @param name
+	 *            The name of the projection. It must be unique in the collection and can only contain
+	 *            letters, digits and underscores.
+	 */
+	public JSONStoreProjection(String name) {
+		this.name = name;
+		this.fields = new LinkedHashSet<String>();
+	}
+
+	/**
+	 * Get the name of the projection.
+	 * @return The name of the projection.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Add a search field to the projection.
+	 *
+	 * @param search_field
+	 *            The search field or additional search field to return.
+	 */
+	public void addField(String search_field) {
+		fields.add(search_field);
+	}
+
+	/**
+	 * @return The search fields of the projection, in the order they were added.
+	 */
+	public List<String> getFields() {
+		return new ArrayList<String>(fields);
+	}
+
+	/**
+	 * @exclude Used internally. The covering index for the projection, which holds its search fields
+	 *          and _deleted, so that finds that skip deleted documents do not read the table either.
+	 *          _id is the rowid, which every index holds.
+	 */
+	JSONStoreIndex getIndex() {
+		JSONStoreIndex index = new JSONStoreIndex(INDEX_NAME_PREFIX + name);
+
+		for (String field : fields) {
+			index.addField(field);
+		}
+
+		index.addField(DatabaseConstants.FIELD_DELETED);
+
+		return index;
+	}
+
+	/**
+	 * @exclude Used internally. The options of a find that selects _id and the search fields of the
+	 *          projection, with the limit, offset, sort and deleted flag of the given options.
+	 */
+	JSONStoreFindOptions getFindOptions(JSONStoreFindOptions options) {
+		JSONStoreFindOptions projected = new JSONStoreFindOptions();
+		projected.setLimit(options.getLimit());
+		projected.setOffset(options.getOffset());
+		projected.includeDeletedDocuments(options.shouldIncludeDeletedDocuments());
+
+		for (Map.Entry<String, SortDirection> sort : options.getSort().entrySet()) {
+			if (sort.getValue() == SortDirection.DESCENDING) {
+				projected.sortBySearchFieldDescending(sort.getKey());
+			} else {
+				projected.sortBySearchFieldAscending(sort.getKey());
+			}
+		}
+
+		projected.addSearchFilterSpecial(DatabaseConstants.FIELD_ID);
+
+		for (String field : fields) {
+			projected.addSearchFilter(field);
+		}
+
+		return projected;
+	}
+}
@@ -15,13 +15,16 @@ package com.jsonstore.api;
 
 import com.jsonstore.database.QueryPartOperation;
 import com.jsonstore.exceptions.JSONStoreFindException;
+import com.jsonstore.jackson.JsonPathExtractor;
 import com.jsonstore.util.JSONStoreLogger;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -33,7 +36,10 @@ public class JSONStoreQueryPart {
 	private static final String EXCEPTION_VALUE_MUST_NOT_BE_NULL = "Value must not be null";
 	private static final String EXCEPTION_SEARCH_FIELD_MUST_BE_A_NONEMPTY_STRING = "Search field must be a nonempty string";
 	
+	private static final String EXCEPTION_PATH_MUST_BE_A_NONEMPTY_STRING = "Path must be a nonempty string";
+	
 	private List<JSONStoreQueryPartItem> queryItems = new LinkedList<JSONStoreQueryPartItem>();
+	private List<JSONStoreQueryPartItem> pathItems = new LinkedList<JSONStoreQueryPartItem>();
 
 	
 	public JSONStoreQueryPart() {
@@ -204,6 +210,26 @@ public class JSONStoreQueryPart {
 		queryItems.add(new JSONStoreQueryPartItem(search_field, false, QueryPartOperation.FUZZY_RIGHT_EQUALS, val));
 	}
 	
+	/**
+	 * Add STARTS WITH criteria to the query part. Unlike RIGHT LIKE, the match is case sensitive
+	 * (unless the search field has a collation that ignores case), and on a string search field
+	 * it is a range that an index on the search field can search, which makes it suited to
+	 * type-ahead search.
+	 * 
+	 * @param search_field
+	 *            The search field to compare prefix against.
+	 * @param prefix
+	 *            All documents that are returned must have the search field set to a value
+	 *            that starts with this prefix.
+	 */
+	public void addStartsWith(String search_field, String prefix) {
+		if (search_field == null || search_field.isEmpty())
+			throw new IllegalArgumentException(EXCEPTION_SEARCH_FIELD_MUST_BE_A_NONEMPTY_STRING);
+		if (prefix == null)
+			throw new IllegalArgumentException(EXCEPTION_VALUE_MUST_NOT_BE_NULL);
+		queryItems.add(new JSONStoreQueryPartItem(search_field, false, QueryPartOperation.STARTS_WITH, prefix));
+	}
+	
 	/**
 	 * Add NOT RIGHT LIKE criteria to the query part.
 	 * 
@@ -567,6 +593,109 @@ public class JSONStoreQueryPart {
 		queryItems.add(new JSONStoreQueryPartItem(search_field, false, QueryPartOperation.NOT_BETWEEN, rangeList));
 	}
 	
+	/**
+	 * Add LESS THAN criteria on a date search field to the query part.
+	 * 
+	 * @param search_field
+	 *            The date search field to compare val against with a LESS THAN statement.
+	 * @param val
+	 *            All documents that are returned must have the search field set to a date
+	 *            before this val.
+	 */
+	public void addLessThan(String search_field, Date val) {
+		if (val == null)
+			throw new IllegalArgumentException(EXCEPTION_VALUE_MUST_NOT_BE_NULL);
+		addLessThan(search_field, val.getTime());
+	}
+	
+	/**
+	 * Add LESS THAN OR EQUAL criteria on a date search field to the query part.
+	 * 
+	 * @param search_field
+	 *            The date search field to compare val against with a LESS THAN OR EQUALS
+	 *            statement.
+	 * @param val
+	 *            All documents that are returned must have the search field set to a date
+	 *            before or at this val.
+	 */
+	public void addLessThanOrEqual(String search_field, Date val) {
+		if (val == null)
+			throw new IllegalArgumentException(EXCEPTION_VALUE_MUST_NOT_BE_NULL);
+		addLessThanOrEqual(search_field, val.getTime());
+	}
+	
+	/**
+	 * Add GREATER THAN criteria on a date search field to the query part.
+	 * 
+	 * @param search_field
+	 *            The date search field to compare val against with a GREATER THAN statement.
+	 * @param val
+	 *            All documents that are returned must have the search field set to a date
+	 *            after this val.
+	 */
+	public void addGreaterThan(String search_field, Date val) {
+		if (val == null)
+			throw new IllegalArgumentException(EXCEPTION_VALUE_MUST_NOT_BE_NULL);
+		addGreaterThan(search_field, val.getTime());
+	}
+	
+	/**
+	 * Add GREATER THAN OR EQUAL criteria on a date search field to the query part.
+	 * 
+	 * @param search_field
+	 *            The date search field to compare val against with a GREATER THAN OR EQUAL
+	 *            statement.
+	 * @param val
+	 *            All documents returned must have the search field set to a date
+	 *            at or after this val.
+	 */
+	public void addGreaterThanOrEqual(String search_field, Date val) {
+		if (val == null)
+			throw new IllegalArgumentException(EXCEPTION_VALUE_MUST_NOT_BE_NULL);
+		addGreaterThanOrEqual(search_field, val.getTime());
+	}
+	
+	/**
+	 * Add BETWEEN criteria on a date search field to the query part. With an index on the
+	 * search field, this is a range search of the index.
+	 * 
+	 * @param search_field
+	 *            The date search field to compare start and end against with a BETWEEN statement.
+	 * @param start
+	 *            All documents that are returned must have the search field set to a date
+	 *            at or after this start.
+	 * @param end
+	 *            All documents that are returned must have the search field set to a date
+	 *            before or at this end.
+	 */
+	public void addBetween(String search_field, Date start, Date end) {
+		if (start == null)
+			throw new IllegalArgumentException(EXCEPTION_VALUE_MUST_NOT_BE_NULL);
+		if (end == null)
+			throw new IllegalArgumentException(EXCEPTION_VALUE_MUST_NOT_BE_NULL);
+		addBetween(search_field, start.getTime(), end.getTime());
+	}
+	
+	/**
+	 * Add NOT BETWEEN criteria on a date search field to the query part.
+	 * 
+	 * @param search_field
+	 *            The date search field to compare start and end against with a NOT BETWEEN statement.
+	 * @param start
+	 *            All documents that are returned must have the search field set to a date
+	 *            before this start.
+	 * @param end
+	 *            All documents that are returned must have the search field set to a date
+	 *            after this end.
+	 */
+	public void addNotBetween(String search_field, Date start, Date end) {
+		if (start == null)
+			throw new IllegalArgumentException(EXCEPTION_VALUE_MUST_NOT_BE_NULL);
+		if (end == null)
+			throw new IllegalArgumentException(EXCEPTION_VALUE_MUST_NOT_BE_NULL);
+		addNotBetween(search_field, start.getTime(), end.getTime());
+	}
+	
 	/**
 	 * Add a INSIDE criteria to the query part.
 	 * 
@@ -615,6 +744,294 @@ public class JSONStoreQueryPart {
 		queryItems.add(new JSONStoreQueryPartItem(search_field, false, QueryPartOperation.NOT_IN, valuesChecked));
 	}
 	
+	/*
+	 * Path criteria are not compared in SQL. The search field criteria of the part
+	 * select the candidate documents, and the path criteria are checked on the
+	 * stored JSON of each candidate as it is read, so a part should keep at least
+	 * one search field criteria to avoid reading every document.
+	 */
+	
+	/**
+	 * Add EQUAL criteria on a document path to the query part.
+	 * 
+	 * @param path
+	 *            The dotted path in the document, which does not have to be a search field.
+	 * @param val
+	 *            A value at the path must be equal to val. Numbers are compared as numbers.
+	 */
+	public void addPathEqual(String path, String val) {
+		addPathItem(path, QueryPartOperation.EXACT_EQUALS, val);
+	}
+	
+	/**
+	 * Add EQUAL criteria on a document path to the query part.
+	 * 
+	 * @param path
+	 *            The dotted path in the document, which does not have to be a search field.
+	 * @param val
+	 *            A value at the path must be equal to val. Numbers are compared as numbers.
+	 */
+	public void addPathEqual(String path, Number val) {
+		addPathItem(path, QueryPartOperation.EXACT_EQUALS, val);
+	}
+	
+	/**
+	 * Add EQUAL criteria on a document path to the query part.
+	 * 
+	 * @param path
+	 *            The dotted path in the document, which does not have to be a search field.
+	 * @param val
+	 *            A value at the path must be equal to val. Numbers are compared as numbers.
+	 */
+	public void addPathEqual(String path, Boolean val) {
+		addPathItem(path, QueryPartOperation.EXACT_EQUALS, val);
+	}
+	
+	/**
+	 * Add NOT EQUAL criteria on a document path to the query part.
+	 * 
+	 * @param path
+	 *            The dotted path in the document, which does not have to be a search field.
+	 * @param val
+	 *            No value at the path can be equal to val. Documents without a value at the path match.
+	 */
+	public void addPathNotEqual(String path, String val) {
+		addPathItem(path, QueryPartOperation.EXACT_NOT_EQUALS, val);
+	}
+	
+	/**
+	 * Add NOT EQUAL criteria on a document path to the query part.
+	 * 
+	 * @param path
+	 *            The dotted path in the document, which does not have to be a search field.
+	 * @param val
+	 *            No value at the path can be equal to val. Documents without a value at the path match.
+	 */
+	public void addPathNotEqual(String path, Number val) {
+		addPathItem(path, QueryPartOperation.EXACT_NOT_EQUALS, val);
+	}
+	
+	/**
+	 * Add NOT EQUAL criteria on a document path to the query part.
+	 * 
+	 * @param path
+	 *            The dotted path in the document, which does not have to be a search field.
+	 * @param val
+	 *            No value at the path can be equal to val. Documents without a value at the path match.
+	 */
+	public void addPathNotEqual(String path, Boolean val) {
+		addPathItem(path, QueryPartOperation.EXACT_NOT_EQUALS, val);
+	}
+	
+	/**
+	 * Add LESS THAN criteria on a document path to the query part.
+	 * 
+	 * @param path
+	 *            The dotted path in the document, which does not have to be a search field.
+	 * @param val
+	 *            A number at the path must be less than val.
+	 */
+	public void addPathLessThan(String path, Number val) {
+		addPathItem(path, QueryPartOperation.LESS_THAN, val);
+	}
+	
+	/**
+	 * Add LESS THAN OR EQUAL criteria on a document path to the query part.
+	 * 
+	 * @param path
+	 *            The dotted path in the document, which does not have to be a search field.
+	 * @param val
+	 *            A number at the path must be less than or equal to val.
+	 */
+	public void addPathLessThanOrEqual(String path, Number val) {
+		addPathItem(path, QueryPartOperation.LESS_THAN_OR_EQUALS, val);
+	}
+	
+	/**
+	 * Add GREATER THAN criteria on a document path to the query part.
+	 * 
+	 * @param path
+	 *            The dotted path in the document, which does not have to be a search field.
+	 * @param val
+	 *            A number at the path must be greater than val.
+	 */
+	public void addPathGreaterThan(String path, Number val) {
+		addPathItem(path, QueryPartOperation.GREATER_THAN, val);
+	}
+	
+	/**
+	 * Add GREATER THAN OR EQUAL criteria on a document path to the query part.
+	 * 
+	 * @param path
+	 *            The dotted path in the document, which does not have to be a search field.
+	 * @param val
+	 *            A number at the path must be greater than or equal to val.
+	 */
+	public void addPathGreaterThanOrEqual(String path, Number val) {
+		addPathItem(path, QueryPartOperation.GREATER_THAN_OR_EQUALS, val);
+	}
+	
+	/**
+	 * Add BETWEEN criteria on a document path to the query part.
+	 * 
+	 * @param path
+	 *            The dotted path in the document, which does not have to be a search field.
+	 * @param start
+	 *            The lowest number that matches.
+	 * @param end
+	 *            The highest number that matches.
+	 */
+	public void addPathBetween(String path, Number start, Number end) {
+		if (start == null || end == null)
+			throw new IllegalArgumentException(EXCEPTION_VALUE_MUST_NOT_BE_NULL);
+		
+		List<Object> rangeList = new ArrayList<Object>(2);
+		rangeList.add(start);
+		rangeList.add(end);
+		addPathItem(path, QueryPartOperation.BETWEEN, rangeList);
+	}
+	
+	/**
+	 * Add INSIDE criteria on a document path to the query part.
+	 * 
+	 * @param path
+	 *            The dotted path in the document, which does not have to be a search field.
+	 * @param values
+	 *            A list of numbers, booleans, and/or strings. A value at the path must be equal to
+	 *            one of them.
+	 */
+	public void addPathInside(String path, List<Object> values) {
+		if (values == null)
+			throw new IllegalArgumentException(EXCEPTION_VALUE_MUST_NOT_BE_NULL);
+		
+		ArrayList<Object> valuesChecked = new ArrayList<Object>(values.size());
+		
+		for(Object value: values) {
+			if(value != null && (value instanceof String || value instanceof Number || value instanceof Boolean)) {
+				valuesChecked.add(value);
+			}
+		}
+		
+		addPathItem(path, QueryPartOperation.IN, valuesChecked);
+	}
+	
+	private void addPathItem(String path, QueryPartOperation operation, Object val) {
+		if (path == null || path.isEmpty())
+			throw new IllegalArgumentException(EXCEPTION_PATH_MUST_BE_A_NONEMPTY_STRING);
+		if (val == null)
+			throw new IllegalArgumentException(EXCEPTION_VALUE_MUST_NOT_BE_NULL);
+		pathItems.add(new JSONStoreQueryPartItem(path, false, operation, val));
+	}
+	
+	/**
+	 * @exclude
+	 * @return The path criteria of this query part. Used internally.
+	 */
+	public List<JSONStoreQueryPartItem> getPathItems() {
+		return pathItems;
+	}
+	
+	/**
+	 * @exclude
+	 * @return True if this query part has path criteria. Used internally.
+	 */
+	public boolean hasPathCriteria() {
+		return !pathItems.isEmpty();
+	}
+	
+	/**
+	 * @exclude Package private. Copies the path criteria of another part.
+	 */
+	void addPathItems(JSONStoreQueryPart part) {
+		pathItems.addAll(part.pathItems);
+	}
+	
+	/**
+	 * @exclude Package private. Returns true if the document matches every path criteria
+	 *          of this part. Each criteria stops reading the document once it is decided.
+	 */
+	boolean matchesPaths(String json) throws IOException {
+		for (final JSONStoreQueryPartItem item : pathItems) {
+			boolean negative = item.getOperation() == QueryPartOperation.EXACT_NOT_EQUALS;
+			
+			boolean found = JsonPathExtractor.anyMatch(json, item.getKey(), new JsonPathExtractor.ValueMatcher() {
+				@Override
+				public boolean matches(Object value) {
+					return matchesPathValue(item.getOperation(), value, item.getValue());
+				}
+			});
+			
+			if (found == negative) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	private static boolean matchesPathValue(QueryPartOperation operation, Object actual, Object expected) {
+		Double number;
+		
+		switch (operation) {
+			case EXACT_EQUALS:
+			case EXACT_NOT_EQUALS:
+				return isPathValueEqual(actual, expected);
+			case LESS_THAN:
+				number = toPathNumber(actual);
+				return number != null && number < ((Number) expected).doubleValue();
+			case LESS_THAN_OR_EQUALS:
+				number = toPathNumber(actual);
+				return number != null && number <= ((Number) expected).doubleValue();
+			case GREATER_THAN:
+				number = toPathNumber(actual);
+				return number != null && number > ((Number) expected).doubleValue();
+			case GREATER_THAN_OR_EQUALS:
+				number = toPathNumber(actual);
+				return number != null && number >= ((Number) expected).doubleValue();
+			case BETWEEN:
+				List<?> range = (List<?>) expected;
+				number = toPathNumber(actual);
+				return number != null && number >= ((Number) range.get(0)).doubleValue() && number <= ((Number) range.get(1)).doubleValue();
+			case IN:
+				for (Object value : (List<?>) expected) {
+					if (isPathValueEqual(actual, value)) {
+						return true;
+					}
+				}
+				return false;
+			default:
+				return false;
+		}
+	}
+	
+	private static boolean isPathValueEqual(Object actual, Object expected) {
+		if (actual == null || actual == JSONObject.NULL) {
+			return false;
+		}
+		
+		if (actual instanceof Number && expected instanceof Number) {
+			return ((Number) actual).doubleValue() == ((Number) expected).doubleValue();
+		}
+		
+		return actual.toString().equals(expected.toString());
+	}
+	
+	private static Double toPathNumber(Object value) {
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+		
+		if (value instanceof String) {
+			try {
+				return Double.valueOf((String) value);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		
+		return null;
+	}
+	
 	/**
 	 * @exclude
 	 * @return All query part items for this query part. Used internally.
@@ -74,4 +74,18 @@ public class JSONStoreQueryParts {
 	public List<JSONStoreQueryPart> getAllQueryParts() {
 		return parts;
 	}
+
+	/**
+	 * @exclude
+	 * @return True if any query part has criteria on document paths. Used internally.
+	 */
+	public boolean hasPathCriteria() {
+		for (JSONStoreQueryPart part : parts) {
+			if (part.hasPathCriteria()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
 }
@@ -0,0 +1,129 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The SQL that JSONStore generates for a find, the arguments bound to it, and the plan SQLite chose to run it.
+ * Use JSONStoreCollection.explain to get the plan of a query without running it.
+ */
+public final class JSONStoreQueryPlan {
+
+	private String sql;
+	private List<String> arguments;
+	private List<JSONStoreQueryPlanStep> steps;
+
+	/**
+	 * @exclude Package Private
+	 */
+	JSONStoreQueryPlan(String sql, List<Object> arguments) {
+		this.sql = sql;
+		this.arguments = new ArrayList<String>(arguments.size());
+		this.steps = new ArrayList<JSONStoreQueryPlanStep>();
+
+		for (Object argument : arguments) {
+			this.arguments.add(String.valueOf(argument));
+		}
+	}
+
+	/**
+	 * @exclude Package Private
+	 */
+	void addStep(JSONStoreQueryPlanStep step) {
+		steps.add(step);
+	}
+
+	/**
+	 * @return The generated SQL.
+	 */
+	public String getSQL() {
+		return sql;
+	}
+
+	/**
+	 * @return The arguments bound to the placeholders in the SQL, in order. Numbers are bound as numbers,
+	 *         but are returned here as text.
+	 */
+	public List<String> getArguments() {
+		return arguments;
+	}
+
+	/**
+	 * @return The steps of the plan, in the order SQLite reported them.
+	 */
+	public List<JSONStoreQueryPlanStep> getSteps() {
+		return steps;
+	}
+
+	/**
+	 * @return True if any step reads every row of a table or index.
+	 */
+	public boolean hasScan() {
+		for (JSONStoreQueryPlanStep step : steps) {
+			if (step.isScan()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return True if any step sorts or groups rows in a temporary b-tree.
+	 */
+	public boolean usesTempBTree() {
+		for (JSONStoreQueryPlanStep step : steps) {
+			if (step.usesTempBTree()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return The names of the indexes used by the plan, in the order they are used.
+	 */
+	public List<String> getIndexesUsed() {
+		List<String> result = new ArrayList<String>();
+
+		for (JSONStoreQueryPlanStep step : steps) {
+			String index = step.getIndexName();
+
+			if (index != null && !result.contains(index)) {
+				result.add(index);
+			}
+		}
+
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+
+		result.append(sql);
+		result.append("\nargs: "); //$NON-NLS-1$
+		result.append(arguments);
+
+		for (JSONStoreQueryPlanStep step : steps) {
+			result.append("\n   "); //$NON-NLS-1$
+			result.append(step.getDetail());
+		}
+
+		return result.toString();
+	}
+}
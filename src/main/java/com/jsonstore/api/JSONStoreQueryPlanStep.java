@@ -0,0 +1,107 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.api;
+
+/**
+ * One row of the plan that SQLite chose for a query, as returned by EXPLAIN QUERY PLAN.
+ */
+public final class JSONStoreQueryPlanStep {
+
+	private int id;
+	private int parent;
+	private String detail;
+
+	/**
+	 * @exclude Package Private
+	 */
+	JSONStoreQueryPlanStep(int id, int parent, String detail) {
+		this.id = id;
+		this.parent = parent;
+		this.detail = detail == null ? "" : detail; //$NON-NLS-1$
+	}
+
+	/**
+	 * @return The id of the step. Older versions of SQLite do not number the steps, in which
+	 *         case this is the position of the step in the plan.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return The id of the step that contains this step, or 0 for a top level step.
+	 */
+	public int getParent() {
+		return parent;
+	}
+
+	/**
+	 * @return The description of the step, as written by SQLite.
+	 */
+	public String getDetail() {
+		return detail;
+	}
+
+	/**
+	 * @return True if the step reads every row of a table or index, instead of searching it.
+	 */
+	public boolean isScan() {
+		if (detail.startsWith("SCAN ")) { //$NON-NLS-1$
+			return true;
+		}
+
+		// SQLite before 3.7.17 writes "TABLE t" for a scan and "TABLE t WITH INDEX i" or
+		// "TABLE t USING PRIMARY KEY" for a search.
+		return detail.startsWith("TABLE ") && detail.indexOf(" WITH ") == -1 && detail.indexOf(" USING ") == -1; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	/**
+	 * @return True if the step looks up rows through an index or the primary key.
+	 */
+	public boolean isSearch() {
+		return detail.startsWith("SEARCH ") || (detail.startsWith("TABLE ") && !isScan()); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * @return True if the step sorts or groups rows in a temporary b-tree, which happens when no
+	 *         index returns the rows in the requested order.
+	 */
+	public boolean usesTempBTree() {
+		return detail.indexOf("TEMP B-TREE") != -1; //$NON-NLS-1$
+	}
+
+	/**
+	 * @return The name of the index the step uses, or null if it does not use one.
+	 */
+	public String getIndexName() {
+		String[] markers = { "USING COVERING INDEX ", "USING INDEX ", "WITH INDEX " }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+		for (String marker : markers) {
+			int start = detail.indexOf(marker);
+
+			if (start != -1) {
+				start += marker.length();
+				int end = detail.indexOf(' ', start);
+				return end == -1 ? detail.substring(start) : detail.substring(start, end);
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return detail;
+	}
+}
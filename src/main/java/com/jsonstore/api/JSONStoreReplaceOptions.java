@@ -19,6 +19,7 @@ package com.jsonstore.api;
 public class JSONStoreReplaceOptions {
 
 	private boolean markDirty;
+	private Long timeToLive;
 
 	public JSONStoreReplaceOptions() {
 		markDirty = false;
@@ -43,4 +44,27 @@ public class JSONStoreReplaceOptions {
 		return markDirty;
 	}
 
+	/**
+	 * Set how long the documents that are replaced are kept from now, instead of the time to live
+	 * of the collection. The collection must have a time to live, set with
+	 * JSONStoreCollection.setTimeToLive.
+	 * @param milliseconds
+	 *            The time after which the documents expire, in milliseconds.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the time is not positive.
+	 */
+	public void setTimeToLive(long milliseconds) throws IllegalArgumentException {
+		if (milliseconds <= 0) throw new IllegalArgumentException("Time to live must be positive.");
+		timeToLive = milliseconds;
+	}
+
+	/**
+	 * Get the time to live of the documents that are replaced.
+	 * @return The time to live in milliseconds, or null to use the time to live of the collection.
+	 * @see #setTimeToLive(long)
+	 */
+	public Long getTimeToLive() {
+		return timeToLive;
+	}
+
 }
@@ -0,0 +1,158 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.api;
+
+import com.jsonstore.database.SortDirection;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * A named query whose results are kept in a table of their own. Declaring a view on a collection
+ * stores the _id and the search fields of the view for every document that matches its query, in
+ * the order of its sort. Every add, replace, remove and mark clean then updates the view from the
+ * documents it changed, so JSONStoreCollection.findView reads the results in order without running
+ * the query.
+ *
+ * The query can only use search field criteria, since the view is kept up to date with SQL alone.
+ * When the query, search fields or sort of a view change between runs, the view is filled again
+ * from the whole collection when the collection is opened.
+ */
+public final class JSONStoreView {
+
+	private String name;
+	private JSONStoreQueryParts query;
+	private LinkedHashSet<String> fields;
+	private LinkedHashMap<String, SortDirection> sort;
+
+	/**
+	 * Create a view definition.
+	 *
+	 * @param name
+	 *            The name of the view. It must be unique in the collection and can only contain
+	 *            letters, digits and underscores.
+	 * @param query
+	 *            The query that the documents of the view match, or null for every document.
+	 */
+	public JSONStoreView(String name, JSONStoreQueryParts query) {
+		this.name = name;
+		this.query = (query == null) ? new JSONStoreQueryParts() : query;
+		this.fields = new LinkedHashSet<String>();
+		this.sort = new LinkedHashMap<String, SortDirection>();
+	}
+
+	/**
+	 * Get the name of the view.
+	 * @return The name of the view.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The query that the documents of the view match.
+	 */
+	public JSONStoreQueryParts getQuery() {
+		return query;
+	}
+
+	/**
+	 * Add a search field to the view.
+	 *
+	 * @param search_field
+	 *            The search field or additional search field to keep in the view.
+	 */
+	public void addField(String search_field) {
+		fields.add(search_field);
+	}
+
+	/**
+	 * @return The search fields of the view, in the order they were added.
+	 */
+	public List<String> getFields() {
+		return new ArrayList<String>(fields);
+	}
+
+	/**
+	 * Sort the view in an ascending manner by a search field. Search fields are sorted in the order
+	 * they were added, and ties are kept in _id order.
+	 *
+	 * @param search_field
+	 *            The search field that is used for an ascending sort.
+	 */
+	public void sortBySearchFieldAscending(String search_field) {
+		sort.put(search_field, SortDirection.ASCENDING);
+	}
+
+	/**
+	 * Sort the view in a descending manner by a search field. See sortBySearchFieldAscending.
+	 *
+	 * @param search_field
+	 *            The search field that is used for a descending sort.
+	 */
+	public void sortBySearchFieldDescending(String search_field) {
+		sort.put(search_field, SortDirection.DESCENDING);
+	}
+
+	/**
+	 * @return A linked hashmap whose keys are search fields and whose values are either DESCENDING
+	 *         or ASCENDING.
+	 */
+	public LinkedHashMap<String, SortDirection> getSort() {
+		return sort;
+	}
+
+	/**
+	 * @exclude Used internally. The columns of the view's table: its search fields, then the ones
+	 *          it is only sorted by.
+	 */
+	List<String> getColumns() {
+		LinkedHashSet<String> columns = new LinkedHashSet<String>(fields);
+		columns.addAll(sort.keySet());
+
+		return new ArrayList<String>(columns);
+	}
+
+	/**
+	 * @exclude Used internally. Describes the query, columns and sort of the view, so that a view
+	 *          whose definition changed since it was filled is filled again.
+	 */
+	String getDefinition() {
+		StringBuilder definition = new StringBuilder();
+
+		for (JSONStoreQueryPart part : query.getAllQueryParts()) {
+			definition.append('(');
+
+			for (JSONStoreQueryPartItem item : part.getQueryBlockItems()) {
+				Object value = item.getValue();
+
+				if (value instanceof Date) {
+					value = ((Date) value).getTime();
+				}
+
+				definition.append(item.getKey()).append(' ').append(item.getOperation()).append(' ').append(value).append(';');
+			}
+
+			definition.append(')');
+		}
+
+		definition.append(" columns ").append(getColumns()); //$NON-NLS-1$
+		definition.append(" sort ").append(sort); //$NON-NLS-1$
+
+		return definition.toString();
+	}
+}
@@ -13,11 +13,15 @@
 
 package com.jsonstore.database;
 
+import java.util.Map;
+
 // TODO: better exception types...
 
 public interface DatabaseAccessor<T> {
 	public Database<T> getRawDatabase();
 
+	public DatabaseMetadata getMetadata();
+
 	public ReadableDatabase getReadableDatabase();
 
 	public DatabaseSchema getSchema();
@@ -30,4 +34,26 @@ public interface DatabaseAccessor<T> {
 	public boolean getTableExists();
 
 	public void createTable();
+
+	public void addRevisions();
+
+	public void createInternalTables();
+
+	public boolean createIndex(String name, String definition);
+
+	public void dropIndex(String name);
+
+	public Map<String, String> getIndexes();
+
+	public IndexStatistics getIndexStatistics();
+
+	public boolean createView(String name, String[] fields, String[] sortFields, SortDirection[] sortDirections, String definition);
+
+	public void dropView(String name);
+
+	public String getViewTableName(String name);
+
+	public Map<String, String> getViews();
+
+	public void analyze();
 }
@@ -18,13 +18,23 @@ import android.database.Cursor;
 import com.jsonstore.util.JSONStoreLogger;
 import com.jsonstore.util.JSONStoreUtil;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 
 public class DatabaseAccessorImpl implements DatabaseAccessor {
-	private static final String SQL_CREATE_TABLE = "CREATE TABLE {0} ({1} INTEGER PRIMARY KEY AUTOINCREMENT, {2} {3} TEXT, {4} REAL DEFAULT 0, {5} INTEGER DEFAULT 0, {6} TEXT);"; //$NON-NLS-1$
+	private static final String SQL_CREATE_TABLE = "CREATE TABLE {0} ({1} INTEGER PRIMARY KEY AUTOINCREMENT, {2} {3} TEXT, {4} REAL DEFAULT 0, {5} INTEGER DEFAULT 0, {6} TEXT, {7} INTEGER DEFAULT 1);"; //$NON-NLS-1$
+	private static final String SQL_ADD_REVISION_COLUMN = "ALTER TABLE {0} ADD COLUMN {1} INTEGER DEFAULT 1;"; //$NON-NLS-1$
+	private static final String SQL_CREATE_REVISION_TRIGGER = "CREATE TRIGGER IF NOT EXISTS {0}_rev AFTER UPDATE OF {1}, {2} ON {0} WHEN NEW.{1} IS NOT OLD.{1} OR NEW.{2} IS NOT OLD.{2} BEGIN UPDATE {0} SET {3} = OLD.{3} + 1 WHERE {4} = NEW.{4}; END;"; //$NON-NLS-1$
 	private static final String SQL_DROP_TABLE = "DROP TABLE IF EXISTS {0};"; //$NON-NLS-1$
+	private static final String SQL_CREATE_VALUES_TABLE = "CREATE TABLE IF NOT EXISTS {0} ({1} TEXT NOT NULL, {2} INTEGER NOT NULL, {3} TEXT NOT NULL, {4} TEXT);"; //$NON-NLS-1$
+	private static final String SQL_CREATE_VALUES_INDEX = "CREATE INDEX IF NOT EXISTS {0}_{1} ON {0} ({2});"; //$NON-NLS-1$
+	private static final String SQL_INDEX_EXISTS = "SELECT name FROM sqlite_master WHERE type = 'index' AND name = ?;"; //$NON-NLS-1$
+	private static final String SQL_DROP_INDEX = "DROP INDEX IF EXISTS {0};"; //$NON-NLS-1$
 	private static final String SQL_TABLE_EXISTS = "SELECT DISTINCT tbl_name FROM sqlite_master WHERE tbl_name = \"{0}\";"; //$NON-NLS-1$
+	private static final String SQL_ANALYZE = "ANALYZE {0};"; //$NON-NLS-1$
+	private static final String SQL_SELECT_STATISTICS = "SELECT idx, stat FROM sqlite_stat1 WHERE tbl = ?;"; //$NON-NLS-1$
 
 	private static final HashSet<String> ignoredSchemaNodes = new HashSet<String>();
 	private static final JSONStoreLogger logger = JSONStoreUtil.getDatabaseLogger();
@@ -39,15 +49,19 @@ public class DatabaseAccessorImpl implements DatabaseAccessor {
 		DatabaseAccessorImpl.ignoredSchemaNodes.add(DatabaseConstants.FIELD_ID);
 		DatabaseAccessorImpl.ignoredSchemaNodes.add(DatabaseConstants.FIELD_JSON);
 		DatabaseAccessorImpl.ignoredSchemaNodes.add(DatabaseConstants.FIELD_OPERATION);
+		DatabaseAccessorImpl.ignoredSchemaNodes.add(DatabaseConstants.FIELD_REV);
 	}
 
 	private Database<?> database;
+	private DatabaseMetadata metadata;
 	private ReadableDatabase readableDB;
 	private DatabaseSchema schema;
 	private WritableDatabase writableDB;
+	private volatile IndexStatistics indexStatistics;
 
 	protected DatabaseAccessorImpl(Database<?> database, DatabaseSchema schema) {
 		this.database = database;
+		this.metadata = new DatabaseMetadata(database, schema.getName());
 		this.readableDB = new ReadableDatabase(database, schema);
 		this.schema = schema;
 		this.writableDB = new WritableDatabase(database, schema);
@@ -58,6 +72,11 @@ public class DatabaseAccessorImpl implements DatabaseAccessor {
 		return this.database;
 	}
 
+	@Override
+	public DatabaseMetadata getMetadata() {
+		return this.metadata;
+	}
+
 	@Override
 	public ReadableDatabase getReadableDatabase() {
 		return this.readableDB;
@@ -69,9 +88,13 @@ public class DatabaseAccessorImpl implements DatabaseAccessor {
 	}
 
 	public boolean getTableExists() {
+		return getTableExists(this.schema.getName());
+	}
+
+	private boolean getTableExists(String name) {
 		Cursor cursor;
 		boolean result = false;
-		String sql = JSONStoreUtil.formatString(DatabaseAccessorImpl.SQL_TABLE_EXISTS, this.schema.getName());
+		String sql = JSONStoreUtil.formatString(DatabaseAccessorImpl.SQL_TABLE_EXISTS, name);
 
 		cursor = this.readableDB.rawQuery(sql, null);
 
@@ -96,7 +119,49 @@ public class DatabaseAccessorImpl implements DatabaseAccessor {
 
 		logger.logTrace("creating database \"" + name + "\"");
 
-		execSQL(DatabaseAccessorImpl.SQL_CREATE_TABLE, name, DatabaseConstants.FIELD_ID, formatSchemaColumns(), DatabaseConstants.FIELD_JSON, DatabaseConstants.FIELD_DIRTY, DatabaseConstants.FIELD_DELETED, DatabaseConstants.FIELD_OPERATION);
+		execSQL(DatabaseAccessorImpl.SQL_CREATE_TABLE, name, DatabaseConstants.FIELD_ID, formatSchemaColumns(), DatabaseConstants.FIELD_JSON, DatabaseConstants.FIELD_DIRTY, DatabaseConstants.FIELD_DELETED, DatabaseConstants.FIELD_OPERATION, DatabaseConstants.FIELD_REV);
+		createRevisionTrigger();
+
+		// PRAGMA table_info does not report collations, so they are recorded
+		// for the schema mismatch check when the collection is reopened.
+
+		Map<String, SearchFieldCollation> collations = this.schema.getCollations();
+
+		for (String field : collations.keySet()) {
+			this.metadata.put(DatabaseMetadata.KEY_PREFIX_COLLATION + field, collations.get(field).getName());
+		}
+	}
+
+	/*
+	 * Adds the _rev column to a table created before documents had
+	 * revisions.  Every document starts at revision 1.
+	 */
+	public void addRevisions() {
+		execSQL(DatabaseAccessorImpl.SQL_ADD_REVISION_COLUMN, this.schema.getName(), DatabaseConstants.FIELD_REV);
+		createRevisionTrigger();
+	}
+
+	/*
+	 * The revision of a document goes up by one whenever its JSON changes or
+	 * it is marked removed, whichever write does it, so a replace, an
+	 * increment or a remove cannot leave it unchanged.  Marking a document
+	 * clean does not change its revision.
+	 */
+	private void createRevisionTrigger() {
+		execSQL(DatabaseAccessorImpl.SQL_CREATE_REVISION_TRIGGER, this.schema.getName(), DatabaseConstants.FIELD_JSON, DatabaseConstants.FIELD_DELETED, DatabaseConstants.FIELD_REV, DatabaseConstants.FIELD_ID);
+	}
+
+	public void createInternalTables() {
+		logger.logTrace("creating internal tables");
+
+		this.metadata.createTable();
+
+		// The multi-value index table is looked up both by value (equality on
+		// array fields) and by document (when a document is rewritten).
+
+		execSQL(DatabaseAccessorImpl.SQL_CREATE_VALUES_TABLE, DatabaseConstants.TABLE_VALUES, DatabaseConstants.FIELD_COLLECTION, DatabaseConstants.FIELD_ID, DatabaseConstants.FIELD_FIELD, DatabaseConstants.FIELD_VALUE);
+		execSQL(DatabaseAccessorImpl.SQL_CREATE_VALUES_INDEX, DatabaseConstants.TABLE_VALUES, DatabaseConstants.FIELD_VALUE, DatabaseConstants.FIELD_COLLECTION + ", " + DatabaseConstants.FIELD_FIELD + ", " + DatabaseConstants.FIELD_VALUE + ", " + DatabaseConstants.FIELD_ID); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		execSQL(DatabaseAccessorImpl.SQL_CREATE_VALUES_INDEX, DatabaseConstants.TABLE_VALUES, DatabaseConstants.FIELD_ID, DatabaseConstants.FIELD_COLLECTION + ", " + DatabaseConstants.FIELD_ID); //$NON-NLS-1$
 	}
 
 	public void dropTable() {
@@ -105,6 +170,254 @@ public class DatabaseAccessorImpl implements DatabaseAccessor {
 		logger.logTrace("[!!!] dropping database \"" + name + "\"");
 
 		execSQL(DatabaseAccessorImpl.SQL_DROP_TABLE, name);
+
+		for (String view : getViews().keySet()) {
+			execSQL(DatabaseAccessorImpl.SQL_DROP_TABLE, getViewTableName(view));
+		}
+
+		this.writableDB.deleteAllMultiValues();
+		this.metadata.removeAll();
+		this.indexStatistics = null;
+	}
+
+	/*
+	 * Creates (or rebuilds, if its definition changed) the named index.  The
+	 * definition is everything after "ON <table>" and is remembered in the
+	 * collection's metadata.  Returns false if an identical index already
+	 * existed.
+	 */
+	public boolean createIndex(String name, String definition) {
+		String indexName = getIndexName(name);
+		String key = DatabaseMetadata.KEY_PREFIX_INDEX + name;
+		boolean exists = getIndexExists(indexName);
+
+		if (exists && definition.equals(this.metadata.get(key))) {
+			return false;
+		}
+
+		if (exists) {
+			execSQL(DatabaseAccessorImpl.SQL_DROP_INDEX, indexName);
+		}
+
+		// The definition may contain quoted literals from a partial index
+		// filter, so it is not passed through formatString().
+
+		String sql = "CREATE INDEX " + indexName + " ON " + this.schema.getName() + " " + definition + ";"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+		logger.logTrace("executing SQL on database \"" + this.schema.getName() + "\":");
+		logger.logTrace("   " + sql);
+
+		this.writableDB.getDatabase().execSQL(sql);
+		this.metadata.put(key, definition);
+		this.indexStatistics = null;
+
+		return true;
+	}
+
+	public void dropIndex(String name) {
+		execSQL(DatabaseAccessorImpl.SQL_DROP_INDEX, getIndexName(name));
+		this.metadata.remove(DatabaseMetadata.KEY_PREFIX_INDEX + name);
+		this.indexStatistics = null;
+	}
+
+	/*
+	 * Returns the definitions of the indexes created on this collection, keyed
+	 * by index name.
+	 */
+	public Map<String, String> getIndexes() {
+		return this.metadata.getAll(DatabaseMetadata.KEY_PREFIX_INDEX);
+	}
+
+	/*
+	 * Creates (or recreates, if its definition changed) the table of the
+	 * named materialized view: _id and a column for each field, with the type
+	 * and collation of the search field, and an index on the sort fields in
+	 * their directions.  The definition describes the view's query, fields and sort and
+	 * is remembered in the collection's metadata.  Returns true if the table
+	 * was created, and so is empty, or false if an identical view already
+	 * existed.
+	 */
+	public boolean createView(String name, String[] fields, String[] sortFields, SortDirection[] sortDirections, String definition) {
+		String table = getViewTableName(name);
+		String key = DatabaseMetadata.KEY_PREFIX_VIEW + name;
+
+		if (getTableExists(table) && definition.equals(this.metadata.get(key))) {
+			return false;
+		}
+
+		execSQL(DatabaseAccessorImpl.SQL_DROP_TABLE, table);
+
+		StringBuilder sql = new StringBuilder("CREATE TABLE ").append(table).append(" (").append(DatabaseConstants.FIELD_ID).append(" INTEGER PRIMARY KEY"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+		for (String field : fields) {
+			sql.append(", ").append(this.schema.getColumnName(field)).append(' ').append(this.schema.getFieldType(field).getMappedType()); //$NON-NLS-1$
+
+			String collation = this.schema.getCollation(field).getSQLCollation();
+
+			if (collation != null) {
+				sql.append(" COLLATE ").append(collation); //$NON-NLS-1$
+			}
+		}
+
+		sql.append(");"); //$NON-NLS-1$
+
+		logger.logTrace("executing SQL on database \"" + this.schema.getName() + "\":");
+		logger.logTrace("   " + sql);
+
+		this.writableDB.getDatabase().execSQL(sql.toString());
+
+		// Reading the view in order is then a scan of this index.  _id breaks
+		// ties, so rows with the same sort values keep a stable order.
+
+		if (sortFields.length > 0) {
+			sql.setLength(0);
+			sql.append("CREATE INDEX ").append(table).append("_sort ON ").append(table).append(" ("); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+			for (int i = 0; i < sortFields.length; i++) {
+				sql.append(this.schema.getColumnName(sortFields[i]));
+				sql.append((sortDirections[i] == SortDirection.DESCENDING) ? " DESC, " : " ASC, "); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+
+			sql.append(DatabaseConstants.FIELD_ID).append(");"); //$NON-NLS-1$
+
+			logger.logTrace("   " + sql);
+
+			this.writableDB.getDatabase().execSQL(sql.toString());
+		}
+
+		this.metadata.put(key, definition);
+
+		return true;
+	}
+
+	public void dropView(String name) {
+		execSQL(DatabaseAccessorImpl.SQL_DROP_TABLE, getViewTableName(name));
+		this.metadata.remove(DatabaseMetadata.KEY_PREFIX_VIEW + name);
+	}
+
+	public String getViewTableName(String name) {
+		return DatabaseConstants.TABLE_VIEW_PREFIX + this.schema.getName() + "_" + name; //$NON-NLS-1$
+	}
+
+	/*
+	 * Returns the definitions of the materialized views created on this
+	 * collection, keyed by view name.
+	 */
+	public Map<String, String> getViews() {
+		return this.metadata.getAll(DatabaseMetadata.KEY_PREFIX_VIEW);
+	}
+
+	/*
+	 * Returns what is known about the collection's indexes, read once and
+	 * kept until an index is created or dropped or the collection is
+	 * analyzed.
+	 */
+	public IndexStatistics getIndexStatistics() {
+		IndexStatistics result = this.indexStatistics;
+
+		if (result == null) {
+			result = loadIndexStatistics();
+			this.indexStatistics = result;
+		}
+
+		return result;
+	}
+
+	/*
+	 * Gathers the row counts that SQLite (and getIndexStatistics()) use to
+	 * choose between indexes.
+	 */
+	public void analyze() {
+		execSQL(DatabaseAccessorImpl.SQL_ANALYZE, this.schema.getName());
+		this.indexStatistics = null;
+	}
+
+	private IndexStatistics loadIndexStatistics() {
+		HashMap<String, String> leadingColumns = new HashMap<String, String>();
+		HashMap<String, Long> rowsPerKey = new HashMap<String, Long>();
+		long rowCount = -1;
+
+		// Partial indexes only have some of the rows, so they cannot answer
+		// a lookup on their leading column by themselves.
+
+		for (Map.Entry<String, String> index : getIndexes().entrySet()) {
+			String definition = index.getValue();
+
+			if (definition.contains(DatabaseConstants.SQL_WHERE)) {
+				continue;
+			}
+
+			String column = getLeadingColumn(definition);
+
+			if (column != null) {
+				leadingColumns.put(getIndexName(index.getKey()), column);
+				rowsPerKey.put(column, 0L);
+			}
+		}
+
+		Cursor cursor = null;
+
+		try {
+			cursor = this.readableDB.rawQuery(DatabaseAccessorImpl.SQL_SELECT_STATISTICS, new String[] { this.schema.getName() });
+
+			while ((cursor != null) && cursor.moveToNext()) {
+				// Each row is "<rows> <rows per value of the first column> ...".
+
+				String[] stat = cursor.getString(1).split(" "); //$NON-NLS-1$
+				String column = cursor.isNull(0) ? null : leadingColumns.get(cursor.getString(0));
+
+				rowCount = Long.parseLong(stat[0]);
+
+				if ((column != null) && (stat.length > 1)) {
+					rowsPerKey.put(column, Long.parseLong(stat[1]));
+				}
+			}
+		}
+
+		catch (Exception e) {
+			// There are no statistics until the database is first analyzed.
+
+			logger.logTrace("no index statistics for \"" + this.schema.getName() + "\"");
+		}
+
+		finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+
+		return new IndexStatistics(rowCount, rowsPerKey);
+	}
+
+	/*
+	 * Returns the bracketed column that an index definition starts with, such
+	 * as "[name]" for "([name] ASC, [age] DESC)".
+	 */
+	private static String getLeadingColumn(String definition) {
+		int start = definition.indexOf('[');
+		int end = definition.indexOf(']');
+
+		if ((start < 0) || (end < start)) {
+			return null;
+		}
+
+		return definition.substring(start, end + 1);
+	}
+
+	private String getIndexName(String name) {
+		return this.schema.getName() + "_" + name; //$NON-NLS-1$
+	}
+
+	private boolean getIndexExists(String indexName) {
+		boolean result = false;
+		Cursor cursor = this.readableDB.rawQuery(DatabaseAccessorImpl.SQL_INDEX_EXISTS, new String[] { indexName });
+
+		if (cursor != null) {
+			result = cursor.getCount() > 0;
+			cursor.close();
+		}
+
+		return result;
 	}
 
 	private void execSQL(String sql, Object... args)  {
@@ -139,6 +452,16 @@ public class DatabaseAccessorImpl implements DatabaseAccessor {
 			result.append("'" + JSONStoreUtil.getDatabaseSafeSearchFieldName(schemaNode) + "'"); //$NON-NLS-1$ //$NON-NLS-2$
 			result.append(' ');
 			result.append(this.schema.getSearchFieldType(schemaNode).getMappedType());
+
+			// Indexes on the column inherit its collation, so they can serve
+			// comparisons that ignore case.
+
+			String collation = this.schema.getCollation(schemaNode).getSQLCollation();
+
+			if (collation != null) {
+				result.append(" COLLATE ").append(collation); //$NON-NLS-1$
+			}
+
 			result.append(", "); //$NON-NLS-1$
 		}
 
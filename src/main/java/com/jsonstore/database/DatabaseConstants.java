@@ -19,14 +19,31 @@ public class DatabaseConstants {
 	public static final String SQLITE_CLASS = "com.jsonstore.database.SQLiteStandardDatabase";
 	public static final String FIELD_DELETED = "_deleted"; //$NON-NLS-1$
 	public static final String FIELD_DIRTY = "_dirty"; //$NON-NLS-1$
+	public static final String FIELD_EXPIRES = "_expires"; //$NON-NLS-1$
 	public static final String FIELD_ID = "_id"; //$NON-NLS-1$
 	public static final String FIELD_JSON = "json"; //$NON-NLS-1$
 	public static final String FIELD_OPERATION = "_operation"; //$NON-NLS-1$
+	public static final String FIELD_REV = "_rev"; //$NON-NLS-1$
+	public static final String PART_MATCH_PREFIX = "_part_"; //$NON-NLS-1$
 	public static final String OPERATION_ADD = "add"; //$NON-NLS-1$
 	public static final String OPERATION_REMOVE = "remove"; //$NON-NLS-1$
 	public static final String OPERATION_REPLACE = "replace"; //$NON-NLS-1$
 	public static final String OPERATION_STORE = "store"; //$NON-NLS-1$
 
+	// Internal tables shared by every collection in the store.
+	public static final String TABLE_METADATA = "_jsonstore_metadata"; //$NON-NLS-1$
+	public static final String TABLE_VALUES = "_jsonstore_values"; //$NON-NLS-1$
+	public static final String TABLE_VALUE_LISTS = "_jsonstore_value_lists"; //$NON-NLS-1$
+	public static final String TABLE_VIEW_PREFIX = "_jsonstore_view_"; //$NON-NLS-1$
+	public static final String FIELD_COLLECTION = "collection"; //$NON-NLS-1$
+	public static final String FIELD_FIELD = "field"; //$NON-NLS-1$
+	public static final String FIELD_KEY = "key"; //$NON-NLS-1$
+	public static final String FIELD_LIST = "list"; //$NON-NLS-1$
+	public static final String FIELD_VALUE = "value"; //$NON-NLS-1$
+	public static final String MULTI_VALUE_SEPARATOR = "-@-"; //$NON-NLS-1$
+	public static final String MULTI_VALUE_PREFIX_PATTERN = "%-@-"; //$NON-NLS-1$
+	public static final String MULTI_VALUE_SUFFIX_PATTERN = "-@-%"; //$NON-NLS-1$
+
 	public static final String OLD_DB_PATH = "com.ibm.worklight.database"; //Used in V1 //$NON-NLS-1$
 	public static final String DB_SUB_DIR = "wljsonstore"; //$NON-NLS-1$
 	public static final String DB_PATH_EXT = ".sqlite"; //$NON-NLS-1$
@@ -44,6 +61,7 @@ public class DatabaseConstants {
 	public static final String SQL_GT = " > ?"; //$NON-NLS-1$
 	public static final String SQL_LT = " < ?"; //$NON-NLS-1$
 	public static final String SQL_GTE = " >= ?"; //$NON-NLS-1$
+	public static final String SQL_GLOB = " GLOB ?"; //$NON-NLS-1$
 	public static final String SQL_LTE = " <= ?"; //$NON-NLS-1$
 	public static final String SQL_LIKE = " LIKE ?"; //$NON-NLS-1$
 	public static final String SQL_NOT_BETWEEN = " NOT BETWEEN ? AND ? "; //$NON-NLS-1$
@@ -62,6 +80,9 @@ public class DatabaseConstants {
 	public static final String SQL_COUNT = "count(*)"; //$NON-NLS-1$
 	public static final String SQL_ALL = "*"; //$NON-NLS-1$
 	public static final String SQL_SELECT = " SELECT "; //$NON-NLS-1$
+	public static final String SQL_EXPLAIN_QUERY_PLAN = "EXPLAIN QUERY PLAN "; //$NON-NLS-1$
+	// The current time in milliseconds, as SQLite reads the clock once per statement.
+	public static final String SQL_NOW = "CAST(ROUND((julianday('now') - 2440587.5) * 86400000) AS INTEGER)"; //$NON-NLS-1$
 	
 	
 	public static final int RC_DESTROY_FAILED_FILE_ERROR = -18;
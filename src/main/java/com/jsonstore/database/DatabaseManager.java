@@ -18,12 +18,16 @@ import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
+import com.jsonstore.api.JSONStoreComputedField;
 import com.jsonstore.security.SecurityManager;
 import com.jsonstore.util.JSONStoreLogger;
 import com.jsonstore.util.JSONStoreUtil;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
 
 
@@ -128,7 +132,23 @@ public class DatabaseManager {
 			cursor.close();
 
 			if (tableSchema != null) {
-				return !schema.equals(tableSchema);
+				// Tables created before documents had revisions are given
+				// the column when they are provisioned.
+				if (!tableSchema.containsKey(DatabaseConstants.FIELD_REV)) {
+					tableSchema.put(DatabaseConstants.FIELD_REV, SearchFieldType.INTEGER.getMappedType());
+				}
+
+				if (!schema.equals(tableSchema)) {
+					return true;
+				}
+
+				DatabaseMetadata metadata = new DatabaseMetadata(this.database, modelName);
+
+				// Stores created before the metadata table existed have no
+				// collations either.
+				metadata.createTable();
+
+				return !schema.equalsCollations(metadata.getAll(DatabaseMetadata.KEY_PREFIX_COLLATION));
 			}
 		}
 
@@ -215,6 +235,121 @@ public class DatabaseManager {
 		}
 	}
 
+	private void indexExistingMultiValues(DatabaseAccessor accessor) {
+		Database<?> db = accessor.getRawDatabase();
+
+		db.beginTransaction();
+
+		try {
+			int count = accessor.getWritableDatabase().indexExistingMultiValues();
+
+			accessor.getMetadata().putBoolean(DatabaseMetadata.KEY_MULTI_VALUES_INDEXED, true);
+			db.setTransactionSuccessful();
+
+			logger.logDebug("indexed " + count + " array values of database \"" + accessor.getSchema().getName() + "\"");
+		}
+
+		finally {
+			db.endTransaction();
+		}
+	}
+
+	private void convertStoredValues(DatabaseAccessor accessor) {
+		Database<?> db = accessor.getRawDatabase();
+
+		db.beginTransaction();
+
+		try {
+			int count = accessor.getWritableDatabase().convertStoredValues();
+
+			accessor.getMetadata().putBoolean(DatabaseMetadata.KEY_VALUES_TYPED, true);
+			db.setTransactionSuccessful();
+
+			logger.logDebug("converted " + count + " text values to numbers in database \"" + accessor.getSchema().getName() + "\"");
+		}
+
+		finally {
+			db.endTransaction();
+		}
+	}
+
+	private void addRevisions(DatabaseAccessor accessor) {
+		Database<?> db = accessor.getRawDatabase();
+
+		db.beginTransaction();
+
+		try {
+			accessor.addRevisions();
+			accessor.getMetadata().putBoolean(DatabaseMetadata.KEY_REVISIONS, true);
+			db.setTransactionSuccessful();
+
+			logger.logDebug("added revisions to database \"" + accessor.getSchema().getName() + "\"");
+		}
+
+		finally {
+			db.endTransaction();
+		}
+	}
+
+	/*
+	 * Computes the computed search fields whose definition changed since the
+	 * collection was last opened again for every stored document, and
+	 * remembers the definitions.  The collection's views hold copies of the
+	 * values, so they are dropped, to be filled again when they are created.
+	 */
+	private void updateComputedFields(DatabaseAccessor<?> accessor, boolean exists) {
+		DatabaseMetadata metadata = accessor.getMetadata();
+		Map<String, JSONStoreComputedField> computedFields = accessor.getSchema().getComputedFields();
+		Map<String, String> stored = metadata.getAll(DatabaseMetadata.KEY_PREFIX_COMPUTED);
+		List<String> changed = new ArrayList<String>();
+
+		for (Map.Entry<String, JSONStoreComputedField> entry : computedFields.entrySet()) {
+			String definition = entry.getValue().getDefinition();
+
+			if ((definition != null) && !definition.equals(stored.get(entry.getKey()))) {
+				changed.add(entry.getKey());
+			}
+		}
+
+		if (changed.isEmpty() && computedFields.keySet().containsAll(stored.keySet())) {
+			return;
+		}
+
+		Database<?> db = accessor.getRawDatabase();
+
+		db.beginTransaction();
+
+		try {
+			int count = (exists && !changed.isEmpty()) ? accessor.getWritableDatabase().computeStoredValues(changed) : 0;
+
+			for (String key : stored.keySet()) {
+				if (!computedFields.containsKey(key)) {
+					metadata.remove(DatabaseMetadata.KEY_PREFIX_COMPUTED + key);
+				}
+			}
+
+			for (String key : changed) {
+				metadata.put(DatabaseMetadata.KEY_PREFIX_COMPUTED + key, computedFields.get(key).getDefinition());
+			}
+
+			if (count > 0) {
+				Map<String, String> views = accessor.getViews();
+
+				for (String view : views.keySet()) {
+					accessor.dropView(view);
+				}
+			}
+
+			db.setTransactionSuccessful();
+
+			logger.logDebug("computed " + changed + " again for " + count + " documents of database \"" + accessor.getSchema().getName() + "\"");
+		}
+
+		finally {
+			db.endTransaction();
+		}
+	}
+
 	public synchronized boolean provisionDatabase(Context context, DatabaseSchema schema, boolean dropFirst){
 
 		boolean exists = false;
@@ -223,6 +358,8 @@ public class DatabaseManager {
 		DatabaseAccessor accessor = new DatabaseAccessorImpl(this.database, schema);
 
 		synchronized (accessor) {
+			accessor.createInternalTables();
+
 			if (dropFirst) {
 				// Wipe out the database (or rather, the table for the model).
 				accessor.dropTable();
@@ -236,8 +373,40 @@ public class DatabaseManager {
 
 			if (!exists) {
 				accessor.createTable();
+				accessor.getMetadata().putBoolean(DatabaseMetadata.KEY_MULTI_VALUES_INDEXED, true);
+				accessor.getMetadata().putBoolean(DatabaseMetadata.KEY_VALUES_TYPED, true);
+				accessor.getMetadata().putBoolean(DatabaseMetadata.KEY_REVISIONS, true);
 			}
 
+			else {
+				if (!accessor.getMetadata().getBoolean(DatabaseMetadata.KEY_MULTI_VALUES_INDEXED)) {
+					// The collection was created before array values were indexed
+					// separately, so index the documents it already has.
+
+					indexExistingMultiValues(accessor);
+				}
+
+				if (!accessor.getMetadata().getBoolean(DatabaseMetadata.KEY_VALUES_TYPED)) {
+					// The collection was created when every value was stored as
+					// text, so convert the numbers that are still text.
+
+					convertStoredValues(accessor);
+				}
+
+				if (!accessor.getMetadata().getBoolean(DatabaseMetadata.KEY_REVISIONS)) {
+					// The collection was created before documents had
+					// revisions.
+
+					addRevisions(accessor);
+				}
+			}
+
+			updateComputedFields(accessor, exists);
+
+			// Equality on a field that never held an array is compiled to a
+			// plain comparison, so find out which fields have.
+			schema.setArrayFields(accessor.getReadableDatabase().findArrayFields());
+
 			this.accessors.put(name, accessor);
 		}
 
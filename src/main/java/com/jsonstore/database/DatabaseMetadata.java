@@ -0,0 +1,120 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.jsonstore.util.JSONStoreLogger;
+import com.jsonstore.util.JSONStoreUtil;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Per-collection key/value settings kept in the store itself, so that things
+ * like "this collection was migrated" survive across application runs.
+ */
+public class DatabaseMetadata {
+	public static final String KEY_MULTI_VALUES_INDEXED = "multivalues.indexed"; //$NON-NLS-1$
+	public static final String KEY_PREFIX_COLLATION = "collation."; //$NON-NLS-1$
+	public static final String KEY_PREFIX_COMPUTED = "computed."; //$NON-NLS-1$
+	public static final String KEY_PREFIX_INDEX = "index."; //$NON-NLS-1$
+	public static final String KEY_PREFIX_VIEW = "view."; //$NON-NLS-1$
+	public static final String KEY_REVISIONS = "revisions"; //$NON-NLS-1$
+	public static final String KEY_VALUES_TYPED = "values.typed"; //$NON-NLS-1$
+
+	private static final String SQL_CREATE_TABLE = "CREATE TABLE IF NOT EXISTS {0} ({1} TEXT NOT NULL, {2} TEXT NOT NULL, {3} TEXT, PRIMARY KEY ({1}, {2}));"; //$NON-NLS-1$
+	private static final String SQL_SELECT = "SELECT {0} FROM {1} WHERE {2} = ? AND {3} = ?;"; //$NON-NLS-1$
+	private static final String SQL_SELECT_PREFIX = "SELECT {0}, {1} FROM {2} WHERE {3} = ? AND substr({0}, 1, ?) = ? ORDER BY {0};"; //$NON-NLS-1$
+	private static final String WHERE_KEY = "{0} = ? AND {1} = ?"; //$NON-NLS-1$
+	private static final String WHERE_COLLECTION = "{0} = ?"; //$NON-NLS-1$
+
+	private static final JSONStoreLogger logger = JSONStoreUtil.getDatabaseLogger();
+
+	private Database<?> database;
+	private String collection;
+
+	protected DatabaseMetadata(Database<?> database, String collection) {
+		this.database = database;
+		this.collection = collection;
+	}
+
+	public void createTable() {
+		this.database.execSQL(JSONStoreUtil.formatString(DatabaseMetadata.SQL_CREATE_TABLE, DatabaseConstants.TABLE_METADATA, DatabaseConstants.FIELD_COLLECTION, DatabaseConstants.FIELD_KEY, DatabaseConstants.FIELD_VALUE));
+	}
+
+	public String get(String key) {
+		String result = null;
+		Cursor cursor = this.database.rawQuery(JSONStoreUtil.formatString(DatabaseMetadata.SQL_SELECT, DatabaseConstants.FIELD_VALUE, DatabaseConstants.TABLE_METADATA, DatabaseConstants.FIELD_COLLECTION, DatabaseConstants.FIELD_KEY), new String[] { this.collection, key });
+
+		if (cursor != null) {
+			if (cursor.moveToFirst()) {
+				result = cursor.getString(0);
+			}
+
+			cursor.close();
+		}
+
+		return result;
+	}
+
+	public boolean getBoolean(String key) {
+		return Boolean.parseBoolean(get(key));
+	}
+
+	/*
+	 * Returns every entry whose key starts with the given prefix, keyed by the
+	 * remainder of the key and ordered by key.
+	 */
+	public Map<String, String> getAll(String keyPrefix) {
+		LinkedHashMap<String, String> result = new LinkedHashMap<String, String>();
+		Cursor cursor = this.database.rawQuery(JSONStoreUtil.formatString(DatabaseMetadata.SQL_SELECT_PREFIX, DatabaseConstants.FIELD_KEY, DatabaseConstants.FIELD_VALUE, DatabaseConstants.TABLE_METADATA, DatabaseConstants.FIELD_COLLECTION), new String[] { this.collection, "" + keyPrefix.length(), keyPrefix }); //$NON-NLS-1$
+
+		if (cursor != null) {
+			while (cursor.moveToNext()) {
+				result.put(cursor.getString(0).substring(keyPrefix.length()), cursor.getString(1));
+			}
+
+			cursor.close();
+		}
+
+		return result;
+	}
+
+	public void put(String key, String value) {
+		ContentValues values = new ContentValues();
+
+		values.put(DatabaseConstants.FIELD_COLLECTION, this.collection);
+		values.put(DatabaseConstants.FIELD_KEY, key);
+		values.put(DatabaseConstants.FIELD_VALUE, value);
+
+		logger.logTrace("setting metadata \"" + key + "\" on database \"" + this.collection + "\" to \"" + value + "\"");
+
+		remove(key);
+		this.database.insert(DatabaseConstants.TABLE_METADATA, null, values);
+	}
+
+	public void putBoolean(String key, boolean value) {
+		put(key, Boolean.toString(value));
+	}
+
+	public void remove(String key) {
+		this.database.delete(DatabaseConstants.TABLE_METADATA, JSONStoreUtil.formatString(DatabaseMetadata.WHERE_KEY, DatabaseConstants.FIELD_COLLECTION, DatabaseConstants.FIELD_KEY), new String[] { this.collection, key });
+	}
+
+	public void removeAll() {
+		this.database.delete(DatabaseConstants.TABLE_METADATA, JSONStoreUtil.formatString(DatabaseMetadata.WHERE_COLLECTION, DatabaseConstants.FIELD_COLLECTION), new String[] { this.collection });
+	}
+}
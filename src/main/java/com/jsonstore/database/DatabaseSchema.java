@@ -15,6 +15,7 @@ package com.jsonstore.database;
 
 import android.content.Context;
 
+import com.jsonstore.api.JSONStoreComputedField;
 import com.jsonstore.jackson.JacksonSerializedJSONArray;
 import com.jsonstore.jackson.JacksonSerializedJSONObject;
 import com.jsonstore.util.JSONStoreUtil;
@@ -23,25 +24,51 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 // TODO: maybe use a custom exception type.
 
 public class DatabaseSchema {
+	private static final Pattern NUMERIC_LITERAL = Pattern.compile("[+-]?(\\d+(\\.\\d*)?|\\.\\d+)([eE][+-]?\\d+)?"); //$NON-NLS-1$
+
+	// ISO-8601 dates, with an optional time, fraction of a second and UTC
+	// offset, such as "2016-03-01", "2016-03-01T10:15:30.5Z" and
+	// "2016-03-01 10:15+0100".
+	private static final Pattern ISO_DATE = Pattern.compile("(\\d{4})-(\\d{2})-(\\d{2})(?:[T ](\\d{2}):(\\d{2})(?::(\\d{2})(?:[.,](\\d{1,9}))?)?)?\\s*(Z|[+-]\\d{2}(?::?\\d{2})?)?"); //$NON-NLS-1$
+
 	private String name;
 	private TreeMap<String, SearchFieldType> nodes;
 	private TreeMap<String, SearchFieldType> safeNodes;
 	private TreeMap<String, SearchFieldType> internalNodes;
+	private HashMap<String, String> columnNames;
+	private TreeMap<String, SearchFieldCollation> collations;
+	private TreeMap<String, JSONStoreComputedField> computedFields;
+	private volatile Set<String> arrayFields;
 
 	public DatabaseSchema(String name) {
 		this.name = name;
 		this.nodes = new TreeMap<String, SearchFieldType>();
 		this.safeNodes = new TreeMap<String, SearchFieldType>();
 		this.internalNodes = new TreeMap<String, SearchFieldType>();
+		this.columnNames = new HashMap<String, String>();
+		this.collations = new TreeMap<String, SearchFieldCollation>();
+		this.computedFields = new TreeMap<String, JSONStoreComputedField>();
+		this.arrayFields = Collections.emptySet();
 
 		// Add in nodes that are implicitly part of any schema.
 
@@ -51,11 +78,16 @@ public class DatabaseSchema {
 			internalNodes.put(DatabaseConstants.FIELD_ID, SearchFieldType.INTEGER);
 			internalNodes.put(DatabaseConstants.FIELD_JSON, SearchFieldType.STRING);
 			internalNodes.put(DatabaseConstants.FIELD_OPERATION, SearchFieldType.STRING);
+			internalNodes.put(DatabaseConstants.FIELD_REV, SearchFieldType.INTEGER);
 		}
 
 		catch (Throwable e) {
 			// Ignore, since this can't happen.
 		}
+
+		for (String internalNode : this.internalNodes.keySet()) {
+			this.columnNames.put(internalNode, toColumnName(internalNode));
+		}
 	}
 
 	public DatabaseSchema(String name, Map<String, SearchFieldType> search_fields) throws Throwable {
@@ -66,6 +98,22 @@ public class DatabaseSchema {
 		}
 	}
 
+	public DatabaseSchema(String name, Map<String, SearchFieldType> search_fields, Map<String, SearchFieldCollation> collations) throws Throwable {
+		this(name, search_fields);
+
+		for (String key : collations.keySet()) {
+			setCollation(key, collations.get(key));
+		}
+	}
+
+	public DatabaseSchema(String name, Map<String, SearchFieldType> search_fields, Map<String, SearchFieldCollation> collations, Map<String, JSONStoreComputedField> computed_fields) throws Throwable {
+		this(name, search_fields, collations);
+
+		for (String key : computed_fields.keySet()) {
+			setComputedField(key, computed_fields.get(key));
+		}
+	}
+
 	public String getName() {
 		return this.name;
 	}
@@ -101,16 +149,108 @@ public class DatabaseSchema {
 		//Used to compare what get from the user (e.g. 'x.y: string')
 		//and what's inside the DB (e.g. 'x_y: TEXT')
 		this.safeNodes.put(JSONStoreUtil.getDatabaseSafeSearchFieldName(nameFixed), type);
+		this.columnNames.put(nameFixed, toColumnName(nameFixed));
+	}
+
+	private void setCollation(String name, SearchFieldCollation collation) throws Throwable {
+		String nameFixed = (name == null) ? null : name.trim().toLowerCase(Locale.ENGLISH);
+
+		if ((nameFixed == null) || !this.nodes.containsKey(nameFixed)) {
+			throw new Throwable("collation specified for \"" + name + "\", which is not a search field");
+		}
+
+		if ((collation == null) || (collation == SearchFieldCollation.BINARY)) {
+			this.collations.remove(nameFixed);
+			return;
+		}
+
+		if (this.nodes.get(nameFixed) != SearchFieldType.STRING) {
+			throw new Throwable("collation specified for \"" + name + "\", which is not a string search field");
+		}
+
+		this.collations.put(nameFixed, collation);
+	}
+
+	/*
+	 * Returns the collation of a search field, which is BINARY unless another
+	 * one was given for it.
+	 */
+	public SearchFieldCollation getCollation(String name) {
+		SearchFieldCollation collation = (name == null) ? null : this.collations.get(name.toLowerCase(Locale.ENGLISH));
+
+		return (collation != null) ? collation : SearchFieldCollation.BINARY;
 	}
 
-	private String encodeJSONArrayAsString(JSONArray array, String path) throws JSONException {
+	private void setComputedField(String name, JSONStoreComputedField field) throws Throwable {
+		String nameFixed = name.trim().toLowerCase(Locale.ENGLISH);
+
+		if (!this.nodes.containsKey(nameFixed)) {
+			throw new Throwable("computed search field \"" + name + "\" is not a search field");
+		}
+
+		this.computedFields.put(nameFixed, field);
+	}
+
+	/*
+	 * Returns the search fields whose values are computed from the document
+	 * rather than read from it.
+	 */
+	public Map<String, JSONStoreComputedField> getComputedFields() {
+		return Collections.unmodifiableMap(this.computedFields);
+	}
+
+	/*
+	 * Returns the value of a computed search field for a document, or null
+	 * when it has none.  Only single values can be computed, since they are
+	 * not written to the multi-value index table.
+	 */
+	public Object computeValue(String name, JSONObject obj) throws Throwable {
+		Object value = this.computedFields.get(name).compute(obj);
+
+		if ((value == null) || (value == JSONObject.NULL)) {
+			return null;
+		}
+
+		if ((value instanceof JSONObject) || (value instanceof JSONArray) || (value instanceof Collection)) {
+			throw new Throwable("computed search field \"" + name + "\" did not compute a single value");
+		}
+
+		return value;
+	}
+
+	/*
+	 * Returns the search fields that are not BINARY, and their collations.
+	 */
+	public Map<String, SearchFieldCollation> getCollations() {
+		return Collections.unmodifiableMap(this.collations);
+	}
+
+	/*
+	 * Returns the bracketed column name ("[a_b]" for "a.b") used in SQL for a
+	 * search field.  The names of the schema's fields are computed once, when
+	 * the schema is built, since the query builder needs one per criteria.
+	 */
+	public String getColumnName(String name) {
+		String columnName = this.columnNames.get(name);
+
+		return (columnName != null) ? columnName : toColumnName(name);
+	}
+
+	private static String toColumnName(String name) {
+		return "[" + JSONStoreUtil.getDatabaseSafeSearchFieldName(name) + "]"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private MultiValue encodeJSONArrayAsString(JSONArray array, String path) throws JSONException {
 		int length = array.length();
 		Object result = null;
 		StringBuilder str = new StringBuilder();
+		List<Object> values = new ArrayList<Object>(length);
 
 		// This is the case where multiple objects are mapped to the same
 		// name... we're supposed to encode it like so:
 		// "value1-@-value2-@-..."
+		// The individual values are kept as well so they can be written to
+		// the multi-value index table.
 
 		for (int i = 0; i < length; ++i) {
 			result = array.get(i);
@@ -123,12 +263,317 @@ public class DatabaseSchema {
 				str.append(result.toString());
 
 				if (i < (length - 1)) {
-					str.append("-@-"); //$NON-NLS-1$
+					str.append(DatabaseConstants.MULTI_VALUE_SEPARATOR);
+				}
+
+				if (result instanceof MultiValue) {
+					values.addAll(((MultiValue) result).getValues());
 				}
+
+				else {
+					values.add(result);
+				}
+			}
+		}
+
+		return new MultiValue(str.toString(), values);
+	}
+
+	/*
+	 * Returns true if the name is a search field, an additional search field
+	 * or one of the internal columns.
+	 */
+	public boolean hasField(String name) {
+		if (name == null) {
+			return false;
+		}
+
+		name = name.toLowerCase(Locale.ENGLISH);
+
+		return this.nodes.containsKey(name) || this.internalNodes.containsKey(name);
+	}
+
+	/*
+	 * Returns true if the collection has a time to live, in which case the
+	 * _expires column holds when each document expires (NULL for never).
+	 */
+	public boolean hasExpiry() {
+		return this.nodes.containsKey(DatabaseConstants.FIELD_EXPIRES);
+	}
+
+	/*
+	 * Returns true for the columns every collection has (_id, json, ...), which
+	 * never hold arrays.
+	 */
+	public boolean isInternalField(String name) {
+		return (name != null) && this.internalNodes.containsKey(name.toLowerCase(Locale.ENGLISH));
+	}
+
+	/*
+	 * Returns the search fields (as multi-value field names) that have held an
+	 * array in this collection.  The set is never modified; a new one replaces
+	 * it when a field is added, so a caller can keep the set it saw and compare
+	 * it by identity later to find out whether it changed.
+	 */
+	public Set<String> getArrayFields() {
+		return this.arrayFields;
+	}
+
+	public synchronized void setArrayFields(Collection<String> fields) {
+		this.arrayFields = Collections.unmodifiableSet(new TreeSet<String>(fields));
+	}
+
+	/*
+	 * Records that a search field held an array.  Fields are never removed
+	 * until the collection is opened again, so a field that only held arrays
+	 * in documents that were later removed is still compared as an array.
+	 */
+	public synchronized void addArrayField(String name) {
+		String field = getMultiValueFieldName(name);
+
+		if (!this.arrayFields.contains(field)) {
+			TreeSet<String> fields = new TreeSet<String>(this.arrayFields);
+			fields.add(field);
+			this.arrayFields = Collections.unmodifiableSet(fields);
+		}
+	}
+
+	/*
+	 * The name under which a search field's values are kept in the
+	 * multi-value index table.
+	 */
+	public static String getMultiValueFieldName(String name) {
+		return JSONStoreUtil.getDatabaseSafeSearchFieldName(name).toLowerCase(Locale.ENGLISH);
+	}
+
+	/*
+	 * Converts a single array element (or a query value compared against one)
+	 * to the text stored in the multi-value index table.  Numbers are written
+	 * in one canonical form so that 5, 5.0 and "5" all compare equal on numeric
+	 * search fields, the same way they do against the search field column.
+	 */
+	public String normalizeMultiValue(String name, Object value) {
+		SearchFieldType type = (name == null) ? null : this.nodes.get(name.toLowerCase(Locale.ENGLISH));
+
+		if (value instanceof Boolean) {
+			return ((Boolean) value) ? "1" : "0"; //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		if (value instanceof Date) {
+			value = Long.valueOf(((Date) value).getTime());
+		}
+
+		if ((type == null) || (type == SearchFieldType.STRING)) {
+			return getCollation(name).toComparedText(value.toString());
+		}
+
+		if (type == SearchFieldType.DATE) {
+			Long millis = DatabaseSchema.toEpochMillis(value);
+
+			return (millis != null) ? millis.toString() : value.toString();
+		}
+
+		String str = value.toString().trim();
+
+		if (type == SearchFieldType.BOOLEAN) {
+			if (str.equalsIgnoreCase("true")) { //$NON-NLS-1$
+				return "1"; //$NON-NLS-1$
+			}
+
+			if (str.equalsIgnoreCase("false")) { //$NON-NLS-1$
+				return "0"; //$NON-NLS-1$
+			}
+		}
+
+		try {
+			double number = Double.parseDouble(str);
+
+			if ((number == Math.rint(number)) && (Math.abs(number) < Long.MAX_VALUE)) {
+				return Long.toString((long) number);
+			}
+
+			return Double.toString(number);
+		}
+
+		catch (NumberFormatException e) {
+			// Not a number, so it can only ever match as text.
+
+			return value.toString();
+		}
+	}
+
+	/*
+	 * Returns the type of a search field or internal column, or null if the
+	 * schema has no field with that name.
+	 */
+	public SearchFieldType getFieldType(String name) {
+		if (name == null) {
+			return null;
+		}
+
+		String nameFixed = name.toLowerCase(Locale.ENGLISH);
+		SearchFieldType type = this.nodes.get(nameFixed);
+
+		return (type != null) ? type : this.internalNodes.get(nameFixed);
+	}
+
+	/*
+	 * Converts a value to what is stored in (or compared against) a search
+	 * field column: a Long or Double for numeric fields, so that SQLite keeps
+	 * and compares it as a number, and a String otherwise.  Encoded arrays and
+	 * text that is not a number stay text, as SQLite itself would keep them.
+	 */
+	public Object toStorageValue(String name, Object value) {
+		SearchFieldType type = getFieldType(name);
+
+		if (value instanceof Boolean) {
+			return ((Boolean) value) ? Long.valueOf(1) : Long.valueOf(0);
+		}
+
+		if (value instanceof Date) {
+			value = Long.valueOf(((Date) value).getTime());
+		}
+
+		if ((type == SearchFieldType.DATE) && !(value instanceof MultiValue)) {
+			Long millis = DatabaseSchema.toEpochMillis(value);
+
+			return (millis != null) ? millis : value.toString();
+		}
+
+		if ((type == null) || (type == SearchFieldType.STRING) || (value instanceof MultiValue)) {
+			return getCollation(name).toStoredText(value.toString());
+		}
+
+		Number number;
+
+		if (value instanceof Number) {
+			number = (Number) value;
+		}
+
+		else {
+			String str = value.toString().trim();
+
+			if ((type == SearchFieldType.BOOLEAN) && (str.equalsIgnoreCase("true") || str.equalsIgnoreCase("false"))) { //$NON-NLS-1$ //$NON-NLS-2$
+				return str.equalsIgnoreCase("true") ? Long.valueOf(1) : Long.valueOf(0); //$NON-NLS-1$
+			}
+
+			if (!DatabaseSchema.NUMERIC_LITERAL.matcher(str).matches()) {
+				return value.toString();
+			}
+
+			try {
+				// Integers are parsed exactly, since a double cannot hold every long.
+				number = Long.valueOf(str);
 			}
+
+			catch (NumberFormatException e) {
+				number = Double.valueOf(str);
+			}
+		}
+
+		if (type == SearchFieldType.NUMBER) {
+			return Double.valueOf(number.doubleValue());
 		}
 
-		return str.toString();
+		if ((number instanceof Long) || (number instanceof Integer) || (number instanceof Short) || (number instanceof Byte)) {
+			return Long.valueOf(number.longValue());
+		}
+
+		double d = number.doubleValue();
+
+		if ((d == Math.rint(d)) && (Math.abs(d) < Long.MAX_VALUE)) {
+			return Long.valueOf((long) d);
+		}
+
+		return Double.valueOf(d);
+	}
+
+	/*
+	 * Converts a date search field value to milliseconds since the epoch.
+	 * Numbers (and numeric text) already are, and ISO-8601 text without an
+	 * offset is taken to be UTC.  Returns null for anything else, which is
+	 * then stored as text, the same way text that is not a number is stored
+	 * in a numeric search field.
+	 */
+	public static Long toEpochMillis(Object value) {
+		if (value instanceof Date) {
+			return Long.valueOf(((Date) value).getTime());
+		}
+
+		if (value instanceof Number) {
+			return Long.valueOf(((Number) value).longValue());
+		}
+
+		if (value == null) {
+			return null;
+		}
+
+		String str = value.toString().trim();
+
+		if (DatabaseSchema.NUMERIC_LITERAL.matcher(str).matches()) {
+			try {
+				return Long.valueOf(str);
+			}
+
+			catch (NumberFormatException e) {
+				return Long.valueOf((long) Double.parseDouble(str));
+			}
+		}
+
+		Matcher matcher = DatabaseSchema.ISO_DATE.matcher(str);
+
+		if (!matcher.matches()) {
+			return null;
+		}
+
+		Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.ENGLISH); //$NON-NLS-1$
+
+		calendar.clear();
+		calendar.setLenient(false);
+		calendar.set(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)) - 1, Integer.parseInt(matcher.group(3)));
+
+		if (matcher.group(4) != null) {
+			calendar.set(Calendar.HOUR_OF_DAY, Integer.parseInt(matcher.group(4)));
+			calendar.set(Calendar.MINUTE, Integer.parseInt(matcher.group(5)));
+		}
+
+		if (matcher.group(6) != null) {
+			calendar.set(Calendar.SECOND, Integer.parseInt(matcher.group(6)));
+		}
+
+		if (matcher.group(7) != null) {
+			// Only milliseconds are kept, so "5" is 500 ms and "123456" is 123 ms.
+			String fraction = (matcher.group(7) + "00").substring(0, 3); //$NON-NLS-1$
+
+			calendar.set(Calendar.MILLISECOND, Integer.parseInt(fraction));
+		}
+
+		long millis;
+
+		try {
+			millis = calendar.getTimeInMillis();
+		}
+
+		catch (IllegalArgumentException e) {
+			// A field was out of range, such as the 13th month.
+
+			return null;
+		}
+
+		String offset = matcher.group(8);
+
+		if ((offset != null) && !offset.equals("Z")) { //$NON-NLS-1$
+			String digits = offset.substring(1).replace(":", ""); //$NON-NLS-1$ //$NON-NLS-2$
+			int minutes = Integer.parseInt(digits.substring(0, 2)) * 60;
+
+			if (digits.length() > 2) {
+				minutes += Integer.parseInt(digits.substring(2));
+			}
+
+			millis -= ((offset.charAt(0) == '-') ? -minutes : minutes) * 60000L;
+		}
+
+		return Long.valueOf(millis);
 	}
 
 	@Override
@@ -142,7 +587,26 @@ public class DatabaseSchema {
 		// Make sure all the keys and values are the same.
 
 		other = (DatabaseSchema) o;
-		return other.nodes.equals(this.nodes);
+		return other.nodes.equals(this.nodes) && other.collations.equals(this.collations);
+	}
+
+	/*
+	 * Compares the collations against the ones recorded when the table was
+	 * created (see DatabaseAccessorImpl.createTable), since a column keeps the
+	 * collation it was created with.
+	 */
+	public boolean equalsCollations(Map<String, String> stored) {
+		if (stored.size() != this.collations.size()) {
+			return false;
+		}
+
+		for (String key : stored.keySet()) {
+			if (SearchFieldCollation.fromString(stored.get(key)) != this.collations.get(key)) {
+				return false;
+			}
+		}
+
+		return true;
 	}
 
 	public boolean equals(TreeMap<String, String> schema_compare) {
@@ -271,6 +735,13 @@ public class DatabaseSchema {
 		normalizedObj = normalizeObject(obj);
 
 		for (String key : keys) {
+			// The expiry is set by the collection when the document is
+			// written, so it is not read from the document either.
+
+			if (this.computedFields.containsKey(key) || key.equals(DatabaseConstants.FIELD_EXPIRES)) {
+				continue;
+			}
+
 			Object value = locateChildInObject(normalizedObj, key);
 
 			if (value != null) {
@@ -286,6 +757,17 @@ public class DatabaseSchema {
 			}
 		}
 
+		// Computed search fields are never read from the document or the
+		// additional search fields.
+
+		for (String key : this.computedFields.keySet()) {
+			Object value = computeValue(key, obj);
+
+			if (value != null) {
+				result.put(key, value);
+			}
+		}
+
 		return result;
 	}
 
@@ -0,0 +1,97 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.database;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * What the query builder knows about a collection's indexes: which columns
+ * lead an index that covers every row, and, once ANALYZE has run, how many
+ * rows the table has and how many rows share one value of each column.
+ * Instances are immutable, so a new one is made whenever the indexes or the
+ * statistics change.
+ */
+public class IndexStatistics {
+	public static final IndexStatistics NONE = new IndexStatistics(-1, Collections.<String, Long>emptyMap());
+
+	// Rows per value assumed for an indexed column that was never analyzed,
+	// which is what SQLite itself assumes.
+	public static final long DEFAULT_ROWS_PER_KEY = 10;
+
+	private long rowCount;
+	private Map<String, Long> rowsPerKey;
+
+	/*
+	 * rowsPerKey is keyed by the bracketed column name (see
+	 * DatabaseSchema.getColumnName) of every column that leads an index, with
+	 * 0 when the index was not analyzed.  rowCount is -1 when unknown.
+	 */
+	public IndexStatistics(long rowCount, Map<String, Long> rowsPerKey) {
+		this.rowCount = rowCount;
+		this.rowsPerKey = new HashMap<String, Long>(rowsPerKey);
+	}
+
+	public long getRowCount() {
+		return this.rowCount;
+	}
+
+	public boolean isIndexed(String column) {
+		return DatabaseConstants.FIELD_ID.equals(column) || this.rowsPerKey.containsKey(column);
+	}
+
+	/*
+	 * Returns how many rows an index lookup on the column is expected to
+	 * read, or -1 if the operation cannot be answered from an index on the
+	 * column.
+	 */
+	public long estimateRows(String column, QueryPartOperation operation, Object value) {
+		long perKey;
+
+		if (DatabaseConstants.FIELD_ID.equals(column)) {
+			perKey = 1;
+		}
+
+		else if (this.rowsPerKey.containsKey(column)) {
+			perKey = this.rowsPerKey.get(column);
+
+			if (perKey <= 0) {
+				perKey = IndexStatistics.DEFAULT_ROWS_PER_KEY;
+			}
+		}
+
+		else {
+			return -1;
+		}
+
+		switch (operation) {
+			case EXACT_EQUALS:
+				return perKey;
+			case IN:
+				return perKey * ((List<?>) value).size();
+			case BETWEEN:
+			case GREATER_THAN:
+			case GREATER_THAN_OR_EQUALS:
+			case LESS_THAN:
+			case LESS_THAN_OR_EQUALS:
+			case STARTS_WITH:
+				// SQLite assumes a range reads a quarter of the table.
+				return (this.rowCount < 0) ? perKey * 4 : Math.max(this.rowCount / 4, 1);
+			default:
+				return -1;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * The value of a search field that resolved to an array.  toString() gives the
+ * legacy "value1-@-value2-@-..." encoding that is stored in the search field
+ * column, while getValues() gives the individual values that go into the
+ * multi-value index table.
+ */
+class MultiValue {
+	private String encoded;
+	private List<Object> values;
+
+	MultiValue(String encoded, List<Object> values) {
+		this.encoded = encoded;
+		this.values = values;
+	}
+
+	List<Object> getValues() {
+		return this.values;
+	}
+
+	/*
+	 * Splits a legacy encoded column value back into its parts.  Only used
+	 * to index rows that were written before the multi-value table existed.
+	 */
+	static List<Object> split(String encoded) {
+		List<Object> result = new ArrayList<Object>();
+		int start = 0;
+		int index;
+
+		while ((index = encoded.indexOf(DatabaseConstants.MULTI_VALUE_SEPARATOR, start)) != -1) {
+			result.add(encoded.substring(start, index));
+			start = index + DatabaseConstants.MULTI_VALUE_SEPARATOR.length();
+		}
+
+		result.add(encoded.substring(start));
+
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return this.encoded;
+	}
+}
@@ -19,8 +19,11 @@ import com.jsonstore.api.JSONStoreQueryPartItem;
 import com.jsonstore.api.JSONStoreQueryParts;
 import com.jsonstore.util.JSONStoreUtil;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 public abstract class QueryBuilder {
 
@@ -29,9 +32,19 @@ public abstract class QueryBuilder {
 		DELETED_AND_NOT_DELETED, NON_DELETED_ONLY, DELETED_ONLY
 	};
 
+	// SQLite rejects compound selects with more terms than this (its default
+	// SQLITE_MAX_COMPOUND_SELECT), so queries with more parts keep the OR.
+	private static final int MAX_UNION_PARTS = 500;
+
 	private JSONStoreQueryParts queryContent;
 	private JSONStoreCollection collectionToSearch;
 	private DeletedInclusion deletedInclusion;
+	private boolean includeExpired;
+	private DatabaseSchema schema;
+	private Set<String> arrayFields;
+	private boolean schemaLoaded;
+	private IndexStatistics unionStatistics;
+	private boolean union;
 
 	public QueryBuilder(JSONStoreCollection collection, JSONStoreQueryParts content) throws IllegalArgumentException {
 		if (collection == null) throw new IllegalArgumentException("collection parameter is null");
@@ -43,6 +56,10 @@ public abstract class QueryBuilder {
 	}
 
 	
+	public JSONStoreQueryParts getQueryContent() {
+		return queryContent;
+	}
+
 	public void setSearchDeletedOnly() {
 		deletedInclusion = DeletedInclusion.DELETED_ONLY;
 	}
@@ -55,356 +72,777 @@ public abstract class QueryBuilder {
 		deletedInclusion = DeletedInclusion.DELETED_AND_NOT_DELETED;
 	}
 
+	/*
+	 * Also selects the documents whose time to live has passed, which are
+	 * otherwise hidden until they are purged.
+	 */
+	public void setSearchIncludeExpired() {
+		includeExpired = true;
+	}
+
 	
-	private Object convertObjectIfBoolean(Object o) {
+	private static String toArgument(Object o) {
 		if(o instanceof Boolean) {
-			return (Boolean)o == true ? 1 : 0;
-		}		
-		return o;
+			return ((Boolean) o) ? "1" : "0"; //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		if(o instanceof Date) {
+			return Long.toString(((Date) o).getTime());
+		}
+		return o.toString();
 	}
-	protected void buildFromClause(StringBuilder query_string, List<String> selection_args) throws IllegalArgumentException {
-		query_string.append(" " + collectionToSearch.getName() + " ");  //$NON-NLS-1$ //$NON-NLS-2$
+
+	/*
+	 * Returns the argument compared directly against a column, typed the way
+	 * the column stores it (see DatabaseSchema.toStorageValue), so SQLite can
+	 * compare it without converting it and use the column's index.
+	 */
+	private Object toColumnValue(String key, boolean is_key_special, Object value) {
+		DatabaseSchema schema = is_key_special ? null : getSchema();
+
+		if (schema == null) {
+			return toArgument(value);
+		}
+
+		return schema.toStorageValue(key, value);
 	}
 
-	private void handleExactEqualsCase(StringBuilder builder, List<String> selection_args, QueryPartOperation operation, String safe_key, Object value) {
-		if (operation != QueryPartOperation.EXACT_EQUALS) return;
-		value = convertObjectIfBoolean(value);
-		
-		builder.append(" ( ");  //$NON-NLS-1$
-		builder.append(safe_key);
-		builder.append(DatabaseConstants.SQL_EQ);
-		builder.append(DatabaseConstants.SQL_OR);
-		builder.append(safe_key);
-		builder.append(DatabaseConstants.SQL_LIKE);
-		builder.append(DatabaseConstants.SQL_OR);
-		builder.append(safe_key);
-		builder.append(DatabaseConstants.SQL_LIKE);
-		builder.append(DatabaseConstants.SQL_OR);
-		builder.append(safe_key);
-		builder.append(DatabaseConstants.SQL_LIKE);
-		builder.append(" ) ");  //$NON-NLS-1$
-
-		selection_args.add("" + value);  //$NON-NLS-1$
-		selection_args.add("%-@-" + value);  //$NON-NLS-1$
-		selection_args.add("%-@-" + value + "-@-%");  //$NON-NLS-1$ //$NON-NLS-2$
-		selection_args.add(value + "-@-%");  //$NON-NLS-1$
+	/*
+	 * Returns the text of a LIKE pattern or of a comparison against encoded
+	 * arrays, folded when the field stores its values folded.
+	 */
+	private String toTextArgument(String key, boolean is_key_special, Object value) {
+		DatabaseSchema schema = is_key_special ? null : getSchema();
+		String str = toArgument(value);
+
+		return (schema == null) ? str : schema.getCollation(key).toStoredText(str);
 	}
-	
-	
-	private void handleExactNotEqualsCase(StringBuilder builder, List<String> selection_args, QueryPartOperation operation, String safe_key, Object value) {
-		if (operation != QueryPartOperation.EXACT_NOT_EQUALS) return;
-		value = convertObjectIfBoolean(value);
-		
-		builder.append(" ( ");  //$NON-NLS-1$
-		builder.append(safe_key);
-		builder.append(DatabaseConstants.SQL_NOT_EQ);
-		builder.append(DatabaseConstants.SQL_AND);
-		builder.append(safe_key);
-		builder.append(DatabaseConstants.SQL_NOT_LIKE);
-		builder.append(DatabaseConstants.SQL_AND);
-		builder.append(safe_key);
-		builder.append(DatabaseConstants.SQL_NOT_LIKE);
-		builder.append(DatabaseConstants.SQL_AND);
-		builder.append(safe_key);
-		builder.append(DatabaseConstants.SQL_NOT_LIKE);
-		builder.append(" ) ");  //$NON-NLS-1$
 
-		selection_args.add("" + value);  //$NON-NLS-1$
-		selection_args.add("%-@-" + value);  //$NON-NLS-1$
-		selection_args.add("%-@-" + value + "-@-%");  //$NON-NLS-1$ //$NON-NLS-2$
-		selection_args.add(value + "-@-%");  //$NON-NLS-1$
+	/*
+	 * Returns the prefix of a starts with criteria as it compares under the
+	 * field's collation, so that a range on it matches regardless of case
+	 * when the field ignores case.
+	 */
+	private String toPrefix(String key, boolean is_key_special, Object value) {
+		DatabaseSchema schema = is_key_special ? null : getSchema();
+		String str = toArgument(value);
+
+		return (schema == null) ? str : schema.getCollation(key).toComparedText(str);
 	}
-	
-	
-	private void handleFuzzyEqualsCase(StringBuilder builder, List<String> selection_args, QueryPartOperation operation, String safe_key, Object value) {
-		if (operation != QueryPartOperation.FUZZY_EQUALS) return;
-		value = convertObjectIfBoolean(value);
-		
-		builder.append(safe_key); 
-		builder.append(DatabaseConstants.SQL_LIKE);
 
-		selection_args.add("%" + value + "%");  //$NON-NLS-1$ //$NON-NLS-2$
+	protected void buildFromClause(StringBuilder query_string, List<Object> selection_args) throws IllegalArgumentException {
+		query_string.append(' ');
+		query_string.append(collectionToSearch.getName());
+		query_string.append(' ');
 	}
-	
-	
-	private void handleFuzzyNotEqualsCase(StringBuilder builder, List<String> selection_args, QueryPartOperation operation, String safe_key, Object value) {
-		if (operation != QueryPartOperation.FUZZY_NOT_EQUALS) return;
-		value = convertObjectIfBoolean(value);
-		
-		builder.append(safe_key); 
-		builder.append(DatabaseConstants.SQL_NOT_LIKE);
 
-		selection_args.add("%" + value + "%");   //$NON-NLS-1$//$NON-NLS-2$
+	/*
+	 * Returns the bracketed column name for a search field, from the schema's
+	 * precomputed names when the collection is open.
+	 */
+	protected String getColumnName(String name) {
+		DatabaseSchema schema = getSchema();
+
+		if (schema != null) {
+			return schema.getColumnName(name);
+		}
+
+		return "[" + JSONStoreUtil.getDatabaseSafeSearchFieldName(name) + "]";  //$NON-NLS-1$ //$NON-NLS-2$
 	}
-	
-	
-	private void handleFuzzyLeftEqualsCase(StringBuilder builder, List<String> selection_args, QueryPartOperation operation, String safe_key, Object value) {
-		if (operation != QueryPartOperation.FUZZY_LEFT_EQUALS) return;
-		value = convertObjectIfBoolean(value);
-		
-		builder.append(" ( ");  //$NON-NLS-1$
-		builder.append(safe_key);
-		builder.append(DatabaseConstants.SQL_LIKE);
-		builder.append(DatabaseConstants.SQL_OR);
-		builder.append(safe_key);
-		builder.append(DatabaseConstants.SQL_LIKE);
-		builder.append(" ) ");  //$NON-NLS-1$
-		
-		selection_args.add("%" + value);  //$NON-NLS-1$
-		selection_args.add("%" + value + "-@-%");  //$NON-NLS-1$ //$NON-NLS-2$
+
+	private DatabaseSchema getSchema() {
+		if (!schemaLoaded) {
+			schema = findSchema();
+
+			// The SQL for equality depends on which fields hold arrays, so the
+			// set is read once and used for both the SQL and its arguments.
+			arrayFields = (schema == null) ? Collections.<String>emptySet() : schema.getArrayFields();
+			schemaLoaded = true;
+		}
+
+		return schema;
 	}
-	
-	
-	private void handleFuzzyNotLeftEqualsCase(StringBuilder builder, List<String> selection_args, QueryPartOperation operation, String safe_key, Object value) {
-		if (operation != QueryPartOperation.FUZZY_NOT_LEFT_EQUALS) return;
-		value = convertObjectIfBoolean(value);
-		
-		builder.append(" ( ");  //$NON-NLS-1$
-		builder.append(safe_key);
-		builder.append(DatabaseConstants.SQL_NOT_LIKE);
-		builder.append(DatabaseConstants.SQL_AND);
-		builder.append(safe_key);
-		builder.append(DatabaseConstants.SQL_NOT_LIKE);
-		builder.append(" ) ");  //$NON-NLS-1$
-		
-		selection_args.add("%" + value);  //$NON-NLS-1$
-		selection_args.add("%" + value + "-@-%");  //$NON-NLS-1$ //$NON-NLS-2$
+
+	private DatabaseSchema findSchema() {
+		try {
+			return DatabaseManager.getInstance().getDatabase(collectionToSearch.getName()).getSchema();
+		}
+
+		catch (Exception e) {
+			return null;
+		}
 	}
-	
-	
-	private void handleFuzzyRightEqualsCase(StringBuilder builder, List<String> selection_args, QueryPartOperation operation, String safe_key, Object value) {
-		if (operation != QueryPartOperation.FUZZY_RIGHT_EQUALS) return;
-		value = convertObjectIfBoolean(value);
-		
-		builder.append(" ( ");  //$NON-NLS-1$
-		builder.append(safe_key);
-		builder.append(DatabaseConstants.SQL_LIKE);
-		builder.append(DatabaseConstants.SQL_OR);
-		builder.append(safe_key);
-		builder.append(DatabaseConstants.SQL_LIKE);
-		builder.append(" ) ");  //$NON-NLS-1$
-		
-		selection_args.add(value + "%");  //$NON-NLS-1$
-		selection_args.add("%-@-" + value + "%");  //$NON-NLS-1$ //$NON-NLS-2$
-			
+
+	/**
+	 * @return The search fields that held arrays when the SQL was generated. Equality on any other
+	 *         search field is compiled to a plain comparison.
+	 */
+	public Set<String> getArrayFields() {
+		getSchema();
+		return arrayFields;
 	}
-	
-	
-	private void handleFuzzyNotRightEqualsCase(StringBuilder builder, List<String> selection_args, QueryPartOperation operation, String safe_key, Object value) {
-		if (operation != QueryPartOperation.FUZZY_NOT_RIGHT_EQUALS) return;
-		value = convertObjectIfBoolean(value);
-		
-		builder.append(" ( ");  //$NON-NLS-1$
-		builder.append(safe_key);
-		builder.append(DatabaseConstants.SQL_NOT_LIKE);
-		builder.append(DatabaseConstants.SQL_AND);
-		builder.append(safe_key);
-		builder.append(DatabaseConstants.SQL_NOT_LIKE);
-		builder.append(" ) ");  //$NON-NLS-1$
-		
-		selection_args.add(value + "%");  //$NON-NLS-1$
-		selection_args.add("%-@-" + value + "%");  //$NON-NLS-1$ //$NON-NLS-2$
-		
+
+	/**
+	 * @return True if a search field started holding arrays (or the collection was opened again) since
+	 *         the SQL was generated, in which case the SQL may miss documents and has to be generated again.
+	 */
+	public boolean hasArrayFieldsChanged() {
+		if (!schemaLoaded) {
+			return false;
+		}
+
+		DatabaseSchema current = findSchema();
+
+		return (current != schema) || ((current != null) && (current.getArrayFields() != arrayFields));
 	}
-	
-	private void handleBetweenCase(StringBuilder builder, List<String> selection_args, QueryPartOperation operation, String safe_key, Object value) {
-		if (operation != QueryPartOperation.BETWEEN) return;
 
-		List<Object> rangeList = (List<Object>)value;
-		Object firstVal = convertObjectIfBoolean(rangeList.get(0));
-		Object secondVal = convertObjectIfBoolean(rangeList.get(1));
-		
-		builder.append(safe_key);
-		builder.append(DatabaseConstants.SQL_BETWEEN);	
-		
-		selection_args.add(firstVal.toString()); 
-		selection_args.add(secondVal.toString()); 
-		
+	/*
+	 * Writes the SQL for one criteria.  Every operation has exactly one case,
+	 * and the arguments it binds come from appendArguments().
+	 */
+	private void appendCriteria(StringBuilder builder, QueryPartOperation operation, String key, boolean is_key_special, Object value) {
+		String column = is_key_special ? key : getColumnName(key);
+		boolean multiValue;
+
+		switch (operation) {
+			case EXACT_EQUALS:
+				if (getMultiValueSchema(is_key_special ? null : key) != null) {
+					// Arrays are matched through the multi-value index table, which
+					// can use an index, instead of LIKE patterns on the encoded column.
+
+					builder.append(" ( ");  //$NON-NLS-1$
+					builder.append(column).append(DatabaseConstants.SQL_EQ);
+					builder.append(DatabaseConstants.SQL_OR);
+					appendMultiValueLookup(builder);
+					builder.append(DatabaseConstants.SQL_EQ);
+					builder.append(" ) ) ");  //$NON-NLS-1$
+					break;
+				}
+
+				if (isScalarField(is_key_special ? null : key)) {
+					// The field never held an array, so this can be an index lookup.
+
+					builder.append(column).append(DatabaseConstants.SQL_EQ);
+					break;
+				}
+
+				builder.append(" ( ");  //$NON-NLS-1$
+				builder.append(column).append(DatabaseConstants.SQL_EQ);
+				builder.append(DatabaseConstants.SQL_OR);
+				builder.append(column).append(DatabaseConstants.SQL_LIKE);
+				builder.append(DatabaseConstants.SQL_OR);
+				builder.append(column).append(DatabaseConstants.SQL_LIKE);
+				builder.append(DatabaseConstants.SQL_OR);
+				builder.append(column).append(DatabaseConstants.SQL_LIKE);
+				builder.append(" ) ");  //$NON-NLS-1$
+				break;
+			case EXACT_NOT_EQUALS:
+				builder.append(" ( ");  //$NON-NLS-1$
+				builder.append(column).append(DatabaseConstants.SQL_NOT_EQ);
+				builder.append(DatabaseConstants.SQL_AND);
+				builder.append(column).append(DatabaseConstants.SQL_NOT_LIKE);
+				builder.append(DatabaseConstants.SQL_AND);
+				builder.append(column).append(DatabaseConstants.SQL_NOT_LIKE);
+				builder.append(DatabaseConstants.SQL_AND);
+				builder.append(column).append(DatabaseConstants.SQL_NOT_LIKE);
+				builder.append(" ) ");  //$NON-NLS-1$
+				break;
+			case FUZZY_EQUALS:
+				builder.append(column).append(DatabaseConstants.SQL_LIKE);
+				break;
+			case FUZZY_NOT_EQUALS:
+				builder.append(column).append(DatabaseConstants.SQL_NOT_LIKE);
+				break;
+			case FUZZY_LEFT_EQUALS:
+			case FUZZY_RIGHT_EQUALS:
+				builder.append(" ( ");  //$NON-NLS-1$
+				builder.append(column).append(DatabaseConstants.SQL_LIKE);
+				builder.append(DatabaseConstants.SQL_OR);
+				builder.append(column).append(DatabaseConstants.SQL_LIKE);
+				builder.append(" ) ");  //$NON-NLS-1$
+				break;
+			case FUZZY_NOT_LEFT_EQUALS:
+			case FUZZY_NOT_RIGHT_EQUALS:
+				builder.append(" ( ");  //$NON-NLS-1$
+				builder.append(column).append(DatabaseConstants.SQL_NOT_LIKE);
+				builder.append(DatabaseConstants.SQL_AND);
+				builder.append(column).append(DatabaseConstants.SQL_NOT_LIKE);
+				builder.append(" ) ");  //$NON-NLS-1$
+				break;
+			case BETWEEN:
+				builder.append(column).append(DatabaseConstants.SQL_BETWEEN);
+				break;
+			case NOT_BETWEEN:
+				builder.append(column).append(DatabaseConstants.SQL_NOT_BETWEEN);
+				break;
+			case IN:
+				multiValue = getMultiValueSchema(is_key_special ? null : key) != null;
+
+				if (multiValue) {
+					builder.append(" ( ");  //$NON-NLS-1$
+				}
+
+				builder.append(column).append(DatabaseConstants.SQL_IN);
+				appendValues(builder, ((List<?>) value).size());
+
+				if (multiValue) {
+					// Also match arrays that contain any of the values.
+
+					builder.append(DatabaseConstants.SQL_OR);
+					appendMultiValueLookup(builder);
+					builder.append(DatabaseConstants.SQL_IN);
+					appendValues(builder, ((List<?>) value).size());
+					builder.append(" ) )"); //$NON-NLS-1$
+				}
+				break;
+			case NOT_IN:
+				builder.append(column).append(DatabaseConstants.SQL_NOT_IN);
+				appendValues(builder, ((List<?>) value).size());
+				break;
+			case STARTS_WITH:
+				multiValue = getMultiValueSchema(is_key_special ? null : key) != null;
+				boolean range = isPrefixRange(key, is_key_special, value);
+
+				builder.append(" ( ");  //$NON-NLS-1$
+				appendPrefixMatch(builder, column, range);
+
+				if (multiValue) {
+					// Also match arrays with an element that has the prefix.
+
+					builder.append(DatabaseConstants.SQL_OR);
+					appendMultiValueLookup(builder);
+
+					if (range) {
+						builder.append(DatabaseConstants.SQL_GTE);
+						builder.append(DatabaseConstants.SQL_AND);
+						builder.append(DatabaseConstants.FIELD_VALUE).append(DatabaseConstants.SQL_LT);
+					} else {
+						builder.append(DatabaseConstants.SQL_GLOB);
+					}
+
+					builder.append(" ) ");  //$NON-NLS-1$
+				}
+
+				builder.append(" ) ");  //$NON-NLS-1$
+				break;
+			case GREATER_THAN:
+				builder.append(column).append(DatabaseConstants.SQL_GT);
+				break;
+			case GREATER_THAN_OR_EQUALS:
+				builder.append(column).append(DatabaseConstants.SQL_GTE);
+				break;
+			case LESS_THAN:
+				builder.append(column).append(DatabaseConstants.SQL_LT);
+				break;
+			case LESS_THAN_OR_EQUALS:
+				builder.append(column).append(DatabaseConstants.SQL_LTE);
+				break;
+		}
 	}
-	
-	private void handleNotBetweenCase(StringBuilder builder, List<String> selection_args, QueryPartOperation operation, String safe_key, Object value) {
-		if (operation != QueryPartOperation.NOT_BETWEEN) return;
 
-		List<Object> rangeList = (List<Object>)value;
-		Object firstVal = convertObjectIfBoolean(rangeList.get(0));
-		Object secondVal = convertObjectIfBoolean(rangeList.get(1));
-		
-		builder.append(safe_key);
-		builder.append(DatabaseConstants.SQL_NOT_BETWEEN);	
-		
-		selection_args.add(firstVal.toString()); 
-		selection_args.add(secondVal.toString()); 
-		
+	/*
+	 * Writes the list of an inside criteria: a placeholder per value, or for
+	 * long lists a subquery on the values loaded by ValueList.
+	 */
+	protected static void appendValues(StringBuilder builder, int count) {
+		if (ValueList.isInline(count)) {
+			appendPlaceholders(builder, count);
+		} else {
+			ValueList.appendSelect(builder);
+		}
 	}
-	
-	
-	private void handleInCase(StringBuilder builder, List<String> selection_args, QueryPartOperation operation, String safe_key, Object value) {
-		if (operation != QueryPartOperation.IN) return;
 
-		List<Object> inObjectsArray  = (List<Object>)value;
-		builder.append(safe_key);
-		builder.append(DatabaseConstants.SQL_IN);
-		builder.append(" ( "); //$NON-NLS-1$
-		Iterator<Object> elementIterator = inObjectsArray.iterator();
-		while(elementIterator.hasNext()) {
-			builder.append(" ?"); //$NON-NLS-1$
-			Object currentItem = convertObjectIfBoolean(elementIterator.next());
-			selection_args.add(currentItem.toString());
-			if(elementIterator.hasNext()) {
-				builder.append(","); //$NON-NLS-1$
+	/*
+	 * Writes a prefix match, which is case sensitive unless the field's
+	 * collation ignores case.  On text search fields it is a range,
+	 * "column >= prefix AND column < next", which an index on the column can
+	 * search.  Otherwise it is a GLOB pattern.
+	 */
+	private static void appendPrefixMatch(StringBuilder builder, String column, boolean range) {
+		if (range) {
+			builder.append(column).append(DatabaseConstants.SQL_GTE);
+			builder.append(DatabaseConstants.SQL_AND);
+			builder.append(column).append(DatabaseConstants.SQL_LT);
+		} else {
+			builder.append(column).append(DatabaseConstants.SQL_GLOB);
+		}
+	}
+
+	/*
+	 * Returns true when a prefix match can be written as a range: the field
+	 * holds text, and the prefix has a last character that can be
+	 * incremented to give the first string past every string with the prefix.
+	 */
+	private boolean isPrefixRange(String key, boolean is_key_special, Object value) {
+		DatabaseSchema schema = is_key_special ? null : getSchema();
+
+		return (schema != null) && (schema.getFieldType(key) == SearchFieldType.STRING) && (getPrefixEnd(toPrefix(key, is_key_special, value)) != null);
+	}
+
+	/*
+	 * Returns the prefix with its last character incremented, or null if it
+	 * is empty or ends with a character that cannot be incremented without
+	 * leaving the order SQLite compares text in (UTF-8, so code points).
+	 */
+	public static String getPrefixEnd(String prefix) {
+		if (prefix.length() == 0) {
+			return null;
+		}
+
+		char last = prefix.charAt(prefix.length() - 1);
+
+		if ((last == Character.MAX_VALUE) || ((last >= Character.MIN_SURROGATE - 1) && (last <= Character.MAX_SURROGATE))) {
+			return null;
+		}
+
+		return prefix.substring(0, prefix.length() - 1) + (char) (last + 1);
+	}
+
+	/*
+	 * Returns the end of the range of a prefix that is compared with a
+	 * collation, or null like getPrefixEnd(String).  The prefix is already
+	 * the collation's compared text (see SearchFieldCollation.toComparedText),
+	 * which has no upper case ASCII letters unless the collation is BINARY.
+	 * NOCASE compares 'A' to 'Z' as 'a' to 'z', so there the character after
+	 * '@' is '['; the other collations store text without those letters, so
+	 * skipping them changes nothing.
+	 */
+	public static String getPrefixEnd(String prefix, SearchFieldCollation collation) {
+		String end = getPrefixEnd(prefix);
+
+		if ((end == null) || (collation == null) || (collation == SearchFieldCollation.BINARY)) {
+			return end;
+		}
+
+		char last = end.charAt(end.length() - 1);
+
+		if ((last >= 'A') && (last <= 'Z')) {
+			end = end.substring(0, end.length() - 1) + (char) ('Z' + 1);
+		}
+
+		return end;
+	}
+
+	/*
+	 * Returns a GLOB pattern that matches text starting with the prefix.
+	 * The wildcards are escaped by putting them in a character class, and
+	 * so are both cases of ASCII letters when the case is ignored.
+	 */
+	private static String getPrefixPattern(String prefix, boolean ignoreCase) {
+		StringBuilder pattern = new StringBuilder(prefix.length() + 1);
+
+		for (int i = 0; i < prefix.length(); i++) {
+			char c = prefix.charAt(i);
+
+			if ((c == '*') || (c == '?') || (c == '[')) {
+				pattern.append('[').append(c).append(']');
+			} else if (ignoreCase && (c >= 'a') && (c <= 'z')) {
+				pattern.append('[').append(c).append((char) (c - ('a' - 'A'))).append(']');
+			} else {
+				pattern.append(c);
 			}
 		}
 
-		builder.append(" )"); //$NON-NLS-1$
-		
+		return pattern.append('*').toString();
 	}
-	
-	private void handleNotInCase(StringBuilder builder, List<String> selection_args, QueryPartOperation operation, String safe_key, Object value) {
-		if (operation != QueryPartOperation.NOT_IN) return;
 
-		List<Object> inObjectsArray  = (List<Object>)value;
-		builder.append(safe_key);
-		builder.append(DatabaseConstants.SQL_NOT_IN);
+	private static void appendPlaceholders(StringBuilder builder, int count) {
 		builder.append(" ( "); //$NON-NLS-1$
-		Iterator<Object> elementIterator = inObjectsArray.iterator();
-		while(elementIterator.hasNext()) {
+		for (int i = 0; i < count; i++) {
 			builder.append(" ?"); //$NON-NLS-1$
-			Object currentItem = convertObjectIfBoolean(elementIterator.next());
-			selection_args.add(currentItem.toString());
-			if(elementIterator.hasNext()) {
-				builder.append(","); //$NON-NLS-1$
+			if (i < count - 1) {
+				builder.append(',');
 			}
 		}
-
 		builder.append(" )"); //$NON-NLS-1$
-		
 	}
-	
-	private void handleGreaterThanCase(StringBuilder builder, List<String> selection_args, QueryPartOperation operation, String safe_key, Object value) {
-		if (operation != QueryPartOperation.GREATER_THAN) return;
-		value = convertObjectIfBoolean(value);
 
-		builder.append(safe_key); 
-		builder.append(DatabaseConstants.SQL_GT);
+	/**
+	 * Adds the arguments that the SQL for one query part item binds, in
+	 * placeholder order.  The SQL only depends on the item's key, operation
+	 * and, for inside criteria, the number of values, so this is also used to
+	 * bind new values to SQL that was generated earlier.
+	 */
+	public void appendArguments(List<Object> selection_args, String key, boolean is_key_special, QueryPartOperation operation, Object value) {
+		String multiValueKey = is_key_special ? null : key;
+		DatabaseSchema schema;
+		List<?> values;
+		String str;
+
+		switch (operation) {
+			case EXACT_EQUALS:
+				schema = getMultiValueSchema(multiValueKey);
+
+				if (schema != null) {
+					selection_args.add(toColumnValue(key, is_key_special, value));
+					selection_args.add(collectionToSearch.getName());
+					selection_args.add(DatabaseSchema.getMultiValueFieldName(key));
+					selection_args.add(schema.normalizeMultiValue(key, value));
+					break;
+				}
 
-		selection_args.add("" + value);  //$NON-NLS-1$
-		
+				if (isScalarField(multiValueKey)) {
+					selection_args.add(toColumnValue(key, is_key_special, value));
+					break;
+				}
+				// Fall through, the legacy form has the same arguments as not equals.
+			case EXACT_NOT_EQUALS:
+				str = toTextArgument(key, is_key_special, value);
+				selection_args.add(str);
+				selection_args.add(DatabaseConstants.MULTI_VALUE_PREFIX_PATTERN.concat(str));
+				selection_args.add(DatabaseConstants.MULTI_VALUE_PREFIX_PATTERN.concat(str).concat(DatabaseConstants.MULTI_VALUE_SUFFIX_PATTERN));
+				selection_args.add(str.concat(DatabaseConstants.MULTI_VALUE_SUFFIX_PATTERN));
+				break;
+			case FUZZY_EQUALS:
+			case FUZZY_NOT_EQUALS:
+				selection_args.add("%".concat(toTextArgument(key, is_key_special, value)).concat("%"));  //$NON-NLS-1$ //$NON-NLS-2$
+				break;
+			case FUZZY_LEFT_EQUALS:
+			case FUZZY_NOT_LEFT_EQUALS:
+				str = "%".concat(toTextArgument(key, is_key_special, value));  //$NON-NLS-1$
+				selection_args.add(str);
+				selection_args.add(str.concat(DatabaseConstants.MULTI_VALUE_SUFFIX_PATTERN));
+				break;
+			case FUZZY_RIGHT_EQUALS:
+			case FUZZY_NOT_RIGHT_EQUALS:
+				str = toTextArgument(key, is_key_special, value).concat("%");  //$NON-NLS-1$
+				selection_args.add(str);
+				selection_args.add(DatabaseConstants.MULTI_VALUE_PREFIX_PATTERN.concat(str));
+				break;
+			case BETWEEN:
+			case NOT_BETWEEN:
+				values = (List<?>) value;
+				selection_args.add(toColumnValue(key, is_key_special, values.get(0)));
+				selection_args.add(toColumnValue(key, is_key_special, values.get(1)));
+				break;
+			case IN:
+			case NOT_IN:
+				values = (List<?>) value;
+				List<Object> columnValues = new ArrayList<Object>(values.size());
+				for (int i = 0; i < values.size(); i++) {
+					columnValues.add(toColumnValue(key, is_key_special, values.get(i)));
+				}
+				appendValueArguments(selection_args, columnValues);
+
+				schema = operation == QueryPartOperation.IN ? getMultiValueSchema(multiValueKey) : null;
+				if (schema != null) {
+					selection_args.add(collectionToSearch.getName());
+					selection_args.add(DatabaseSchema.getMultiValueFieldName(key));
+
+					List<Object> multiValues = new ArrayList<Object>(values.size());
+					for (int i = 0; i < values.size(); i++) {
+						multiValues.add(schema.normalizeMultiValue(key, values.get(i)));
+					}
+					appendValueArguments(selection_args, multiValues);
+				}
+				break;
+			case GREATER_THAN:
+			case GREATER_THAN_OR_EQUALS:
+			case LESS_THAN:
+			case LESS_THAN_OR_EQUALS:
+				selection_args.add(toColumnValue(key, is_key_special, value));
+				break;
+			case STARTS_WITH:
+				appendPrefixArguments(selection_args, key, is_key_special, value, false);
+
+				if (getMultiValueSchema(multiValueKey) != null) {
+					selection_args.add(collectionToSearch.getName());
+					selection_args.add(DatabaseSchema.getMultiValueFieldName(key));
+					appendPrefixArguments(selection_args, key, is_key_special, value, true);
+				}
+				break;
+		}
 	}
-	
-	private void handleGreaterThanEqualsCase(StringBuilder builder, List<String> selection_args, QueryPartOperation operation, String safe_key, Object value) {
-		if (operation != QueryPartOperation.GREATER_THAN_OR_EQUALS) return;
-		value = convertObjectIfBoolean(value);
 
-		builder.append(safe_key); 
-		builder.append(DatabaseConstants.SQL_GTE);
+	private void appendPrefixArguments(List<Object> selection_args, String key, boolean is_key_special, Object value, boolean multiValue) {
+		String prefix = toPrefix(key, is_key_special, value);
 
-		selection_args.add("" + value);  //$NON-NLS-1$
-		
+		if (isPrefixRange(key, is_key_special, value)) {
+			selection_args.add(prefix);
+			selection_args.add(getPrefixEnd(prefix, getSchema().getCollation(key)));
+		} else {
+			// GLOB ignores the column's collation, but the multi-value index
+			// table holds the values already lower cased.
+			boolean ignoreCase = !multiValue && !is_key_special && (getSchema() != null) && (getSchema().getCollation(key) == SearchFieldCollation.NOCASE);
+
+			selection_args.add(getPrefixPattern(prefix, ignoreCase));
+		}
 	}
 	
-	private void handleLessThanCase(StringBuilder builder, List<String> selection_args, QueryPartOperation operation, String safe_key, Object value) {
-		if (operation != QueryPartOperation.LESS_THAN) return;
-		value = convertObjectIfBoolean(value);
+	protected static void appendValueArguments(List<Object> selection_args, List<Object> values) {
+		if (ValueList.isInline(values.size())) {
+			selection_args.addAll(values);
+		} else {
+			selection_args.add(new ValueList(values));
+		}
+	}
 
-		builder.append(safe_key); 
-		builder.append(DatabaseConstants.SQL_LT);
+	/*
+	 * Returns the collection's schema when the given search field has held an
+	 * array (and so has rows in the multi-value index table), or null when the
+	 * column is all there is to compare against.
+	 */
+	private DatabaseSchema getMultiValueSchema(String key) {
+		if (key == null) {
+			return null;
+		}
 
-		selection_args.add("" + value);  //$NON-NLS-1$
-		
+		DatabaseSchema schema = getSchema();
+
+		if ((schema == null) || schema.isInternalField(key) || !arrayFields.contains(DatabaseSchema.getMultiValueFieldName(key))) {
+			return null;
+		}
+
+		return schema;
 	}
-	
-	private void handleLessThanEqualsCase(StringBuilder builder, List<String> selection_args, QueryPartOperation operation, String safe_key, Object value) {
-		if (operation != QueryPartOperation.LESS_THAN_OR_EQUALS) return;
-		value = convertObjectIfBoolean(value);
 
-		builder.append(safe_key); 
-		builder.append(DatabaseConstants.SQL_LTE);
+	/*
+	 * Returns true when the search field is known to never have held an array,
+	 * so its column can be compared directly.  Without a schema nothing is
+	 * known, and equality falls back to also matching the encoded arrays.
+	 */
+	private boolean isScalarField(String key) {
+		if (key == null) {
+			return false;
+		}
+
+		DatabaseSchema schema = getSchema();
 
-		selection_args.add("" + value);  //$NON-NLS-1$
-		
+		return (schema != null) && (schema.isInternalField(key) || !arrayFields.contains(DatabaseSchema.getMultiValueFieldName(key)));
 	}
-	
-	protected void buildWhereClause(StringBuilder query_string, List<String> selection_args) throws IllegalArgumentException {
-		if (query_string == null) throw new IllegalArgumentException("query_string parameter is null");
-		if (selection_args == null) throw new IllegalArgumentException("selection_args parameter is null");
 
-		StringBuilder whereBlock = new StringBuilder();
-		
+	/*
+	 * Appends "_id IN (SELECT _id FROM <values> WHERE collection = ? AND
+	 * field = ? AND value"; the caller finishes the value comparison and
+	 * closes the parenthesis.
+	 */
+	private static void appendMultiValueLookup(StringBuilder builder) {
+		builder.append(DatabaseConstants.FIELD_ID);
+		builder.append(DatabaseConstants.SQL_IN);
+		builder.append("( SELECT "); //$NON-NLS-1$
+		builder.append(DatabaseConstants.FIELD_ID);
+		builder.append(DatabaseConstants.SQL_FROM);
+		builder.append(DatabaseConstants.TABLE_VALUES);
+		builder.append(DatabaseConstants.SQL_WHERE);
+		builder.append(DatabaseConstants.FIELD_COLLECTION);
+		builder.append(DatabaseConstants.SQL_EQ);
+		builder.append(DatabaseConstants.SQL_AND);
+		builder.append(DatabaseConstants.FIELD_FIELD);
+		builder.append(DatabaseConstants.SQL_EQ);
+		builder.append(DatabaseConstants.SQL_AND);
+		builder.append(DatabaseConstants.FIELD_VALUE);
+	}
 
-		StringBuilder whereBlockClause = new StringBuilder();
-		List<JSONStoreQueryPart> queryContentParts = queryContent.getAllQueryParts();
-		
-		Iterator<JSONStoreQueryPart> queryContentPartIterator = queryContentParts.iterator();
-		while (queryContentPartIterator.hasNext()) {
-			JSONStoreQueryPart queryContentPart = queryContentPartIterator.next();
-			List<JSONStoreQueryPartItem> queryBlockItems = queryContentPart.getQueryBlockItems();
-			
-			Iterator<JSONStoreQueryPartItem> queryBlockIterator = queryBlockItems.iterator();
-
-			while (queryBlockIterator.hasNext()) {
-				JSONStoreQueryPartItem item = queryBlockIterator.next();
-				
-				QueryPartOperation operation = item.getOperation();
-				String safeKey = item.isKeySpecial() ? item.getKey() : "[" + JSONStoreUtil.getDatabaseSafeSearchFieldName(item.getKey()) + "]";  //$NON-NLS-1$ //$NON-NLS-2$
-				Object value = item.getValue(); 
-				
-				//Build the current clause by checking it against all case handlers
-				StringBuilder currentClause = new StringBuilder();
-				handleExactEqualsCase(currentClause,selection_args, operation, safeKey, value);
-				handleExactNotEqualsCase(currentClause,selection_args, operation, safeKey, value);
-				handleFuzzyEqualsCase(currentClause,selection_args, operation, safeKey, value);
-				handleFuzzyNotEqualsCase(currentClause,selection_args, operation, safeKey, value);
-				handleFuzzyLeftEqualsCase(currentClause,selection_args, operation, safeKey, value);
-				handleFuzzyNotLeftEqualsCase(currentClause,selection_args, operation, safeKey, value);
-				handleFuzzyRightEqualsCase(currentClause,selection_args, operation, safeKey, value);
-				handleFuzzyNotRightEqualsCase(currentClause,selection_args, operation, safeKey, value);
-				handleBetweenCase(currentClause,selection_args, operation, safeKey, value);
-				handleNotBetweenCase(currentClause,selection_args, operation, safeKey, value);
-				handleInCase(currentClause,selection_args, operation, safeKey, value);
-				handleNotInCase(currentClause,selection_args, operation, safeKey, value);
-				handleGreaterThanCase(currentClause,selection_args, operation, safeKey, value);
-				handleGreaterThanEqualsCase(currentClause,selection_args, operation, safeKey, value);
-				handleLessThanCase(currentClause,selection_args, operation, safeKey, value);
-				handleLessThanEqualsCase(currentClause,selection_args, operation, safeKey, value);
-				
-				if(currentClause.length() > 0) {
-					whereBlockClause.append(" ( ");  //$NON-NLS-1$
-					whereBlockClause.append(currentClause);
-					whereBlockClause.append(" ) ");  //$NON-NLS-1$
+	/*
+	 * Writes the search field criteria of one query part, ANDed, and binds
+	 * their arguments.  A part that only has path criteria matches every
+	 * document here, and its path criteria are checked as the rows are read.
+	 */
+	protected void appendPart(StringBuilder query_string, List<Object> selection_args, JSONStoreQueryPart part) {
+		List<JSONStoreQueryPartItem> queryBlockItems = part.getQueryBlockItems();
+		int itemCount = queryBlockItems.size();
+
+		if (itemCount == 0 && part.hasPathCriteria()) {
+			query_string.append(" 1 ");  //$NON-NLS-1$
+			return;
+		}
+
+		for (int j = 0; j < itemCount; j++) {
+			JSONStoreQueryPartItem item = queryBlockItems.get(j);
+			QueryPartOperation operation = item.getOperation();
+			Object value = item.getValue();
+
+			query_string.append(" ( ");  //$NON-NLS-1$
+			appendCriteria(query_string, operation, item.getKey(), item.isKeySpecial(), value);
+			appendArguments(selection_args, item.getKey(), item.isKeySpecial(), operation, value);
+			query_string.append(" ) ");  //$NON-NLS-1$
+
+			if (j < itemCount - 1) {
+				query_string.append(DatabaseConstants.SQL_AND);
+			}
+		}
+	}
+
+	/**
+	 * Returns true when the parts of the query are written as a union of one
+	 * subquery per part instead of being ORed.  Each subquery can then use
+	 * the best index for its own part, where SQLite would often scan the
+	 * table for the OR.  This is only done when there are at most 500 parts,
+	 * every part can be answered from an index and, when the collection was
+	 * analyzed, the parts are expected to read less than half of the table
+	 * together.  The choice is made again when the indexes or their
+	 * statistics change.
+	 */
+	public boolean usesUnion() {
+		IndexStatistics statistics = findIndexStatistics();
+
+		if (statistics != unionStatistics) {
+			union = chooseUnion(statistics);
+			unionStatistics = statistics;
+		}
+
+		return union;
+	}
+
+	private IndexStatistics findIndexStatistics() {
+		try {
+			return DatabaseManager.getInstance().getDatabase(collectionToSearch.getName()).getIndexStatistics();
+		}
+
+		catch (Exception e) {
+			return IndexStatistics.NONE;
+		}
+	}
+
+	private boolean chooseUnion(IndexStatistics statistics) {
+		List<JSONStoreQueryPart> parts = queryContent.getAllQueryParts();
+
+		if (parts.size() < 2 || parts.size() > QueryBuilder.MAX_UNION_PARTS || getSchema() == null) {
+			return false;
+		}
+
+		long total = 0;
+
+		for (JSONStoreQueryPart part : parts) {
+			long best = -1;
+
+			for (JSONStoreQueryPartItem item : part.getQueryBlockItems()) {
+				long estimate = estimateRows(statistics, item);
+
+				if (estimate >= 0 && (best < 0 || estimate < best)) {
+					best = estimate;
 				}
+			}
+
+			if (best < 0) {
+				return false;
+			}
 
-				if (queryBlockIterator.hasNext()) {
-					whereBlockClause.append(DatabaseConstants.SQL_AND);
+			total += best;
+		}
+
+		long rowCount = statistics.getRowCount();
+
+		return rowCount < 0 || total * 2 <= rowCount;
+	}
+
+	/*
+	 * Returns the number of rows an index lookup for the item is expected to
+	 * read, or -1 if its SQL cannot be answered from an index.  Equality on a
+	 * field that held arrays also looks in the multi-value table, so it is
+	 * not a plain index lookup.
+	 */
+	private long estimateRows(IndexStatistics statistics, JSONStoreQueryPartItem item) {
+		String key = item.isKeySpecial() ? null : item.getKey();
+
+		// A criteria on _id is not key special when it comes from the public
+		// API, but _id is the rowid either way, which IndexStatistics knows
+		// by its plain name.
+		boolean isId = DatabaseConstants.FIELD_ID.equals(item.getKey());
+		String column = (item.isKeySpecial() || isId) ? item.getKey() : getColumnName(item.getKey());
+
+		switch (item.getOperation()) {
+			case EXACT_EQUALS:
+				if (!isScalarField(key)) {
+					return -1;
+				}
+				break;
+			case IN:
+				if (getMultiValueSchema(key) != null) {
+					return -1;
+				}
+				break;
+			case STARTS_WITH:
+				if (getMultiValueSchema(key) != null || !isPrefixRange(item.getKey(), item.isKeySpecial(), item.getValue())) {
+					return -1;
 				}
+				break;
+			default:
+				break;
+		}
+
+		return statistics.estimateRows(column, item.getOperation(), item.getValue());
+	}
 
+	/*
+	 * Writes "_id IN ( SELECT _id FROM <table> WHERE <part> UNION ALL ... )".
+	 * IN already ignores duplicates, so UNION ALL saves SQLite from sorting
+	 * the ids once more to remove them.
+	 */
+	private void appendUnion(StringBuilder query_string, List<Object> selection_args, List<JSONStoreQueryPart> parts) {
+		query_string.append(DatabaseConstants.FIELD_ID).append(DatabaseConstants.SQL_IN).append("( ");  //$NON-NLS-1$
+
+		for (int i = 0; i < parts.size(); i++) {
+			if (i > 0) {
+				query_string.append(" UNION ALL ");  //$NON-NLS-1$
 			}
 
+			query_string.append(DatabaseConstants.SQL_SELECT).append(' ').append(DatabaseConstants.FIELD_ID);
+			query_string.append(DatabaseConstants.SQL_FROM).append(collectionToSearch.getName());
+			query_string.append(DatabaseConstants.SQL_WHERE);
+			appendPart(query_string, selection_args, parts.get(i));
+		}
+
+		query_string.append(" )");  //$NON-NLS-1$
+	}
 
-			// Combine block queries with OR
-			if (queryContentPartIterator.hasNext()) {
-				whereBlockClause.append(DatabaseConstants.SQL_OR);
+	/*
+	 * Writes the where clause straight into query_string, in one pass over
+	 * the query parts: items are ANDed, parts are ORed (or, see usesUnion(),
+	 * each part gets its own subquery).
+	 */
+	protected void buildWhereClause(StringBuilder query_string, List<Object> selection_args) throws IllegalArgumentException {
+		if (query_string == null) throw new IllegalArgumentException("query_string parameter is null");
+		if (selection_args == null) throw new IllegalArgumentException("selection_args parameter is null");
+
+		int whereStart = query_string.length();
+		List<JSONStoreQueryPart> queryContentParts = queryContent.getAllQueryParts();
+		int partCount = queryContentParts.size();
+
+		query_string.append('(');
+		int clauseStart = query_string.length();
+
+		if (usesUnion()) {
+			appendUnion(query_string, selection_args, queryContentParts);
+		} else {
+			for (int i = 0; i < partCount; i++) {
+				appendPart(query_string, selection_args, queryContentParts.get(i));
+
+				// Combine block queries with OR
+				if (i < partCount - 1) {
+					query_string.append(DatabaseConstants.SQL_OR);
+				}
 			}
 		}
 
-		if (whereBlockClause.length() > 0) {
-			whereBlock.append("(");  //$NON-NLS-1$
-			whereBlock.append(whereBlockClause);
-			whereBlock.append(")");  //$NON-NLS-1$
+		if (query_string.length() == clauseStart) {
+			query_string.setLength(whereStart);
+		} else {
+			query_string.append(')');
 		}
 
 		// Handle deleted inclusion.
 		if (deletedInclusion == DeletedInclusion.NON_DELETED_ONLY) {
-			if (whereBlock.length() > 0) whereBlock.append(DatabaseConstants.SQL_AND);
-			whereBlock.append(" " + DatabaseConstants.FIELD_DELETED + " = 0 ");  //$NON-NLS-1$//$NON-NLS-2$
+			if (query_string.length() > whereStart) query_string.append(DatabaseConstants.SQL_AND);
+			query_string.append(' ').append(DatabaseConstants.FIELD_DELETED).append(" = 0 ");  //$NON-NLS-1$
 		} else if (deletedInclusion == DeletedInclusion.DELETED_ONLY) {
-			if (whereBlock.length() > 0) whereBlock.append(DatabaseConstants.SQL_AND);
-			whereBlock.append(DatabaseConstants.FIELD_DELETED + " = 1");  //$NON-NLS-1$
+			if (query_string.length() > whereStart) query_string.append(DatabaseConstants.SQL_AND);
+			query_string.append(DatabaseConstants.FIELD_DELETED).append(" = 1");  //$NON-NLS-1$
+		}
+
+		// Hide expired documents.  The time is read by SQLite rather than
+		// bound, so the statement stays the same and can be cached.
+		DatabaseSchema schema = getSchema();
+
+		if (!includeExpired && schema != null && schema.hasExpiry()) {
+			String column = schema.getColumnName(DatabaseConstants.FIELD_EXPIRES);
+
+			if (query_string.length() > whereStart) query_string.append(DatabaseConstants.SQL_AND);
+			query_string.append(" ( ").append(column).append(" IS NULL OR ").append(column).append(" > ").append(DatabaseConstants.SQL_NOW).append(" ) ");  //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 		}
 
-		if (whereBlock.length() == 0) whereBlock.append(1);
-		query_string.append(whereBlock);
+		if (query_string.length() == whereStart) query_string.append(1);
 	}
 
-	public abstract void convertToQueryString(StringBuilder query_string, List<String> selection_args) throws IllegalArgumentException;
+	public abstract void convertToQueryString(StringBuilder query_string, List<Object> selection_args) throws IllegalArgumentException;
 
 }
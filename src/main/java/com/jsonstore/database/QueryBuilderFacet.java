@@ -0,0 +1,134 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.database;
+
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreQueryParts;
+
+import java.util.List;
+
+/*
+ * Counts the documents that match a query for each distinct value of one
+ * search field, most frequent first.  The first column of the result is the
+ * value and the second the count.
+ *
+ * On a field that never held an array, this is a GROUP BY on the column,
+ * which an index on the column (with _deleted, or filtered on it) answers
+ * without reading the table, and the limit is applied in SQL.  On a field
+ * that has held arrays, the elements are counted from the multi-value index
+ * table and the documents with a single value from the column.  The values of
+ * the two kinds of rows are stored differently (see
+ * DatabaseSchema.normalizeMultiValue), so the caller merges the groups and
+ * applies the limit itself; see isMerged().
+ */
+public class QueryBuilderFacet extends QueryBuilder {
+	private String table;
+	private String field;
+	private int limit;
+	private List<Object> ids;
+
+	public QueryBuilderFacet(JSONStoreCollection collection, JSONStoreQueryParts content, String field, int limit) {
+		super(collection, content);
+
+		this.table = collection.getName();
+		this.field = field;
+		this.limit = limit;
+	}
+
+	public String getField() {
+		return this.field;
+	}
+
+	/*
+	 * Counts these documents instead of the ones that match the query, for
+	 * queries with path criteria, which SQL cannot check.
+	 */
+	public void setIds(List<Object> ids) {
+		this.ids = ids;
+	}
+
+	/*
+	 * Returns true when the groups have to be merged by their normalized
+	 * value, and the limit applied, after they are read.
+	 */
+	public boolean isMerged() {
+		return getArrayFields().contains(DatabaseSchema.getMultiValueFieldName(this.field));
+	}
+
+	@Override
+	public void convertToQueryString(StringBuilder query_string, List<Object> selection_args) throws IllegalArgumentException {
+		String column = getColumnName(this.field);
+
+		if (!isMerged()) {
+			query_string.append(DatabaseConstants.SQL_SELECT).append(column).append(", COUNT(*)"); //$NON-NLS-1$
+			query_string.append(DatabaseConstants.SQL_FROM).append(this.table);
+			query_string.append(DatabaseConstants.SQL_WHERE);
+			appendWhere(query_string, selection_args);
+			query_string.append(DatabaseConstants.SQL_AND).append(column).append(" IS NOT NULL GROUP BY ").append(column); //$NON-NLS-1$
+			query_string.append(DatabaseConstants.SQL_SORT).append("2 DESC, 1"); //$NON-NLS-1$
+
+			if (this.limit > 0) {
+				query_string.append(DatabaseConstants.SQL_LIMIT).append(this.limit);
+			}
+
+			return;
+		}
+
+		// Array elements, counted once per document.
+		query_string.append(DatabaseConstants.SQL_SELECT).append(DatabaseConstants.FIELD_VALUE).append(", COUNT(DISTINCT ").append(DatabaseConstants.FIELD_ID).append(")"); //$NON-NLS-1$ //$NON-NLS-2$
+		query_string.append(DatabaseConstants.SQL_FROM).append("( SELECT ").append(DatabaseConstants.FIELD_ID).append(", ").append(DatabaseConstants.FIELD_VALUE); //$NON-NLS-1$ //$NON-NLS-2$
+		query_string.append(DatabaseConstants.SQL_FROM).append(DatabaseConstants.TABLE_VALUES);
+		query_string.append(DatabaseConstants.SQL_WHERE);
+		appendValuesOfField(query_string, selection_args);
+		query_string.append(DatabaseConstants.SQL_AND).append(DatabaseConstants.FIELD_ID).append(DatabaseConstants.SQL_IN);
+		query_string.append("( SELECT ").append(DatabaseConstants.FIELD_ID); //$NON-NLS-1$
+		query_string.append(DatabaseConstants.SQL_FROM).append(this.table);
+		query_string.append(DatabaseConstants.SQL_WHERE);
+		appendWhere(query_string, selection_args);
+		query_string.append(" )"); //$NON-NLS-1$
+
+		// Documents whose value is not an array.
+		query_string.append(" UNION ALL SELECT ").append(DatabaseConstants.FIELD_ID).append(", ").append(column); //$NON-NLS-1$ //$NON-NLS-2$
+		query_string.append(DatabaseConstants.SQL_FROM).append(this.table);
+		query_string.append(DatabaseConstants.SQL_WHERE);
+		appendWhere(query_string, selection_args);
+		query_string.append(DatabaseConstants.SQL_AND).append(column).append(" IS NOT NULL"); //$NON-NLS-1$
+		query_string.append(DatabaseConstants.SQL_AND).append(DatabaseConstants.FIELD_ID).append(DatabaseConstants.SQL_NOT_IN);
+		query_string.append("( SELECT ").append(DatabaseConstants.FIELD_ID); //$NON-NLS-1$
+		query_string.append(DatabaseConstants.SQL_FROM).append(DatabaseConstants.TABLE_VALUES);
+		query_string.append(DatabaseConstants.SQL_WHERE);
+		appendValuesOfField(query_string, selection_args);
+		query_string.append(" ) ) GROUP BY 1"); //$NON-NLS-1$
+	}
+
+	private void appendWhere(StringBuilder query_string, List<Object> selection_args) {
+		if (this.ids == null) {
+			buildWhereClause(query_string, selection_args);
+			return;
+		}
+
+		query_string.append(DatabaseConstants.FIELD_ID).append(DatabaseConstants.SQL_IN);
+		appendValues(query_string, this.ids.size());
+		appendValueArguments(selection_args, this.ids);
+	}
+
+	private void appendValuesOfField(StringBuilder query_string, List<Object> selection_args) {
+		query_string.append(DatabaseConstants.FIELD_COLLECTION).append(DatabaseConstants.SQL_EQ);
+		query_string.append(DatabaseConstants.SQL_AND);
+		query_string.append(DatabaseConstants.FIELD_FIELD).append(DatabaseConstants.SQL_EQ);
+
+		selection_args.add(this.table);
+		selection_args.add(DatabaseSchema.getMultiValueFieldName(this.field));
+	}
+}
@@ -14,8 +14,8 @@
 package com.jsonstore.database;
 
 import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreQueryPart;
 import com.jsonstore.api.JSONStoreQueryParts;
-import com.jsonstore.util.JSONStoreUtil;
 
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -71,7 +71,7 @@ public class QueryBuilderSelect extends QueryBuilder {
 		return selectStatements;
 	}
 	
-	protected void buildSelectStatement(StringBuilder query_string, List<String> selection_args) throws IllegalArgumentException {
+	protected void buildSelectStatement(StringBuilder query_string, List<Object> selection_args) throws IllegalArgumentException {
 		if(query_string == null) throw new IllegalArgumentException("query_string parameter is null");
 		if(selection_args == null) throw new IllegalArgumentException("selection_args parameter is null");
 				
@@ -90,7 +90,7 @@ public class QueryBuilderSelect extends QueryBuilder {
 			
             String safeStatement = statement;
             if(!isSpecial) {
-            	safeStatement = "[" + JSONStoreUtil.getDatabaseSafeSearchFieldName(safeStatement) + "]"; //$NON-NLS-1$ //$NON-NLS-2$
+            	safeStatement = getColumnName(safeStatement);
             }
             
 			query_string.append(safeStatement);
@@ -98,11 +98,32 @@ public class QueryBuilderSelect extends QueryBuilder {
 				query_string.append(", "); //$NON-NLS-1$
 			}
 		}
+
+		if (selectsPartMatches()) {
+			// One column per part, telling which parts' search field criteria
+			// a row matched, so that only those parts' path criteria are checked.
+			List<JSONStoreQueryPart> parts = getQueryContent().getAllQueryParts();
+
+			for (int i = 0; i < parts.size(); i++) {
+				query_string.append(", ("); //$NON-NLS-1$
+				appendPart(query_string, selection_args, parts.get(i));
+				query_string.append(") AS ").append(DatabaseConstants.PART_MATCH_PREFIX).append(i); //$NON-NLS-1$
+			}
+		}
 		query_string.append(" "); //$NON-NLS-1$
 	}
+
+	/**
+	 * Returns true when the select has a match column for every query part,
+	 * which is needed when a query has several parts and path criteria.
+	 */
+	public boolean selectsPartMatches() {
+		JSONStoreQueryParts query = getQueryContent();
+		return query.getAllQueryParts().size() > 1 && query.hasPathCriteria();
+	}
 	
 	
-	protected void buildModifiers(StringBuilder queryString, List<String> selectionArgs) throws IllegalArgumentException {
+	protected void buildModifiers(StringBuilder queryString, List<Object> selectionArgs) throws IllegalArgumentException {
 		if(queryString == null) throw new IllegalArgumentException("queryString parameter is null");
 		if(selectionArgs == null) throw new IllegalArgumentException("selectionArgs parameter is null");
 		
@@ -122,27 +143,26 @@ public class QueryBuilderSelect extends QueryBuilder {
 		}
 		
 		if(sort.size() > 0){
-			Iterator<Map.Entry<String, SortDirection>> sortOrderIterator = sort.entrySet().iterator();
-			StringBuilder sortBuilder = new StringBuilder();
-			while(sortOrderIterator.hasNext()) {
-				Map.Entry<String, SortDirection> sortEntry = sortOrderIterator.next();
-				String sortKey = sortEntry.getKey();
+			// Written straight into the query, the separator goes before every
+			// key but the first that has a direction.
+			boolean first = true;
+
+			for (Map.Entry<String, SortDirection> sortEntry : sort.entrySet()) {
 				SortDirection sortDir = sortEntry.getValue();
 
-				if(sortDir == SortDirection.ASCENDING) {
-					sortBuilder.append(","); //$NON-NLS-1$
-					sortBuilder.append(" ["+JSONStoreUtil.getDatabaseSafeSearchFieldName(sortKey)+"] ASC "); //$NON-NLS-1$ //$NON-NLS-2$
-				} else if(sortDir == SortDirection.DESCENDING) {
-					sortBuilder.append(","); //$NON-NLS-1$
-					sortBuilder.append(" ["+JSONStoreUtil.getDatabaseSafeSearchFieldName(sortKey)+"] DESC "); //$NON-NLS-1$ //$NON-NLS-2$
+				if(sortDir != SortDirection.ASCENDING && sortDir != SortDirection.DESCENDING) {
+					continue;
 				}
 
-			}
+				if(first) {
+					queryString.append(' ').append(DatabaseConstants.SQL_SORT).append(' ');
+					first = false;
+				} else {
+					queryString.append(',');
+				}
 
-			if(sortBuilder.length() > 1) {
-				sortBuilder.deleteCharAt(0);
-				queryString.append(" " + DatabaseConstants.SQL_SORT + " "); //$NON-NLS-1$ //$NON-NLS-2$
-				queryString.append(sortBuilder);
+				queryString.append(' ').append(getColumnName(sortEntry.getKey()));
+				queryString.append(sortDir == SortDirection.ASCENDING ? " ASC " : " DESC "); //$NON-NLS-1$ //$NON-NLS-2$
 			}
 		}
 		
@@ -160,7 +180,7 @@ public class QueryBuilderSelect extends QueryBuilder {
 	}
 	
 	@Override
-	public void convertToQueryString(StringBuilder query_string, List<String> selection_args) throws IllegalArgumentException {
+	public void convertToQueryString(StringBuilder query_string, List<Object> selection_args) throws IllegalArgumentException {
 		query_string.append(DatabaseConstants.SQL_SELECT);
 		buildSelectStatement(query_string,selection_args);
 
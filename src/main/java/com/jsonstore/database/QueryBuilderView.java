@@ -0,0 +1,71 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.database;
+
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreQueryParts;
+
+import java.util.List;
+
+/*
+ * Selects the rows of a materialized view: _id and the view's search fields
+ * of the documents that match its query.  When ids are given, only those
+ * documents are selected, so that a write refreshes the view from the rows it
+ * changed instead of running the whole query again.  The ids are looked up
+ * by rowid and the query is only checked on them.
+ */
+public class QueryBuilderView extends QueryBuilder {
+	private String table;
+	private List<String> fields;
+	private List<Object> ids;
+
+	public QueryBuilderView(JSONStoreCollection collection, JSONStoreQueryParts content, List<String> fields) {
+		super(collection, content);
+
+		this.table = collection.getName();
+		this.fields = fields;
+
+		// The view keeps the expiry of its rows, and hides the expired ones
+		// when it is read.
+		setSearchIncludeExpired();
+	}
+
+	/*
+	 * Only selects these documents, if they match the query.
+	 */
+	public void setIds(List<Object> ids) {
+		this.ids = ids;
+	}
+
+	@Override
+	public void convertToQueryString(StringBuilder query_string, List<Object> selection_args) throws IllegalArgumentException {
+		query_string.append(DatabaseConstants.SQL_SELECT).append(DatabaseConstants.FIELD_ID);
+
+		for (String field : this.fields) {
+			query_string.append(", ").append(getColumnName(field)); //$NON-NLS-1$
+		}
+
+		query_string.append(DatabaseConstants.SQL_FROM).append(this.table);
+		query_string.append(DatabaseConstants.SQL_WHERE);
+
+		if (this.ids != null) {
+			query_string.append(DatabaseConstants.FIELD_ID).append(DatabaseConstants.SQL_IN);
+			appendValues(query_string, this.ids.size());
+			appendValueArguments(selection_args, this.ids);
+			query_string.append(DatabaseConstants.SQL_AND);
+		}
+
+		buildWhereClause(query_string, selection_args);
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.database;
+
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreQueryParts;
+
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Writes the statements that remove or change every document that matches a
+ * query at once, with the query's where clause, instead of finding the
+ * documents and writing them one by one: a DELETE or an UPDATE of the
+ * collection table, the DELETE of the documents' multi-value index rows, and
+ * the SELECT of their _ids (see convertToQueryString).  Path criteria are
+ * checked on the JSON as it is read, so queries with them cannot be written.
+ */
+public class QueryBuilderWrite extends QueryBuilder {
+	private String table;
+	private String operation;
+
+	public QueryBuilderWrite(JSONStoreCollection collection, JSONStoreQueryParts content) throws IllegalArgumentException {
+		super(collection, content);
+
+		if (content.hasPathCriteria()) throw new IllegalArgumentException("path criteria cannot be written in SQL");
+
+		this.table = collection.getName();
+	}
+
+	/*
+	 * Only matches the documents whose pending operation is this one, or
+	 * every document with null.
+	 */
+	public void setOperation(String operation) {
+		this.operation = operation;
+	}
+
+	/*
+	 * Writes "SELECT _id FROM <table> WHERE <where>".
+	 */
+	@Override
+	public void convertToQueryString(StringBuilder query_string, List<Object> selection_args) throws IllegalArgumentException {
+		query_string.append(DatabaseConstants.SQL_SELECT).append(DatabaseConstants.FIELD_ID);
+		query_string.append(DatabaseConstants.SQL_FROM).append(this.table);
+		query_string.append(DatabaseConstants.SQL_WHERE);
+		appendWhere(query_string, selection_args);
+	}
+
+	/*
+	 * Writes "DELETE FROM <table> WHERE <where>".
+	 */
+	public void convertToDeleteString(StringBuilder query_string, List<Object> selection_args) throws IllegalArgumentException {
+		query_string.append("DELETE FROM ").append(this.table); //$NON-NLS-1$
+		query_string.append(DatabaseConstants.SQL_WHERE);
+		appendWhere(query_string, selection_args);
+	}
+
+	/*
+	 * Writes "UPDATE <table> SET <column> = ?, ... WHERE <where>".
+	 */
+	public void convertToUpdateString(StringBuilder query_string, List<Object> selection_args, Map<String, Object> values) throws IllegalArgumentException {
+		if (values == null || values.isEmpty()) throw new IllegalArgumentException("values parameter is empty");
+
+		query_string.append(DatabaseConstants.SQL_UPDATE).append(this.table).append(DatabaseConstants.SQL_SET);
+
+		boolean first = true;
+
+		for (Map.Entry<String, Object> value : values.entrySet()) {
+			if (!first) {
+				query_string.append(", "); //$NON-NLS-1$
+			}
+
+			query_string.append(value.getKey()).append(DatabaseConstants.SQL_EQ);
+			selection_args.add(value.getValue());
+			first = false;
+		}
+
+		query_string.append(DatabaseConstants.SQL_WHERE);
+		appendWhere(query_string, selection_args);
+	}
+
+	/*
+	 * Writes the DELETE of the multi-value index rows of the documents the
+	 * query matches.  It has to run before the documents are deleted.
+	 */
+	public void convertToMultiValueDeleteString(StringBuilder query_string, List<Object> selection_args) throws IllegalArgumentException {
+		query_string.append("DELETE FROM ").append(DatabaseConstants.TABLE_VALUES); //$NON-NLS-1$
+		query_string.append(DatabaseConstants.SQL_WHERE).append(DatabaseConstants.FIELD_COLLECTION).append(DatabaseConstants.SQL_EQ);
+		query_string.append(DatabaseConstants.SQL_AND).append(DatabaseConstants.FIELD_ID).append(DatabaseConstants.SQL_IN).append("( "); //$NON-NLS-1$
+		selection_args.add(this.table);
+		convertToQueryString(query_string, selection_args);
+		query_string.append(" )"); //$NON-NLS-1$
+	}
+
+	private void appendWhere(StringBuilder query_string, List<Object> selection_args) {
+		buildWhereClause(query_string, selection_args);
+
+		if (this.operation != null) {
+			query_string.append(DatabaseConstants.SQL_AND).append(DatabaseConstants.FIELD_OPERATION).append(DatabaseConstants.SQL_EQ);
+			selection_args.add(this.operation);
+		}
+	}
+}
@@ -29,7 +29,8 @@ public enum QueryPartOperation {
 	BETWEEN("between", QueryPartOperationRestriction.RANGE_ONLY), //$NON-NLS-1$
 	NOT_BETWEEN("notBetween", QueryPartOperationRestriction.RANGE_ONLY), //$NON-NLS-1$
 	IN("inside", QueryPartOperationRestriction.ARRAY_ONLY), //$NON-NLS-1$
-	NOT_IN("notInside", QueryPartOperationRestriction.ARRAY_ONLY); //$NON-NLS-1$
+	NOT_IN("notInside", QueryPartOperationRestriction.ARRAY_ONLY), //$NON-NLS-1$
+	STARTS_WITH("startsWith", QueryPartOperationRestriction.PRIMITIVE_ONLY); //$NON-NLS-1$
 
     
 	public enum QueryPartOperationRestriction {
@@ -23,6 +23,7 @@ import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 
 public class ReadableDatabase {
@@ -32,12 +33,14 @@ public class ReadableDatabase {
 	private static final String SQL_FIND = "SELECT {0} FROM {1};"; //$NON-NLS-1$
 	private static final String SQL_FIND_BY_ID = "SELECT {0}, {1} FROM {2} WHERE {3} AND _deleted = 0"; //$NON-NLS-1$
 	private static final String SQL_FIND_OP = "SELECT {0} FROM {1} WHERE {2} LIKE ?"; //$NON-NLS-1$
+	private static final String SQL_FIND_WITH_REV = "SELECT {0}, {1}, {2} FROM {3} WHERE {0} = ? AND _deleted = 0"; //$NON-NLS-1$
 	private static final String SQL_FIND_WHERE = "SELECT {0} FROM {1} WHERE {2};"; //$NON-NLS-1$
 	private static final String SQL_FIND_WHERE_WITH_LIMIT = "SELECT {0} FROM {1} WHERE {2} LIMIT {3};"; //$NON-NLS-1$
 	private static final String SQL_FIND_WHERE_WITH_NEGATIVE_LIMIT = "SELECT {0} FROM {1} WHERE {2} ORDER BY {3} DESC LIMIT {4};"; //$NON-NLS-1$
 	private static final String SQL_FIND_WHERE_WITH_LIMIT_AND_OFFSET = "SELECT {0} FROM {1} WHERE {2} LIMIT {3} OFFSET {4};"; //$NON-NLS-1$
 	private static final String SQL_FIND_WHERE_WITH_LIMIT_AND_ORDER = "SELECT {0} FROM {1} WHERE {2} ORDER BY {3} LIMIT {4};"; //$NON-NLS-1$
 	private static final String SQL_FIND_WHERE_WITH_LIMIT_AND_OFFSET_AND_ORDER = "SELECT {0} FROM {1} WHERE {2} ORDER BY {3} LIMIT {4} OFFSET {5};"; //$NON-NLS-1$
+	private static final String SQL_FIND_ARRAY_FIELDS = "SELECT DISTINCT {0} FROM {1} WHERE {2} = ?;"; //$NON-NLS-1$
 	private static final String SQL_LIKE = " LIKE ?"; //$NON-NLS-1$
 	private static final String SQL_OR = " OR "; //$NON-NLS-1$
 
@@ -77,6 +80,14 @@ public class ReadableDatabase {
 		return rawQuery(JSONStoreUtil.formatString(ReadableDatabase.SQL_FIND_BY_ID, DatabaseConstants.FIELD_ID, DatabaseConstants.FIELD_JSON, this.schema.getName(), idsStr.toString()), selections);
 	}
 
+	/*
+	 * Returns the _id, _rev and json of a document that is not removed, for
+	 * compare-and-set writes.
+	 */
+	public Cursor findWithRevisionById(int id) {
+		return rawQuery(JSONStoreUtil.formatString(ReadableDatabase.SQL_FIND_WITH_REV, DatabaseConstants.FIELD_ID, DatabaseConstants.FIELD_REV, DatabaseConstants.FIELD_JSON, this.schema.getName()), new String[] { "" + id }); //$NON-NLS-1$
+	}
+
 	protected String findOperationForObjectById(int id) {
 		Cursor cursor = rawQuery(JSONStoreUtil.formatString(ReadableDatabase.SQL_FIND_OP, DatabaseConstants.FIELD_OPERATION, this.schema.getName(), DatabaseConstants.FIELD_ID), new String[] { "" + id }); //$NON-NLS-1$
 		String result;
@@ -363,6 +374,26 @@ public class ReadableDatabase {
 		}
 	}
 
+	/*
+	 * Returns the search fields (as multi-value field names) that have rows in
+	 * the multi-value index table, which are the fields that hold an array in
+	 * at least one document.
+	 */
+	public List<String> findArrayFields() {
+		List<String> result = new ArrayList<String>();
+		Cursor cursor = rawQuery(JSONStoreUtil.formatString(ReadableDatabase.SQL_FIND_ARRAY_FIELDS, DatabaseConstants.FIELD_FIELD, DatabaseConstants.TABLE_VALUES, DatabaseConstants.FIELD_COLLECTION), new String[] { this.schema.getName() });
+
+		if (cursor != null) {
+			while (cursor.moveToNext()) {
+				result.add(cursor.getString(0));
+			}
+
+			cursor.close();
+		}
+
+		return result;
+	}
+
 	public Cursor rawQuery(String sql, String selectionArgs[]) {
 		this.logger.logTrace("executing query on database \"" + this.schema.getName() + "\":");
 		this.logger.logTrace("   " + sql);
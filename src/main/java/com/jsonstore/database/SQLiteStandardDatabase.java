@@ -16,9 +16,14 @@ package com.jsonstore.database;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteProgram;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteStatement;
 
-public class SQLiteStandardDatabase implements Database<SQLiteDatabase> {
+public class SQLiteStandardDatabase implements Database<SQLiteDatabase>, TypedDatabase {
 
     private SQLiteDatabase database;
     @Override
@@ -37,6 +42,40 @@ public class SQLiteStandardDatabase implements Database<SQLiteDatabase> {
         return this.database.rawQuery(sql, selectionArgs);
     }
 
+    @Override
+    public Cursor rawQuery(String sql, final Object[] bindArgs) {
+        // rawQuery only binds text, so the arguments are bound again, with
+        // their types, once the query is compiled and before it first runs.
+        return this.database.rawQueryWithFactory(new SQLiteDatabase.CursorFactory() {
+            @Override
+            @SuppressWarnings("deprecation")
+            public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable, SQLiteQuery query) {
+                bindArguments(query, bindArgs);
+                return new SQLiteCursor(db, masterQuery, editTable, query);
+            }
+        }, sql, null, null);
+    }
+
+    private static void bindArguments(SQLiteProgram program, Object[] bindArgs) {
+        if (bindArgs == null) {
+            return;
+        }
+
+        for (int i = 0; i < bindArgs.length; i++) {
+            Object arg = bindArgs[i];
+
+            if (arg == null) {
+                program.bindNull(i + 1);
+            } else if (arg instanceof Long || arg instanceof Integer || arg instanceof Short || arg instanceof Byte) {
+                program.bindLong(i + 1, ((Number) arg).longValue());
+            } else if (arg instanceof Double || arg instanceof Float) {
+                program.bindDouble(i + 1, ((Number) arg).doubleValue());
+            } else {
+                program.bindString(i + 1, arg.toString());
+            }
+        }
+    }
+
     @Override
     public void setTransactionSuccessful(){
         this.database.setTransactionSuccessful();
@@ -83,4 +122,16 @@ public class SQLiteStandardDatabase implements Database<SQLiteDatabase> {
     public void execSQL(String sql){
         this.database.execSQL(sql);
     }
+
+    @Override
+    public void execSQL(String sql, Object[] bindArgs) {
+        SQLiteStatement statement = this.database.compileStatement(sql);
+
+        try {
+            bindArguments(statement, bindArgs);
+            statement.execute();
+        } finally {
+            statement.close();
+        }
+    }
 }
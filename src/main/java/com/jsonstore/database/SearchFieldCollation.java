@@ -0,0 +1,112 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.database;
+
+import java.util.Locale;
+
+/*
+ * How the values of a string search field are compared.  BINARY compares them
+ * as they are.  NOCASE declares the column with SQLite's NOCASE collation, so
+ * comparisons, sorting and any index on the column ignore the case of ASCII
+ * letters.  FOLDED stores the values case folded for every script (so
+ * "Straße" is stored as "strasse"), and queries on the field are folded the
+ * same way, since SQLite has no collation that folds Unicode.
+ */
+public enum SearchFieldCollation {
+	BINARY("binary", null), NOCASE("nocase", "NOCASE"), FOLDED("folded", null); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+	private String name;
+	private String sqlCollation;
+
+	private SearchFieldCollation(String name, String sqlCollation) {
+		this.name = name;
+		this.sqlCollation = sqlCollation;
+	}
+
+	public static SearchFieldCollation fromString(String s) {
+		if (s.equals(BINARY.name)) {
+			return SearchFieldCollation.BINARY;
+		}
+
+		else if (s.equals(NOCASE.name)) {
+			return SearchFieldCollation.NOCASE;
+		}
+
+		else if (s.equals(FOLDED.name)) {
+			return SearchFieldCollation.FOLDED;
+		}
+
+		return null;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	/*
+	 * Returns the collation the column is declared with, or null for the
+	 * default (BINARY).
+	 */
+	public String getSQLCollation() {
+		return this.sqlCollation;
+	}
+
+	/*
+	 * Returns the text stored in the search field column for a value.
+	 */
+	public String toStoredText(String value) {
+		return (this == SearchFieldCollation.FOLDED) ? fold(value) : value;
+	}
+
+	/*
+	 * Returns text that compares with BINARY the way the value compares with
+	 * this collation.  This is what is stored in the multi-value index table,
+	 * whose value column is shared by every field and so cannot be declared
+	 * with the field's collation, and what prefix ranges are computed from.
+	 */
+	public String toComparedText(String value) {
+		switch (this) {
+			case NOCASE:
+				return toLowerCaseASCII(value);
+			case FOLDED:
+				return fold(value);
+			default:
+				return value;
+		}
+	}
+
+	private static String fold(String value) {
+		// Upper casing first folds characters that have no single lower case
+		// form, such as "ß" to "SS".
+		return value.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+	}
+
+	private static String toLowerCaseASCII(String value) {
+		StringBuilder result = null;
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+
+			if ((c >= 'A') && (c <= 'Z')) {
+				if (result == null) {
+					result = new StringBuilder(value);
+				}
+
+				result.setCharAt(i, (char) (c + ('a' - 'A')));
+			}
+		}
+
+		return (result == null) ? value : result.toString();
+	}
+}
@@ -14,7 +14,7 @@
 package com.jsonstore.database;
 
 public enum SearchFieldType {
-	BOOLEAN("boolean", "INTEGER"), INTEGER("integer", "INTEGER"), NUMBER("number", "REAL"), STRING("string", "TEXT"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$
+	BOOLEAN("boolean", "INTEGER"), INTEGER("integer", "INTEGER"), NUMBER("number", "REAL"), STRING("string", "TEXT"), DATE("date", "INTEGER"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$
 
 	private String mappedType;
 	private String name;
@@ -41,6 +41,10 @@ public enum SearchFieldType {
 			return SearchFieldType.STRING;
 		}
 
+		else if (s.equals(DATE.name)) {
+			return SearchFieldType.DATE;
+		}
+
 		return null;
 	}
 
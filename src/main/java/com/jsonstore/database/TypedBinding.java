@@ -0,0 +1,132 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.database;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+
+/*
+ * Runs statements with typed arguments (see TypedDatabase) on any Database.
+ * When the implementation only binds text, query arguments are bound as
+ * text, which columns convert to their affinity as they did before arguments
+ * were typed, and the arguments of other statements, which Database cannot
+ * bind at all, are written into the SQL as literals.
+ */
+public class TypedBinding {
+
+	public static Cursor rawQuery(Database<?> database, String sql, Object[] args) {
+		if (database instanceof TypedDatabase) {
+			return ((TypedDatabase) database).rawQuery(sql, args);
+		}
+
+		String textArgs[] = (args == null) ? null : new String[args.length];
+
+		for (int i = 0; textArgs != null && i < args.length; i++) {
+			if (args[i] == null) {
+				// A null cannot be bound as text.
+				return database.rawQuery(inline(sql, args), null);
+			}
+
+			textArgs[i] = args[i].toString();
+		}
+
+		return database.rawQuery(sql, textArgs);
+	}
+
+	public static void execSQL(Database<?> database, String sql, Object[] args) {
+		if (database instanceof TypedDatabase) {
+			((TypedDatabase) database).execSQL(sql, args);
+		}
+
+		else {
+			database.execSQL(inline(sql, args));
+		}
+	}
+
+	/*
+	 * Replaces each "?" outside quotes with the literal of the next argument.
+	 */
+	static String inline(String sql, Object[] args) {
+		if (args == null || args.length == 0) {
+			return sql;
+		}
+
+		StringBuilder result = new StringBuilder(sql.length() + 16 * args.length);
+		char quote = 0;
+		int next = 0;
+
+		for (int i = 0; i < sql.length(); i++) {
+			char c = sql.charAt(i);
+
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+			}
+
+			else if (c == '\'' || c == '"') {
+				quote = c;
+			}
+
+			else if (c == '?') {
+				if (next == args.length) {
+					throw new IllegalArgumentException("more placeholders than arguments in: " + sql);
+				}
+
+				appendLiteral(result, args[next++]);
+				continue;
+			}
+
+			result.append(c);
+		}
+
+		if (next != args.length) {
+			throw new IllegalArgumentException("more arguments than placeholders in: " + sql);
+		}
+
+		return result.toString();
+	}
+
+	private static void appendLiteral(StringBuilder builder, Object value) {
+		if ((value instanceof Long) || (value instanceof Integer) || (value instanceof Short) || (value instanceof Byte)) {
+			builder.append(((Number) value).longValue());
+		}
+
+		else if ((value instanceof Double) || (value instanceof Float)) {
+			double d = ((Number) value).doubleValue();
+
+			if (Double.isNaN(d)) {
+				// SQLite stores NaN as NULL as well.
+				builder.append("NULL"); //$NON-NLS-1$
+			}
+
+			else if (Double.isInfinite(d)) {
+				// SQLite reads a literal that overflows as infinity.
+				builder.append((d > 0) ? "9e999" : "-9e999"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+
+			else {
+				builder.append(d);
+			}
+		}
+
+		else if (value == null) {
+			builder.append("NULL"); //$NON-NLS-1$
+		}
+
+		else {
+			DatabaseUtils.appendEscapedSQLString(builder, value.toString());
+		}
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.database;
+
+import android.database.Cursor;
+
+/*
+ * A Database that binds arguments with their SQLite types.  It is separate
+ * from Database because the encrypted database is loaded by name (see
+ * DatabaseConstants.SQLCIPHER_CLASS) and may not implement it, so callers go
+ * through TypedBinding, which falls back to what Database can do.
+ */
+public interface TypedDatabase {
+
+    /*
+     * Like rawQuery(String, String[]), but each argument is bound with its own
+     * type: Long and Integer as integers, Double and Float as reals, null as
+     * NULL and anything else as text.
+     */
+    public Cursor rawQuery(String sql, Object[] bindArgs);
+
+    /*
+     * Runs a statement that returns no rows, with its arguments bound like
+     * those of rawQuery(String, Object[]).
+     */
+    public void execSQL(String sql, Object[] bindArgs);
+
+}
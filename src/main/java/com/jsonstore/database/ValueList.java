@@ -0,0 +1,246 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import com.jsonstore.util.JSONStoreLogger;
+import com.jsonstore.util.JSONStoreUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * The values of a long inside (or not inside) criteria, bound as a single
+ * argument.  One placeholder per value would make SQL that is slow to parse
+ * and, past 999 values, more arguments than SQLite accepts.  Instead, the
+ * values are loaded into a temporary table just before the query runs, the
+ * argument binds the number they were loaded under, and the SQL selects them
+ * from the table through its index.  They are deleted when the cursor is
+ * closed.
+ */
+public class ValueList {
+	// Lists with more values than this are loaded into the table.
+	public static final int INLINE_LIMIT = 100;
+
+	private static final String SQL_CREATE_TABLE = "CREATE TEMP TABLE IF NOT EXISTS {0} ({1} INTEGER NOT NULL, {2});"; //$NON-NLS-1$
+	private static final String SQL_CREATE_INDEX = "CREATE INDEX IF NOT EXISTS temp.{0}_{1} ON {0} ({1}, {2});"; //$NON-NLS-1$
+	private static final String SQL_SELECT = " ( SELECT {0} FROM {1} WHERE {2} = ? )"; //$NON-NLS-1$
+	private static final String WHERE_LIST = "{0} = ?"; //$NON-NLS-1$
+	private static final String SQL_CHANGES = "SELECT changes()"; //$NON-NLS-1$
+
+	private static final AtomicLong lastList = new AtomicLong();
+	private static final JSONStoreLogger logger = JSONStoreUtil.getDatabaseLogger();
+
+	private List<Object> values;
+
+	public ValueList(List<Object> values) {
+		this.values = values;
+	}
+
+	public List<Object> getValues() {
+		return this.values;
+	}
+
+	@Override
+	public String toString() {
+		return this.values.size() + " values"; //$NON-NLS-1$
+	}
+
+	public static boolean isInline(int count) {
+		return count <= ValueList.INLINE_LIMIT;
+	}
+
+	/*
+	 * Appends the subquery that stands for a list of values in "IN".
+	 */
+	public static void appendSelect(StringBuilder builder) {
+		builder.append(JSONStoreUtil.formatString(ValueList.SQL_SELECT, DatabaseConstants.FIELD_VALUE, DatabaseConstants.TABLE_VALUE_LISTS, DatabaseConstants.FIELD_LIST));
+	}
+
+	/*
+	 * Runs the query after loading the value lists among its arguments.  With
+	 * no value lists, this is the same as TypedBinding.rawQuery.
+	 */
+	public static Cursor rawQuery(final Database<?> database, String sql, Object[] args) {
+		final List<Long> lists = new ArrayList<Long>();
+		Object[] boundArgs = load(database, args, lists);
+
+		if (lists.isEmpty()) {
+			return TypedBinding.rawQuery(database, sql, args);
+		}
+
+		Cursor cursor;
+
+		try {
+			cursor = TypedBinding.rawQuery(database, sql, boundArgs);
+		}
+
+		catch (RuntimeException e) {
+			release(database, lists);
+
+			throw e;
+		}
+
+		if (cursor == null) {
+			release(database, lists);
+
+			return null;
+		}
+
+		return new CursorWrapper(cursor) {
+			private boolean released;
+
+			@Override
+			public void close() {
+				super.close();
+
+				if (!this.released) {
+					this.released = true;
+					release(database, lists);
+				}
+			}
+		};
+	}
+
+	/*
+	 * Runs a statement that returns no rows after loading the value lists
+	 * among its arguments, and releases them before returning.
+	 *
+	 * @returns int Number of rows the statement changed, not counting rows
+	 * changed by triggers.
+	 */
+	public static int executeUpdateDelete(Database<?> database, String sql, Object[] args) {
+		List<Long> lists = new ArrayList<Long>();
+		Object[] boundArgs = load(database, args, lists);
+
+		try {
+			TypedBinding.execSQL(database, sql, boundArgs);
+
+			// changes() is read before the lists are released, which
+			// changes rows of its own.
+			Cursor cursor = database.rawQuery(ValueList.SQL_CHANGES, null);
+
+			try {
+				return cursor.moveToNext() ? cursor.getInt(0) : 0;
+			}
+
+			finally {
+				cursor.close();
+			}
+		}
+
+		finally {
+			if (!lists.isEmpty()) {
+				release(database, lists);
+			}
+		}
+	}
+
+	/*
+	 * Loads every value list in one transaction and returns the arguments
+	 * with each list replaced by its number.
+	 */
+	private static Object[] load(Database<?> database, Object[] args, List<Long> lists) {
+		Object[] result = null;
+
+		for (int i = 0; i < args.length; i++) {
+			if (!(args[i] instanceof ValueList)) {
+				continue;
+			}
+
+			if (result == null) {
+				result = args.clone();
+
+				database.execSQL(JSONStoreUtil.formatString(ValueList.SQL_CREATE_TABLE, DatabaseConstants.TABLE_VALUE_LISTS, DatabaseConstants.FIELD_LIST, DatabaseConstants.FIELD_VALUE));
+				database.execSQL(JSONStoreUtil.formatString(ValueList.SQL_CREATE_INDEX, DatabaseConstants.TABLE_VALUE_LISTS, DatabaseConstants.FIELD_LIST, DatabaseConstants.FIELD_VALUE));
+				database.beginTransaction();
+			}
+
+			try {
+				long list = ValueList.lastList.incrementAndGet();
+
+				lists.add(list);
+				result[i] = list;
+
+				for (Object value : ((ValueList) args[i]).getValues()) {
+					database.insert(DatabaseConstants.TABLE_VALUE_LISTS, null, toContentValues(list, value));
+				}
+			}
+
+			catch (RuntimeException e) {
+				database.endTransaction();
+				release(database, lists);
+
+				throw e;
+			}
+		}
+
+		if (result == null) {
+			return args;
+		}
+
+		database.setTransactionSuccessful();
+		database.endTransaction();
+
+		logger.logTrace("loaded " + lists.size() + " value lists");
+
+		return result;
+	}
+
+	private static ContentValues toContentValues(long list, Object value) {
+		ContentValues result = new ContentValues(2);
+
+		result.put(DatabaseConstants.FIELD_LIST, list);
+
+		// The values keep the type they are bound with elsewhere (see
+		// TypedDatabase.rawQuery(String, Object[])), so they compare the same way.
+
+		if ((value instanceof Long) || (value instanceof Integer)) {
+			result.put(DatabaseConstants.FIELD_VALUE, ((Number) value).longValue());
+		}
+
+		else if ((value instanceof Double) || (value instanceof Float)) {
+			result.put(DatabaseConstants.FIELD_VALUE, ((Number) value).doubleValue());
+		}
+
+		else if (value == null) {
+			result.putNull(DatabaseConstants.FIELD_VALUE);
+		}
+
+		else {
+			result.put(DatabaseConstants.FIELD_VALUE, value.toString());
+		}
+
+		return result;
+	}
+
+	private static void release(Database<?> database, List<Long> lists) {
+		try {
+			for (Long list : lists) {
+				database.delete(DatabaseConstants.TABLE_VALUE_LISTS, JSONStoreUtil.formatString(ValueList.WHERE_LIST, DatabaseConstants.FIELD_LIST), new String[] { list.toString() });
+			}
+		}
+
+		catch (Exception e) {
+			// The table is temporary, so whatever is left goes away with the
+			// connection.
+
+			logger.logTrace("could not release value lists: " + e.getMessage());
+		}
+	}
+}
@@ -17,15 +17,22 @@ import android.content.ContentValues;
 import android.database.Cursor;
 
 
+import com.jsonstore.api.JSONStoreComputedField;
 import com.jsonstore.jackson.JacksonSerializedJSONObject;
+import com.jsonstore.jackson.JsonOrgModule;
+import com.jsonstore.jackson.JsonPathExtractor;
 import com.jsonstore.util.JSONStoreUtil;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 public class WritableDatabase extends ReadableDatabase {
@@ -34,6 +41,18 @@ public class WritableDatabase extends ReadableDatabase {
      private static final String SQL_INSERT = "INSERT INTO {0} ({1}) VALUES ({2});"; //$NON-NLS-1$
      private static final String SQL_UPDATE = "UPDATE {0} SET {1}{2};"; //$NON-NLS-1$
      private static final String SQL_WHERE = " WHERE"; //$NON-NLS-1$
+     private static final String SQL_VALUES_WHERE_COLLECTION = "{0} = ?"; //$NON-NLS-1$
+     private static final String SQL_VALUES_WHERE_IDS = "{0} = ? AND {1} IN (SELECT {1} FROM {2} WHERE {3})"; //$NON-NLS-1$
+     private static final String SQL_VALUES_WHERE_ID = "{0} = ? AND {1} = ? AND {2} = ?"; //$NON-NLS-1$
+     private static final String SQL_FIND_ENCODED = "SELECT {0}, [{1}] FROM {2} WHERE [{1}] LIKE ?"; //$NON-NLS-1$
+     private static final String SQL_FIND_TEXT = "SELECT {0}, [{1}] FROM {2} WHERE typeof([{1}]) = ?"; //$NON-NLS-1$
+     private static final String SQL_FIND_ALL = "SELECT {0}, {1} FROM {2}"; //$NON-NLS-1$
+     private static final String SQL_FIND_OLDEST = "SELECT {0}, length(CAST({1} AS BLOB)) FROM {2} WHERE {0} > ? ORDER BY {0} LIMIT {3}"; //$NON-NLS-1$
+     private static final String SQL_COUNT = "SELECT count(*) FROM {1}"; //$NON-NLS-1$
+     private static final String SQL_FIND_UNDELETED = "SELECT {0}, {1} FROM {2} WHERE {3} = ? AND {4} = 0"; //$NON-NLS-1$
+     private static final String SQL_FIND_JSON_BY_IDS = "SELECT {0}, {1} FROM {2} WHERE {0} IN ({3}) AND {4} = 0"; //$NON-NLS-1$
+     private static final int UPDATE_CHUNK_SIZE = 500;
+     private static final String SQL_COUNT_WITH_BYTES = "SELECT count(*), total(length(CAST({0} AS BLOB))) FROM {1}"; //$NON-NLS-1$
      
      protected WritableDatabase (Database<?> database,
           DatabaseSchema schema) {
@@ -80,10 +99,797 @@ public class WritableDatabase extends ReadableDatabase {
                fixedWhereValues[i] = whereValues[i].toString();
           }
           
+          if ((whereClause == null) || (whereClause.length < 1)) {
+               deleteAllMultiValues();
+          }
+          
+          else {
+               deleteMultiValues (whereClauseStr.toString(), fixedWhereValues);
+          }
+          
           return getDatabase().delete (dbName, whereClauseStr.toString(),
                fixedWhereValues);
      }
+     
+     /*
+      * Insert a new document into the collection.
+      * 
+      * @param mappedObj Map<String, Object> The document as returned by DatabaseSchema.mapObject, plus the internal fields.
+      * @returns long The _id of the new document, or -1 if the insert failed.
+      */
+     public long insert (Map<String, Object> mappedObj) {
+          ContentValues contentValues = new ContentValues();
+          Iterator<String> keys = mappedObj.keySet().iterator();
+          long id;
+          
+          while (keys.hasNext()) {
+               String key = keys.next();
+               
+               // WL 6.0 change: Handle booleans like iOS, turn true into 1 and
+               // false into 0.  Numbers are stored as numbers, according to the
+               // search field's type.
+               Object val = getSchema().toStorageValue (key, mappedObj.get (key));
+               
+               putValue (contentValues, "'" + JSONStoreUtil.getDatabaseSafeSearchFieldName (key) + "'", val); //$NON-NLS-1$ //$NON-NLS-2$
+          }
+          
+          id = getDatabase().insert (getSchema().getName(), null, contentValues);
+          
+          if (id != -1) {
+               insertMultiValues (id, mappedObj);
+          }
+          
+          return id;
+     }
+     
+     /*
+      * Put a value with its own type, so that numbers are stored as INTEGER
+      * or REAL rather than as text that SQLite has to convert.
+      */
+     private static void putValue (ContentValues values, String column, Object value) {
+          if ((value instanceof Long) || (value instanceof Integer)) {
+               values.put (column, ((Number) value).longValue());
+          }
+          
+          else if ((value instanceof Double) || (value instanceof Float)) {
+               values.put (column, ((Number) value).doubleValue());
+          }
+          
+          else {
+               values.put (column, value.toString());
+          }
+     }
+     
+     /*
+      * Write one row per array element into the multi-value index table, so
+      * that equality on array-valued search fields can be answered with an
+      * index lookup instead of LIKE scans over the encoded column.
+      */
+     private void insertMultiValues (long id, Map<String, Object> mappedObj) {
+          for (Map.Entry<String, Object> entry : mappedObj.entrySet()) {
+               if (entry.getValue() instanceof MultiValue) {
+                    insertMultiValues (id, entry.getKey(),
+                         ((MultiValue) entry.getValue()).getValues());
+               }
+          }
+     }
+     
+     private void insertMultiValues (long id, String key, List<Object> values) {
+          String field = DatabaseSchema.getMultiValueFieldName (key);
+          
+          // From now on equality on this field also has to look at the
+          // multi-value index table.
+          getSchema().addArrayField (key);
+          
+          for (Object value : values) {
+               ContentValues contentValues = new ContentValues();
+               
+               contentValues.put (DatabaseConstants.FIELD_COLLECTION, getSchema().getName());
+               contentValues.put (DatabaseConstants.FIELD_ID, id);
+               contentValues.put (DatabaseConstants.FIELD_FIELD, field);
+               contentValues.put (DatabaseConstants.FIELD_VALUE,
+                    getSchema().normalizeMultiValue (key, value));
+               
+               getDatabase().insert (DatabaseConstants.TABLE_VALUES, null, contentValues);
+          }
+     }
+     
+     /*
+      * Remove the multi-value index rows of the documents matched by the given
+      * where clause (over the collection table).
+      */
+     private void deleteMultiValues (String whereClause, String whereValues[]) {
+          String dbName = getSchema().getName();
+          String args[] = new String[whereValues.length + 1];
+          
+          args[0] = dbName;
+          System.arraycopy (whereValues, 0, args, 1, whereValues.length);
+          
+          getDatabase().delete (DatabaseConstants.TABLE_VALUES,
+               JSONStoreUtil.formatString (WritableDatabase.SQL_VALUES_WHERE_IDS,
+                    DatabaseConstants.FIELD_COLLECTION, DatabaseConstants.FIELD_ID,
+                    dbName, whereClause), args);
+     }
+     
+     private void deleteMultiValues (int id, String key) {
+          getDatabase().delete (DatabaseConstants.TABLE_VALUES,
+               JSONStoreUtil.formatString (WritableDatabase.SQL_VALUES_WHERE_ID,
+                    DatabaseConstants.FIELD_COLLECTION, DatabaseConstants.FIELD_ID,
+                    DatabaseConstants.FIELD_FIELD),
+               new String[] { getSchema().getName(), "" + id, //$NON-NLS-1$
+                    DatabaseSchema.getMultiValueFieldName (key) });
+     }
+     
+     /*
+      * Remove every multi-value index row that belongs to this collection.
+      */
+     public void deleteAllMultiValues () {
+          getDatabase().delete (DatabaseConstants.TABLE_VALUES,
+               JSONStoreUtil.formatString (WritableDatabase.SQL_VALUES_WHERE_COLLECTION,
+                    DatabaseConstants.FIELD_COLLECTION),
+               new String[] { getSchema().getName() });
+     }
+     
+     /*
+      * Fill the multi-value index table for documents that were stored before
+      * it existed.  The values are recovered by splitting the encoded search
+      * field columns, which is the only place additional search fields live.
+      * 
+      * @returns int Number of index rows written.
+      */
+     public int indexExistingMultiValues () {
+          String dbName = getSchema().getName();
+          Iterator<String> fields = getSchema().getSearchFieldIterator();
+          int count = 0;
+          
+          while (fields.hasNext()) {
+               String key = fields.next();
+               Cursor cursor = rawQuery (JSONStoreUtil.formatString (WritableDatabase.SQL_FIND_ENCODED,
+                    DatabaseConstants.FIELD_ID, JSONStoreUtil.getDatabaseSafeSearchFieldName (key), dbName),
+                    new String[] { "%" + DatabaseConstants.MULTI_VALUE_SEPARATOR + "%" }); //$NON-NLS-1$ //$NON-NLS-2$
+               
+               if (cursor == null) {
+                    continue;
+               }
+               
+               try {
+                    while (cursor.moveToNext()) {
+                         List<Object> values = MultiValue.split (cursor.getString (1));
+                         
+                         insertMultiValues (cursor.getLong (0), key, values);
+                         count += values.size();
+                    }
+               }
+               
+               finally {
+                    cursor.close();
+               }
+          }
+          
+          return count;
+     }
+
+     /*
+      * Convert numbers that documents stored before search fields were typed
+      * kept as text into INTEGER or REAL values.  SQLite's column affinity
+      * already converted most of them when they were written, so this only
+      * finds the ones it left alone.
+      * 
+      * @returns int Number of values converted.
+      */
+     public int convertStoredValues () {
+          String dbName = getSchema().getName();
+          Iterator<String> fields = getSchema().getSearchFieldIterator();
+          int count = 0;
+          
+          while (fields.hasNext()) {
+               String key = fields.next();
+               SearchFieldType type = getSchema().getSearchFieldType (key);
+               
+               if ((type == null) || (type == SearchFieldType.STRING)) {
+                    continue;
+               }
+               
+               String column = JSONStoreUtil.getDatabaseSafeSearchFieldName (key);
+               Cursor cursor = rawQuery (JSONStoreUtil.formatString (WritableDatabase.SQL_FIND_TEXT,
+                    DatabaseConstants.FIELD_ID, column, dbName), new String[] { "text" }); //$NON-NLS-1$
+               
+               if (cursor == null) {
+                    continue;
+               }
+               
+               try {
+                    while (cursor.moveToNext()) {
+                         Object val = getSchema().toStorageValue (key, cursor.getString (1));
+                         
+                         if (val instanceof Number) {
+                              ContentValues values = new ContentValues();
+                              
+                              putValue (values, "[" + column + "]", val); //$NON-NLS-1$ //$NON-NLS-2$
+                              getDatabase().update (dbName, values, DatabaseConstants.FIELD_ID + " = ?", //$NON-NLS-1$
+                                   new String[] { "" + cursor.getLong (0) }); //$NON-NLS-1$
+                              ++count;
+                         }
+                    }
+               }
+               
+               finally {
+                    cursor.close();
+               }
+          }
+          
+          return count;
+     }
+
+     /*
+      * Compute the given computed search fields again for every document,
+      * after what they compute changed.  A document whose value cannot be
+      * computed is left without one.
+      * 
+      * @returns int Number of documents updated.
+      */
+     public int computeStoredValues (List<String> keys) {
+          String dbName = getSchema().getName();
+          int count = 0;
+          Cursor cursor = rawQuery (JSONStoreUtil.formatString (WritableDatabase.SQL_FIND_ALL,
+               DatabaseConstants.FIELD_ID, DatabaseConstants.FIELD_JSON, dbName), null);
+          
+          if (cursor == null) {
+               return 0;
+          }
+          
+          try {
+               while (cursor.moveToNext()) {
+                    ContentValues values = new ContentValues();
+                    JSONObject obj = null;
+                    
+                    try {
+                         obj = JsonOrgModule.deserializeJSONObject (cursor.getString (1));
+                    }
+                    
+                    catch (Throwable e) {
+                         logger.logTrace ("could not parse document " + cursor.getLong (0) + " of database \"" + dbName + "\"");
+                    }
+                    
+                    for (String key : keys) {
+                         String column = "[" + JSONStoreUtil.getDatabaseSafeSearchFieldName (key) + "]"; //$NON-NLS-1$ //$NON-NLS-2$
+                         Object val = null;
+                         
+                         if (obj != null) {
+                              try {
+                                   val = getSchema().computeValue (key, obj);
+                              }
+                              
+                              catch (Throwable e) {
+                                   val = null;
+                              }
+                         }
+                         
+                         if (val == null) {
+                              values.putNull (column);
+                         }
+                         
+                         else {
+                              putValue (values, column, getSchema().toStorageValue (key, val));
+                         }
+                    }
+                    
+                    getDatabase().update (dbName, values, DatabaseConstants.FIELD_ID + " = ?", //$NON-NLS-1$
+                         new String[] { "" + cursor.getLong (0) }); //$NON-NLS-1$
+                    ++count;
+               }
+          }
+          
+          finally {
+               cursor.close();
+          }
+          
+          return count;
+     }
+
+     /*
+      * Actually delete up to limit documents whose time to live has passed,
+      * earliest expiry first, along with their multi-value index rows.  They
+      * are found through the index on _expires, so a purge only reads the
+      * rows it deletes.
+      * 
+      * @returns List<Integer> The _ids of the deleted documents.
+      */
+     public List<Integer> deleteExpired (int limit) {
+          String dbName = getSchema().getName();
+          String column = getSchema().getColumnName (DatabaseConstants.FIELD_EXPIRES);
+          List<Integer> ids = new ArrayList<Integer>();
+          StringBuilder sql = new StringBuilder (DatabaseConstants.SQL_SELECT);
+          
+          sql.append (DatabaseConstants.FIELD_ID).append (DatabaseConstants.SQL_FROM).append (dbName);
+          sql.append (DatabaseConstants.SQL_WHERE).append (column).append (" <= ").append (DatabaseConstants.SQL_NOW); //$NON-NLS-1$
+          sql.append (DatabaseConstants.SQL_SORT).append (column).append (DatabaseConstants.SQL_LIMIT).append (limit);
+          
+          Cursor cursor = rawQuery (sql.toString(), null);
+          
+          if (cursor == null) {
+               return ids;
+          }
+          
+          try {
+               while (cursor.moveToNext()) {
+                    ids.add (cursor.getInt (0));
+               }
+          }
+          
+          finally {
+               cursor.close();
+          }
+          
+          deleteByIds (ids);
+          
+          return ids;
+     }
+     
+     /*
+      * Actually delete the given documents (not just mark them to be deleted
+      * later), along with their multi-value index rows.
+      */
+     public void deleteByIds (List<Integer> ids) {
+          if (ids.isEmpty()) {
+               return;
+          }
+          
+          // The ids are integers, so they are written into the statement.
+          StringBuilder where = new StringBuilder (DatabaseConstants.FIELD_ID).append (DatabaseConstants.SQL_IN).append ('(');
+          
+          for (int i = 0; i < ids.size(); ++i) {
+               if (i > 0) {
+                    where.append (',');
+               }
+               
+               where.append (ids.get (i).intValue());
+          }
+          
+          where.append (')');
+          
+          deleteMultiValues (where.toString(), new String[0]);
+          getDatabase().delete (getSchema().getName(), where.toString(), null);
+     }
+     
+     /*
+      * Find the oldest documents after the given _id, in _id order, with the
+      * number of bytes of JSON each one stores.  The rows are read in the
+      * order of the table, so only the ones returned are read.
+      */
+     public Cursor findOldest (int after_id, int limit) {
+          return rawQuery (JSONStoreUtil.formatString (WritableDatabase.SQL_FIND_OLDEST,
+               DatabaseConstants.FIELD_ID, DatabaseConstants.FIELD_JSON, getSchema().getName(), "" + limit), //$NON-NLS-1$
+               new String[] { "" + after_id }); //$NON-NLS-1$
+     }
+     
+     /*
+      * Count the documents in the collection, including the ones marked
+      * removed, and the bytes of JSON they store when with_bytes is true.
+      * 
+      * @returns long[] The number of documents and the number of bytes.
+      */
+     public long[] countDocumentsAndBytes (boolean with_bytes) {
+          long totals[] = new long[2];
+          Cursor cursor = rawQuery (JSONStoreUtil.formatString (with_bytes ? WritableDatabase.SQL_COUNT_WITH_BYTES : WritableDatabase.SQL_COUNT,
+               DatabaseConstants.FIELD_JSON, getSchema().getName()), null);
+          
+          if (cursor == null) {
+               return totals;
+          }
+          
+          try {
+               if (cursor.moveToNext()) {
+                    totals[0] = cursor.getLong (0);
+                    totals[1] = with_bytes ? cursor.getLong (1) : 0;
+               }
+          }
+          
+          finally {
+               cursor.close();
+          }
+          
+          return totals;
+     }
 
+     /*
+      * Add delta to the number at a path of a document, in its JSON and in
+      * the search field column for the path, with one UPDATE.  The column is
+      * updated with "column + ?" and the JSON is patched where the number is
+      * (see JsonPathExtractor.addToNumber), so neither is read back into
+      * objects, unless the collection has computed search fields, which are
+      * computed again from the patched document.  The document is marked
+      * dirty the way a replace marks it.
+      * 
+      * @returns Number The new value, or null if there is no such document.
+      * @throws Throwable The document has no number at the path, or the sum
+      * overflows.
+      */
+     public Number increment (int id, String path, Number delta, boolean markDirty) throws Throwable {
+          String dbName = getSchema().getName();
+          String json;
+          String operation;
+          Cursor cursor = rawQuery (JSONStoreUtil.formatString (WritableDatabase.SQL_FIND_UNDELETED,
+               DatabaseConstants.FIELD_JSON, DatabaseConstants.FIELD_OPERATION, dbName,
+               DatabaseConstants.FIELD_ID, DatabaseConstants.FIELD_DELETED), new String[] { "" + id }); //$NON-NLS-1$
+          
+          try {
+               if (!cursor.moveToNext()) {
+                    return null;
+               }
+               
+               json = cursor.getString (0);
+               operation = cursor.getString (1);
+          }
+          
+          finally {
+               cursor.close();
+          }
+          
+          Number sum[] = new Number[1];
+          String newJson = JsonPathExtractor.addToNumber (json, path, delta, sum);
+          
+          if (newJson == null) {
+               throw new Throwable ("document " + id + " of database \"" + dbName + "\" has no number at \"" + path + "\"");
+          }
+          
+          StringBuilder sql = new StringBuilder (DatabaseConstants.SQL_UPDATE).append (dbName).append (DatabaseConstants.SQL_SET);
+          List<Object> args = new ArrayList<Object>();
+          
+          sql.append (DatabaseConstants.FIELD_JSON).append (DatabaseConstants.SQL_EQ);
+          args.add (newJson);
+          sql.append (", ").append (DatabaseConstants.FIELD_DIRTY).append (DatabaseConstants.SQL_EQ); //$NON-NLS-1$
+          args.add (markDirty ? new Date().getTime() : 0L);
+          
+          // Like a replace, keep "add" as the operation of a document that
+          // was never pushed.
+          
+          if (!DatabaseConstants.OPERATION_ADD.equals (operation)) {
+               sql.append (", ").append (DatabaseConstants.FIELD_OPERATION).append (DatabaseConstants.SQL_EQ); //$NON-NLS-1$
+               args.add (DatabaseConstants.OPERATION_REPLACE);
+          }
+          
+          String key = path.toLowerCase (Locale.ENGLISH);
+          Map<String, JSONStoreComputedField> computedFields = getSchema().getComputedFields();
+          SearchFieldType type = getSchema().getSearchFieldType (key);
+          boolean clearMultiValues = false;
+          
+          if ((type != null) && !computedFields.containsKey (key) && !key.equals (DatabaseConstants.FIELD_EXPIRES)) {
+               String column = getSchema().getColumnName (key);
+               
+               // The field has array values in some documents, so their
+               // elements are also in the multi-value table.  This document
+               // has a number there, so it should have no rows there.
+               
+               clearMultiValues = getSchema().getArrayFields().contains (DatabaseSchema.getMultiValueFieldName (key));
+               
+               sql.append (", ").append (column); //$NON-NLS-1$
+               
+               if (((type == SearchFieldType.INTEGER) && (sum[0] instanceof Long)) || (type == SearchFieldType.NUMBER)) {
+                    sql.append (" = ").append (column).append (" + ?"); //$NON-NLS-1$ //$NON-NLS-2$
+                    args.add ((sum[0] instanceof Long) ? (Object) Long.valueOf (delta.longValue()) : (Object) Double.valueOf (delta.doubleValue()));
+               }
+               
+               else {
+                    sql.append (DatabaseConstants.SQL_EQ);
+                    args.add (getSchema().toStorageValue (key, sum[0]));
+               }
+          }
+          
+          if (!computedFields.isEmpty()) {
+               JSONObject obj = JsonOrgModule.deserializeJSONObject (newJson);
+               
+               for (String computed : computedFields.keySet()) {
+                    Object val;
+                    
+                    try {
+                         val = getSchema().computeValue (computed, obj);
+                    }
+                    
+                    catch (Throwable e) {
+                         val = null;
+                    }
+                    
+                    sql.append (", ").append (getSchema().getColumnName (computed)).append (DatabaseConstants.SQL_EQ); //$NON-NLS-1$
+                    args.add ((val == null) ? null : getSchema().toStorageValue (computed, val));
+               }
+          }
+          
+          sql.append (DatabaseConstants.SQL_WHERE).append (DatabaseConstants.FIELD_ID).append (DatabaseConstants.SQL_EQ);
+          args.add (id);
+          
+          TypedBinding.execSQL (getDatabase(), sql.toString(), args.toArray());
+          
+          if (clearMultiValues) {
+               deleteMultiValues (id, key);
+          }
+          
+          return sum[0];
+     }
+
+     /*
+      * Find the _ids of the documents a query matches.  Only the _id column
+      * is read, so the documents are not.
+      */
+     public List<Integer> findIds (QueryBuilderWrite query) {
+          StringBuilder sql = new StringBuilder();
+          List<Object> args = new ArrayList<Object>();
+          List<Integer> ids = new ArrayList<Integer>();
+          
+          query.convertToQueryString (sql, args);
+          logStatement (sql);
+          
+          Cursor cursor = ValueList.rawQuery (getDatabase(), sql.toString(), args.toArray());
+          
+          try {
+               while (cursor.moveToNext()) {
+                    ids.add (cursor.getInt (0));
+               }
+          }
+          
+          finally {
+               cursor.close();
+          }
+          
+          return ids;
+     }
+     
+     /*
+      * Remove the documents a query matches with a DELETE of the collection
+      * table and one of their multi-value index rows.  When they are marked
+      * dirty, the documents whose add was never pushed are deleted and the
+      * others are marked removed with an UPDATE, as deleteIfRequired does
+      * for one document.
+      * 
+      * @returns int Number of documents removed.
+      */
+     public int removeWhere (QueryBuilderWrite query, boolean markDirty) {
+          if (!markDirty) {
+               return deleteWhere (query);
+          }
+          
+          query.setOperation (DatabaseConstants.OPERATION_ADD);
+          int count = deleteWhere (query);
+          query.setOperation (null);
+          
+          StringBuilder sql = new StringBuilder();
+          List<Object> args = new ArrayList<Object>();
+          Map<String, Object> values = new LinkedHashMap<String, Object>();
+          
+          values.put (DatabaseConstants.FIELD_DELETED, 1);
+          values.put (DatabaseConstants.FIELD_DIRTY, new Date().getTime());
+          values.put (DatabaseConstants.FIELD_OPERATION, DatabaseConstants.OPERATION_REMOVE);
+          
+          query.convertToUpdateString (sql, args, values);
+          
+          return count + execute (sql, args);
+     }
+     
+     private int deleteWhere (QueryBuilderWrite query) {
+          StringBuilder sql = new StringBuilder();
+          List<Object> args = new ArrayList<Object>();
+          
+          query.convertToMultiValueDeleteString (sql, args);
+          execute (sql, args);
+          
+          sql.setLength (0);
+          args.clear();
+          query.convertToDeleteString (sql, args);
+          
+          return execute (sql, args);
+     }
+     
+     /*
+      * Set the values at the paths of the given documents, in their JSON and
+      * in the search field columns for the paths, and mark the documents the
+      * way a replace marks them.  SQLite cannot change the JSON itself, so
+      * every document is written with the same UPDATE by _id.  The values
+      * are spliced into the JSON (see JsonPathExtractor.replaceScalar), and
+      * the document is only parsed when a path is not in it yet or the
+      * collection has computed search fields.  The documents are read in
+      * chunks by _id rather than by the query, which they may stop matching
+      * as they are updated.
+      * 
+      * @returns int Number of documents updated.
+      * @throws Throwable A value cannot be set in one of the documents.
+      */
+     public int updateByIds (List<Integer> ids, Map<String, Object> values, boolean markDirty) throws Throwable {
+          String dbName = getSchema().getName();
+          Map<String, JSONStoreComputedField> computedFields = getSchema().getComputedFields();
+          StringBuilder sql = new StringBuilder (DatabaseConstants.SQL_UPDATE).append (dbName).append (DatabaseConstants.SQL_SET);
+          List<Object> columnArgs = new ArrayList<Object>();
+          List<String> arrayFields = new ArrayList<String>();
+          
+          sql.append (DatabaseConstants.FIELD_JSON).append (DatabaseConstants.SQL_EQ);
+          sql.append (", ").append (DatabaseConstants.FIELD_DIRTY).append (DatabaseConstants.SQL_EQ); //$NON-NLS-1$
+          columnArgs.add (markDirty ? new Date().getTime() : 0L);
+          
+          // Like a replace, keep "add" as the operation of a document that
+          // was never pushed.
+          
+          sql.append (", ").append (DatabaseConstants.FIELD_OPERATION).append (" = CASE ").append (DatabaseConstants.FIELD_OPERATION); //$NON-NLS-1$ //$NON-NLS-2$
+          sql.append (" WHEN ? THEN ").append (DatabaseConstants.FIELD_OPERATION).append (" ELSE ? END"); //$NON-NLS-1$ //$NON-NLS-2$
+          columnArgs.add (DatabaseConstants.OPERATION_ADD);
+          columnArgs.add (DatabaseConstants.OPERATION_REPLACE);
+          
+          // The same values go in the search field columns of every document.
+          // A search field below a path that is set now has no value.
+          
+          for (Map.Entry<String, Object> entry : values.entrySet()) {
+               String key = entry.getKey().toLowerCase (Locale.ENGLISH);
+               Iterator<String> fields = getSchema().getSearchFieldIterator();
+               
+               while (fields.hasNext()) {
+                    String field = fields.next();
+                    Object val = entry.getValue();
+                    
+                    if (computedFields.containsKey (field) || field.equals (DatabaseConstants.FIELD_EXPIRES)
+                         || (!field.equals (key) && !field.startsWith (key + "."))) { //$NON-NLS-1$
+                         continue;
+                    }
+                    
+                    sql.append (", ").append (getSchema().getColumnName (field)).append (DatabaseConstants.SQL_EQ); //$NON-NLS-1$
+                    columnArgs.add ((!field.equals (key) || (val == null) || (val == JSONObject.NULL)) ? null : getSchema().toStorageValue (field, val));
+                    
+                    if (getSchema().getArrayFields().contains (DatabaseSchema.getMultiValueFieldName (field))) {
+                         arrayFields.add (field);
+                    }
+               }
+          }
+          
+          for (String computed : computedFields.keySet()) {
+               sql.append (", ").append (getSchema().getColumnName (computed)).append (DatabaseConstants.SQL_EQ); //$NON-NLS-1$
+          }
+          
+          sql.append (DatabaseConstants.SQL_WHERE).append (DatabaseConstants.FIELD_ID).append (DatabaseConstants.SQL_EQ);
+          
+          int count = 0;
+          
+          for (int i = 0; i < ids.size(); i += WritableDatabase.UPDATE_CHUNK_SIZE) {
+               List<Integer> chunk = ids.subList (i, Math.min (ids.size(), i + WritableDatabase.UPDATE_CHUNK_SIZE));
+               
+               // The ids are integers, so they are written into the statement.
+               StringBuilder where = new StringBuilder();
+               
+               for (int j = 0; j < chunk.size(); ++j) {
+                    if (j > 0) {
+                         where.append (',');
+                    }
+                    
+                    where.append (chunk.get (j).intValue());
+               }
+               
+               Cursor cursor = rawQuery (JSONStoreUtil.formatString (WritableDatabase.SQL_FIND_JSON_BY_IDS,
+                    DatabaseConstants.FIELD_ID, DatabaseConstants.FIELD_JSON, dbName, where.toString(),
+                    DatabaseConstants.FIELD_DELETED), null);
+               
+               try {
+                    while (cursor.moveToNext()) {
+                         int id = cursor.getInt (0);
+                         JSONObject obj[] = new JSONObject[1];
+                         String json = setValues (cursor.getString (1), values, obj);
+                         List<Object> args = new ArrayList<Object>(columnArgs.size() + computedFields.size() + 2);
+                         
+                         args.add (json);
+                         args.addAll (columnArgs);
+                         
+                         if (!computedFields.isEmpty() && (obj[0] == null)) {
+                              obj[0] = JsonOrgModule.deserializeJSONObject (json);
+                         }
+                         
+                         for (String computed : computedFields.keySet()) {
+                              Object val;
+                              
+                              try {
+                                   val = getSchema().computeValue (computed, obj[0]);
+                              }
+                              
+                              catch (Throwable e) {
+                                   val = null;
+                              }
+                              
+                              args.add ((val == null) ? null : getSchema().toStorageValue (computed, val));
+                         }
+                         
+                         args.add (id);
+                         TypedBinding.execSQL (getDatabase(), sql.toString(), args.toArray());
+                         
+                         for (String field : arrayFields) {
+                              deleteMultiValues (id, field);
+                         }
+                         
+                         ++count;
+                    }
+               }
+               
+               finally {
+                    cursor.close();
+               }
+          }
+          
+          return count;
+     }
+     
+     /*
+      * Returns the document with the values set at their paths.  When a path
+      * is not in the document yet, or holds an object or an array, the
+      * document is parsed, and the parsed document is put in obj[0].
+      */
+     private static String setValues (String json, Map<String, Object> values, JSONObject obj[]) throws Throwable {
+          String newJson = json;
+          
+          for (Map.Entry<String, Object> entry : values.entrySet()) {
+               newJson = JsonPathExtractor.replaceScalar (newJson, entry.getKey(), toJsonText (entry.getValue()));
+               
+               if (newJson == null) {
+                    break;
+               }
+          }
+          
+          if (newJson != null) {
+               return newJson;
+          }
+          
+          obj[0] = JsonOrgModule.deserializeJSONObject (json);
+          
+          for (Map.Entry<String, Object> entry : values.entrySet()) {
+               String keys[] = entry.getKey().split ("\\."); //$NON-NLS-1$
+               JSONObject parent = obj[0];
+               
+               for (int i = 0; i < keys.length - 1; ++i) {
+                    Object child = parent.opt (keys[i]);
+                    
+                    if (child == null) {
+                         child = new JacksonSerializedJSONObject();
+                         parent.put (keys[i], child);
+                    }
+                    
+                    else if (!(child instanceof JSONObject)) {
+                         throw new Throwable ("\"" + entry.getKey() + "\" cannot be set, since \"" + keys[i] + "\" is not an object");
+                    }
+                    
+                    parent = (JSONObject) child;
+               }
+               
+               parent.put (keys[keys.length - 1], (entry.getValue() == null) ? JSONObject.NULL : entry.getValue());
+          }
+          
+          return obj[0].toString();
+     }
+     
+     private static String toJsonText (Object value) throws JSONException {
+          if ((value == null) || (value == JSONObject.NULL)) {
+               return "null"; //$NON-NLS-1$
+          }
+          
+          if (value instanceof String) {
+               return JSONObject.quote ((String) value);
+          }
+          
+          if (value instanceof Number) {
+               return JSONObject.numberToString ((Number) value);
+          }
+          
+          return value.toString();
+     }
+     
+     /*
+      * Run a statement built by a query builder, loading the value lists
+      * among its arguments.
+      * 
+      * @returns int Number of rows it changed.
+      */
+     private int execute (StringBuilder sql, List<Object> args) {
+          logStatement (sql);
+          
+          return ValueList.executeUpdateDelete (getDatabase(), sql.toString(), args.toArray());
+     }
+     
+     private void logStatement (StringBuilder sql) {
+          logger.logTrace ("executing SQL on database \"" + getSchema().getName() + "\":");
+          logger.logTrace ("   " + sql);
+     }
+     
 	private void logDeleteQuery(Object[] whereValues, String dbName,
 			StringBuilder whereClauseStr) {
 		String sql;
@@ -230,7 +1036,7 @@ public class WritableDatabase extends ReadableDatabase {
           logUpdateQuery(columnNames, columnValues, dbName, whereClause, whereValues);
           
           for (int i = 0; i < columnNames.length; ++i) {
-               values.put (columnNames[i], columnValues[i].toString());
+               putValue (values, columnNames[i], columnValues[i]);
           }
           
           return getDatabase().update (dbName, values, (whereClause == null) ?
@@ -285,7 +1091,7 @@ public class WritableDatabase extends ReadableDatabase {
                String key = keys.next();
                
                columnNames[i] = "["+JSONStoreUtil.getDatabaseSafeSearchFieldName (key)+"]"; //$NON-NLS-1$ //$NON-NLS-2$
-               columnValues[i++] = columns.get (key);
+               columnValues[i++] = getSchema().toStorageValue (key, columns.get (key));
           }
           
           return update (columnNames, columnValues, whereClauses);
@@ -293,6 +1099,14 @@ public class WritableDatabase extends ReadableDatabase {
      }
      
      public int update (JSONObject newObj, boolean markDirty) throws Throwable {
+          return update (newObj, markDirty, null);
+     }
+     
+     /*
+      * Replace a document.  The expiry is the time in milliseconds when the
+      * document expires, or null to keep the one it has.
+      */
+     public int update (JSONObject newObj, boolean markDirty, Long expires) throws Throwable {
           long dirtyTime = (markDirty ? new Date().getTime() : 0);
           int id = newObj.getInt (DatabaseConstants.FIELD_ID);
           Map<String, Object> mappedObj;
@@ -315,6 +1129,10 @@ public class WritableDatabase extends ReadableDatabase {
           mappedObj.put (DatabaseConstants.FIELD_ID, id);
           mappedObj.put (DatabaseConstants.FIELD_JSON, newObj.toString());
           
+          if (expires != null) {
+               mappedObj.put (DatabaseConstants.FIELD_EXPIRES, expires);
+          }
+          
           // See if this object's operation was previously "add".  If so, we
           // don't want to update the operation.
           
@@ -335,6 +1153,19 @@ public class WritableDatabase extends ReadableDatabase {
           
           whereClauses.put (DatabaseConstants.FIELD_ID, id);
           
-          return update (mappedObj, whereClauses);
+          int result = update (mappedObj, whereClauses);
+          
+          // The array values may have changed completely, so rebuild the
+          // multi-value index rows of every search field that was rewritten.
+          
+          for (String key : mappedObj.keySet()) {
+               if (!getSchema().isInternalField (key)) {
+                    deleteMultiValues (id, key);
+               }
+          }
+          
+          insertMultiValues (id, mappedObj);
+          
+          return result;
      }
 }
@@ -0,0 +1,565 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore.jackson;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Reads the values at a dotted path (for example "address.city") out of a
+ * serialized JSON document with Jackson's streaming parser, without building
+ * the document.  Subtrees that are not on the path are skipped, and arrays on
+ * the path are expanded, the same way search fields are extracted when a
+ * document is stored.  Only scalar values (strings, numbers, booleans and
+ * JSONObject.NULL) are returned; objects and arrays at the end of the path
+ * are skipped.  extractSubtrees is the exception, and builds the subtrees at
+ * the paths.
+ */
+public class JsonPathExtractor {
+     private static final JsonFactory factory = new JsonFactory();
+
+     private JsonPathExtractor () {
+     }
+
+     /*
+      * Decides whether a value at the path is the one being looked for.
+      */
+     public interface ValueMatcher {
+          public boolean matches (Object value);
+     }
+
+     /*
+      * Returns the first value at the path, or null if the document has no
+      * value there.  Parsing stops as soon as the value is found.
+      */
+     public static Object extractFirst (String json, String path)
+          throws IOException {
+          final List<Object> values = new ArrayList<Object>(1);
+
+          anyMatch (json, path, new ValueMatcher() {
+               @Override
+               public boolean matches (Object value) {
+                    values.add (value);
+
+                    return true;
+               }
+          });
+
+          return values.isEmpty() ? null : values.get (0);
+     }
+
+     /*
+      * Returns every value at the path, in document order.
+      */
+     public static List<Object> extractAll (String json, String path)
+          throws IOException {
+          final List<Object> values = new ArrayList<Object>();
+
+          anyMatch (json, path, new ValueMatcher() {
+               @Override
+               public boolean matches (Object value) {
+                    values.add (value);
+
+                    return false;
+               }
+          });
+
+          return values;
+     }
+
+     /*
+      * Returns true if the matcher accepts any value at the path.  Parsing
+      * stops at the first value it accepts, so the rest of the document is
+      * never read.
+      */
+     public static boolean anyMatch (String json, String path,
+          ValueMatcher matcher) throws IOException {
+          JsonParser parser = JsonPathExtractor.factory.createJsonParser (json);
+
+          try {
+               return (parser.nextToken() != null)
+                    && readValue (parser, path, matcher);
+          }
+
+          finally {
+               parser.close();
+          }
+     }
+
+     /*
+      * Reads the value the parser is on.  Returns true once the matcher has
+      * accepted a value, in which case the parser is left where it stopped.
+      */
+     private static boolean readValue (JsonParser parser, String path,
+          ValueMatcher matcher) throws IOException {
+          JsonToken token = parser.getCurrentToken();
+
+          switch (token) {
+               case START_OBJECT: {
+                    if (path.length() == 0) {
+                         parser.skipChildren();
+
+                         return false;
+                    }
+
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                         String name = parser.getCurrentName();
+
+                         parser.nextToken();
+
+                         // A key can itself contain dots, so match it
+                         // against the start of the remaining path.
+
+                         if (path.equals (name)) {
+                              if (readValue (parser, "", matcher)) { //$NON-NLS-1$
+                                   return true;
+                              }
+                         }
+
+                         else if (path.startsWith (name)
+                              && path.length() > name.length()
+                              && path.charAt (name.length()) == '.') {
+                              if (readValue (parser, path.substring
+                                   (name.length() + 1), matcher)) {
+                                   return true;
+                              }
+                         }
+
+                         else {
+                              parser.skipChildren();
+                         }
+                    }
+
+                    return false;
+               }
+
+               case START_ARRAY: {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                         if (readValue (parser, path, matcher)) {
+                              return true;
+                         }
+                    }
+
+                    return false;
+               }
+
+               default: {
+                    if (path.length() != 0) {
+                         return false;
+                    }
+
+                    return matcher.matches (getScalar (parser, token));
+               }
+          }
+     }
+
+     /*
+      * Returns a document that only has the subtrees at the given paths, in
+      * the same nesting as the stored document.  A path through an array
+      * keeps the matching subtree of every object in the array.  Subtrees
+      * that no path reaches are skipped without being built.
+      */
+     public static JSONObject extractSubtrees (String json, List<String> paths)
+          throws IOException {
+          JsonParser parser = JsonPathExtractor.factory.createJsonParser (json);
+
+          try {
+               if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    return new JacksonSerializedJSONObject();
+               }
+
+               return projectObject (parser, paths);
+          }
+
+          finally {
+               parser.close();
+          }
+     }
+
+     private static JSONObject projectObject (JsonParser parser,
+          List<String> paths) throws IOException {
+          JSONObject result = new JacksonSerializedJSONObject();
+
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+               String name = parser.getCurrentName();
+               List<String> childPaths = null;
+               boolean whole = false;
+
+               parser.nextToken();
+
+               for (String path : paths) {
+                    if (path.equals (name)) {
+                         whole = true;
+
+                         break;
+                    }
+
+                    if (path.startsWith (name) && path.length() > name.length()
+                         && path.charAt (name.length()) == '.') {
+                         if (childPaths == null) {
+                              childPaths = new ArrayList<String>();
+                         }
+
+                         childPaths.add (path.substring (name.length() + 1));
+                    }
+               }
+
+               try {
+                    if (whole) {
+                         result.put (name, readTree (parser));
+                    }
+
+                    else if (childPaths != null) {
+                         Object child = projectValue (parser, childPaths);
+
+                         if (child != null) {
+                              result.put (name, child);
+                         }
+                    }
+
+                    else {
+                         parser.skipChildren();
+                    }
+               }
+
+               catch (JSONException e) {
+                    throw new IOException (e.getMessage());
+               }
+          }
+
+          return result;
+     }
+
+     /*
+      * Projects the value the parser is on, or returns null if no path
+      * reaches into it.
+      */
+     private static Object projectValue (JsonParser parser,
+          List<String> paths) throws IOException {
+          switch (parser.getCurrentToken()) {
+               case START_OBJECT: {
+                    JSONObject object = projectObject (parser, paths);
+
+                    return object.length() == 0 ? null : object;
+               }
+
+               case START_ARRAY: {
+                    JSONArray array = new JacksonSerializedJSONArray();
+
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                         Object element = projectValue (parser, paths);
+
+                         if (element != null) {
+                              array.put (element);
+                         }
+                    }
+
+                    return array.length() == 0 ? null : array;
+               }
+
+               default: {
+                    return null;
+               }
+          }
+     }
+
+     /*
+      * Builds the value the parser is on.
+      */
+     private static Object readTree (JsonParser parser) throws IOException,
+          JSONException {
+          JsonToken token = parser.getCurrentToken();
+
+          switch (token) {
+               case START_OBJECT: {
+                    JSONObject object = new JacksonSerializedJSONObject();
+
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                         String name = parser.getCurrentName();
+
+                         parser.nextToken();
+                         object.put (name, readTree (parser));
+                    }
+
+                    return object;
+               }
+
+               case START_ARRAY: {
+                    JSONArray array = new JacksonSerializedJSONArray();
+
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                         array.put (readTree (parser));
+                    }
+
+                    return array;
+               }
+
+               default: {
+                    return getScalar (parser, token);
+               }
+          }
+     }
+
+     /*
+      * Returns a copy of the document with delta added to the number at the
+      * path.  Only the text of the number is replaced, so the rest of the
+      * document is copied as it is rather than built and serialized again.
+      * The path has to reach the number through objects alone.  Returns
+      * null if there is no number there; otherwise the new value is put in
+      * sum[0], as a Long when both numbers are integers and as a Double when
+      * either is not.  Throws if the sum of two integers overflows a long.
+      */
+     public static String addToNumber (String json, String path, Number delta,
+          Number sum[]) throws IOException {
+          JsonParser parser = JsonPathExtractor.factory.createJsonParser (json);
+
+          try {
+               if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    return null;
+               }
+
+               JsonToken token = findValue (parser, path);
+
+               if ((token != JsonToken.VALUE_NUMBER_INT)
+                    && (token != JsonToken.VALUE_NUMBER_FLOAT)) {
+                    return null;
+               }
+
+               String text = parser.getText();
+               int start = findValueStart (json, (int) parser.getTokenLocation().getCharOffset());
+
+               if ((start < 0) || !json.regionMatches (start, text, 0, text.length())) {
+                    throw new IOException ("number at \"" + path + "\" was not found where it was read");
+               }
+
+               if ((parser.getCurrentToken() == JsonToken.VALUE_NUMBER_INT)
+                    && ((delta instanceof Long) || (delta instanceof Integer)
+                    || (delta instanceof Short) || (delta instanceof Byte))) {
+                    long value = parser.getLongValue();
+                    long result = value + delta.longValue();
+                    
+                    // A long that wraps would no longer match the search
+                    // field column, where SQLite turns the sum into a real.
+                    if (((value ^ result) & (delta.longValue() ^ result)) < 0) {
+                         throw new IOException ("adding " + delta + " to the number at \"" + path + "\" overflows a long");
+                    }
+                    
+                    sum[0] = Long.valueOf (result);
+               }
+
+               else {
+                    double value = parser.getDoubleValue() + delta.doubleValue();
+
+                    // JSON has no text for these.
+                    if (Double.isNaN (value) || Double.isInfinite (value)) {
+                         return null;
+                    }
+
+                    sum[0] = Double.valueOf (value);
+               }
+
+               return new StringBuilder (json.length() + 8)
+                    .append (json, 0, start).append (sum[0])
+                    .append (json, start + text.length(), json.length())
+                    .toString();
+          }
+
+          finally {
+               parser.close();
+          }
+     }
+
+     /*
+      * Returns a copy of the document with the string, number, boolean or
+      * null at the path replaced by the given JSON text.  As in addToNumber,
+      * only the text of the old value is replaced.  Returns null if the path
+      * does not reach such a value through objects alone.
+      */
+     public static String replaceScalar (String json, String path, String value)
+          throws IOException {
+          JsonParser parser = JsonPathExtractor.factory.createJsonParser (json);
+
+          try {
+               if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    return null;
+               }
+
+               JsonToken token = findValue (parser, path);
+
+               if ((token == null) || (token == JsonToken.START_OBJECT)
+                    || (token == JsonToken.START_ARRAY)) {
+                    return null;
+               }
+
+               int start = findValueStart (json, (int) parser.getTokenLocation().getCharOffset());
+               int end;
+
+               if (token == JsonToken.VALUE_STRING) {
+                    // The text of a string is read unescaped, so find where
+                    // its quotes are instead.
+
+                    end = findStringEnd (json, start);
+               }
+
+               else {
+                    String text = parser.getText();
+
+                    if ((start < 0) || !json.regionMatches (start, text, 0, text.length())) {
+                         throw new IOException ("value at \"" + path + "\" was not found where it was read");
+                    }
+
+                    end = start + text.length();
+               }
+
+               return new StringBuilder (json.length() + value.length())
+                    .append (json, 0, start).append (value)
+                    .append (json, end, json.length())
+                    .toString();
+          }
+
+          finally {
+               parser.close();
+          }
+     }
+
+     /*
+      * Returns the offset of the value whose token the parser reported at the
+      * given offset.  The parser reports a value in an object where it began
+      * reading its key, which may be at the comma before the key, so the
+      * comma, the key and the colon after it are skipped.
+      */
+     private static int findValueStart (String json, int offset)
+          throws IOException {
+          if (offset < 0) {
+               return offset;
+          }
+
+          offset = skipWhitespace (json, offset);
+
+          if ((offset < json.length()) && (json.charAt (offset) == ',')) {
+               offset = skipWhitespace (json, offset + 1);
+          }
+
+          if ((offset < json.length()) && (json.charAt (offset) == '"')) {
+               int i = skipWhitespace (json, findStringEnd (json, offset));
+
+               if ((i < json.length()) && (json.charAt (i) == ':')) {
+                    return skipWhitespace (json, i + 1);
+               }
+          }
+
+          return offset;
+     }
+
+     private static int skipWhitespace (String json, int offset) {
+          while ((offset < json.length()) && Character.isWhitespace (json.charAt (offset))) {
+               ++offset;
+          }
+
+          return offset;
+     }
+
+     /*
+      * Returns the offset after the closing quote of the string that starts
+      * at the given offset.
+      */
+     private static int findStringEnd (String json, int start)
+          throws IOException {
+          if ((start < 0) || (start >= json.length()) || (json.charAt (start) != '"')) {
+               throw new IOException ("string was not found where it was read");
+          }
+
+          for (int i = start + 1; i < json.length(); ++i) {
+               char c = json.charAt (i);
+
+               if (c == '\\') {
+                    ++i;
+               }
+
+               else if (c == '"') {
+                    return i + 1;
+               }
+          }
+
+          throw new IOException ("string is not terminated");
+     }
+
+     /*
+      * Moves the parser, which is inside an object, to the value at the
+      * path, and returns its token.  Returns null if there is none.
+      */
+     private static JsonToken findValue (JsonParser parser, String path)
+          throws IOException {
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+               String name = parser.getCurrentName();
+               JsonToken token = parser.nextToken();
+
+               if (path.equals (name)) {
+                    return token;
+               }
+
+               // A key can itself contain dots, so match it against the
+               // start of the remaining path.
+
+               if ((token == JsonToken.START_OBJECT) && path.startsWith (name)
+                    && path.length() > name.length()
+                    && path.charAt (name.length()) == '.') {
+                    JsonToken found = findValue (parser, path.substring (name.length() + 1));
+
+                    if (found != null) {
+                         return found;
+                    }
+               }
+
+               else {
+                    parser.skipChildren();
+               }
+          }
+
+          return null;
+     }
+
+     private static Object getScalar (JsonParser parser, JsonToken token)
+          throws IOException {
+          switch (token) {
+               case VALUE_STRING: {
+                    return parser.getText();
+               }
+
+               case VALUE_NUMBER_INT: case VALUE_NUMBER_FLOAT: {
+                    return parser.getNumberValue();
+               }
+
+               case VALUE_TRUE: {
+                    return Boolean.TRUE;
+               }
+
+               case VALUE_FALSE: {
+                    return Boolean.FALSE;
+               }
+
+               default: {
+                    return JSONObject.NULL;
+               }
+          }
+     }
+}
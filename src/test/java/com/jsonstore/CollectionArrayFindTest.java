@@ -0,0 +1,259 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStorePreparedFind;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryPlan;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedList;
+import java.util.List;
+
+public class CollectionArrayFindTest extends InstrumentationTestCase {
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection arrayCol = new JSONStoreCollection("arrays");
+		arrayCol.setSearchField("name", SearchFieldType.STRING);
+		arrayCol.setSearchField("tags", SearchFieldType.STRING);
+		arrayCol.setSearchField("scores", SearchFieldType.INTEGER);
+		arrayCol.setSearchField("orders.item", SearchFieldType.STRING);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(arrayCol);
+		store.openCollections(collections);
+
+		arrayCol.addData(new JSONObject("{ name : 'mike', tags: ['red', 'blue'], scores: [1, 2, 3], orders: [{item: 'pen'}, {item: 'ink'}] }"));
+		arrayCol.addData(new JSONObject("{ name : 'carlos', tags: ['blue', 'green'], scores: [3, 4], orders: [{item: 'paper'}] }"));
+		arrayCol.addData(new JSONObject("{ name : 'nana', tags: 'red', scores: 5 }"));
+		arrayCol.addData(new JSONObject("{ name : 'dgonz', tags: ['reddish'], scores: [50] }"));
+
+		return arrayCol;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	private List<JSONObject> findEqual(JSONStoreCollection col, String key, Object value) throws Throwable {
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+
+		if (value instanceof Number) {
+			part.addEqual(key, (Number) value);
+		} else {
+			part.addEqual(key, value.toString());
+		}
+
+		query.addQueryPart(part);
+		return col.findDocuments(query);
+	}
+
+	public void testArrayFindEqualsString() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		List<JSONObject> results = findEqual(col, "tags", "red");
+
+		assertEquals("docs", 2, results.size());
+		assertEquals("mike", results.get(0).getJSONObject("json").getString("name"));
+		assertEquals("nana", results.get(1).getJSONObject("json").getString("name"));
+
+		databaseDestroy();
+	}
+
+	public void testArrayFindEqualsMiddleElement() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		List<JSONObject> results = findEqual(col, "tags", "blue");
+
+		assertEquals("docs", 2, results.size());
+		assertEquals("mike", results.get(0).getJSONObject("json").getString("name"));
+		assertEquals("carlos", results.get(1).getJSONObject("json").getString("name"));
+
+		databaseDestroy();
+	}
+
+	public void testArrayFindEqualsNoPartialMatch() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		assertEquals("docs", 0, findEqual(col, "tags", "re").size());
+		assertEquals("docs", 1, findEqual(col, "tags", "reddish").size());
+
+		databaseDestroy();
+	}
+
+	public void testArrayFindEqualsNumber() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		List<JSONObject> results = findEqual(col, "scores", 3);
+
+		assertEquals("docs", 2, results.size());
+		assertEquals("docs", 0, findEqual(col, "scores", 0).size());
+		assertEquals("docs", 1, findEqual(col, "scores", 5).size());
+
+		databaseDestroy();
+	}
+
+	public void testArrayFindEqualsArrayOfObjects() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		List<JSONObject> results = findEqual(col, "orders.item", "ink");
+
+		assertEquals("docs", 1, results.size());
+		assertEquals("mike", results.get(0).getJSONObject("json").getString("name"));
+
+		databaseDestroy();
+	}
+
+	public void testArrayFindInside() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		List<Object> tags = new LinkedList<Object>();
+		tags.add("green");
+		tags.add("reddish");
+
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addInside("tags", tags);
+		query.addQueryPart(part);
+		List<JSONObject> results = col.findDocuments(query);
+
+		assertEquals("docs", 2, results.size());
+		assertEquals("carlos", results.get(0).getJSONObject("json").getString("name"));
+		assertEquals("dgonz", results.get(1).getJSONObject("json").getString("name"));
+
+		databaseDestroy();
+	}
+
+	public void testArrayFindAfterReplace() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONObject doc = findEqual(col, "name", "mike").get(0);
+		doc.put("json", new JSONObject("{ name : 'mike', tags: ['yellow'], scores: [7] }"));
+		col.replaceDocument(doc);
+
+		assertEquals("docs", 1, findEqual(col, "tags", "red").size());
+		assertEquals("docs", 1, findEqual(col, "tags", "yellow").size());
+
+		databaseDestroy();
+	}
+
+	public void testArrayFindAfterRemove() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONObject doc = findEqual(col, "name", "carlos").get(0);
+		col.removeDocumentById(doc.getInt("_id"));
+
+		assertEquals("docs", 0, findEqual(col, "tags", "green").size());
+
+		col.clearCollection();
+		assertEquals("docs", 0, findEqual(col, "tags", "red").size());
+
+		databaseDestroy();
+	}
+
+	public void testScalarFieldEqualityIsPlainComparison() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addEqual("name", "nana");
+		query.addQueryPart(part);
+
+		JSONStoreQueryPlan plan = col.explain(query, null);
+
+		assertFalse(plan.getSQL().contains("_jsonstore_values"));
+		assertFalse(plan.getSQL().contains("LIKE"));
+		assertEquals(1, plan.getArguments().size());
+		assertEquals("docs", 1, findEqual(col, "name", "nana").size());
+
+		databaseDestroy();
+	}
+
+	public void testFieldThatBecomesArrayIsRecompiled() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addEqual("name", "tom");
+		query.addQueryPart(part);
+
+		JSONStorePreparedFind find = col.prepareFind(query, null);
+		assertEquals("docs", 0, find.execute().size());
+
+		col.addData(new JSONObject("{ name : ['tom', 'thomas'] }"));
+
+		assertEquals("docs", 1, find.execute().size());
+		assertEquals("docs", 1, findEqual(col, "name", "thomas").size());
+
+		databaseDestroy();
+	}
+
+	public void testArrayFieldsKeptOnReopen() throws Throwable {
+		databaseSetup();
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.closeAll();
+
+		JSONStoreCollection arrayCol = new JSONStoreCollection("arrays");
+		arrayCol.setSearchField("name", SearchFieldType.STRING);
+		arrayCol.setSearchField("tags", SearchFieldType.STRING);
+		arrayCol.setSearchField("scores", SearchFieldType.INTEGER);
+		arrayCol.setSearchField("orders.item", SearchFieldType.STRING);
+
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(arrayCol);
+		store.openCollections(collections);
+
+		assertEquals("docs", 2, findEqual(arrayCol, "tags", "red").size());
+		assertEquals("docs", 1, findEqual(arrayCol, "scores", 4).size());
+
+		databaseDestroy();
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreFindOptions;
+import com.jsonstore.api.JSONStoreView;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/*
+ * Checks that a capped collection keeps the newest documents when adds go
+ * over its maximum document count or byte size, and times adds that evict.
+ */
+public class CollectionCappedTest extends InstrumentationTestCase {
+
+	private static final String TAG = "CollectionCapped";
+	private static final int CAPACITY = 100;
+	private static final int ADDS = 1000;
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection databaseSetup(int max_documents, long max_bytes) throws JSONStoreException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection events = new JSONStoreCollection("events");
+		events.setSearchField("seq", SearchFieldType.INTEGER);
+		events.setMaximumDocumentCount(max_documents);
+		events.setMaximumByteSize(max_bytes);
+
+		JSONStoreView bySeq = new JSONStoreView("by_seq", null);
+		bySeq.sortBySearchFieldAscending("seq");
+		events.addView(bySeq);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(events);
+		store.openCollections(collections);
+
+		return events;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	private static JSONObject event(int seq) throws JSONException {
+		return new JSONObject().put("seq", seq).put("message", "event " + seq);
+	}
+
+	/*
+	 * Checks that the collection and its view hold the events from first to
+	 * last, in order.
+	 */
+	private void checkNewest(JSONStoreCollection events, int first, int last) throws Throwable {
+		JSONStoreFindOptions options = new JSONStoreFindOptions();
+		options.sortBySearchFieldAscending("seq");
+		List<JSONObject> documents = events.findAllDocuments(options);
+		List<JSONObject> view = events.findView("by_seq", null);
+
+		assertEquals(last - first + 1, documents.size());
+		assertEquals(last - first + 1, view.size());
+
+		for (int i = 0; i < documents.size(); i++) {
+			assertEquals(first + i, documents.get(i).getJSONObject("json").getInt("seq"));
+			assertEquals(first + i, view.get(i).getInt("seq"));
+		}
+	}
+
+	public void testMaximumDocumentCount() throws Throwable {
+		JSONStoreCollection events = databaseSetup(CAPACITY, 0);
+
+		for (int i = 0; i < 150; i++) {
+			events.addData(event(i));
+		}
+		checkNewest(events, 50, 149);
+
+		// A batch larger than the collection keeps its own newest documents.
+		List<JSONObject> batch = new LinkedList<JSONObject>();
+		for (int i = 150; i < 400; i++) {
+			batch.add(event(i));
+		}
+		events.addData(batch);
+		checkNewest(events, 300, 399);
+
+		// Removing documents leaves room for as many new ones.
+		events.removeDocumentById(events.findAllDocuments().get(0).getInt("_id"));
+		events.addData(event(400));
+		assertEquals(CAPACITY, events.countAllDocuments());
+		events.addData(event(401));
+		assertEquals(CAPACITY, events.countAllDocuments());
+
+		databaseDestroy();
+	}
+
+	public void testMaximumByteSize() throws Throwable {
+		int eventBytes = event(1000).toString().length();
+		JSONStoreCollection events = databaseSetup(0, eventBytes * 10L);
+
+		for (int i = 1000; i < 1030; i++) {
+			events.addData(event(i));
+		}
+		checkNewest(events, 1020, 1029);
+
+		databaseDestroy();
+	}
+
+	public void testReopenKeepsCapacity() throws Throwable {
+		JSONStoreCollection events = databaseSetup(CAPACITY, 0);
+
+		for (int i = 0; i < CAPACITY; i++) {
+			events.addData(event(i));
+		}
+
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.closeAll();
+
+		events = new JSONStoreCollection("events");
+		events.setSearchField("seq", SearchFieldType.INTEGER);
+		events.setMaximumDocumentCount(CAPACITY);
+		JSONStoreView bySeq = new JSONStoreView("by_seq", null);
+		bySeq.sortBySearchFieldAscending("seq");
+		events.addView(bySeq);
+
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(events);
+		store.openCollections(collections);
+
+		events.addData(event(CAPACITY));
+		checkNewest(events, 1, CAPACITY);
+
+		databaseDestroy();
+	}
+
+	public void testCappedAddBenchmark() throws Throwable {
+		JSONStoreCollection events = databaseSetup(CAPACITY, 0);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ADDS; i++) {
+			events.addData(event(i));
+		}
+		long cappedNanos = System.nanoTime() - start;
+
+		assertEquals(CAPACITY, events.countAllDocuments());
+
+		Log.i(TAG, ADDS + " adds to a collection capped at " + CAPACITY + " documents: " + cappedNanos + " ns");
+
+		databaseDestroy();
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreIndex;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.api.JSONStoreQueryPlan;
+import com.jsonstore.database.SearchFieldCollation;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreSchemaMismatchException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/*
+ * Checks that search fields with a NOCASE or FOLDED collation match
+ * regardless of case, through an index on the search field.
+ */
+public class CollectionCollationTest extends InstrumentationTestCase {
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection createCollection() throws JSONStoreException {
+		JSONStoreCollection simpleCol = new JSONStoreCollection("simple");
+		simpleCol.setSearchField("name", SearchFieldType.STRING);
+		simpleCol.setSearchField("city", SearchFieldType.STRING);
+		simpleCol.setSearchField("tags", SearchFieldType.STRING);
+		simpleCol.setSearchField("code", SearchFieldType.STRING);
+		simpleCol.setSearchFieldCollation("name", SearchFieldCollation.NOCASE);
+		simpleCol.setSearchFieldCollation("city", SearchFieldCollation.FOLDED);
+		simpleCol.setSearchFieldCollation("tags", SearchFieldCollation.NOCASE);
+
+		JSONStoreIndex byName = new JSONStoreIndex("by_name");
+		byName.addField("name");
+		simpleCol.addIndex(byName);
+
+		JSONStoreIndex byCity = new JSONStoreIndex("by_city");
+		byCity.addField("city");
+		simpleCol.addIndex(byCity);
+
+		return simpleCol;
+	}
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection simpleCol = createCollection();
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(simpleCol);
+		store.openCollections(collections);
+
+		List<JSONObject> data = new LinkedList<JSONObject>();
+		data.add(new JSONObject().put("name", "Smith").put("city", "Straße").put("tags", new JSONArray().put("VIP").put("New")).put("code", "AB"));
+		data.add(new JSONObject().put("name", "smith").put("city", "STRASSE").put("tags", new JSONArray().put("old")).put("code", "ab"));
+		data.add(new JSONObject().put("name", "SMYTHE").put("city", "Zürich").put("tags", new JSONArray().put("vip")).put("code", "Ab"));
+		data.add(new JSONObject().put("name", "Zed").put("city", "ZÜRICH").put("tags", new JSONArray().put("new")).put("code", "cd"));
+		simpleCol.addData(data);
+
+		return simpleCol;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	private static JSONStoreQueryParts equal(String search_field, String value) {
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addEqual(search_field, value);
+		query.addQueryPart(part);
+		return query;
+	}
+
+	private static JSONStoreQueryParts startsWith(String search_field, String prefix) {
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addStartsWith(search_field, prefix);
+		query.addQueryPart(part);
+		return query;
+	}
+
+	public void testNoCaseMatchesAnyCase() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		assertEquals(2, col.countDocuments(equal("name", "SMITH")));
+		assertEquals(3, col.countDocuments(startsWith("name", "sm")));
+		assertEquals(1, col.countDocuments(startsWith("name", "Z")));
+		assertEquals(4, col.countDocuments(startsWith("name", "")));
+
+		// Arrays are matched through the multi-value index table.
+		assertEquals(2, col.countDocuments(equal("tags", "Vip")));
+		assertEquals(2, col.countDocuments(startsWith("tags", "NE")));
+
+		// The documents are returned as they were stored.
+		List<JSONObject> results = col.findDocuments(equal("name", "SMYTHE"));
+		assertEquals("SMYTHE", results.get(0).getJSONObject("json").getString("name"));
+
+		// A search field without a collation is still case sensitive.
+		assertEquals(1, col.countDocuments(equal("code", "ab")));
+		assertEquals(2, col.countDocuments(startsWith("code", "A")));
+
+		databaseDestroy();
+	}
+
+	public void testNoCasePrefixBeforeLetters() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		List<JSONObject> data = new LinkedList<JSONObject>();
+		for (String name : new String[] { "x@1", "X@2", "x[", "x\\", "x]", "x^", "x_", "x`", "xa", "XB" }) {
+			data.add(new JSONObject().put("name", name));
+		}
+		col.addData(data);
+
+		// The range past "x@" must not end at "xA", which NOCASE reads as "xa".
+		assertEquals(2, col.countDocuments(startsWith("name", "x@")));
+		assertEquals(1, col.countDocuments(startsWith("name", "x[")));
+		assertEquals(1, col.countDocuments(startsWith("name", "xA")));
+
+		databaseDestroy();
+	}
+
+	public void testFoldedMatchesAnyScript() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		assertEquals(2, col.countDocuments(equal("city", "strasse")));
+		assertEquals(2, col.countDocuments(equal("city", "zürich")));
+		assertEquals(2, col.countDocuments(startsWith("city", "ZÜ")));
+
+		List<JSONObject> results = col.findDocuments(equal("city", "STRASSE"));
+		assertEquals(2, results.size());
+
+		databaseDestroy();
+	}
+
+	public void testCaseInsensitiveUsesIndex() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryPlan plan = col.explain(equal("name", "SMITH"), null);
+		assertFalse(plan.toString(), plan.hasScan());
+		assertTrue(plan.toString(), plan.getIndexesUsed().contains("simple_by_name"));
+
+		plan = col.explain(startsWith("name", "sMi"), null);
+		assertFalse(plan.toString(), plan.hasScan());
+		assertTrue(plan.toString(), plan.getIndexesUsed().contains("simple_by_name"));
+
+		plan = col.explain(startsWith("city", "Zü"), null);
+		assertFalse(plan.toString(), plan.hasScan());
+		assertTrue(plan.toString(), plan.getIndexesUsed().contains("simple_by_city"));
+
+		databaseDestroy();
+	}
+
+	public void testReopenWithDifferentCollation() throws Throwable {
+		databaseSetup();
+
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.closeAll();
+
+		// The same collations reopen the collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(createCollection());
+		store.openCollections(collections);
+		assertTrue(collections.get(0).wasReopened());
+		store.closeAll();
+
+		JSONStoreCollection changed = createCollection();
+		changed.setSearchFieldCollation("name", SearchFieldCollation.BINARY);
+		collections = new LinkedList<JSONStoreCollection>();
+		collections.add(changed);
+
+		try {
+			store.openCollections(collections);
+		} catch (JSONStoreSchemaMismatchException e) {
+			databaseDestroy();
+			return;
+		}
+
+		databaseDestroy();
+		fail("Collection with a different collation did not throw a schema mismatch exception");
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreComputedField;
+import com.jsonstore.api.JSONStoreIndex;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.api.JSONStoreQueryPlan;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/*
+ * Checks that computed search fields are stored when documents are added and
+ * replaced, can be queried through an index, and are computed again when
+ * their definition changes.
+ */
+public class CollectionComputedFieldTest extends InstrumentationTestCase {
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection createCollection(JSONStoreComputedField name) throws JSONStoreException {
+		JSONStoreCollection people = new JSONStoreCollection("people");
+		people.setSearchField("email", SearchFieldType.STRING);
+		people.setComputedSearchField("email_lower", SearchFieldType.STRING, JSONStoreComputedField.lowerCase("email"));
+		people.setComputedSearchField("full_name", SearchFieldType.STRING, name);
+		people.setComputedSearchField("total", SearchFieldType.NUMBER, JSONStoreComputedField.product("order.qty", "order.price"));
+
+		JSONStoreIndex byEmail = new JSONStoreIndex("by_email_lower");
+		byEmail.addField("email_lower");
+		people.addIndex(byEmail);
+
+		return people;
+	}
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection people = createCollection(JSONStoreComputedField.concat(" ", "first", "last"));
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(people);
+		store.openCollections(collections);
+
+		List<JSONObject> data = new LinkedList<JSONObject>();
+		data.add(new JSONObject().put("email", "John.Smith@Example.com").put("first", "John").put("last", "Smith").put("order", new JSONObject().put("qty", 3).put("price", 2.5)));
+		data.add(new JSONObject().put("email", "jane@example.com").put("first", "Jane").put("order", new JSONObject().put("qty", 2).put("price", 4)));
+		data.add(new JSONObject().put("email", "BOB@EXAMPLE.COM").put("last", "Brown"));
+		people.addData(data);
+
+		return people;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	private static JSONStoreQueryParts equal(String search_field, Object value) {
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		if (value instanceof Number) {
+			part.addEqual(search_field, (Number) value);
+		} else {
+			part.addEqual(search_field, value.toString());
+		}
+		query.addQueryPart(part);
+		return query;
+	}
+
+	public void testComputedValuesAreQueried() throws Throwable {
+		JSONStoreCollection people = databaseSetup();
+
+		assertEquals(1, people.countDocuments(equal("email_lower", "john.smith@example.com")));
+		assertEquals(1, people.countDocuments(equal("email_lower", "bob@example.com")));
+		assertEquals(1, people.countDocuments(equal("full_name", "John Smith")));
+		assertEquals(1, people.countDocuments(equal("full_name", "Jane")));
+		assertEquals(1, people.countDocuments(equal("full_name", "Brown")));
+		assertEquals(1, people.countDocuments(equal("total", 7.5)));
+		assertEquals(1, people.countDocuments(equal("total", 8)));
+
+		// The documents are stored as they were given.
+		JSONObject json = people.findDocuments(equal("email_lower", "bob@example.com")).get(0).getJSONObject("json");
+		assertFalse(json.has("email_lower"));
+		assertEquals("BOB@EXAMPLE.COM", json.getString("email"));
+
+		JSONStoreQueryPlan plan = people.explain(equal("email_lower", "jane@example.com"), null);
+		assertFalse(plan.toString(), plan.hasScan());
+		assertTrue(plan.toString(), plan.getIndexesUsed().contains("people_by_email_lower"));
+
+		databaseDestroy();
+	}
+
+	public void testReplaceComputesAgain() throws Throwable {
+		JSONStoreCollection people = databaseSetup();
+
+		JSONObject jane = people.findDocuments(equal("email_lower", "jane@example.com")).get(0);
+		jane.getJSONObject("json").put("email", "Jane.Doe@Example.com").put("last", "Doe");
+		people.replaceDocument(jane);
+
+		assertEquals(0, people.countDocuments(equal("email_lower", "jane@example.com")));
+		assertEquals(1, people.countDocuments(equal("email_lower", "jane.doe@example.com")));
+		assertEquals(1, people.countDocuments(equal("full_name", "Jane Doe")));
+
+		databaseDestroy();
+	}
+
+	public void testReopenWithChangedDefinition() throws Throwable {
+		databaseSetup();
+
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.closeAll();
+
+		JSONStoreComputedField lastFirst = new JSONStoreComputedField("last, first") {
+			@Override
+			public Object compute(JSONObject document) {
+				return document.optString("last", "?") + ", " + document.optString("first", "?");
+			}
+		};
+
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(createCollection(lastFirst));
+		store.openCollections(collections);
+		JSONStoreCollection people = collections.get(0);
+
+		// The documents that were already stored are computed again.
+		assertEquals(1, people.countDocuments(equal("full_name", "Smith, John")));
+		assertEquals(1, people.countDocuments(equal("full_name", "?, Jane")));
+		assertEquals(0, people.countDocuments(equal("full_name", "John Smith")));
+
+		databaseDestroy();
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreFindOptions;
+import com.jsonstore.api.JSONStoreIndex;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.api.JSONStoreQueryPlan;
+import com.jsonstore.database.DatabaseSchema;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+public class CollectionDateSearchFieldTest extends InstrumentationTestCase {
+
+	private static final long DAY = 24L * 60 * 60 * 1000;
+
+	// 2016-03-01T00:00:00Z
+	private static final long MARCH_1 = 1456790400000L;
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection simpleCol = new JSONStoreCollection("simple");
+		simpleCol.setSearchField("name", SearchFieldType.STRING);
+		simpleCol.setSearchField("created", SearchFieldType.DATE);
+
+		JSONStoreIndex byCreated = new JSONStoreIndex("by_created");
+		byCreated.addField("created");
+		simpleCol.addIndex(byCreated);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(simpleCol);
+		store.openCollections(collections);
+
+		// One document a day through March 2016, in every form a date can take.
+		List<JSONObject> data = new LinkedList<JSONObject>();
+		for (int day = 0; day < 31; day++) {
+			JSONObject doc = new JSONObject();
+			doc.put("name", "day" + (day + 1));
+
+			switch (day % 3) {
+				case 0:
+					doc.put("created", String.format("2016-03-%02dT12:00:00Z", day + 1));
+					break;
+				case 1:
+					doc.put("created", String.format("2016-03-%02dT14:00:00+02:00", day + 1));
+					break;
+				default:
+					doc.put("created", MARCH_1 + day * DAY + 12 * 60 * 60 * 1000);
+					break;
+			}
+
+			data.add(doc);
+		}
+		simpleCol.addData(data);
+
+		return simpleCol;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	public void testParsesDates() throws Throwable {
+		assertEquals(Long.valueOf(MARCH_1), DatabaseSchema.toEpochMillis("2016-03-01"));
+		assertEquals(Long.valueOf(MARCH_1 + 500), DatabaseSchema.toEpochMillis("2016-03-01T00:00:00.5Z"));
+		assertEquals(Long.valueOf(MARCH_1 - 90 * 60 * 1000), DatabaseSchema.toEpochMillis("2016-03-01T00:00+0130"));
+		assertEquals(Long.valueOf(MARCH_1 + 3600 * 1000), DatabaseSchema.toEpochMillis("2016-03-01 02:00:00+01:00"));
+		assertEquals(Long.valueOf(MARCH_1), DatabaseSchema.toEpochMillis(MARCH_1));
+		assertEquals(Long.valueOf(MARCH_1), DatabaseSchema.toEpochMillis("" + MARCH_1));
+		assertEquals(Long.valueOf(MARCH_1), DatabaseSchema.toEpochMillis(new Date(MARCH_1)));
+		assertNull(DatabaseSchema.toEpochMillis("2016-13-01"));
+		assertNull(DatabaseSchema.toEpochMillis("yesterday"));
+	}
+
+	public void testLastSevenDays() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		// Every document is at noon UTC, so this is March 25 to 31.
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addGreaterThanOrEqual("created", new Date(MARCH_1 + 24 * DAY));
+		query.addQueryPart(part);
+
+		assertEquals(7, col.countDocuments(query));
+
+		JSONStoreQueryPlan plan = col.explain(query, null);
+		assertFalse(plan.toString(), plan.hasScan());
+		assertTrue(plan.toString(), plan.getIndexesUsed().contains("simple_by_created"));
+
+		databaseDestroy();
+	}
+
+	public void testBetweenAndSort() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addBetween("created", new Date(MARCH_1 + 9 * DAY), new Date(MARCH_1 + 12 * DAY));
+		query.addQueryPart(part);
+
+		JSONStoreFindOptions options = new JSONStoreFindOptions();
+		options.sortBySearchFieldDescending("created");
+
+		// Noon on March 10, 11 and 12.
+		List<JSONObject> results = col.findDocuments(query, options);
+		assertEquals(3, results.size());
+		assertEquals("day12", results.get(0).getJSONObject("json").getString("name"));
+		assertEquals("day10", results.get(2).getJSONObject("json").getString("name"));
+
+		// An ISO string in a query is converted the same way.
+		query = new JSONStoreQueryParts();
+		part = new JSONStoreQueryPart();
+		part.addEqual("created", "2016-03-02T12:00:00Z");
+		query.addQueryPart(part);
+		assertEquals(1, col.countDocuments(query));
+
+		databaseDestroy();
+	}
+}
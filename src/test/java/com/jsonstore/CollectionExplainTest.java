@@ -0,0 +1,149 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreFindOptions;
+import com.jsonstore.api.JSONStoreIndex;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.api.JSONStoreQueryPlan;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedList;
+import java.util.List;
+
+public class CollectionExplainTest extends InstrumentationTestCase {
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection simpleCol = new JSONStoreCollection("simple");
+		simpleCol.setSearchField("name", SearchFieldType.STRING);
+		simpleCol.setSearchField("age", SearchFieldType.INTEGER);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(simpleCol);
+		store.openCollections(collections);
+
+		simpleCol.addData(new JSONObject("{ name : 'mike', age: 24 }"));
+		simpleCol.addData(new JSONObject("{ name : 'carlos', age: 25 }"));
+
+		return simpleCol;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	private JSONStoreQueryParts ageQuery() {
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addGreaterThan("age", 24);
+		query.addQueryPart(part);
+		return query;
+	}
+
+	public void testExplainReturnsSQLAndArguments() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryPlan plan = col.explain(ageQuery(), null);
+
+		assertTrue(plan.getSQL().contains("[age]"));
+		assertEquals(1, plan.getArguments().size());
+		assertEquals("24", plan.getArguments().get(0));
+		assertTrue(plan.getSteps().size() > 0);
+
+		databaseDestroy();
+	}
+
+	public void testExplainShowsScanAndTempBTree() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreFindOptions options = new JSONStoreFindOptions();
+		options.sortBySearchFieldDescending("name");
+
+		JSONStoreQueryPlan plan = col.explain(ageQuery(), options);
+
+		assertTrue(plan.hasScan());
+		assertTrue(plan.usesTempBTree());
+		assertEquals(0, plan.getIndexesUsed().size());
+
+		databaseDestroy();
+	}
+
+	public void testExplainShowsIndexSearch() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreIndex byAge = new JSONStoreIndex("by_age");
+		byAge.addField("age");
+		col.createIndex(byAge);
+
+		JSONStoreFindOptions options = new JSONStoreFindOptions();
+		options.sortBySearchFieldAscending("age");
+
+		JSONStoreQueryPlan plan = col.explain(ageQuery(), options);
+
+		assertFalse(plan.hasScan());
+		assertFalse(plan.usesTempBTree());
+		assertTrue(plan.getIndexesUsed().contains("simple_by_age"));
+
+		databaseDestroy();
+	}
+
+	public void testSlowQueryThresholdDoesNotChangeResults() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		col.setSlowQueryThreshold(1);
+		assertEquals(1, col.findDocuments(ageQuery()).size());
+		assertEquals(2, col.countAllDocuments());
+
+		col.setSlowQueryThreshold(0);
+		assertEquals(0, col.getSlowQueryThreshold());
+
+		databaseDestroy();
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreFacetValue;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreFindException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Checks the values and counts that facets returns against counts of each
+ * value, and times it against tallying the documents of a find.
+ */
+public class CollectionFacetsTest extends InstrumentationTestCase {
+
+	private static final String TAG = "CollectionFacets";
+	private static final int DOCUMENTS = 5000;
+	private static final String[] COLORS = { "red", "green", "blue", "black", "white" };
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection simpleCol = new JSONStoreCollection("simple");
+		simpleCol.setSearchField("color", SearchFieldType.STRING);
+		simpleCol.setSearchField("size", SearchFieldType.INTEGER);
+		simpleCol.setSearchField("sale", SearchFieldType.BOOLEAN);
+		simpleCol.setSearchField("tags", SearchFieldType.STRING);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(simpleCol);
+		store.openCollections(collections);
+
+		List<JSONObject> data = new LinkedList<JSONObject>();
+		for (int i = 0; i < DOCUMENTS; i++) {
+			JSONObject doc = new JSONObject();
+			doc.put("color", COLORS[i % COLORS.length]);
+			doc.put("size", i % 7);
+			doc.put("sale", i % 3 == 0);
+			doc.put("brand", new JSONObject().put("name", "b" + (i % 4)));
+
+			// Some documents have a single tag, the others an array of them.
+			if (i % 2 == 0) {
+				doc.put("tags", "t" + (i % 5));
+			} else {
+				doc.put("tags", new JSONArray().put("t" + (i % 5)).put("t" + (i % 3)));
+			}
+			data.add(doc);
+		}
+		simpleCol.addData(data);
+
+		return simpleCol;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	private static JSONStoreQueryParts query(JSONStoreQueryPart part) {
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		query.addQueryPart(part);
+		return query;
+	}
+
+	/*
+	 * Checks each value's count against a count of the documents that have
+	 * the value, and that the values are in order.
+	 */
+	private void checkFacet(JSONStoreCollection col, boolean filtered, String field, List<JSONStoreFacetValue> values) throws Throwable {
+		int previous = Integer.MAX_VALUE;
+
+		for (JSONStoreFacetValue value : values) {
+			JSONStoreQueryPart part = new JSONStoreQueryPart();
+			if (filtered) {
+				part.addEqual("size", 3);
+			}
+			if (value.getValue() instanceof Boolean) {
+				part.addEqual(field, (Boolean) value.getValue());
+			} else if (value.getValue() instanceof Number) {
+				part.addEqual(field, (Number) value.getValue());
+			} else {
+				part.addEqual(field, value.getValue().toString());
+			}
+
+			assertEquals(field + " " + value, col.countDocuments(query(part)), value.getCount());
+			assertTrue(field + " " + value, value.getCount() <= previous);
+			previous = value.getCount();
+		}
+	}
+
+	public void testFacetsMatchCounts() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		List<String> fields = Arrays.asList("color", "size", "sale", "tags");
+		Map<String, List<JSONStoreFacetValue>> facets = col.facets(null, fields, 0);
+		assertEquals(fields, new LinkedList<String>(facets.keySet()));
+
+		assertEquals(COLORS.length, facets.get("color").size());
+		assertEquals(7, facets.get("size").size());
+		assertEquals(2, facets.get("sale").size());
+		assertEquals(5, facets.get("tags").size());
+
+		for (String field : fields) {
+			checkFacet(col, false, field, facets.get(field));
+		}
+
+		// With a query, only the matching documents are counted.
+		JSONStoreQueryPart filter = new JSONStoreQueryPart();
+		filter.addEqual("size", 3);
+		facets = col.facets(query(filter), fields, 0);
+		assertEquals(1, facets.get("size").size());
+		assertEquals(3L, facets.get("size").get(0).getValue());
+
+		for (String field : fields) {
+			checkFacet(col, true, field, facets.get(field));
+		}
+
+		databaseDestroy();
+	}
+
+	public void testFacetsTopN() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		Map<String, List<JSONStoreFacetValue>> all = col.facets(null, Arrays.asList("size", "tags"), 0);
+		Map<String, List<JSONStoreFacetValue>> top = col.facets(null, Arrays.asList("size", "tags"), 2);
+
+		assertEquals(2, top.get("size").size());
+		assertEquals(2, top.get("tags").size());
+
+		for (int i = 0; i < 2; i++) {
+			assertEquals(all.get("size").get(i).toString(), top.get("size").get(i).toString());
+			assertEquals(all.get("tags").get(i).toString(), top.get("tags").get(i).toString());
+		}
+
+		databaseDestroy();
+	}
+
+	public void testFacetsWithPathCriteria() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addPathEqual("brand.name", "b1");
+		Map<String, List<JSONStoreFacetValue>> facets = col.facets(query(part), Arrays.asList("color"), 0);
+
+		int total = 0;
+		for (JSONStoreFacetValue value : facets.get("color")) {
+			total += value.getCount();
+		}
+		assertEquals(col.countDocuments(query(part)), total);
+
+		databaseDestroy();
+	}
+
+	public void testFacetsUnknownField() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		try {
+			col.facets(null, Arrays.asList("missing"), 0);
+			fail("Facets on a field that is not a search field did not fail");
+		} catch (JSONStoreFindException e) {
+			// Expected.
+		}
+
+		databaseDestroy();
+	}
+
+	public void testFacetsBenchmark() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+		List<String> fields = Arrays.asList("color", "size", "sale");
+
+		long start = System.nanoTime();
+		col.facets(null, fields, 5);
+		long facetNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		Map<String, Map<Object, Integer>> tally = new HashMap<String, Map<Object, Integer>>();
+		for (JSONObject doc : col.findAllDocuments()) {
+			JSONObject json = doc.getJSONObject("json");
+			for (String field : fields) {
+				Map<Object, Integer> counts = tally.get(field);
+				if (counts == null) {
+					counts = new HashMap<Object, Integer>();
+					tally.put(field, counts);
+				}
+				Object value = json.get(field);
+				Integer count = counts.get(value);
+				counts.put(value, count == null ? 1 : count + 1);
+			}
+		}
+		long tallyNanos = System.nanoTime() - start;
+
+		Log.i(TAG, "facets: " + facetNanos + " ns for " + fields.size() + " fields over " + DOCUMENTS + " documents");
+		Log.i(TAG, "find and tally: " + tallyNanos + " ns for " + fields.size() + " fields over " + DOCUMENTS + " documents");
+
+		databaseDestroy();
+	}
+}
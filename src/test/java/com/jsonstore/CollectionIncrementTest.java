@@ -0,0 +1,241 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.api.JSONStoreReplaceOptions;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreReplaceException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/*
+ * Checks that increments change the number in the stored document and in its
+ * search field, keep dirty tracking, and roll back together, and times them
+ * against a find and a replace.
+ */
+public class CollectionIncrementTest extends InstrumentationTestCase {
+
+	private static final String TAG = "CollectionIncrement";
+	private static final int INCREMENTS = 500;
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection posts = new JSONStoreCollection("posts");
+		posts.setSearchField("title", SearchFieldType.STRING);
+		posts.setSearchField("stats.views", SearchFieldType.INTEGER);
+		posts.setSearchField("score", SearchFieldType.NUMBER);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(posts);
+		store.openCollections(collections);
+
+		List<JSONObject> data = new LinkedList<JSONObject>();
+		for (int i = 0; i < 3; i++) {
+			data.add(new JSONObject().put("title", "post " + i).put("stats", new JSONObject().put("views", i * 10).put("likes", 1)).put("score", 1.5));
+		}
+		posts.addData(data);
+		posts.markDocumentsClean(posts.findAllDirtyDocuments());
+
+		return posts;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	private static JSONStoreQueryParts equal(String search_field, Number value) {
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addEqual(search_field, value);
+		query.addQueryPart(part);
+		return query;
+	}
+
+	private static JSONObject json(JSONStoreCollection posts, int id) throws Throwable {
+		return posts.findDocumentById(id).getJSONObject("json");
+	}
+
+	public void testIncrement() throws Throwable {
+		JSONStoreCollection posts = databaseSetup();
+		int id = posts.findDocuments(equal("stats.views", 20)).get(0).getInt("_id");
+
+		assertEquals(25L, posts.increment(id, "stats.views", 5));
+		assertEquals(22L, posts.increment(id, "stats.views", -3));
+
+		JSONObject json = json(posts, id);
+		assertEquals(22, json.getJSONObject("stats").getInt("views"));
+		assertEquals(1, json.getJSONObject("stats").getInt("likes"));
+		assertEquals("post 2", json.getString("title"));
+
+		assertEquals(0, posts.countDocuments(equal("stats.views", 20)));
+		assertEquals(1, posts.countDocuments(equal("stats.views", 22)));
+
+		// A fraction makes the number a double.
+		assertEquals(2.0, posts.increment(id, "score", 0.5).doubleValue());
+		assertEquals(2.0, json(posts, id).getDouble("score"));
+		assertEquals(1, posts.countDocuments(equal("score", 2.0)));
+
+		// A number that is not a search field is only changed in the document.
+		assertEquals(2L, posts.increment(id, "stats.likes", 1));
+		assertEquals(2, json(posts, id).getJSONObject("stats").getInt("likes"));
+
+		databaseDestroy();
+	}
+
+	public void testIncrementNestedArrayField() throws Throwable {
+		JSONStoreCollection posts = databaseSetup();
+		posts.addData(new JSONObject().put("title", "poll").put("stats", new JSONObject().put("views", new JSONArray().put(10).put(40))));
+		int id = posts.findDocuments(equal("stats.views", 20)).get(0).getInt("_id");
+
+		// Other documents have arrays there, but this one has a number.
+		assertEquals(21L, posts.increment(id, "stats.views", 1));
+		assertEquals(0, posts.countDocuments(equal("stats.views", 20)));
+		assertEquals(1, posts.countDocuments(equal("stats.views", 21)));
+		assertEquals(2, posts.countDocuments(equal("stats.views", 10)));
+		assertEquals(1, posts.countDocuments(equal("stats.views", 40)));
+
+		databaseDestroy();
+	}
+
+	public void testIncrementMarksDirty() throws Throwable {
+		JSONStoreCollection posts = databaseSetup();
+		int id = posts.findDocuments(equal("stats.views", 0)).get(0).getInt("_id");
+
+		// Like a replace, an increment only marks the document dirty when asked to.
+		posts.increment(id, "stats.views", 1);
+		assertEquals(0, posts.countAllDirtyDocuments());
+
+		JSONStoreReplaceOptions options = new JSONStoreReplaceOptions();
+		options.setMarkDirty(true);
+		posts.increment(id, "stats.views", 1, options);
+		List<JSONObject> dirty = posts.findAllDirtyDocuments();
+		assertEquals(1, dirty.size());
+		assertEquals(id, dirty.get(0).getInt("_id"));
+		assertEquals("replace", dirty.get(0).getString("_operation"));
+
+		databaseDestroy();
+	}
+
+	public void testIncrementOverflowFails() throws Throwable {
+		JSONStoreCollection posts = databaseSetup();
+		int id = posts.findDocuments(equal("stats.views", 20)).get(0).getInt("_id");
+
+		// The sum would wrap in the document but not in the search field column.
+		try {
+			posts.increment(id, "stats.views", Long.MAX_VALUE);
+		} catch (JSONStoreReplaceException e) {
+			assertEquals(20, json(posts, id).getJSONObject("stats").getInt("views"));
+			assertEquals(1, posts.countDocuments(equal("stats.views", 20)));
+
+			databaseDestroy();
+			return;
+		}
+
+		databaseDestroy();
+		fail("An increment overflowed");
+	}
+
+	public void testBatchIncrementRollsBack() throws Throwable {
+		JSONStoreCollection posts = databaseSetup();
+		List<Integer> ids = new ArrayList<Integer>();
+		for (JSONObject document : posts.findAllDocuments()) {
+			ids.add(document.getInt("_id"));
+		}
+
+		assertEquals(3, posts.increment(ids, "stats.views", 100, null));
+		assertEquals(1, posts.countDocuments(equal("stats.views", 110)));
+
+		// The title is not a number, so no document is changed.
+		try {
+			posts.increment(ids, "title", 1, null);
+		} catch (JSONStoreReplaceException e) {
+			assertEquals(3, e.getFailedObjects().size());
+			assertEquals(1, posts.countDocuments(equal("stats.views", 110)));
+			assertEquals("post 0", json(posts, ids.get(0)).getString("title"));
+
+			databaseDestroy();
+			return;
+		}
+
+		databaseDestroy();
+		fail("A string was incremented");
+	}
+
+	public void testIncrementBenchmark() throws Throwable {
+		JSONStoreCollection posts = databaseSetup();
+		int id = posts.findDocuments(equal("stats.views", 10)).get(0).getInt("_id");
+
+		long start = System.nanoTime();
+		for (int i = 0; i < INCREMENTS; i++) {
+			posts.increment(id, "stats.views", 1);
+		}
+		long incrementNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < INCREMENTS; i++) {
+			JSONObject document = posts.findDocumentById(id);
+			JSONObject stats = document.getJSONObject("json").getJSONObject("stats");
+			stats.put("views", stats.getInt("views") + 1);
+			posts.replaceDocument(document);
+		}
+		long replaceNanos = System.nanoTime() - start;
+
+		assertEquals(10 + 2 * INCREMENTS, json(posts, id).getJSONObject("stats").getInt("views"));
+
+		Log.i(TAG, INCREMENTS + " increments: " + incrementNanos + " ns");
+		Log.i(TAG, INCREMENTS + " finds and replaces: " + replaceNanos + " ns");
+
+		databaseDestroy();
+	}
+}
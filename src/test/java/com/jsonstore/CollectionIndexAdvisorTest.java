@@ -0,0 +1,215 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreFindOptions;
+import com.jsonstore.api.JSONStoreIndex;
+import com.jsonstore.api.JSONStoreIndexAdvisor;
+import com.jsonstore.api.JSONStoreIndexRecommendation;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.database.SortDirection;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedList;
+import java.util.List;
+
+public class CollectionIndexAdvisorTest extends InstrumentationTestCase {
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection simpleCol = new JSONStoreCollection("simple");
+		simpleCol.setSearchField("name", SearchFieldType.STRING);
+		simpleCol.setSearchField("age", SearchFieldType.INTEGER);
+		simpleCol.setSearchField("city", SearchFieldType.STRING);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(simpleCol);
+		store.openCollections(collections);
+
+		for (int i = 0; i < 50; i++) {
+			simpleCol.addData(new JSONObject("{ name : 'person" + i + "', age: " + (20 + (i % 10)) + ", city: '" + (i % 2 == 0 ? "austin" : "raleigh") + "' }"));
+		}
+
+		return simpleCol;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	private void findByName(JSONStoreCollection col, String name) throws Throwable {
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addEqual("name", name);
+		query.addQueryPart(part);
+		assertEquals(1, col.findDocuments(query).size());
+	}
+
+	private void findByCityAndAge(JSONStoreCollection col) throws Throwable {
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addEqual("city", "austin");
+		part.addGreaterThan("age", 25);
+		query.addQueryPart(part);
+		col.findDocuments(query);
+	}
+
+	public void testNothingRecordedByDefault() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		for (int i = 0; i < 10; i++) {
+			findByName(col, "person" + i);
+		}
+
+		assertNull(col.getIndexAdvisor());
+		assertEquals(0, col.getIndexRecommendations().size());
+
+		databaseDestroy();
+	}
+
+	public void testRecommendationsAreRanked() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+		col.setIndexAdvisor(new JSONStoreIndexAdvisor());
+
+		for (int i = 0; i < 10; i++) {
+			findByName(col, "person" + i);
+		}
+
+		for (int i = 0; i < 5; i++) {
+			findByCityAndAge(col);
+		}
+
+		List<JSONStoreIndexRecommendation> recommendations = col.getIndexRecommendations();
+
+		assertEquals(2, recommendations.size());
+		assertEquals("advised_name", recommendations.get(0).getIndex().getName());
+		assertEquals(10, recommendations.get(0).getExecutions());
+		assertEquals(50, recommendations.get(0).getEstimatedRowsScanned());
+		assertEquals("advised_city_age", recommendations.get(1).getIndex().getName());
+		assertTrue(recommendations.get(0).getEstimatedRowsSaved() > recommendations.get(1).getEstimatedRowsSaved());
+
+		databaseDestroy();
+	}
+
+	public void testShapesBelowMinimumAreNotRecommended() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+		JSONStoreIndexAdvisor advisor = new JSONStoreIndexAdvisor();
+		advisor.setMinimumExecutions(20);
+		col.setIndexAdvisor(advisor);
+
+		for (int i = 0; i < 10; i++) {
+			findByName(col, "person" + i);
+		}
+
+		assertEquals(1, advisor.getQueryShapes().size());
+		assertEquals(0, col.getIndexRecommendations().size());
+
+		databaseDestroy();
+	}
+
+	public void testExistingIndexIsNotRecommended() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+		col.setIndexAdvisor(new JSONStoreIndexAdvisor());
+
+		JSONStoreIndex byNameAge = new JSONStoreIndex("by_name_age");
+		byNameAge.addField("name");
+		byNameAge.addField("age");
+		col.createIndex(byNameAge);
+
+		for (int i = 0; i < 10; i++) {
+			findByName(col, "person" + i);
+		}
+
+		assertEquals(0, col.getIndexRecommendations().size());
+
+		databaseDestroy();
+	}
+
+	public void testSortedLimitIsRecommended() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+		col.setIndexAdvisor(new JSONStoreIndexAdvisor());
+
+		JSONStoreFindOptions options = new JSONStoreFindOptions();
+		options.sortBySearchFieldDescending("age");
+		options.setLimit(5);
+
+		for (int i = 0; i < 5; i++) {
+			assertEquals(5, col.findAllDocuments(options).size());
+		}
+
+		List<JSONStoreIndexRecommendation> recommendations = col.getIndexRecommendations();
+
+		assertEquals(1, recommendations.size());
+		assertEquals(SortDirection.DESCENDING, recommendations.get(0).getIndex().getFields().get("age"));
+
+		databaseDestroy();
+	}
+
+	public void testMaintenanceAppliesRecommendations() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+		JSONStoreIndexAdvisor advisor = new JSONStoreIndexAdvisor();
+		col.setIndexAdvisor(advisor);
+
+		for (int i = 0; i < 10; i++) {
+			findByName(col, "person" + i);
+		}
+
+		assertEquals(0, col.runMaintenance().size());
+
+		advisor.setApplyAutomatically(true);
+		List<JSONStoreIndex> created = col.runMaintenance();
+
+		assertEquals(1, created.size());
+		assertEquals("advised_name", created.get(0).getName());
+		assertEquals(0, col.getIndexRecommendations().size());
+		findByName(col, "person3");
+
+		databaseDestroy();
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.test.InstrumentationTestCase;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreIndex;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.database.DatabaseManager;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.database.SortDirection;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreIndexException;
+import com.jsonstore.exceptions.JSONStoreInvalidSchemaException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedList;
+import java.util.List;
+
+public class CollectionIndexTest extends InstrumentationTestCase {
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection createCollection() throws JSONStoreInvalidSchemaException {
+		JSONStoreCollection simpleCol = new JSONStoreCollection("simple");
+		simpleCol.setSearchField("name", SearchFieldType.STRING);
+		simpleCol.setSearchField("age", SearchFieldType.INTEGER);
+		simpleCol.setSearchField("address.city", SearchFieldType.STRING);
+
+		JSONStoreIndex byName = new JSONStoreIndex("by_name");
+		byName.addField("name");
+		simpleCol.addIndex(byName);
+
+		JSONStoreIndex byCityAge = new JSONStoreIndex("by_city_age");
+		byCityAge.addField("address.city");
+		byCityAge.addField("age", SortDirection.DESCENDING);
+		simpleCol.addIndex(byCityAge);
+
+		return simpleCol;
+	}
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection simpleCol = createCollection();
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(simpleCol);
+		store.openCollections(collections);
+
+		simpleCol.addData(new JSONObject("{ name : 'mike', age: 24, address: { city: 'austin' } }"));
+		simpleCol.addData(new JSONObject("{ name : 'carlos', age: 25, address: { city: 'austin' } }"));
+		simpleCol.addData(new JSONObject("{ name : 'nana', age: 22, address: { city: 'raleigh' } }"));
+
+		return simpleCol;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	private boolean indexExists(String name) throws Exception {
+		Cursor cursor = DatabaseManager.getInstance().getDatabase("simple").getRawDatabase().rawQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND name = ?", new String[] { name });
+		boolean exists = cursor.getCount() > 0;
+		cursor.close();
+		return exists;
+	}
+
+	private List<JSONObject> findByName(JSONStoreCollection col, String name) throws Throwable {
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addEqual("name", name);
+		query.addQueryPart(part);
+		return col.findDocuments(query);
+	}
+
+	public void testIndexesCreatedOnOpen() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		assertTrue(indexExists("simple_by_name"));
+		assertTrue(indexExists("simple_by_city_age"));
+		assertEquals(1, findByName(col, "nana").size());
+
+		databaseDestroy();
+	}
+
+	public void testIndexesKeptOnReopen() throws Throwable {
+		databaseSetup();
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.closeAll();
+
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(createCollection());
+		store.openCollections(collections);
+
+		assertTrue(indexExists("simple_by_name"));
+		assertEquals(3, store.getCollectionByName("simple").countAllDocuments());
+
+		databaseDestroy();
+	}
+
+	public void testCreateAndDropIndexAtRuntime() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreIndex byAge = new JSONStoreIndex("by_age");
+		byAge.addField("age");
+		col.createIndex(byAge);
+
+		assertTrue(indexExists("simple_by_age"));
+		assertEquals(3, col.countAllDocuments());
+
+		col.dropIndex("by_age");
+
+		assertFalse(indexExists("simple_by_age"));
+		assertEquals(3, col.countAllDocuments());
+
+		databaseDestroy();
+	}
+
+	public void testPartialIndex() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryPart filter = new JSONStoreQueryPart();
+		filter.addEqual("_deleted", 0);
+		filter.addNotEqual("name", "o'brien");
+
+		JSONStoreIndex live = new JSONStoreIndex("live_names");
+		live.addField("name");
+		live.setFilter(filter);
+		col.createIndex(live);
+
+		assertTrue(indexExists("simple_live_names"));
+		assertEquals(1, findByName(col, "mike").size());
+
+		databaseDestroy();
+	}
+
+	public void testIndexOnUnknownFieldFails() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreIndex bad = new JSONStoreIndex("bad");
+		bad.addField("unknown");
+
+		try {
+			col.createIndex(bad);
+			fail("Expected JSONStoreIndexException");
+		} catch (JSONStoreIndexException e) {
+			// Expected.
+		}
+
+		databaseDestroy();
+	}
+
+	public void testDeclaredIndexWithInvalidNameFailsOpen() throws Throwable {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection col = createCollection();
+		JSONStoreIndex bad = new JSONStoreIndex("bad name");
+		bad.addField("name");
+		col.addIndex(bad);
+
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(col);
+
+		try {
+			store.openCollections(collections);
+			fail("Expected JSONStoreInvalidSchemaException");
+		} catch (JSONStoreInvalidSchemaException e) {
+			// Expected.
+		}
+
+		databaseDestroy();
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreIndex;
+import com.jsonstore.api.JSONStorePreparedFind;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.api.JSONStoreQueryPlan;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/*
+ * Inside criteria with more values than SQLite accepts as arguments.
+ */
+public class CollectionLargeInsideTest extends InstrumentationTestCase {
+
+	private static final String TAG = "CollectionLargeInside";
+	private static final int DOCUMENTS = 3000;
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection simpleCol = new JSONStoreCollection("simple");
+		simpleCol.setSearchField("name", SearchFieldType.STRING);
+		simpleCol.setSearchField("age", SearchFieldType.INTEGER);
+		simpleCol.setSearchField("tags", SearchFieldType.STRING);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(simpleCol);
+		store.openCollections(collections);
+
+		List<JSONObject> data = new LinkedList<JSONObject>();
+		for (int i = 0; i < DOCUMENTS; i++) {
+			JSONObject doc = new JSONObject();
+			doc.put("name", "name" + i);
+			doc.put("age", i);
+			doc.put("tags", new JSONArray().put("tag" + i).put("all"));
+			data.add(doc);
+		}
+		simpleCol.addData(data);
+
+		JSONStoreIndex byAge = new JSONStoreIndex("by_age");
+		byAge.addField("age");
+		simpleCol.createIndex(byAge);
+
+		return simpleCol;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	// Every other value from 0, so half of them match a document.
+	private static List<Object> evenAges(int count) {
+		List<Object> ages = new ArrayList<Object>(count);
+		for (int i = 0; i < count; i++) {
+			ages.add(i * 2);
+		}
+		return ages;
+	}
+
+	private static JSONStoreQueryParts ageInside(List<Object> ages) {
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addInside("age", ages);
+		query.addQueryPart(part);
+		return query;
+	}
+
+	public void testInsideMoreValuesThanArguments() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		// 2000 values, past the 999 arguments SQLite accepts.
+		List<JSONObject> results = col.findDocuments(ageInside(evenAges(2000)));
+		assertEquals(DOCUMENTS / 2, results.size());
+
+		JSONStoreQueryPlan plan = col.explain(ageInside(evenAges(2000)), null);
+		assertEquals(1, plan.getArguments().size());
+		assertTrue(plan.getSQL(), plan.getSQL().contains("_jsonstore_value_lists"));
+		assertTrue(plan.toString(), plan.getIndexesUsed().contains("simple_by_age"));
+
+		// Short lists keep their placeholders.
+		plan = col.explain(ageInside(evenAges(10)), null);
+		assertEquals(10, plan.getArguments().size());
+		assertFalse(plan.getSQL().contains("_jsonstore_value_lists"));
+
+		databaseDestroy();
+	}
+
+	public void testNotInsideAndArrays() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addNotInside("age", evenAges(2000));
+		query.addQueryPart(part);
+		assertEquals(DOCUMENTS / 2, col.countDocuments(query));
+
+		List<Object> tags = new ArrayList<Object>();
+		for (int i = 0; i < 1500; i++) {
+			tags.add("tag" + (i * 3));
+		}
+
+		query = new JSONStoreQueryParts();
+		part = new JSONStoreQueryPart();
+		part.addInside("tags", tags);
+		query.addQueryPart(part);
+		assertEquals(DOCUMENTS / 3, col.findDocuments(query).size());
+
+		databaseDestroy();
+	}
+
+	public void testPreparedFindReusesSQL() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStorePreparedFind find = col.prepareFind(ageInside(evenAges(1000)), null);
+		assertEquals(1000, find.execute().size());
+
+		// Long lists of any size share the SQL.
+		assertEquals(600, find.execute((Object) evenAges(600)).size());
+		assertEquals(5, find.execute((Object) evenAges(5)).size());
+
+		long start = System.nanoTime();
+		for (int i = 0; i < 10; i++) {
+			find.execute((Object) evenAges(1500));
+		}
+		Log.i(TAG, "inside 1500 values: " + (System.nanoTime() - start) / 10 + " ns per find");
+
+		databaseDestroy();
+	}
+}
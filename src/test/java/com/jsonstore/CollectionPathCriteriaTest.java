@@ -0,0 +1,231 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreFindOptions;
+import com.jsonstore.api.JSONStorePreparedFind;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+public class CollectionPathCriteriaTest extends InstrumentationTestCase {
+
+	private static final int DOCUMENTS = 1000;
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection simpleCol = new JSONStoreCollection("simple");
+		simpleCol.setSearchField("name", SearchFieldType.STRING);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(simpleCol);
+		store.openCollections(collections);
+
+		// Only name is a search field. Every tenth document has no rank.
+		List<JSONObject> data = new LinkedList<JSONObject>();
+		for (int i = 0; i < DOCUMENTS; i++) {
+			JSONObject doc = new JSONObject();
+			doc.put("name", name(i));
+			doc.put("index", i);
+			if (i % 10 != 0) {
+				doc.put("stats", new JSONObject().put("rank", rank(i)));
+			}
+			doc.put("tags", new JSONArray().put("t" + (i % 3)).put("all"));
+			data.add(doc);
+		}
+		simpleCol.addData(data);
+
+		return simpleCol;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	private static String name(int i) {
+		return "name" + (i / 10 % 2);
+	}
+
+	private static int rank(int i) {
+		return (i * 7) % DOCUMENTS;
+	}
+
+	private static int index(JSONObject result) throws JSONException {
+		return result.getJSONObject("json").getInt("index");
+	}
+
+	public void testSinglePart() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addEqual("name", "name1");
+		part.addPathGreaterThan("stats.rank", 500);
+		part.addPathEqual("tags", "t2");
+		query.addQueryPart(part);
+
+		int expected = 0;
+		for (int i = 0; i < DOCUMENTS; i++) {
+			if (name(i).equals("name1") && i % 10 != 0 && rank(i) > 500 && i % 3 == 2) {
+				expected++;
+			}
+		}
+
+		List<JSONObject> results = col.findDocuments(query);
+		assertEquals(expected, results.size());
+		for (JSONObject result : results) {
+			int i = index(result);
+			assertEquals("name1", name(i));
+			assertTrue(rank(i) > 500);
+			assertEquals(2, i % 3);
+		}
+
+		assertEquals(expected, col.countDocuments(query));
+
+		databaseDestroy();
+	}
+
+	public void testPartsOnlyCheckTheirOwnPaths() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		// (name0 AND rank < 50) OR (name1 AND rank > 950) OR (index = 5)
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart low = new JSONStoreQueryPart();
+		low.addEqual("name", "name0");
+		low.addPathLessThan("stats.rank", 50);
+		query.addQueryPart(low);
+
+		JSONStoreQueryPart high = new JSONStoreQueryPart();
+		high.addEqual("name", "name1");
+		high.addPathGreaterThan("stats.rank", 950);
+		query.addQueryPart(high);
+
+		JSONStoreQueryPart pathOnly = new JSONStoreQueryPart();
+		pathOnly.addPathEqual("index", 5);
+		query.addQueryPart(pathOnly);
+
+		int expected = 0;
+		for (int i = 0; i < DOCUMENTS; i++) {
+			boolean hasRank = i % 10 != 0;
+			if ((name(i).equals("name0") && hasRank && rank(i) < 50) || (name(i).equals("name1") && hasRank && rank(i) > 950) || i == 5) {
+				expected++;
+			}
+		}
+
+		List<JSONObject> results = col.findDocuments(query);
+		assertEquals(expected, results.size());
+		for (JSONObject result : results) {
+			int i = index(result);
+			assertTrue(i == 5 || (name(i).equals("name0") ? rank(i) < 50 : rank(i) > 950));
+		}
+
+		databaseDestroy();
+	}
+
+	public void testLimitAndOffset() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addEqual("name", "name0");
+		part.addPathInside("tags", Arrays.<Object>asList("t0", "t1"));
+		query.addQueryPart(part);
+
+		List<JSONObject> all = col.findDocuments(query);
+
+		JSONStoreFindOptions options = new JSONStoreFindOptions();
+		options.setLimit(7);
+		options.setOffset(11);
+
+		List<JSONObject> page = col.findDocuments(query, options);
+		assertEquals(7, page.size());
+		for (int i = 0; i < page.size(); i++) {
+			assertEquals(index(all.get(11 + i)), index(page.get(i)));
+		}
+
+		databaseDestroy();
+	}
+
+	public void testNotEqualMatchesMissingPaths() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addPathNotEqual("stats.rank", 7);
+		query.addQueryPart(part);
+
+		// Only index 1 has rank 7; documents without a rank match.
+		assertEquals(DOCUMENTS - 1, col.countDocuments(query));
+
+		databaseDestroy();
+	}
+
+	public void testPreparedFindKeepsPathCriteria() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addInside("name", Arrays.<Object>asList("name0"));
+		part.addPathBetween("index", 0, 9);
+		query.addQueryPart(part);
+
+		JSONStorePreparedFind find = col.prepareFind(query, null);
+		assertEquals(10, find.execute().size());
+
+		// A different number of inside values regenerates the SQL from a copy of the query.
+		assertEquals(10, find.execute((Object) Arrays.<Object>asList("name0", "name1")).size());
+		assertEquals(0, find.execute((Object) Arrays.<Object>asList("name1")).size());
+
+		databaseDestroy();
+	}
+}
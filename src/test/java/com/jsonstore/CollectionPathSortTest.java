@@ -0,0 +1,183 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreFindOptions;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+import com.jsonstore.jackson.JsonPathExtractor;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+public class CollectionPathSortTest extends InstrumentationTestCase {
+
+	private static final String TAG = "CollectionPathSortTest";
+	private static final int DOCUMENTS = 1000;
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection simpleCol = new JSONStoreCollection("simple");
+		simpleCol.setSearchField("name", SearchFieldType.STRING);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(simpleCol);
+		store.openCollections(collections);
+
+		// rank is not a search field. Every tenth document has no rank, and the
+		// ranks of the others are 1 to 999 except the multiples of 10.
+		List<JSONObject> data = new LinkedList<JSONObject>();
+		for (int i = 0; i < DOCUMENTS; i++) {
+			JSONObject doc = new JSONObject();
+			doc.put("name", "name" + (i / 10 % 2));
+			if (i % 10 != 0) {
+				doc.put("stats", new JSONObject().put("rank", (i * 7) % DOCUMENTS));
+			}
+			data.add(doc);
+		}
+		simpleCol.addData(data);
+
+		return simpleCol;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	private static int rank(JSONObject result) throws JSONException {
+		return result.getJSONObject("json").getJSONObject("stats").getInt("rank");
+	}
+
+	public void testExtractor() throws Throwable {
+		String json = "{\"a\":{\"skip\":[1,{\"b\":2}],\"b\":[3,4]},\"a.c\":\"dotted\",\"d\":null}";
+
+		assertEquals(3, ((Number) JsonPathExtractor.extractFirst(json, "a.b")).intValue());
+		assertEquals(2, JsonPathExtractor.extractAll(json, "a.b").size());
+		assertEquals("dotted", JsonPathExtractor.extractFirst(json, "a.c"));
+		assertEquals(JSONObject.NULL, JsonPathExtractor.extractFirst(json, "d"));
+		assertNull(JsonPathExtractor.extractFirst(json, "a"));
+		assertNull(JsonPathExtractor.extractFirst(json, "missing.path"));
+	}
+
+	public void testTopAscending() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreFindOptions options = new JSONStoreFindOptions();
+		options.sortByPathAscending("stats.rank");
+		options.setLimit(3);
+		options.setOffset(DOCUMENTS / 10);
+
+		// The documents without a rank come first, so the offset skips them.
+		List<JSONObject> results = col.findAllDocuments(options);
+		assertEquals(3, results.size());
+		assertEquals(Arrays.asList(1, 2, 3), Arrays.asList(rank(results.get(0)), rank(results.get(1)), rank(results.get(2))));
+
+		databaseDestroy();
+	}
+
+	public void testTopDescendingWithSearchFieldTieBreak() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreFindOptions options = new JSONStoreFindOptions();
+		options.sortByPathDescending("stats.rank");
+		options.setLimit(2);
+
+		List<JSONObject> results = col.findAllDocuments(options);
+		assertEquals(2, results.size());
+		assertEquals(999, rank(results.get(0)));
+		assertEquals(998, rank(results.get(1)));
+
+		// Every document without a rank ties, so the search field sort decides.
+		options = new JSONStoreFindOptions();
+		options.sortByPathAscending("stats.rank");
+		options.sortBySearchFieldDescending("name");
+		options.setLimit(1);
+
+		results = col.findAllDocuments(options);
+		assertFalse(results.get(0).getJSONObject("json").has("stats"));
+		assertEquals("name1", results.get(0).getJSONObject("json").getString("name"));
+
+		databaseDestroy();
+	}
+
+	public void testTopWithSearchFilter() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreFindOptions options = new JSONStoreFindOptions();
+		options.sortByPathDescending("stats.rank");
+		options.addSearchFilter("name");
+		options.setLimit(1);
+
+		List<JSONObject> results = col.findAllDocuments(options);
+		assertEquals(1, results.size());
+		assertFalse(results.get(0).has("json"));
+		assertFalse(results.get(0).has("_id"));
+		assertEquals("name1", results.get(0).getString("name"));
+
+		databaseDestroy();
+	}
+
+	public void testTopBenchmark() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreFindOptions options = new JSONStoreFindOptions();
+		options.sortByPathDescending("stats.rank");
+		options.setLimit(10);
+
+		long start = System.nanoTime();
+		assertEquals(10, col.findAllDocuments(options).size());
+		Log.i(TAG, "top 10 of " + DOCUMENTS + " by path: " + (System.nanoTime() - start) + " ns");
+
+		start = System.nanoTime();
+		assertEquals(DOCUMENTS, col.findAllDocuments().size());
+		Log.i(TAG, "all " + DOCUMENTS + " documents: " + (System.nanoTime() - start) + " ns");
+
+		databaseDestroy();
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreFindOptions;
+import com.jsonstore.api.JSONStorePreparedFind;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+public class CollectionPreparedFindTest extends InstrumentationTestCase {
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection simpleCol = new JSONStoreCollection("simple");
+		simpleCol.setSearchField("name", SearchFieldType.STRING);
+		simpleCol.setSearchField("age", SearchFieldType.INTEGER);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(simpleCol);
+		store.openCollections(collections);
+
+		simpleCol.addData(new JSONObject("{ name : 'mike', age: 24 }"));
+		simpleCol.addData(new JSONObject("{ name : 'carlos', age: 25 }"));
+		simpleCol.addData(new JSONObject("{ name : 'nana', age: 30 }"));
+
+		return simpleCol;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	private List<Object> list(Object... values) {
+		List<Object> result = new LinkedList<Object>();
+		for (Object value : values) {
+			result.add(value);
+		}
+		return result;
+	}
+
+	public void testPositionalParameters() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addEqual("name", "mike");
+		part.addGreaterThan("age", 0);
+		query.addQueryPart(part);
+
+		JSONStorePreparedFind find = col.prepareFind(query, null);
+
+		assertEquals(2, find.getParameterCount());
+		assertEquals("name", find.getParameterNames().get(0));
+		assertEquals(1, find.execute().size());
+		assertEquals("carlos", find.execute("carlos", 20).get(0).getJSONObject("json").getString("name"));
+		assertEquals(0, find.execute("carlos", 25).size());
+
+		databaseDestroy();
+	}
+
+	public void testNamedParameters() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addBetween("age", 0, 100);
+		part.addLike("name", "a");
+		query.addQueryPart(part);
+
+		JSONStorePreparedFind find = col.prepareFind(query, null);
+		assertEquals(2, find.execute().size());
+
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("age", list(25, 30));
+		assertEquals(2, find.execute(values).size());
+
+		values.put("name", "nan");
+		List<JSONObject> results = find.execute(values);
+		assertEquals(1, results.size());
+		assertEquals("nana", results.get(0).getJSONObject("json").getString("name"));
+
+		databaseDestroy();
+	}
+
+	public void testInsideWithDifferentSizes() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addInside("name", list("mike"));
+		query.addQueryPart(part);
+
+		JSONStorePreparedFind find = col.prepareFind(query, null);
+
+		assertEquals(1, find.execute().size());
+		assertEquals(2, find.execute(list("carlos", "nana")).size());
+		assertEquals(3, find.execute(list("carlos", "nana", "mike")).size());
+		assertEquals(1, find.execute(list("nana")).size());
+
+		databaseDestroy();
+	}
+
+	public void testInvalidValuesAreRejected() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addEqual("name", "mike");
+		query.addQueryPart(part);
+
+		JSONStorePreparedFind find = col.prepareFind(query, null);
+
+		try {
+			find.execute("mike", "extra");
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+
+		try {
+			Map<String, Object> values = new HashMap<String, Object>();
+			values.put("age", 1);
+			find.execute(values);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+
+		databaseDestroy();
+	}
+
+	public void testStatementCacheDoesNotChangeResults() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+		col.setStatementCacheSize(1);
+
+		JSONStoreFindOptions options = new JSONStoreFindOptions();
+		options.setLimit(1);
+
+		for (int i = 0; i < 3; i++) {
+			JSONStoreQueryParts query = new JSONStoreQueryParts();
+			JSONStoreQueryPart part = new JSONStoreQueryPart();
+			part.addEqual("name", "nana");
+			query.addQueryPart(part);
+
+			assertEquals(1, col.findDocuments(query).size());
+			assertEquals(1, col.findAllDocuments(options).size());
+			assertEquals(3, col.countAllDocuments());
+		}
+
+		col.setStatementCacheSize(0);
+		assertEquals(3, col.findAllDocuments().size());
+
+		databaseDestroy();
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreFindOptions;
+import com.jsonstore.api.JSONStoreProjection;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.api.JSONStoreQueryPlan;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreFindException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/*
+ * Checks that projection finds return typed values from their covering index,
+ * and times them against whole document finds on large documents.
+ */
+public class CollectionProjectionBenchmarkTest extends InstrumentationTestCase {
+
+	private static final String TAG = "CollectionProjectionBenchmark";
+	private static final int DOCUMENTS = 500;
+	private static final int PAYLOAD_CHARACTERS = 8192;
+	private static final int ITERATIONS = 20;
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection simpleCol = new JSONStoreCollection("simple");
+		simpleCol.setSearchField("name", SearchFieldType.STRING);
+		simpleCol.setSearchField("age", SearchFieldType.INTEGER);
+		simpleCol.setSearchField("score", SearchFieldType.NUMBER);
+		simpleCol.setSearchField("active", SearchFieldType.BOOLEAN);
+
+		JSONStoreProjection summary = new JSONStoreProjection("summary");
+		summary.addField("age");
+		summary.addField("name");
+		summary.addField("score");
+		summary.addField("active");
+		simpleCol.addProjection(summary);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(simpleCol);
+		store.openCollections(collections);
+
+		StringBuilder payload = new StringBuilder(PAYLOAD_CHARACTERS);
+		for (int i = 0; i < PAYLOAD_CHARACTERS; i++) {
+			payload.append((char) ('a' + i % 26));
+		}
+
+		List<JSONObject> data = new LinkedList<JSONObject>();
+		for (int i = 1; i <= DOCUMENTS; i++) {
+			JSONObject doc = new JSONObject();
+			doc.put("name", "name" + i);
+			doc.put("age", i);
+			doc.put("score", i / 4.0);
+			doc.put("active", i % 2 == 0);
+			doc.put("payload", payload.toString());
+			data.add(doc);
+		}
+		simpleCol.addData(data);
+
+		return simpleCol;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	private JSONStoreQueryParts createQuery() {
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addBetween("age", 100, 199);
+		query.addQueryPart(part);
+		return query;
+	}
+
+	public void testProjectionReturnsTypedValues() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreFindOptions options = new JSONStoreFindOptions();
+		options.sortBySearchFieldAscending("age");
+
+		List<JSONObject> results = col.findProjection("summary", createQuery(), options);
+		assertEquals(100, results.size());
+
+		JSONObject first = results.get(0);
+		assertFalse(first.has("json"));
+		assertTrue(first.has("_id"));
+		assertEquals(100L, first.get("age"));
+		assertEquals("name100", first.get("name"));
+		assertEquals(25.0, first.get("score"));
+		assertEquals(Boolean.TRUE, first.get("active"));
+
+		databaseDestroy();
+	}
+
+	public void testProjectionUsesCoveringIndex() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreFindOptions options = new JSONStoreFindOptions();
+		options.addSearchFilter("age");
+		options.addSearchFilter("name");
+		options.addSearchFilter("score");
+		options.addSearchFilter("active");
+
+		JSONStoreQueryPlan plan = col.explain(createQuery(), options);
+		assertTrue(plan.getIndexesUsed().contains("simple_projection_summary"));
+		assertTrue(plan.toString(), plan.toString().contains("COVERING INDEX"));
+
+		databaseDestroy();
+	}
+
+	public void testUndeclaredProjectionFails() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		try {
+			col.findProjection("missing", createQuery(), null);
+			fail("Expected a find exception");
+		} catch (JSONStoreFindException e) {
+			// Expected.
+		}
+
+		databaseDestroy();
+	}
+
+	public void testProjectionBenchmark() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+		JSONStoreQueryParts query = createQuery();
+
+		assertEquals(100, col.findProjection("summary", query, null).size());
+		assertEquals(100, col.findDocuments(query).size());
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			col.findProjection("summary", query, null);
+		}
+		long projection = (System.nanoTime() - start) / ITERATIONS;
+
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			col.findDocuments(query);
+		}
+		long documents = (System.nanoTime() - start) / ITERATIONS;
+
+		Log.i(TAG, "projection from covering index: " + projection + " ns per find");
+		Log.i(TAG, "whole documents: " + documents + " ns per find");
+
+		databaseDestroy();
+	}
+}
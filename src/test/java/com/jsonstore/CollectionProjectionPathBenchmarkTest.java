@@ -0,0 +1,181 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreFindOptions;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/*
+ * Checks that projection paths return only the requested subtrees, and
+ * compares their latency and memory with whole documents.
+ */
+public class CollectionProjectionPathBenchmarkTest extends InstrumentationTestCase {
+
+	private static final String TAG = "CollectionProjectionPath";
+	private static final int DOCUMENTS = 50;
+	private static final int PAYLOAD_CHARACTERS = 32 * 1024;
+	private static final int ITERATIONS = 10;
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection simpleCol = new JSONStoreCollection("simple");
+		simpleCol.setSearchField("customer.name", SearchFieldType.STRING);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(simpleCol);
+		store.openCollections(collections);
+
+		StringBuilder payload = new StringBuilder(PAYLOAD_CHARACTERS);
+		for (int i = 0; i < PAYLOAD_CHARACTERS; i++) {
+			payload.append((char) ('a' + i % 26));
+		}
+
+		// Each document is about 100 KB, almost all of it in subtrees that
+		// the projection skips.
+		List<JSONObject> data = new LinkedList<JSONObject>();
+		for (int i = 0; i < DOCUMENTS; i++) {
+			JSONObject customer = new JSONObject();
+			customer.put("name", "customer" + i);
+			customer.put("address", new JSONObject().put("city", "city" + i).put("street", "street" + i));
+			customer.put("notes", payload.toString());
+
+			JSONArray orders = new JSONArray();
+			orders.put(new JSONObject().put("id", i * 10).put("details", payload.toString()));
+			orders.put(new JSONObject().put("id", i * 10 + 1).put("details", payload.toString()));
+
+			JSONObject doc = new JSONObject();
+			doc.put("customer", customer);
+			doc.put("orders", orders);
+			doc.put("status", "open");
+			data.add(doc);
+		}
+		simpleCol.addData(data);
+
+		return simpleCol;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	private JSONStoreFindOptions createOptions() {
+		JSONStoreFindOptions options = new JSONStoreFindOptions();
+		options.addProjectionPath("customer.name");
+		options.addProjectionPath("customer.address.city");
+		options.addProjectionPath("orders.id");
+		options.addProjectionPath("status");
+		return options;
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		runtime.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	public void testProjectionPaths() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		List<JSONObject> results = col.findAllDocuments(createOptions());
+		assertEquals(DOCUMENTS, results.size());
+
+		JSONObject first = results.get(0);
+		assertTrue(first.has("_id"));
+
+		JSONObject json = first.getJSONObject("json");
+		assertEquals("customer0", json.getJSONObject("customer").getString("name"));
+		assertEquals("city0", json.getJSONObject("customer").getJSONObject("address").getString("city"));
+		assertFalse(json.getJSONObject("customer").has("notes"));
+		assertFalse(json.getJSONObject("customer").getJSONObject("address").has("street"));
+		assertEquals("open", json.getString("status"));
+
+		JSONArray orders = json.getJSONArray("orders");
+		assertEquals(2, orders.length());
+		assertEquals(1, orders.getJSONObject(1).getInt("id"));
+		assertFalse(orders.getJSONObject(1).has("details"));
+
+		databaseDestroy();
+	}
+
+	public void testProjectionBenchmark() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+		JSONStoreFindOptions options = createOptions();
+
+		long before = usedMemory();
+		List<JSONObject> projected = col.findAllDocuments(options);
+		long projectedBytes = usedMemory() - before;
+
+		before = usedMemory();
+		List<JSONObject> whole = col.findAllDocuments();
+		long wholeBytes = usedMemory() - before;
+
+		assertEquals(projected.size(), whole.size());
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			col.findAllDocuments(options);
+		}
+		long projectedNanos = (System.nanoTime() - start) / ITERATIONS;
+
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			col.findAllDocuments();
+		}
+		long wholeNanos = (System.nanoTime() - start) / ITERATIONS;
+
+		Log.i(TAG, "projection paths: " + projectedNanos + " ns per find, about " + projectedBytes + " bytes retained");
+		Log.i(TAG, "whole documents: " + wholeNanos + " ns per find, about " + wholeBytes + " bytes retained");
+
+		databaseDestroy();
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreFindOptions;
+import com.jsonstore.api.JSONStoreIndex;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.api.JSONStoreQueryPlan;
+import com.jsonstore.database.DatabaseManager;
+import com.jsonstore.database.DatabaseMetadata;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/*
+ * Checks that numeric search fields are stored and compared as numbers, and
+ * times range queries on them.
+ */
+public class CollectionRangeBenchmarkTest extends InstrumentationTestCase {
+
+	private static final String TAG = "CollectionRangeBenchmark";
+	private static final int DOCUMENTS = 1000;
+	private static final int ITERATIONS = 50;
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection simpleCol = new JSONStoreCollection("simple");
+		simpleCol.setSearchField("name", SearchFieldType.STRING);
+		simpleCol.setSearchField("age", SearchFieldType.INTEGER);
+		simpleCol.setSearchField("score", SearchFieldType.NUMBER);
+
+		JSONStoreIndex byAge = new JSONStoreIndex("by_age");
+		byAge.addField("age");
+		simpleCol.addIndex(byAge);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(simpleCol);
+		store.openCollections(collections);
+
+		List<JSONObject> data = new LinkedList<JSONObject>();
+		for (int i = 1; i <= DOCUMENTS; i++) {
+			JSONObject doc = new JSONObject();
+			doc.put("name", "name" + i);
+			doc.put("age", i);
+			doc.put("score", i / 4.0);
+			data.add(doc);
+		}
+		simpleCol.addData(data);
+
+		return simpleCol;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	private String storageType(String column) throws Exception {
+		Cursor cursor = DatabaseManager.getInstance().getDatabase("simple").getRawDatabase().rawQuery("SELECT DISTINCT typeof([" + column + "]) FROM simple", (String[]) null);
+		cursor.moveToFirst();
+		String type = cursor.getString(0);
+		cursor.close();
+		return type;
+	}
+
+	private long time(JSONStoreCollection col, JSONStoreQueryParts query, int expected) throws Throwable {
+		assertEquals(expected, col.findDocuments(query).size());
+
+		long start = System.nanoTime();
+
+		for (int i = 0; i < ITERATIONS; i++) {
+			col.findDocuments(query);
+		}
+
+		return (System.nanoTime() - start) / ITERATIONS;
+	}
+
+	public void testNumbersStoredAsNumbers() throws Throwable {
+		databaseSetup();
+
+		assertEquals("integer", storageType("age"));
+		assertEquals("real", storageType("score"));
+		assertEquals("text", storageType("name"));
+		assertTrue(DatabaseManager.getInstance().getDatabase("simple").getMetadata().getBoolean(DatabaseMetadata.KEY_VALUES_TYPED));
+
+		databaseDestroy();
+	}
+
+	public void testRangeComparesNumbers() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addLessThan("age", 10);
+		query.addQueryPart(part);
+
+		// Compared as text, "2" to "9" would not be less than "10".
+		assertEquals(9, col.findDocuments(query).size());
+
+		JSONStoreFindOptions options = new JSONStoreFindOptions();
+		options.sortBySearchFieldDescending("age");
+		options.setLimit(1);
+		assertEquals(DOCUMENTS, col.findAllDocuments(options).get(0).getJSONObject("json").getInt("age"));
+
+		JSONStoreQueryPlan plan = col.explain(query, null);
+		assertTrue(plan.getIndexesUsed().contains("simple_by_age"));
+
+		databaseDestroy();
+	}
+
+	public void testRangeBenchmark() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryParts between = new JSONStoreQueryParts();
+		JSONStoreQueryPart betweenPart = new JSONStoreQueryPart();
+		betweenPart.addBetween("age", 100, 199);
+		between.addQueryPart(betweenPart);
+
+		JSONStoreQueryParts greater = new JSONStoreQueryParts();
+		JSONStoreQueryPart greaterPart = new JSONStoreQueryPart();
+		greaterPart.addGreaterThan("age", DOCUMENTS - 10);
+		greater.addQueryPart(greaterPart);
+
+		JSONStoreQueryParts unindexed = new JSONStoreQueryParts();
+		JSONStoreQueryPart unindexedPart = new JSONStoreQueryPart();
+		unindexedPart.addBetween("score", 25, 49.75);
+		unindexed.addQueryPart(unindexedPart);
+
+		Log.i(TAG, "between on indexed integer: " + time(col, between, 100) + " ns per find");
+		Log.i(TAG, "greater than on indexed integer: " + time(col, greater, 10) + " ns per find");
+		Log.i(TAG, "between on real without index: " + time(col, unindexed, 100) + " ns per find");
+
+		databaseDestroy();
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreFindOptions;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.api.JSONStoreRemoveOptions;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreReplaceException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/*
+ * Checks that documents are found with a revision that each write increments,
+ * that compare-and-set replaces and removes return the documents that changed
+ * since they were read, and times two writers updating the same document.
+ */
+public class CollectionRevisionTest extends InstrumentationTestCase {
+
+	private static final String TAG = "CollectionRevision";
+	private static final int UPDATES = 200;
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection notes = new JSONStoreCollection("notes");
+		notes.setSearchField("title", SearchFieldType.STRING);
+		notes.setSearchField("count", SearchFieldType.INTEGER);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(notes);
+		store.openCollections(collections);
+
+		List<JSONObject> data = new LinkedList<JSONObject>();
+		data.add(new JSONObject().put("title", "first").put("count", 0));
+		data.add(new JSONObject().put("title", "second").put("count", 0));
+		notes.addData(data);
+		notes.markDocumentsClean(notes.findAllDirtyDocuments());
+
+		return notes;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	private static JSONStoreFindOptions withRevisions() {
+		JSONStoreFindOptions options = new JSONStoreFindOptions();
+		options.includeRevisions(true);
+		return options;
+	}
+
+	private static JSONObject findWithRevision(JSONStoreCollection notes, int id) throws Throwable {
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addEqual("_id", id);
+		query.addQueryPart(part);
+		List<JSONObject> results = notes.findDocuments(query, withRevisions());
+		return results.isEmpty() ? null : results.get(0);
+	}
+
+	public void testWritesIncrementRevisions() throws Throwable {
+		JSONStoreCollection notes = databaseSetup();
+		JSONObject first = notes.findAllDocuments(withRevisions()).get(0);
+		int id = first.getInt("_id");
+		assertEquals(1, first.getInt("_rev"));
+
+		// Other finds do not return the revision.
+		assertFalse(notes.findAllDocuments().get(0).has("_rev"));
+		assertFalse(notes.findDocumentById(id).has("_rev"));
+
+		first.getJSONObject("json").put("title", "first, edited");
+		notes.replaceDocument(first);
+		assertEquals(2, findWithRevision(notes, id).getInt("_rev"));
+
+		notes.increment(id, "count", 1);
+		assertEquals(3, findWithRevision(notes, id).getInt("_rev"));
+
+		// Marking a document clean does not change it.
+		notes.markDocumentsClean(notes.findAllDirtyDocuments());
+		assertEquals(3, findWithRevision(notes, id).getInt("_rev"));
+
+		databaseDestroy();
+	}
+
+	public void testReplaceIfUnchanged() throws Throwable {
+		JSONStoreCollection notes = databaseSetup();
+		JSONObject ui = notes.findAllDocuments(withRevisions()).get(0);
+		JSONObject sync = notes.findAllDocuments(withRevisions()).get(0);
+
+		ui.getJSONObject("json").put("title", "from the ui");
+		assertTrue(notes.replaceDocumentsIfUnchanged(Arrays.asList(ui), null).isEmpty());
+
+		// The other writer read the document before the replace.
+		sync.getJSONObject("json").put("count", 5);
+		List<JSONObject> conflicts = notes.replaceDocumentsIfUnchanged(Arrays.asList(sync, notes.findAllDocuments(withRevisions()).get(1)), null);
+		assertEquals(1, conflicts.size());
+		assertEquals(2, conflicts.get(0).getInt("_rev"));
+		assertEquals("from the ui", conflicts.get(0).getJSONObject("json").getString("title"));
+
+		// Merged and retried, it is replaced.
+		JSONObject merged = conflicts.get(0);
+		merged.getJSONObject("json").put("count", 5);
+		assertTrue(notes.replaceDocumentsIfUnchanged(Arrays.asList(merged), null).isEmpty());
+
+		JSONObject stored = findWithRevision(notes, merged.getInt("_id"));
+		assertEquals(3, stored.getInt("_rev"));
+		assertEquals("from the ui", stored.getJSONObject("json").getString("title"));
+		assertEquals(5, stored.getJSONObject("json").getInt("count"));
+
+		databaseDestroy();
+	}
+
+	public void testRemoveIfUnchanged() throws Throwable {
+		JSONStoreCollection notes = databaseSetup();
+		JSONObject stale = notes.findAllDocuments(withRevisions()).get(0);
+		notes.increment(stale.getInt("_id"), "count", 1);
+
+		JSONStoreRemoveOptions options = new JSONStoreRemoveOptions();
+		options.setMarkDirty(true);
+		assertEquals(1, notes.removeDocumentsIfUnchanged(Arrays.asList(stale), options).size());
+		assertEquals(2, notes.countAllDocuments());
+
+		JSONObject fresh = findWithRevision(notes, stale.getInt("_id"));
+		assertTrue(notes.removeDocumentsIfUnchanged(Arrays.asList(fresh), options).isEmpty());
+		assertEquals(1, notes.countAllDocuments());
+
+		// A removed document is a conflict with only its _id.
+		List<JSONObject> conflicts = notes.removeDocumentsIfUnchanged(Arrays.asList(fresh), options);
+		assertEquals(1, conflicts.size());
+		assertFalse(conflicts.get(0).has("_rev"));
+
+		databaseDestroy();
+	}
+
+	public void testReplaceWithoutRevisionFails() throws Throwable {
+		JSONStoreCollection notes = databaseSetup();
+		// Found without JSONStoreFindOptions.includeRevisions.
+		JSONObject document = notes.findAllDocuments().get(0);
+		document.getJSONObject("json").put("title", "changed");
+
+		try {
+			notes.replaceDocumentsIfUnchanged(Arrays.asList(document), null);
+		} catch (JSONStoreReplaceException e) {
+			assertEquals(1, e.getFailedObjects().size());
+			assertEquals(1, findWithRevision(notes, document.getInt("_id")).getInt("_rev"));
+			databaseDestroy();
+			return;
+		}
+
+		databaseDestroy();
+		fail("A document without a revision was replaced");
+	}
+
+	public void testConcurrentWritersBenchmark() throws Throwable {
+		final JSONStoreCollection notes = databaseSetup();
+		final int id = notes.findAllDocuments().get(0).getInt("_id");
+		final int conflicts[] = new int[2];
+		final Throwable errors[] = new Throwable[2];
+		Thread writers[] = new Thread[2];
+
+		for (int w = 0; w < writers.length; w++) {
+			final int writer = w;
+			writers[w] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < UPDATES; i++) {
+							JSONObject document = findWithRevision(notes, id);
+
+							while (true) {
+								JSONObject json = document.getJSONObject("json");
+								json.put("count", json.getInt("count") + 1);
+
+								List<JSONObject> conflict = notes.replaceDocumentsIfUnchanged(Arrays.asList(document), null);
+								if (conflict.isEmpty()) {
+									break;
+								}
+
+								conflicts[writer]++;
+								document = conflict.get(0);
+							}
+						}
+					} catch (Throwable e) {
+						errors[writer] = e;
+					}
+				}
+			});
+		}
+
+		long start = System.nanoTime();
+		for (Thread writer : writers) {
+			writer.start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		long nanos = System.nanoTime() - start;
+
+		for (Throwable error : errors) {
+			if (error != null) {
+				throw error;
+			}
+		}
+
+		// No update was lost.
+		assertEquals(writers.length * UPDATES, notes.findDocumentById(id).getJSONObject("json").getInt("count"));
+
+		Log.i(TAG, writers.length + " writers, " + UPDATES + " updates each: " + nanos + " ns, " + (conflicts[0] + conflicts[1]) + " conflicts retried");
+
+		databaseDestroy();
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreAddOptions;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.api.JSONStoreRemoveOptions;
+import com.jsonstore.api.JSONStoreReplaceOptions;
+import com.jsonstore.api.JSONStoreView;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreRemoveException;
+import com.jsonstore.exceptions.JSONStoreReplaceException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Checks that documents are removed and updated by a query, in their JSON,
+ * search fields, dirty state and views, and times both against finding the
+ * documents and writing them one by one.
+ */
+public class CollectionSetWriteTest extends InstrumentationTestCase {
+
+	private static final String TAG = "CollectionSetWrite";
+	private static final int DOCUMENTS = 1000;
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection orders = new JSONStoreCollection("orders");
+		orders.setSearchField("status", SearchFieldType.STRING);
+		orders.setSearchField("qty", SearchFieldType.INTEGER);
+		orders.setSearchField("shipping.city", SearchFieldType.STRING);
+		orders.setSearchField("shipping.codes", SearchFieldType.STRING);
+
+		JSONStoreView open = new JSONStoreView("open", equal("status", "open"));
+		open.addField("qty");
+		orders.addView(open);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(orders);
+		store.openCollections(collections);
+
+		return orders;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	private static JSONStoreQueryParts equal(String search_field, String value) {
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addEqual(search_field, value);
+		query.addQueryPart(part);
+		return query;
+	}
+
+	private static List<JSONObject> orders(String status, int count) throws JSONException {
+		List<JSONObject> data = new LinkedList<JSONObject>();
+		for (int i = 0; i < count; i++) {
+			data.add(new JSONObject().put("status", status).put("qty", i).put("shipping", new JSONObject().put("city", "Austin")));
+		}
+		return data;
+	}
+
+	public void testRemoveByQuery() throws Throwable {
+		JSONStoreCollection orders = databaseSetup();
+
+		orders.addData(orders("open", 5));
+		orders.addData(orders("closed", 5));
+
+		assertEquals(5, orders.removeDocuments(equal("status", "closed"), null));
+		assertEquals(0, orders.removeDocuments(equal("status", "closed"), null));
+		assertEquals(5, orders.countAllDocuments());
+		assertEquals(0, orders.countAllDirtyDocuments());
+		assertEquals(5, orders.findView("open", null).size());
+
+		// Every document, and the view rows with them.
+		assertEquals(5, orders.removeDocuments(null, null));
+		assertEquals(0, orders.countAllDocuments());
+		assertEquals(0, orders.findView("open", null).size());
+
+		databaseDestroy();
+	}
+
+	public void testRemoveMarksDirty() throws Throwable {
+		JSONStoreCollection orders = databaseSetup();
+
+		JSONStoreAddOptions dirtyAdd = new JSONStoreAddOptions();
+		dirtyAdd.setMarkDirty(true);
+		orders.addData(orders("open", 3));
+		orders.addData(orders("open", 2), dirtyAdd);
+
+		JSONStoreRemoveOptions options = new JSONStoreRemoveOptions();
+		options.setMarkDirty(true);
+		assertEquals(5, orders.removeDocuments(equal("status", "open"), options));
+		assertEquals(0, orders.countAllDocuments());
+		assertEquals(0, orders.findView("open", null).size());
+
+		// The adds that were never pushed are gone, and the others are removes to push.
+		List<JSONObject> dirty = orders.findAllDirtyDocuments();
+		assertEquals(3, dirty.size());
+		for (JSONObject document : dirty) {
+			assertEquals("remove", document.getString("_operation"));
+		}
+
+		databaseDestroy();
+	}
+
+	public void testUpdateByQuery() throws Throwable {
+		JSONStoreCollection orders = databaseSetup();
+
+		orders.addData(orders("open", 5));
+		orders.addData(orders("closed", 5));
+
+		Map<String, Object> assignments = new HashMap<String, Object>();
+		assignments.put("status", "shipped");
+		assignments.put("shipping.city", "Dallas");
+		assignments.put("carrier.name", "post");
+		assertEquals(5, orders.updateDocuments(equal("status", "open"), assignments, null));
+
+		// The JSON and the search fields change, and a missing path is created.
+		List<JSONObject> shipped = orders.findDocuments(equal("status", "shipped"));
+		assertEquals(5, shipped.size());
+		for (JSONObject document : shipped) {
+			JSONObject json = document.getJSONObject("json");
+			assertEquals("shipped", json.getString("status"));
+			assertEquals("Dallas", json.getJSONObject("shipping").getString("city"));
+			assertEquals("post", json.getJSONObject("carrier").getString("name"));
+		}
+		assertEquals(5, orders.countDocuments(equal("shipping.city", "Dallas")));
+		assertEquals(0, orders.countAllDirtyDocuments());
+		assertEquals(0, orders.findView("open", null).size());
+
+		// Replacing an object with a value empties the search fields inside it.
+		JSONStoreReplaceOptions options = new JSONStoreReplaceOptions();
+		options.setMarkDirty(true);
+		assignments.clear();
+		assignments.put("shipping", null);
+		assertEquals(5, orders.updateDocuments(equal("status", "closed"), assignments, options));
+		assertEquals(5, orders.countDocuments(equal("shipping.city", "Dallas")));
+		assertEquals(0, orders.countDocuments(equal("shipping.city", "Austin")));
+		assertEquals(5, orders.countAllDirtyDocuments());
+		assertEquals("replace", orders.findAllDirtyDocuments().get(0).getString("_operation"));
+
+		databaseDestroy();
+	}
+
+	public void testUpdateNestedArrayField() throws Throwable {
+		JSONStoreCollection orders = databaseSetup();
+		orders.addData(new JSONObject().put("status", "open").put("shipping", new JSONObject().put("codes", new JSONArray().put("x").put("y"))));
+		assertEquals(1, orders.countDocuments(equal("shipping.codes", "x")));
+
+		// The array's rows in the multi-value table go with it.
+		Map<String, Object> assignments = new HashMap<String, Object>();
+		assignments.put("shipping.codes", "z");
+		assertEquals(1, orders.updateDocuments(null, assignments, null));
+		assertEquals(0, orders.countDocuments(equal("shipping.codes", "x")));
+		assertEquals(0, orders.countDocuments(equal("shipping.codes", "y")));
+		assertEquals(1, orders.countDocuments(equal("shipping.codes", "z")));
+
+		databaseDestroy();
+	}
+
+	public void testLongValueLists() throws Throwable {
+		JSONStoreCollection orders = databaseSetup();
+		orders.addData(orders("open", 300));
+
+		// Lists longer than ValueList.INLINE_LIMIT are loaded into a table.
+		List<Object> first = new ArrayList<Object>();
+		for (int i = 0; i < 150; i++) {
+			first.add(i);
+		}
+
+		JSONStoreQueryParts notFirst = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addNotInside("qty", first);
+		notFirst.addQueryPart(part);
+
+		Map<String, Object> assignments = new HashMap<String, Object>();
+		assignments.put("status", "closed");
+		assertEquals(150, orders.updateDocuments(notFirst, assignments, null));
+		assertEquals(150, orders.countDocuments(equal("status", "closed")));
+
+		JSONStoreQueryParts inFirst = new JSONStoreQueryParts();
+		part = new JSONStoreQueryPart();
+		part.addInside("qty", first);
+		inFirst.addQueryPart(part);
+
+		assertEquals(150, orders.removeDocuments(inFirst, null));
+		assertEquals(150, orders.countAllDocuments());
+		assertEquals(0, orders.findView("open", null).size());
+
+		databaseDestroy();
+	}
+
+	public void testPathCriteriaAreRejected() throws Throwable {
+		JSONStoreCollection orders = databaseSetup();
+		orders.addData(orders("open", 2));
+
+		JSONStoreQueryParts byPath = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addPathEqual("shipping.city", "Austin");
+		byPath.addQueryPart(part);
+
+		try {
+			orders.removeDocuments(byPath, null);
+			fail("Documents were removed by a query with path criteria");
+		} catch (JSONStoreRemoveException e) {
+			assertEquals(2, orders.countAllDocuments());
+		}
+
+		Map<String, Object> assignments = new HashMap<String, Object>();
+		assignments.put("status", "closed");
+		try {
+			orders.updateDocuments(byPath, assignments, null);
+			fail("Documents were updated by a query with path criteria");
+		} catch (JSONStoreReplaceException e) {
+			assertEquals(2, orders.findView("open", null).size());
+		}
+
+		databaseDestroy();
+	}
+
+	public void testSetWriteBenchmark() throws Throwable {
+		JSONStoreCollection orders = databaseSetup();
+		Map<String, Object> assignments = new HashMap<String, Object>();
+		assignments.put("status", "closed");
+
+		orders.addData(orders("open", DOCUMENTS));
+		long start = System.nanoTime();
+		List<JSONObject> found = orders.findDocuments(equal("status", "open"));
+		for (JSONObject document : found) {
+			document.getJSONObject("json").put("status", "closed");
+		}
+		orders.replaceDocuments(found);
+		long replaceNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		assertEquals(DOCUMENTS, orders.updateDocuments(equal("status", "closed"), assignments, null));
+		long updateNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		List<Integer> ids = new ArrayList<Integer>();
+		for (JSONObject document : orders.findDocuments(equal("status", "closed"))) {
+			ids.add(document.getInt("_id"));
+		}
+		orders.removeDocumentsById(ids);
+		long removeByIdNanos = System.nanoTime() - start;
+
+		orders.addData(orders("open", DOCUMENTS));
+		start = System.nanoTime();
+		assertEquals(DOCUMENTS, orders.removeDocuments(equal("status", "open"), null));
+		long removeNanos = System.nanoTime() - start;
+
+		Log.i(TAG, "find and replace of " + DOCUMENTS + " documents: " + replaceNanos + " ns");
+		Log.i(TAG, "update of " + DOCUMENTS + " documents by query: " + updateNanos + " ns");
+		Log.i(TAG, "find and remove of " + DOCUMENTS + " documents by _id: " + removeByIdNanos + " ns");
+		Log.i(TAG, "remove of " + DOCUMENTS + " documents by query: " + removeNanos + " ns");
+
+		databaseDestroy();
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreFindOptions;
+import com.jsonstore.api.JSONStoreIndex;
+import com.jsonstore.api.JSONStorePreparedFind;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.api.JSONStoreQueryPlan;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/*
+ * Checks that prefix searches return the same documents as RIGHT LIKE where
+ * the case matches, use the index, and times a type-ahead against RIGHT LIKE.
+ */
+public class CollectionStartsWithBenchmarkTest extends InstrumentationTestCase {
+
+	private static final String TAG = "CollectionStartsWith";
+	private static final int DOCUMENTS = 20000;
+	private static final String[] NAMES = { "Smith", "Smythe", "Snow", "Adams", "smith", "S*mon", "Baker" };
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection simpleCol = new JSONStoreCollection("simple");
+		simpleCol.setSearchField("name", SearchFieldType.STRING);
+		simpleCol.setSearchField("age", SearchFieldType.INTEGER);
+		simpleCol.setSearchField("tags", SearchFieldType.STRING);
+
+		JSONStoreIndex byName = new JSONStoreIndex("by_name");
+		byName.addField("name");
+		simpleCol.addIndex(byName);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(simpleCol);
+		store.openCollections(collections);
+
+		List<JSONObject> data = new LinkedList<JSONObject>();
+		for (int i = 0; i < DOCUMENTS; i++) {
+			data.add(new JSONObject().put("name", name(i)).put("age", i % 150).put("tags", new JSONArray().put("t" + (i % 7)).put("vip" + (i % 2))));
+		}
+		simpleCol.addData(data);
+
+		return simpleCol;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	private static String name(int i) {
+		return NAMES[i % NAMES.length] + i;
+	}
+
+	private static int expected(String prefix) {
+		int count = 0;
+		for (int i = 0; i < DOCUMENTS; i++) {
+			if (name(i).startsWith(prefix)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static JSONStoreQueryParts startsWith(String search_field, String prefix) {
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addStartsWith(search_field, prefix);
+		query.addQueryPart(part);
+		return query;
+	}
+
+	public void testStartsWithMatchesCaseSensitively() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		for (String prefix : new String[] { "S", "Sm", "Smi", "smi", "Smythe1", "S*", "Zed" }) {
+			assertEquals(prefix, expected(prefix), col.countDocuments(startsWith("name", prefix)));
+		}
+
+		// Integers are matched on their text, and arrays on any element.
+		int ages = 0;
+		for (int i = 0; i < DOCUMENTS; i++) {
+			if (Integer.toString(i % 150).startsWith("1")) {
+				ages++;
+			}
+		}
+		assertEquals(ages, col.countDocuments(startsWith("age", "1")));
+		assertEquals(DOCUMENTS / 2, col.countDocuments(startsWith("tags", "vip1")));
+
+		databaseDestroy();
+	}
+
+	public void testStartsWithUsesIndex() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryPlan plan = col.explain(startsWith("name", "Smi"), null);
+		assertFalse(plan.toString(), plan.hasScan());
+		assertTrue(plan.toString(), plan.getIndexesUsed().contains("simple_by_name"));
+
+		databaseDestroy();
+	}
+
+	public void testPreparedFindChangesForm() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStorePreparedFind find = col.prepareFind(startsWith("name", "Sno"), null);
+		assertEquals(expected("Sno"), find.execute().size());
+
+		// An empty prefix cannot be a range, so it is compiled again as a pattern.
+		assertEquals(DOCUMENTS, find.execute((Object) "").size());
+		assertEquals(expected("Ad"), find.execute((Object) "Ad").size());
+
+		databaseDestroy();
+	}
+
+	public void testTypeAheadBenchmark() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+		String typed = "Smythe12";
+
+		JSONStoreFindOptions options = new JSONStoreFindOptions();
+		options.setLimit(20);
+
+		long start = System.nanoTime();
+		for (int i = 1; i <= typed.length(); i++) {
+			col.findDocuments(startsWith("name", typed.substring(0, i)), options);
+		}
+		long prefixNanos = (System.nanoTime() - start) / typed.length();
+
+		start = System.nanoTime();
+		for (int i = 1; i <= typed.length(); i++) {
+			JSONStoreQueryParts query = new JSONStoreQueryParts();
+			JSONStoreQueryPart part = new JSONStoreQueryPart();
+			part.addRightLike("name", typed.substring(0, i));
+			query.addQueryPart(part);
+			col.findDocuments(query, options);
+		}
+		long likeNanos = (System.nanoTime() - start) / typed.length();
+
+		Log.i(TAG, "starts with: " + prefixNanos + " ns per keystroke over " + DOCUMENTS + " documents");
+		Log.i(TAG, "right like: " + likeNanos + " ns per keystroke over " + DOCUMENTS + " documents");
+
+		databaseDestroy();
+	}
+}
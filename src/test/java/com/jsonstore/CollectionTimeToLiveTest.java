@@ -0,0 +1,213 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreAddOptions;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.api.JSONStoreReplaceOptions;
+import com.jsonstore.api.JSONStoreView;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreAddException;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/*
+ * Checks that documents whose time to live has passed are no longer found,
+ * counted or read from views, and that purging deletes them in batches, in
+ * the foreground and in the background.
+ */
+public class CollectionTimeToLiveTest extends InstrumentationTestCase {
+
+	private static final String TAG = "CollectionTimeToLive";
+	private static final int DOCUMENTS = 1000;
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection databaseSetup(Long time_to_live) throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection responses = new JSONStoreCollection("responses");
+		responses.setSearchField("url", SearchFieldType.STRING);
+		responses.setSearchField("status", SearchFieldType.INTEGER);
+		if (time_to_live != null) {
+			responses.setTimeToLive(time_to_live);
+		}
+
+		JSONStoreView ok = new JSONStoreView("ok", equal("status", 200));
+		ok.addField("url");
+		responses.addView(ok);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(responses);
+		store.openCollections(collections);
+
+		return responses;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	private static JSONStoreQueryParts equal(String search_field, int value) {
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addEqual(search_field, value);
+		query.addQueryPart(part);
+		return query;
+	}
+
+	private static List<JSONObject> responses(String prefix, int count) throws JSONException {
+		List<JSONObject> data = new LinkedList<JSONObject>();
+		for (int i = 0; i < count; i++) {
+			data.add(new JSONObject().put("url", prefix + i).put("status", 200));
+		}
+		return data;
+	}
+
+	private static JSONStoreAddOptions expiringIn(long milliseconds) {
+		JSONStoreAddOptions options = new JSONStoreAddOptions();
+		options.setTimeToLive(milliseconds);
+		return options;
+	}
+
+	public void testExpiredDocumentsAreHidden() throws Throwable {
+		JSONStoreCollection responses = databaseSetup(0L);
+
+		responses.addData(responses("/kept/", 3));
+		responses.addData(responses("/expired/", 2), expiringIn(1));
+		responses.addData(responses("/later/", 1), expiringIn(60000));
+		Thread.sleep(50);
+
+		assertEquals(4, responses.countAllDocuments());
+		assertEquals(4, responses.countDocuments(equal("status", 200)));
+		assertEquals(4, responses.findAllDocuments().size());
+		assertEquals(4, responses.findView("ok", null).size());
+
+		// Only the expired documents are purged, and the others are unchanged.
+		assertEquals(2, responses.removeExpiredDocuments());
+		assertEquals(0, responses.removeExpiredDocuments());
+		assertEquals(4, responses.countAllDocuments());
+		assertEquals(4, responses.findView("ok", null).size());
+
+		databaseDestroy();
+	}
+
+	public void testCollectionTimeToLive() throws Throwable {
+		JSONStoreCollection responses = databaseSetup(60000L);
+
+		responses.addData(responses("/cached/", 3));
+		assertEquals(3, responses.countAllDocuments());
+
+		// A replace with a time to live of its own expires the document sooner.
+		JSONObject document = responses.findAllDocuments().get(0);
+		document.getJSONObject("json").put("status", 304);
+		JSONStoreReplaceOptions options = new JSONStoreReplaceOptions();
+		options.setTimeToLive(1);
+		responses.replaceDocument(document, options);
+		Thread.sleep(50);
+
+		assertEquals(2, responses.countAllDocuments());
+		assertEquals(0, responses.countDocuments(equal("status", 304)));
+		assertEquals(1, responses.removeExpiredDocuments());
+
+		databaseDestroy();
+	}
+
+	public void testTimeToLiveRequiresCollectionTimeToLive() throws Throwable {
+		JSONStoreCollection responses = databaseSetup(null);
+
+		try {
+			responses.addData(new JSONObject().put("url", "/").put("status", 200), expiringIn(1000));
+		} catch (JSONStoreAddException e) {
+			assertEquals(0, responses.countAllDocuments());
+			assertEquals(0, responses.removeExpiredDocuments());
+			databaseDestroy();
+			return;
+		}
+
+		databaseDestroy();
+		fail("A document with a time to live was added to a collection without one");
+	}
+
+	public void testPurgeInBatches() throws Throwable {
+		JSONStoreCollection responses = databaseSetup(0L);
+
+		responses.addData(responses("/kept/", 10));
+		responses.addData(responses("/expired/", DOCUMENTS), expiringIn(1));
+		Thread.sleep(50);
+
+		long start = System.nanoTime();
+		assertEquals(10, responses.countAllDocuments());
+		long countNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		assertEquals(DOCUMENTS, responses.removeExpiredDocuments());
+		long purgeNanos = System.nanoTime() - start;
+
+		assertEquals(10, responses.findView("ok", null).size());
+
+		Log.i(TAG, "count with " + DOCUMENTS + " expired documents: " + countNanos + " ns");
+		Log.i(TAG, "purge of " + DOCUMENTS + " expired documents: " + purgeNanos + " ns");
+
+		databaseDestroy();
+	}
+
+	public void testBackgroundPurge() throws Throwable {
+		JSONStoreCollection responses = databaseSetup(0L);
+
+		responses.addData(responses("/expired/", 20), expiringIn(1));
+		responses.startExpiredDocumentPurge(20);
+
+		// The background purge leaves nothing for this one.
+		Thread.sleep(1000);
+		responses.stopExpiredDocumentPurge();
+		assertEquals(0, responses.removeExpiredDocuments());
+
+		databaseDestroy();
+	}
+}
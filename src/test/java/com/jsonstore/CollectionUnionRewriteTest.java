@@ -0,0 +1,247 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreIndex;
+import com.jsonstore.api.JSONStorePreparedFind;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.api.JSONStoreQueryPlan;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedList;
+import java.util.List;
+
+public class CollectionUnionRewriteTest extends InstrumentationTestCase {
+
+	private static final int DOCUMENTS = 1000;
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection simpleCol = new JSONStoreCollection("simple");
+		simpleCol.setSearchField("name", SearchFieldType.STRING);
+		simpleCol.setSearchField("age", SearchFieldType.INTEGER);
+		simpleCol.setSearchField("city", SearchFieldType.STRING);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(simpleCol);
+		store.openCollections(collections);
+
+		List<JSONObject> data = new LinkedList<JSONObject>();
+		for (int i = 0; i < DOCUMENTS; i++) {
+			JSONObject doc = new JSONObject();
+			doc.put("name", "name" + i);
+			doc.put("age", i % 100);
+			doc.put("city", "city" + (i % 2));
+			data.add(doc);
+		}
+		simpleCol.addData(data);
+
+		JSONStoreIndex byName = new JSONStoreIndex("by_name");
+		byName.addField("name");
+		simpleCol.createIndex(byName);
+
+		JSONStoreIndex byAge = new JSONStoreIndex("by_age");
+		byAge.addField("age");
+		simpleCol.createIndex(byAge);
+
+		return simpleCol;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	// name = 'name3' OR age = 3, which overlap on document 3.
+	private JSONStoreQueryParts nameOrAgeQuery() {
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+
+		JSONStoreQueryPart byName = new JSONStoreQueryPart();
+		byName.addEqual("name", "name3");
+		query.addQueryPart(byName);
+
+		JSONStoreQueryPart byAge = new JSONStoreQueryPart();
+		byAge.addEqual("age", 3);
+		query.addQueryPart(byAge);
+
+		return query;
+	}
+
+	public void testIndexedPartsUseUnion() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryPlan plan = col.explain(nameOrAgeQuery(), null);
+
+		assertTrue(plan.getSQL(), plan.getSQL().contains("UNION ALL"));
+		assertFalse(plan.toString(), plan.hasScan());
+		assertTrue(plan.toString(), plan.getIndexesUsed().contains("simple_by_name"));
+		assertTrue(plan.toString(), plan.getIndexesUsed().contains("simple_by_age"));
+
+		// Document 3 matches both parts and is only returned once.
+		assertEquals(DOCUMENTS / 100, col.findDocuments(nameOrAgeQuery()).size());
+		assertEquals(DOCUMENTS / 100, col.countDocuments(nameOrAgeQuery()));
+
+		databaseDestroy();
+	}
+
+	public void testIdPartUsesUnion() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+		int id = col.findDocuments(nameOrAgeQuery()).get(0).getInt("_id");
+
+		// _id = ? OR name = 'name7'
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart byId = new JSONStoreQueryPart();
+		byId.addEqual("_id", id);
+		query.addQueryPart(byId);
+		JSONStoreQueryPart byName = new JSONStoreQueryPart();
+		byName.addEqual("name", "name7");
+		query.addQueryPart(byName);
+
+		JSONStoreQueryPlan plan = col.explain(query, null);
+
+		assertTrue(plan.getSQL(), plan.getSQL().contains("UNION ALL"));
+		assertFalse(plan.toString(), plan.hasScan());
+		assertEquals(2, col.countDocuments(query));
+
+		databaseDestroy();
+	}
+
+	public void testTooManyPartsKeepOr() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		// More parts than SQLite allows terms in a compound select.
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		for (int i = 0; i < 501; i++) {
+			JSONStoreQueryPart byName = new JSONStoreQueryPart();
+			byName.addEqual("name", "name" + i);
+			query.addQueryPart(byName);
+		}
+
+		JSONStoreQueryPlan plan = col.explain(query, null);
+
+		assertFalse(plan.getSQL(), plan.getSQL().contains("UNION ALL"));
+		assertEquals(501, col.countDocuments(query));
+
+		databaseDestroy();
+	}
+
+	public void testUnindexedPartKeepsOr() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryParts query = nameOrAgeQuery();
+		JSONStoreQueryPart byCity = new JSONStoreQueryPart();
+		byCity.addEqual("city", "city0");
+		query.addQueryPart(byCity);
+
+		JSONStoreQueryPlan plan = col.explain(query, null);
+		assertFalse(plan.getSQL(), plan.getSQL().contains("UNION"));
+
+		// name3, the documents aged 3 and the even documents.
+		int expected = 0;
+		for (int i = 0; i < DOCUMENTS; i++) {
+			if (i == 3 || i % 100 == 3 || i % 2 == 0) {
+				expected++;
+			}
+		}
+		assertEquals(expected, col.findDocuments(query).size());
+
+		databaseDestroy();
+	}
+
+	public void testLikePartKeepsOr() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart byName = new JSONStoreQueryPart();
+		byName.addLike("name", "name9");
+		query.addQueryPart(byName);
+
+		JSONStoreQueryPart byAge = new JSONStoreQueryPart();
+		byAge.addEqual("age", 3);
+		query.addQueryPart(byAge);
+
+		JSONStoreQueryPlan plan = col.explain(query, null);
+		assertFalse(plan.getSQL(), plan.getSQL().contains("UNION"));
+
+		databaseDestroy();
+	}
+
+	public void testStatisticsChooseOrForBroadParts() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+
+		// Together the two parts read half of the table, so once the collection
+		// is analyzed one scan is cheaper than two index searches.
+		List<Object> lowAges = new LinkedList<Object>();
+		List<Object> highAges = new LinkedList<Object>();
+		for (int age = 0; age < 30; age++) {
+			lowAges.add(age);
+			highAges.add(age + 20);
+		}
+
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		JSONStoreQueryPart low = new JSONStoreQueryPart();
+		low.addInside("age", lowAges);
+		query.addQueryPart(low);
+
+		JSONStoreQueryPart high = new JSONStoreQueryPart();
+		high.addInside("age", highAges);
+		query.addQueryPart(high);
+
+		JSONStorePreparedFind find = col.prepareFind(query, null);
+		assertTrue(col.explain(query, null).getSQL().contains("UNION ALL"));
+		assertEquals(DOCUMENTS / 2, find.execute().size());
+
+		col.runMaintenance();
+
+		assertTrue(col.explain(nameOrAgeQuery(), null).getSQL().contains("UNION ALL"));
+		assertFalse(col.explain(query, null).getSQL().contains("UNION"));
+		assertEquals(DOCUMENTS / 2, find.execute().size());
+
+		databaseDestroy();
+	}
+}
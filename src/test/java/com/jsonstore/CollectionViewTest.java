@@ -0,0 +1,287 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreAddOptions;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreFindOptions;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.api.JSONStoreRemoveOptions;
+import com.jsonstore.api.JSONStoreView;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreInvalidSchemaException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/*
+ * Checks that a materialized view holds what a find with its query and sort
+ * returns after each kind of write, and times reading it against the find.
+ */
+public class CollectionViewTest extends InstrumentationTestCase {
+
+	private static final String TAG = "CollectionView";
+	private static final int DOCUMENTS = 5000;
+	private static final String[] REGIONS = { "north", "south", "east", "west" };
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private static JSONStoreQueryParts openInWest() {
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addEqual("status", "open");
+		part.addEqual("region", "west");
+
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		query.addQueryPart(part);
+		return query;
+	}
+
+	private JSONStoreCollection createCollection(boolean descending) throws JSONStoreException {
+		JSONStoreCollection orders = new JSONStoreCollection("orders");
+		orders.setSearchField("status", SearchFieldType.STRING);
+		orders.setSearchField("region", SearchFieldType.STRING);
+		orders.setSearchField("due", SearchFieldType.INTEGER);
+		orders.setSearchField("total", SearchFieldType.NUMBER);
+
+		JSONStoreView view = new JSONStoreView("open_west", openInWest());
+		view.addField("total");
+		if (descending) {
+			view.sortBySearchFieldDescending("due");
+		} else {
+			view.sortBySearchFieldAscending("due");
+		}
+		orders.addView(view);
+
+		return orders;
+	}
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection orders = createCollection(false);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(orders);
+		store.openCollections(collections);
+
+		List<JSONObject> data = new LinkedList<JSONObject>();
+		for (int i = 0; i < DOCUMENTS; i++) {
+			JSONObject doc = new JSONObject();
+			doc.put("status", i % 3 == 0 ? "closed" : "open");
+			doc.put("region", REGIONS[i % REGIONS.length]);
+			// Unique, so that the order of a find is the order of the view.
+			doc.put("due", (i * 7919L) % 100003L);
+			doc.put("total", i / 4.0);
+			data.add(doc);
+		}
+		orders.addData(data);
+
+		return orders;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	/*
+	 * Checks the view against a find with the view's query and sort.
+	 */
+	private void checkView(JSONStoreCollection orders, boolean descending) throws Throwable {
+		JSONStoreFindOptions options = new JSONStoreFindOptions();
+		if (descending) {
+			options.sortBySearchFieldDescending("due");
+		} else {
+			options.sortBySearchFieldAscending("due");
+		}
+
+		List<JSONObject> expected = orders.findDocuments(openInWest(), options);
+		List<JSONObject> view = orders.findView("open_west", null);
+		assertEquals(expected.size(), view.size());
+
+		for (int i = 0; i < expected.size(); i++) {
+			JSONObject json = expected.get(i).getJSONObject("json");
+			assertEquals(expected.get(i).getInt("_id"), view.get(i).getInt("_id"));
+			assertEquals(json.getLong("due"), view.get(i).getLong("due"));
+			assertEquals(json.getDouble("total"), view.get(i).getDouble("total"));
+		}
+	}
+
+	public void testViewFollowsWrites() throws Throwable {
+		JSONStoreCollection orders = databaseSetup();
+		checkView(orders, false);
+
+		// Add.
+		orders.addData(new JSONObject().put("status", "open").put("region", "west").put("due", -1).put("total", 1.5));
+		checkView(orders, false);
+
+		// Replace documents into, out of and within the view.
+		List<JSONObject> open = orders.findDocuments(openInWest());
+		JSONObject leaving = open.get(0);
+		leaving.getJSONObject("json").put("status", "closed");
+		JSONObject moving = open.get(1);
+		moving.getJSONObject("json").put("due", 200000);
+
+		JSONStoreQueryPart closedPart = new JSONStoreQueryPart();
+		closedPart.addEqual("status", "closed");
+		closedPart.addEqual("region", "west");
+		JSONStoreQueryParts closed = new JSONStoreQueryParts();
+		closed.addQueryPart(closedPart);
+		JSONObject entering = orders.findDocuments(closed).get(0);
+		entering.getJSONObject("json").put("status", "open");
+
+		orders.replaceDocuments(Arrays.asList(leaving, moving, entering));
+		checkView(orders, false);
+
+		// Remove, then mark the removal clean.
+		JSONStoreRemoveOptions removeOptions = new JSONStoreRemoveOptions();
+		removeOptions.setMarkDirty(true);
+		orders.removeDocumentById(moving.getInt("_id"), removeOptions);
+		checkView(orders, false);
+
+		orders.markDocumentsClean(orders.findAllDirtyDocuments());
+		checkView(orders, false);
+
+		orders.clearCollection();
+		assertEquals(0, orders.findView("open_west", null).size());
+
+		databaseDestroy();
+	}
+
+	public void testViewLimitAndOffset() throws Throwable {
+		JSONStoreCollection orders = databaseSetup();
+
+		List<JSONObject> all = orders.findView("open_west", null);
+
+		JSONStoreFindOptions options = new JSONStoreFindOptions();
+		options.setLimit(10);
+		options.setOffset(5);
+		List<JSONObject> page = orders.findView("open_west", options);
+
+		assertEquals(10, page.size());
+		for (int i = 0; i < page.size(); i++) {
+			assertEquals(all.get(i + 5).getInt("_id"), page.get(i).getInt("_id"));
+		}
+
+		databaseDestroy();
+	}
+
+	public void testReopenWithChangedView() throws Throwable {
+		databaseSetup();
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.closeAll();
+
+		// The same view is kept as it is.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(createCollection(false));
+		store.openCollections(collections);
+		checkView(collections.get(0), false);
+		store.closeAll();
+
+		// A view with a different sort is filled again.
+		collections = new LinkedList<JSONStoreCollection>();
+		collections.add(createCollection(true));
+		store.openCollections(collections);
+		checkView(collections.get(0), true);
+
+		databaseDestroy();
+	}
+
+	public void testViewWithPathCriteria() throws Throwable {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreQueryPart part = new JSONStoreQueryPart();
+		part.addPathEqual("customer.name", "a");
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+		query.addQueryPart(part);
+
+		JSONStoreCollection orders = createCollection(false);
+		orders.addView(new JSONStoreView("by_customer", query));
+
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(orders);
+
+		try {
+			store.openCollections(collections);
+		} catch (JSONStoreInvalidSchemaException e) {
+			databaseDestroy();
+			return;
+		}
+
+		databaseDestroy();
+		fail("A view with path criteria did not fail to open");
+	}
+
+	public void testViewBenchmark() throws Throwable {
+		JSONStoreCollection orders = databaseSetup();
+
+		JSONStoreFindOptions options = new JSONStoreFindOptions();
+		options.sortBySearchFieldAscending("due");
+		options.setLimit(50);
+
+		long start = System.nanoTime();
+		orders.findDocuments(openInWest(), options);
+		long findNanos = System.nanoTime() - start;
+
+		JSONStoreFindOptions page = new JSONStoreFindOptions();
+		page.setLimit(50);
+
+		start = System.nanoTime();
+		orders.findView("open_west", page);
+		long viewNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		orders.addData(new JSONObject().put("status", "open").put("region", "west").put("due", 5).put("total", 2.0), new JSONStoreAddOptions());
+		long addNanos = System.nanoTime() - start;
+
+		Log.i(TAG, "find: " + findNanos + " ns for the first page of " + DOCUMENTS + " documents");
+		Log.i(TAG, "view: " + viewNanos + " ns for the first page of " + DOCUMENTS + " documents");
+		Log.i(TAG, "add with the view refreshed: " + addNanos + " ns");
+
+		databaseDestroy();
+	}
+}
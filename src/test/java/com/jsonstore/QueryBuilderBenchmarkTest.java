@@ -0,0 +1,172 @@
+/*
+ *     Copyright 2016 IBM Corp.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.jsonstore;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.jsonstore.api.JSONStore;
+import com.jsonstore.api.JSONStoreCollection;
+import com.jsonstore.api.JSONStoreQueryPart;
+import com.jsonstore.api.JSONStoreQueryParts;
+import com.jsonstore.database.QueryBuilderSelect;
+import com.jsonstore.database.SearchFieldType;
+import com.jsonstore.exceptions.JSONStoreDestroyFailureException;
+import com.jsonstore.exceptions.JSONStoreException;
+import com.jsonstore.exceptions.JSONStoreTransactionFailureException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/*
+ * Times how long the query builder takes to generate the SQL for queries with
+ * 1, 10 and 100 parts, and checks that the SQL it generates runs.
+ */
+public class QueryBuilderBenchmarkTest extends InstrumentationTestCase {
+
+	private static final String TAG = "QueryBuilderBenchmark";
+	private static final int WARMUP_ITERATIONS = 200;
+	private static final int ITERATIONS = 1000;
+
+
+	/**
+	 * @return The {@link Context} of the test project.
+	 */
+	private Context getTestContext()
+	{
+		try
+		{
+
+			return getInstrumentation().getContext();
+		}
+		catch (final Exception exception)
+		{
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+
+	private JSONStoreCollection databaseSetup() throws JSONStoreException, JSONException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+
+		JSONStoreCollection simpleCol = new JSONStoreCollection("simple");
+		simpleCol.setSearchField("name", SearchFieldType.STRING);
+		simpleCol.setSearchField("age", SearchFieldType.INTEGER);
+		simpleCol.setSearchField("address.city", SearchFieldType.STRING);
+
+		//Open collection.
+		List<JSONStoreCollection> collections = new LinkedList<JSONStoreCollection>();
+		collections.add(simpleCol);
+		store.openCollections(collections);
+
+		simpleCol.addData(new JSONObject("{ name : 'mike', age: 24, address: { city: 'austin' } }"));
+		simpleCol.addData(new JSONObject("{ name : 'carlos', age: 25, address: { city: 'austin' } }"));
+		simpleCol.addData(new JSONObject("{ name : 'nana', age: 30, address: { city: 'raleigh' } }"));
+
+		return simpleCol;
+	}
+
+	private void databaseDestroy() throws JSONStoreDestroyFailureException, JSONStoreTransactionFailureException {
+		JSONStore store = JSONStore.getInstance(getTestContext());
+		store.destroy();
+	}
+
+	/*
+	 * A query whose parts each mix equality, range and like criteria.  Each
+	 * part binds 4 arguments (name never holds an array, so its equality is a
+	 * plain comparison), which keeps 100 parts under SQLite's limit of 999
+	 * arguments.
+	 */
+	private JSONStoreQueryParts createQuery(int parts) throws Throwable {
+		JSONStoreQueryParts query = new JSONStoreQueryParts();
+
+		for (int i = 0; i < parts; i++) {
+			JSONStoreQueryPart part = new JSONStoreQueryPart();
+			part.addEqual("name", "name" + i);
+			part.addBetween("age", i, i + 10);
+			part.addLike("address.city", "a");
+			query.addQueryPart(part);
+		}
+
+		return query;
+	}
+
+	private long timeQueryBuilder(JSONStoreCollection col, JSONStoreQueryParts query) {
+		StringBuilder sql = new StringBuilder(256);
+		List<Object> args = new LinkedList<Object>();
+
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			sql.setLength(0);
+			args.clear();
+			new QueryBuilderSelect(col, query).convertToQueryString(sql, args);
+		}
+
+		long start = System.nanoTime();
+
+		for (int i = 0; i < ITERATIONS; i++) {
+			sql.setLength(0);
+			args.clear();
+			new QueryBuilderSelect(col, query).convertToQueryString(sql, args);
+		}
+
+		return (System.nanoTime() - start) / ITERATIONS;
+	}
+
+	private void checkQuery(JSONStoreCollection col, int parts) throws Throwable {
+		JSONStoreQueryParts query = createQuery(parts);
+		StringBuilder sql = new StringBuilder();
+		List<Object> args = new LinkedList<Object>();
+		new QueryBuilderSelect(col, query).convertToQueryString(sql, args);
+
+		int placeholders = 0;
+		for (int i = 0; i < sql.length(); i++) {
+			if (sql.charAt(i) == '?') {
+				placeholders++;
+			}
+		}
+
+		assertEquals(placeholders, args.size());
+		assertEquals(parts * 4, args.size());
+
+		long nanos = timeQueryBuilder(col, query);
+		Log.i(TAG, parts + " part(s): " + nanos + " ns per query, " + sql.length() + " characters, " + args.size() + " arguments");
+
+		// No document is named "name0" to "name99", so nothing is found, but the SQL has to run.
+		assertEquals(0, col.findDocuments(query).size());
+	}
+
+	public void testOnePart() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+		checkQuery(col, 1);
+		databaseDestroy();
+	}
+
+	public void testTenParts() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+		checkQuery(col, 10);
+		databaseDestroy();
+	}
+
+	public void testHundredParts() throws Throwable {
+		JSONStoreCollection col = databaseSetup();
+		checkQuery(col, 100);
+		databaseDestroy();
+	}
+}